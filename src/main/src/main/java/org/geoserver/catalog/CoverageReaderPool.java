@@ -0,0 +1,415 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.GridCoverageReader;
+
+/**
+ * Keeps the coverage readers opened by {@link ResourcePool}, up to a maximum number of readers
+ * per key (coverage store id, or store id and hints).
+ * <p>
+ * Coverage readers are thread safe and are shared among requests, there is no check out and
+ * return: when a key has more than one reader the readers are handed out in turn, spreading the
+ * concurrent requests over them. Readers are added while the key has less than the maximum: the
+ * request that finds the key below the maximum opens the additional reader itself, see
+ * {@link #grow(Object)}, while the concurrent requests keep using the readers already open.
+ * </p>
+ * <p>
+ * A background task disposes of the readers that have not been handed out for longer than the
+ * idle timeout, and retires the readers older than the maximum age. A retired reader is not handed
+ * out anymore and is disposed once it has not been used for {@link #RETIRED_GRACE} milliseconds,
+ * since requests might still be using it.
+ * </p>
+ */
+public abstract class CoverageReaderPool implements CoverageReaderPoolMBean {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageReaderPool.class);
+
+    /**
+     * Time, in milliseconds, a retired reader has to be unused before being disposed
+     */
+    static long RETIRED_GRACE = Long.getLong(
+            "org.geoserver.catalog.CoverageReaderPool.retiredGrace", 10 * 60 * 1000);
+
+    /**
+     * Interval, in milliseconds, between two runs of the eviction task
+     */
+    static long EVICTION_INTERVAL = Long.getLong(
+            "org.geoserver.catalog.CoverageReaderPool.evictionInterval", 60 * 1000);
+
+    static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Coverage reader eviction");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The entries, adding a reader and removing an entry happen under the map lock so that a
+     * reader is never added to an entry that is no longer in the map
+     */
+    final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+
+    final List<PooledReader> retired = new CopyOnWriteArrayList<PooledReader>();
+
+    volatile int maxReaders;
+
+    volatile long idleTimeout;
+
+    volatile long maxAge;
+
+    ScheduledFuture<?> eviction;
+
+    final AtomicLong created = new AtomicLong();
+
+    final AtomicLong evicted = new AtomicLong();
+
+    final AtomicLong waits = new AtomicLong();
+
+    final AtomicLong totalWaitTime = new AtomicLong();
+
+    final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Creates the pool.
+     *
+     * @param maxReaders Maximum number of readers per key.
+     * @param idleTimeout Time, in milliseconds, after which a reader that has not been used is
+     *        disposed. A value less than or equal to zero disables idle eviction.
+     * @param maxAge Time, in milliseconds, after which a reader is retired. A value less than or
+     *        equal to zero disables it.
+     */
+    public CoverageReaderPool(int maxReaders, long idleTimeout, long maxAge) {
+        this.maxReaders = Math.max(1, maxReaders);
+        this.idleTimeout = idleTimeout;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Disposes a reader that has been removed from the pool.
+     */
+    protected abstract void dispose(Object key, GridCoverageReader reader);
+
+    /**
+     * Returns one of the readers for the key, or <code>null</code> if there is none.
+     */
+    public GridCoverageReader get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        List<PooledReader> readers = entry.readers;
+        int size = readers.size();
+        if (size == 0) {
+            return null;
+        }
+        PooledReader pooled;
+        try {
+            pooled = readers.get((entry.next.getAndIncrement() & Integer.MAX_VALUE) % size);
+        } catch (IndexOutOfBoundsException e) {
+            // concurrently evicted
+            return get(key);
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        return pooled.reader;
+    }
+
+    /**
+     * Returns true if the caller should open a new reader for the key, that is, the key has less
+     * than the maximum number of readers and no other thread is opening one. A caller receiving
+     * true must call {@link #release(Object)} once done, whether the reader could be opened or not.
+     */
+    public boolean grow(Object key) {
+        Entry entry = entry(key);
+        return entry.readers.size() < maxReaders && entry.growing.compareAndSet(false, true);
+    }
+
+    /**
+     * Adds a reader opened for the key.
+     */
+    public void add(Object key, GridCoverageReader reader) {
+        synchronized (entries) {
+            entry(key).readers.add(new PooledReader(key, reader));
+        }
+        created.incrementAndGet();
+        scheduleEviction();
+    }
+
+    /**
+     * Allows other threads to open readers for the key after {@link #grow(Object)} returned true.
+     */
+    public void release(Object key) {
+        entry(key).growing.set(false);
+    }
+
+    /**
+     * Records the time a request waited for the first reader of a key to be opened.
+     */
+    public void waited(long millis) {
+        waits.incrementAndGet();
+        totalWaitTime.addAndGet(millis);
+        long max = maxWaitTime.get();
+        while (millis > max && !maxWaitTime.compareAndSet(max, millis)) {
+            max = maxWaitTime.get();
+        }
+    }
+
+    Entry entry(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            synchronized (entries) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    entries.put(key, entry);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the keys of the pool.
+     */
+    public List<Object> keys() {
+        return new ArrayList<Object>(entries.keySet());
+    }
+
+    /**
+     * Removes and disposes the readers for the key, including the retired ones.
+     */
+    public void remove(Object key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+        }
+        if (entry != null) {
+            for (PooledReader pooled : entry.readers) {
+                dispose(pooled);
+            }
+        }
+        for (PooledReader pooled : retired) {
+            if (key.equals(pooled.key) && retired.remove(pooled)) {
+                dispose(pooled);
+            }
+        }
+    }
+
+    /**
+     * Removes and disposes all the readers.
+     */
+    public void clear() {
+        for (Object key : keys()) {
+            remove(key);
+        }
+        for (PooledReader pooled : retired) {
+            if (retired.remove(pooled)) {
+                dispose(pooled);
+            }
+        }
+    }
+
+    void dispose(PooledReader pooled) {
+        try {
+            dispose(pooled.key, pooled.reader);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error disposing coverage reader for " + pooled.key, e);
+        }
+    }
+
+    /**
+     * Disposes of the idle readers and retires the old ones.
+     */
+    public void evict() {
+        long now = System.currentTimeMillis();
+        long idle = idleTimeout;
+        long age = maxAge;
+        for (Map.Entry<Object, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            for (PooledReader pooled : entry.readers) {
+                boolean isIdle = idle > 0 && now - pooled.lastUsed > idle;
+                boolean isOld = age > 0 && now - pooled.created > age;
+                if ((isIdle || isOld) && entry.readers.remove(pooled)) {
+                    evicted.incrementAndGet();
+                    if (isIdle) {
+                        LOGGER.fine("Disposing idle coverage reader for " + pooled.key);
+                        dispose(pooled);
+                    } else {
+                        LOGGER.fine("Retiring coverage reader for " + pooled.key);
+                        retired.add(pooled);
+                    }
+                }
+            }
+            synchronized (entries) {
+                if (entry.readers.isEmpty() && !entry.growing.get()) {
+                    entries.remove(e.getKey(), entry);
+                }
+            }
+        }
+        for (PooledReader pooled : retired) {
+            if (now - pooled.lastUsed > RETIRED_GRACE && retired.remove(pooled)) {
+                dispose(pooled);
+            }
+        }
+    }
+
+    /**
+     * Schedules the eviction task if eviction is enabled. The task holds a weak reference to the
+     * pool and stops once the pool is empty or has been garbage collected.
+     */
+    synchronized void scheduleEviction() {
+        if (eviction != null || (idleTimeout <= 0 && maxAge <= 0)) {
+            return;
+        }
+        final WeakReference<CoverageReaderPool> ref = new WeakReference<CoverageReaderPool>(this);
+        eviction = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                CoverageReaderPool pool = ref.get();
+                if (pool == null) {
+                    throw new RuntimeException("Pool collected, cancelling eviction");
+                }
+                try {
+                    pool.evict();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Error evicting coverage readers", e);
+                }
+                pool.stopEvictionIfEmpty();
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stopEvictionIfEmpty() {
+        if (entries.isEmpty() && retired.isEmpty() && eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+    }
+
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    public void setMaxReaders(int maxReaders) {
+        this.maxReaders = Math.max(1, maxReaders);
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Number of open readers, including the retired ones not yet disposed.
+     */
+    public int getOpenReaders() {
+        int count = retired.size();
+        for (Entry entry : entries.values()) {
+            count += entry.readers.size();
+        }
+        return count;
+    }
+
+    /**
+     * Number of readers opened since the pool was created.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Number of readers evicted for being idle or retired for being too old.
+     */
+    public long getEvictionCount() {
+        return evicted.get();
+    }
+
+    /**
+     * Number of requests that had to wait for the first reader of a key to be opened.
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * Total time, in milliseconds, requests waited for a reader.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * Longest time, in milliseconds, a request waited for a reader.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CoverageReaderPool[open=" + getOpenReaders() + ", created=" + getCreatedCount()
+                + ", evicted=" + getEvictionCount() + ", waits=" + getWaitCount()
+                + ", totalWaitTime=" + getTotalWaitTime() + "ms, maxWaitTime="
+                + getMaxWaitTime() + "ms]";
+    }
+
+    static class Entry {
+
+        final List<PooledReader> readers = new CopyOnWriteArrayList<PooledReader>();
+
+        final AtomicInteger next = new AtomicInteger();
+
+        final AtomicBoolean growing = new AtomicBoolean();
+    }
+
+    static class PooledReader {
+
+        final Object key;
+
+        final GridCoverageReader reader;
+
+        final long created;
+
+        volatile long lastUsed;
+
+        PooledReader(Object key, GridCoverageReader reader) {
+            this.key = key;
+            this.reader = reader;
+            this.created = System.currentTimeMillis();
+            this.lastUsed = created;
+        }
+    }
+}
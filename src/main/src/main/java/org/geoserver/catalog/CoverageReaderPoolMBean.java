@@ -0,0 +1,62 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX management interface of {@link CoverageReaderPool}
+ */
+public interface CoverageReaderPoolMBean {
+
+    /**
+     * Maximum number of readers per coverage store (or store and hints)
+     */
+    int getMaxReaders();
+
+    void setMaxReaders(int maxReaders);
+
+    /**
+     * Time, in milliseconds, after which an unused reader is disposed, zero or less to disable
+     */
+    long getIdleTimeout();
+
+    void setIdleTimeout(long idleTimeout);
+
+    /**
+     * Age, in milliseconds, after which a reader is retired, zero or less to disable
+     */
+    long getMaxAge();
+
+    void setMaxAge(long maxAge);
+
+    /**
+     * Number of open readers, including the retired ones not yet disposed
+     */
+    int getOpenReaders();
+
+    /**
+     * Number of readers opened since the pool was created
+     */
+    long getCreatedCount();
+
+    /**
+     * Number of readers evicted for being idle or retired for being too old
+     */
+    long getEvictionCount();
+
+    /**
+     * Number of requests that had to wait for the first reader of a key to be opened
+     */
+    long getWaitCount();
+
+    /**
+     * Total time, in milliseconds, requests waited for a reader
+     */
+    long getTotalWaitTime();
+
+    /**
+     * Longest time, in milliseconds, a request waited for a reader
+     */
+    long getMaxWaitTime();
+}
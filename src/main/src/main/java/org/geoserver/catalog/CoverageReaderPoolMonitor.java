@@ -0,0 +1,77 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * Exposes the {@link CoverageReaderPool} of the catalog resource pool over JMX.
+ * <p>
+ * The pool is looked up on each call rather than kept, since the resource pool of the catalog
+ * can be replaced, for example when the configuration is reloaded.
+ * </p>
+ */
+public class CoverageReaderPoolMonitor implements CoverageReaderPoolMBean {
+
+    Catalog catalog;
+
+    public CoverageReaderPoolMonitor(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    CoverageReaderPool pool() {
+        return catalog.getResourcePool().getCoverageReaderPool();
+    }
+
+    public int getMaxReaders() {
+        return pool().getMaxReaders();
+    }
+
+    public void setMaxReaders(int maxReaders) {
+        pool().setMaxReaders(maxReaders);
+    }
+
+    public long getIdleTimeout() {
+        return pool().getIdleTimeout();
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        CoverageReaderPool pool = pool();
+        pool.setIdleTimeout(idleTimeout);
+        pool.scheduleEviction();
+    }
+
+    public long getMaxAge() {
+        return pool().getMaxAge();
+    }
+
+    public void setMaxAge(long maxAge) {
+        CoverageReaderPool pool = pool();
+        pool.setMaxAge(maxAge);
+        pool.scheduleEviction();
+    }
+
+    public int getOpenReaders() {
+        return pool().getOpenReaders();
+    }
+
+    public long getCreatedCount() {
+        return pool().getCreatedCount();
+    }
+
+    public long getEvictionCount() {
+        return pool().getEvictionCount();
+    }
+
+    public long getWaitCount() {
+        return pool().getWaitCount();
+    }
+
+    public long getTotalWaitTime() {
+        return pool().getTotalWaitTime();
+    }
+
+    public long getMaxWaitTime() {
+        return pool().getMaxWaitTime();
+    }
+}
@@ -0,0 +1,212 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Coordinates the loading of expensive resources (data stores, feature types, coverage readers,
+ * styles, ...) so that each key is loaded only once at a time, while loads of different keys
+ * proceed concurrently.
+ * <p>
+ * The first thread asking for a key runs the load itself, other threads asking for the same key
+ * wait for its outcome for at most {@link #getLoadTimeout()} milliseconds. When a load fails the
+ * failure is remembered for {@link #getFailureBackoff()} milliseconds, during which further
+ * requests for the same key fail immediately instead of retrying the (likely slow) load.
+ * </p>
+ *
+ * @see ResourcePool
+ */
+public class KeyedLoader {
+
+    static final Logger LOGGER = Logging.getLogger(KeyedLoader.class);
+
+    /**
+     * Loads in progress, keyed by resource key
+     */
+    ConcurrentMap<Object, Load<?>> loads = new ConcurrentHashMap<Object, Load<?>>();
+
+    /**
+     * Recent failures, keyed by resource key
+     */
+    ConcurrentMap<Object, Failure> failures = new ConcurrentHashMap<Object, Failure>();
+
+    volatile long loadTimeout;
+
+    volatile long failureBackoff;
+
+    /**
+     * Creates the loader.
+     *
+     * @param loadTimeout Maximum time, in milliseconds, a thread waits for another thread loading
+     *        the same key. A value less than or equal to zero means waiting indefinitely.
+     * @param failureBackoff Time, in milliseconds, a failed load is remembered. A value less than
+     *        or equal to zero disables the back-off.
+     */
+    public KeyedLoader(long loadTimeout, long failureBackoff) {
+        this.loadTimeout = loadTimeout;
+        this.failureBackoff = failureBackoff;
+    }
+
+    public long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    public void setLoadTimeout(long loadTimeout) {
+        this.loadTimeout = loadTimeout;
+    }
+
+    public long getFailureBackoff() {
+        return failureBackoff;
+    }
+
+    public void setFailureBackoff(long failureBackoff) {
+        this.failureBackoff = failureBackoff;
+    }
+
+    /**
+     * Loads the resource identified by <tt>key</tt>, making sure concurrent requests for the same
+     * key share a single load.
+     * <p>
+     * The loader is expected to check the cache it populates first, as a concurrent load for the
+     * same key may have completed in the meantime.
+     * </p>
+     *
+     * @param key The resource key, must implement equals/hashCode.
+     * @param loader Performs the actual load.
+     * @param rememberFailure Whether a failure should trigger the back-off for the key, this
+     *        should be false when loading from modified, unsaved configuration objects.
+     */
+    public <V> V load(Object key, Callable<V> loader, boolean rememberFailure)
+            throws IOException {
+        Failure failure = failures.get(key);
+        if (failure != null) {
+            if (failure.expiration > System.currentTimeMillis()) {
+                throw (IOException) new IOException("Loading " + key + " failed less than "
+                        + failureBackoff + "ms ago, not retrying yet: "
+                        + failure.cause.getMessage()).initCause(failure.cause);
+            }
+            failures.remove(key, failure);
+        }
+
+        Load<V> load = new Load<V>(loader);
+        Load<?> existing = loads.putIfAbsent(key, load);
+        if (existing == null) {
+            // we own the load, run it in this thread
+            try {
+                load.run();
+            } finally {
+                loads.remove(key, load);
+            }
+            try {
+                return load.get();
+            } catch (ExecutionException e) {
+                if (rememberFailure && failureBackoff > 0) {
+                    failures.put(key, new Failure(e.getCause(), System.currentTimeMillis()
+                            + failureBackoff));
+                }
+                throw toIOException(e.getCause());
+            } catch (InterruptedException e) {
+                // cannot happen, the task is done
+                throw (IOException) new IOException().initCause(e);
+            }
+        }
+
+        if (existing.owner == Thread.currentThread()) {
+            // re-entrant load of the same key, don't wait on ourselves
+            try {
+                return loader.call();
+            } catch (Exception e) {
+                throw toIOException(e);
+            }
+        }
+
+        // wait for the other thread to complete the load
+        try {
+            Object value;
+            if (loadTimeout > 0) {
+                value = existing.get(loadTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                value = existing.get();
+            }
+            return (V) value;
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out after " + loadTimeout
+                    + "ms waiting for another request to load " + key);
+        } catch (ExecutionException e) {
+            throw toIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException("Interrupted while waiting for " + key
+                    + " to be loaded").initCause(e);
+        }
+    }
+
+    /**
+     * Forgets any failure recorded for the key, so that the next request will try to load it
+     * again.
+     */
+    public void reset(Object key) {
+        if (failures.remove(key) != null && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Cleared load failure for " + key);
+        }
+    }
+
+    /**
+     * Forgets all recorded failures.
+     */
+    public void reset() {
+        failures.clear();
+    }
+
+    /**
+     * Wraps checked exceptions in an IOException, unchecked ones are rethrown as they are, so that
+     * callers see the same exceptions the loader throws
+     */
+    IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        return (IOException) new IOException(t.getMessage()).initCause(t);
+    }
+
+    static class Load<V> extends FutureTask<V> {
+
+        final Thread owner = Thread.currentThread();
+
+        Load(Callable<V> loader) {
+            super(loader);
+        }
+    }
+
+    static class Failure {
+
+        final Throwable cause;
+
+        final long expiration;
+
+        Failure(Throwable cause, long expiration) {
+            this.cause = cause;
+            this.expiration = expiration;
+        }
+    }
+}
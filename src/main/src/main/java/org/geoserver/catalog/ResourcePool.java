@@ -23,11 +23,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.logging.Level;
@@ -145,6 +146,53 @@ public class ResourcePool {
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
     
+    /**
+     * Default time, in milliseconds, a request waits for another request loading the same
+     * resource
+     */
+    static long LOAD_TIMEOUT_DEFAULT = Long.getLong(
+            "org.geoserver.catalog.ResourcePool.loadTimeout", 60000);
+
+    /**
+     * Default time, in milliseconds, a failed resource load is remembered before retrying
+     */
+    static long LOAD_FAILURE_BACKOFF_DEFAULT = Long.getLong(
+            "org.geoserver.catalog.ResourcePool.failureBackoff", 5000);
+
+    /**
+     * Default number of styles kept in the style cache with hard references, the others can be
+     * reclaimed by the garbage collector
+     */
+    static int STYLE_CACHE_SIZE_DEFAULT = Integer.getInteger(
+            "org.geoserver.catalog.ResourcePool.styleCacheSize", 100);
+
+    /**
+     * Minimum time, in milliseconds, between two checks of the modification time of the file
+     * of a cached style
+     */
+    static long STYLE_CHECK_INTERVAL_DEFAULT = Long.getLong(
+            "org.geoserver.catalog.ResourcePool.styleCheckInterval", 1000);
+
+    /**
+     * Default maximum number of readers opened for each coverage store (and hints combination)
+     */
+    static int COVERAGE_READERS_DEFAULT = Integer.getInteger(
+            "org.geoserver.catalog.ResourcePool.coverageReaders", 1);
+
+    /**
+     * Default time, in milliseconds, after which a coverage reader that has not been used is
+     * disposed, zero or less disables idle eviction
+     */
+    static long COVERAGE_READER_IDLE_TIMEOUT_DEFAULT = Long.getLong(
+            "org.geoserver.catalog.ResourcePool.coverageReaderIdleTimeout", 2 * 60 * 60 * 1000);
+
+    /**
+     * Default time, in milliseconds, after which a coverage reader is replaced by a new one, zero
+     * or less disables it
+     */
+    static long COVERAGE_READER_MAX_AGE_DEFAULT = Long.getLong(
+            "org.geoserver.catalog.ResourcePool.coverageReaderMaxAge", 0);
+
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
@@ -154,12 +202,13 @@ public class ResourcePool {
     Map<String, FeatureType> featureTypeCache;
     Map<String, List<AttributeTypeInfo>> featureTypeAttributeCache;
     Map<String, WebMapServer> wmsCache;
-    Map<String, GridCoverageReader>  coverageReaderCache;
-    Map<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderCache;
+    CoverageReaderPool coverageReaderPool;
     Map<StyleInfo,Style> styleCache;
+    Map<StyleInfo,StyleFile> styleFiles = new ConcurrentHashMap<StyleInfo, StyleFile>();
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
+    KeyedLoader loader;
 
     /**
      * Creates a new instance of the resource pool.
@@ -189,13 +238,13 @@ public class ResourcePool {
         featureTypeCache = createFeatureTypeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         
         featureTypeAttributeCache = createFeatureTypeAttributeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
-        coverageReaderCache = createCoverageReaderCache();
-        hintCoverageReaderCache = createHintCoverageReaderCache();
+        coverageReaderPool = createCoverageReaderPool();
         
         wmsCache = createWmsCache();
         styleCache = createStyleCache();
 
         listeners = new CopyOnWriteArrayList<Listener>();
+        loader = new KeyedLoader(LOAD_TIMEOUT_DEFAULT, LOAD_FAILURE_BACKOFF_DEFAULT);
     }
 
     /**
@@ -291,34 +340,22 @@ public class ResourcePool {
     }
 
     /**
-     * Returns the cache for {@link GridCoverageReader} objects for a particular coverage.
+     * Returns the pool of {@link GridCoverageReader} objects.
      * <p>
-     * The cache key is the corresponding Coverage id ({@link CatalogInfo#getId()}.
+     * The pool keys are the coverage store ids ({@link CatalogInfo#getId()}), or
+     * {@link CoverageHintReaderKey} objects for readers opened with hints.
      * </p>
      * <p>
-     * The concrete Map implementation is determined by {@link #createCoverageReaderCache()}
+     * The concrete implementation is determined by {@link #createCoverageReaderPool()}
      * </p>
      */
-    public Map<String, GridCoverageReader> getCoverageReaderCache() {
-        return coverageReaderCache;
-    }
-
-    protected Map<String, GridCoverageReader> createCoverageReaderCache() {
-        return new CoverageReaderCache();
+    public CoverageReaderPool getCoverageReaderPool() {
+        return coverageReaderPool;
     }
 
-    /**
-     * Returns the cache for {@link GridCoverageReader} objects for a particular coverage hint.
-     * <p>
-     * The concrete Map implementation is determined by {@link #createHintCoverageReaderCache()}
-     * </p>
-     */
-    public Map<CoverageHintReaderKey, GridCoverageReader> getHintCoverageReaderCache() {
-        return hintCoverageReaderCache;
-    }
-    
-    protected Map<CoverageHintReaderKey, GridCoverageReader> createHintCoverageReaderCache() {
-        return new CoverageHintReaderCache();
+    protected CoverageReaderPool createCoverageReaderPool() {
+        return new ReaderPool(COVERAGE_READERS_DEFAULT, COVERAGE_READER_IDLE_TIMEOUT_DEFAULT,
+                COVERAGE_READER_MAX_AGE_DEFAULT);
     }
 
     /**
@@ -332,7 +369,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache(STYLE_CACHE_SIZE_DEFAULT);
     }
 
     /**
@@ -379,6 +416,24 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Sets the maximum time, in milliseconds, a request waits for another request that is 
+     * loading the same resource (data store, feature type, coverage reader, ...) before failing. 
+     * A value less than or equal to zero means waiting indefinitely.
+     */
+    public void setLoadTimeout(long loadTimeout) {
+        loader.setLoadTimeout(loadTimeout);
+    }
+
+    /**
+     * Sets the time, in milliseconds, a failure to load a resource is remembered. Until it 
+     * expires requests for the same resource fail immediately instead of retrying the load. 
+     * A value less than or equal to zero disables the back-off.
+     */
+    public void setLoadFailureBackoff(long failureBackoff) {
+        loader.setFailureBackoff(failureBackoff);
+    }
+
     /**
      * Adds a pool listener.
      */
@@ -472,95 +527,112 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
-        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
-        try {
-            String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
+        final String id = info.getId();
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = 
+            (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
+        if ( dataStore != null ) {
+            return dataStore;
+        }
+        
+        // no need to cache the stores returned from un-saved DataStoreInfo objects (it would 
+        // be actually harmful, NPE when trying to dispose of them)
+        if ( id == null ) {
+            return createDataStore(info);
+        }
+        
+        return loader.load(loadKey(DataStoreInfo.class, id), 
+            new Callable<DataAccess<? extends FeatureType, ? extends Feature>>() {
+                public DataAccess<? extends FeatureType, ? extends Feature> call() throws Exception {
+                    DataAccess<? extends FeatureType, ? extends Feature> dataStore = 
+                        (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
                     if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
+                        dataStore = createDataStore(info);
+                        synchronized (dataStoreCache) {
                             dataStoreCache.put( id, dataStore );
                         }
                     }
-                } 
+                    return dataStore;
+                }
+            }, isCacheable(info));
+    }
+
+    /**
+     * Creates the underlying resource for a data store, without caching it. 
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+        try {
+            //create data store
+            Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+            
+            //call this methdo to execute the hack which recognizes 
+            // urls which are relative to the data directory
+            // TODO: find a better way to do this
+            connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+            
+            // obtain the factory
+            DataAccessFactory factory = null;
+            try {
+                factory = getDataStoreFactory(info);
+            } catch(IOException e) {
+                throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                        + ", did you forget to install the store extension jar?");
+            }
+            Param[] params = factory.getParametersInfo();
+            
+            //ensure that the namespace parameter is set for the datastore
+            if (!connectionParameters.containsKey( "namespace") && params != null) {
+                //if we grabbed the factory, check that the factory actually supports
+                // a namespace parameter, if we could not get the factory, assume that
+                // it does
+                boolean supportsNamespace = true;
+                supportsNamespace = false;
+                
+                for ( Param p : params ) {
+                    if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                        supportsNamespace = true;
+                        break;
+                    }
+                }
+                
+                if ( supportsNamespace ) {
+                    WorkspaceInfo ws = info.getWorkspace();
+                    NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                    if ( ns == null ) {
+                        ns = info.getCatalog().getDefaultNamespace();
+                    }
+                    if ( ns != null ) {
+                        connectionParameters.put( "namespace", ns.getURI() );
+                    }    
+                }
+            }
+            
+            // see if the store has a repository param, if so, pass the one wrapping
+            // the store
+            if(params != null) {
+                for ( Param p : params ) {
+                    if(Repository.class.equals(p.getType())) {
+                        connectionParameters.put(p.getName(), repository);
+                    }
+                }
+            }
+            
+            dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+            if (dataStore == null) {
+                /*
+                 * Preserve DataStore retyping behaviour by calling
+                 * DataAccessFinder.getDataStore after the call to
+                 * DataStoreUtils.getDataStore above.
+                 * 
+                 * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                 * supported for DataAccess, we can use a single mechanism.
+                 */
+                dataStore = DataAccessFinder.getDataStore(connectionParameters);
+            }
+            
+            if ( dataStore == null ) {
+                throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
             }
             
             return dataStore;
@@ -580,6 +652,13 @@ public class ResourcePool {
             }
         }
     }
+    
+    /**
+     * Builds the key used to coordinate the loading of a resource.
+     */
+    static Object loadKey(Class<?> type, Object key) {
+        return Arrays.asList(type.getSimpleName(), key);
+    }
         
     /**
      * Get Connect params.
@@ -628,9 +707,10 @@ public class ResourcePool {
      */
     public void clear( DataStoreInfo info ) {
         dataStoreCache.remove( info.getId() );
+        loader.reset(loadKey(DataStoreInfo.class, info.getId()));
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -643,31 +723,45 @@ public class ResourcePool {
         }
         
         //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
+        final String id = info.getId();
+        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(id);
+        if (atts != null) {
+            return atts;
+        }
+        
+        // cache attributes only if the id is not null -> the feature type is not new
+        if (id == null) {
+            return loadAttributesWithOverride(info);
+        }
+        
+        return loader.load(loadKey(AttributeTypeInfo.class, id), 
+            new Callable<List<AttributeTypeInfo>>() {
+                public List<AttributeTypeInfo> call() throws Exception {
+                    List<AttributeTypeInfo> atts = 
+                        (List<AttributeTypeInfo>) featureTypeAttributeCache.get(id);
+                    if (atts == null) {
+                        atts = loadAttributesWithOverride(info);
+                        synchronized (featureTypeAttributeCache) {
+                            featureTypeAttributeCache.put(id, atts);
+                        }
                     }
+                    return atts;
                 }
-            }
-        }
+            }, isCacheable(info));
+    }
+    
+    List<AttributeTypeInfo> loadAttributesWithOverride(FeatureTypeInfo info) throws IOException {
+        //load from feature type
+        List<AttributeTypeInfo> atts = loadAttributes(info);
         
+        //check for a schema override
+        try {
+            handleSchemaOverride(atts,info);
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, 
+                "Error occured applying schema override for "+info.getName(), e);
+        }
         return atts;
     }
     
@@ -799,100 +893,119 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
+        if ( !cacheable ) {
+            return loadFeatureType(info, handleProjectionPolicy, false);
+        }
+        
+        final String id = info.getId();
+        FeatureType ft = (FeatureType) featureTypeCache.get( id );
+        if ( ft != null ) {
+            return ft;
+        }
+        
+        return loader.load(loadKey(FeatureTypeInfo.class, id), new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                FeatureType ft = (FeatureType) featureTypeCache.get( id );
+                if ( ft == null ) {
+                    ft = loadFeatureType(info, handleProjectionPolicy, true);
+                    synchronized ( featureTypeCache ) {
+                        featureTypeCache.put( id, ft );
+                    }
+                }
+                return ft;
+            }
+        }, true);
+    }
     
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+    /**
+     * Loads the feature type from the underlying store, without caching it. 
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, 
+        boolean cacheable ) throws IOException {
+        FeatureType ft;
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+    
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -1008,6 +1121,8 @@ public class ResourcePool {
     public void clear( FeatureTypeInfo info ) {
         featureTypeCache.remove( info.getId() );
         featureTypeAttributeCache.remove( info.getId() );
+        loader.reset(loadKey(FeatureTypeInfo.class, info.getId()));
+        loader.reset(loadKey(AttributeTypeInfo.class, info.getId()));
     }
     
     /**
@@ -1155,7 +1270,7 @@ public class ResourcePool {
      * @throws IOException Any errors that occur loading the reader.
      */
     @SuppressWarnings("deprecation")
-    public GridCoverageReader getGridCoverageReader( CoverageStoreInfo info, Hints hints ) 
+    public GridCoverageReader getGridCoverageReader( final CoverageStoreInfo info, Hints hints ) 
         throws IOException {
         
         final AbstractGridFormat gridFormat = info.getFormat();
@@ -1163,7 +1278,6 @@ public class ResourcePool {
             throw new IOException("Could not find the raster plugin for format " + info.getType());
         }
         
-        GridCoverageReader reader = null;
         Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
@@ -1179,47 +1293,70 @@ public class ResourcePool {
             }
             
             key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = (GridCoverageReader) hintCoverageReaderCache.get( key );    
         } else {
             key = info.getId();
-            if(key != null) {
-                reader = (GridCoverageReader) coverageReaderCache.get( key );
-            }
         }
         
-        if (reader != null) {
-            return reader;
+        if (key == null) {
+            return createGridCoverageReader(info, gridFormat, hints);
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-            if (key != null) {
-                if (hints != null) {
-                    reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                } else {
-                    reader = (GridCoverageReader) coverageReaderCache.get(key);
-                }
-            }
-            if (reader == null) {
-                /////////////////////////////////////////////////////////
-                //
-                // Getting coverage reader using the format and the real path.
-                //
-                // /////////////////////////////////////////////////////////
-                final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
-    
-                reader = gridFormat.getReader(obj,hints);
-                if(key != null) {
-                    if(hints != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                    } else {
-                        coverageReaderCache.put((String) key, reader);
+        final CoverageReaderPool pool = coverageReaderPool;
+        GridCoverageReader reader = pool.get(key);
+        if (reader != null) {
+            // open another reader if the pool allows more than one per store, the requests
+            // are spread over the open readers
+            if (pool.grow(key)) {
+                try {
+                    GridCoverageReader added = createGridCoverageReader(info, gridFormat, hints);
+                    if (added != null) {
+                        pool.add(key, added);
+                        reader = added;
                     }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to open an additional reader for coverage "
+                            + "store " + info.getName(), e);
+                } finally {
+                    pool.release(key);
                 }
             }
+            return reader;
         }
         
-        return reader;
-            
+        final Object poolKey = key;
+        final Hints readerHints = hints;
+        long start = System.currentTimeMillis();
+        try {
+            return loader.load(loadKey(GridCoverageReader.class, key), new Callable<GridCoverageReader>() {
+                public GridCoverageReader call() throws Exception {
+                    GridCoverageReader reader = pool.get(poolKey);
+                    if (reader == null) {
+                        reader = createGridCoverageReader(info, gridFormat, readerHints);
+                        if (reader != null) {
+                            pool.add(poolKey, reader);
+                        }
+                    }
+                    return reader;
+                }
+            }, isCacheable(info));
+        } finally {
+            pool.waited(System.currentTimeMillis() - start);
+        }
+    }
+    
+    /**
+     * Creates a new coverage reader, without caching it.
+     */
+    GridCoverageReader createGridCoverageReader( CoverageStoreInfo info, 
+        AbstractGridFormat gridFormat, Hints hints ) throws IOException {
+        /////////////////////////////////////////////////////////
+        //
+        // Getting coverage reader using the format and the real path.
+        //
+        // /////////////////////////////////////////////////////////
+        final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
+
+        return gridFormat.getReader(obj,hints);
     }
     
     /**
@@ -1227,11 +1364,13 @@ public class ResourcePool {
      */
     public void clear(CoverageStoreInfo info) {
         String storeId = info.getId();
-        coverageReaderCache.remove(storeId);
-        HashSet<CoverageHintReaderKey> keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
-        for (CoverageHintReaderKey key : keys) {
-            if(key.id != null && key.id.equals(storeId)) {
-                hintCoverageReaderCache.remove(key);
+        coverageReaderPool.remove(storeId);
+        loader.reset(loadKey(GridCoverageReader.class, storeId));
+        for (Object key : coverageReaderPool.keys()) {
+            if(key instanceof CoverageHintReaderKey 
+                    && storeId != null && storeId.equals(((CoverageHintReaderKey) key).id)) {
+                coverageReaderPool.remove(key);
+                loader.reset(loadKey(GridCoverageReader.class, key));
             }
         }
         
@@ -1384,43 +1523,54 @@ public class ResourcePool {
      * @param info The WMS configuration
      * @throws IOException
      */
-    public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
-        try {
-            String id = info.getId();
-            WebMapServer wms = (WebMapServer) wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client;
-                        if (info.isUseConnectionPooling()) {
-                            client = new MultithreadedHttpClient();
-                            if (info.getMaxConnections() > 0) {
-                                int maxConnections = info.getMaxConnections();
-                                MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
-                                mtClient.setMaxConnections(maxConnections);
-                            }
-                        } else {
-                            client = new SimpleHttpClient();
-                        }
-                        String username = info.getUsername();
-                        String password = info.getPassword();
-                        int connectTimeout = info.getConnectTimeout();
-                        int readTimeout = info.getReadTimeout();
-                        client.setUser(username);
-                        client.setPassword(password);
-                        client.setConnectTimeout(connectTimeout);
-                        client.setReadTimeout(readTimeout);
-
-                        URL serverURL = new URL(info.getCapabilitiesURL());
-                        wms = new WebMapServer(serverURL, client);
-                        
+    public WebMapServer getWebMapServer(final WMSStoreInfo info) throws IOException {
+        final String id = info.getId();
+        WebMapServer wms = (WebMapServer) wmsCache.get(id);
+        if (wms != null) {
+            return wms;
+        }
+        
+        return loader.load(loadKey(WMSStoreInfo.class, id), new Callable<WebMapServer>() {
+            public WebMapServer call() throws Exception {
+                WebMapServer wms = (WebMapServer) wmsCache.get(id);
+                if (wms == null) {
+                    wms = createWebMapServer(info);
+                    synchronized (wmsCache) {
                         wmsCache.put(id, wms);
                     }
                 }
+                return wms;
             }
-
-            return wms;
+        }, isCacheable(info));
+    }
+    
+    /**
+     * Connects to the remote server of a {@link WMSStoreInfo}, without caching the result.
+     */
+    WebMapServer createWebMapServer(WMSStoreInfo info) throws IOException {
+        try {
+            HTTPClient client;
+            if (info.isUseConnectionPooling()) {
+                client = new MultithreadedHttpClient();
+                if (info.getMaxConnections() > 0) {
+                    int maxConnections = info.getMaxConnections();
+                    MultithreadedHttpClient mtClient = (MultithreadedHttpClient) client;
+                    mtClient.setMaxConnections(maxConnections);
+                }
+            } else {
+                client = new SimpleHttpClient();
+            }
+            String username = info.getUsername();
+            String password = info.getPassword();
+            int connectTimeout = info.getConnectTimeout();
+            int readTimeout = info.getReadTimeout();
+            client.setUser(username);
+            client.setPassword(password);
+            client.setConnectTimeout(connectTimeout);
+            client.setReadTimeout(readTimeout);
+
+            URL serverURL = new URL(info.getCapabilitiesURL());
+            return new WebMapServer(serverURL, client);
         } catch (IOException ioe) {
             throw ioe;
         } catch (Exception e) {
@@ -1457,6 +1607,7 @@ public class ResourcePool {
      */
     public void clear( WMSStoreInfo info ) {
         wmsCache.remove( info.getId() );
+        loader.reset(loadKey(WMSStoreInfo.class, info.getId()));
     }
     
     /**
@@ -1469,34 +1620,78 @@ public class ResourcePool {
      * 
      * @throws IOException Any parsing errors.
      */
-    public Style getStyle( StyleInfo info ) throws IOException {
+    public Style getStyle( final StyleInfo info ) throws IOException {
         Style style = styleCache.get( info );
-        if ( style == null ) {
+        if ( style != null ) {
+            if ( !isStale( info ) ) {
+                return style;
+            }
+            // the file has been modified behind our back
+            clear( info );
+        }
+        
+        if ( info.getId() == null ) {
+            style = parseStyle(info);
             synchronized (styleCache) {
-                style = styleCache.get( info );
+                styleCache.put( info, style );
+            }
+            return style;
+        }
+        
+        return loader.load(loadKey(StyleInfo.class, info.getId()), new Callable<Style>() {
+            public Style call() throws Exception {
+                Style style = styleCache.get( info );
                 if ( style == null ) {
-                    
-                    //JD: it is important that we call the SLDParser(File) constructor because
-                    // if not the sourceURL will not be set which will mean it will fail to 
-                    //resolve relative references to online resources
-                    File styleFile = dataDir().findStyleSldFile(info);
-                    if ( styleFile == null ){
-                        throw new IOException( "No such file: " + info.getFilename());
+                    style = parseStyle(info);
+                    synchronized (styleCache) {
+                        styleCache.put( info, style );
                     }
-                    
-                    style = Styles.style(Styles.parse(styleFile, info.getSLDVersion()));
-                    
-                    //set the name of the style to be the name of hte style metadata
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
                 }
+                return style;
             }
+        }, isCacheable(info));
+    }
+    
+    /**
+     * Parses the style file referenced by the style metadata, without caching the result.
+     */
+    Style parseStyle( StyleInfo info ) throws IOException {
+        //JD: it is important that we call the SLDParser(File) constructor because
+        // if not the sourceURL will not be set which will mean it will fail to 
+        //resolve relative references to online resources
+        File styleFile = dataDir().findStyleSldFile(info);
+        if ( styleFile == null ){
+            throw new IOException( "No such file: " + info.getFilename());
         }
         
+        // grab the timestamp before parsing, a concurrent change will cause a reload
+        StyleFile stamp = new StyleFile(styleFile);
+        Style style = Styles.style(Styles.parse(styleFile, info.getSLDVersion()));
+        styleFiles.put(info, stamp);
+        
+        //set the name of the style to be the name of hte style metadata
+        // remove this when wms works off style info
+        style.setName( info.getName() );
         return style;
     }
     
+    /**
+     * Returns true if the file of a cached style has been modified since it was parsed. The file
+     * is checked at most once every {@link #STYLE_CHECK_INTERVAL_DEFAULT} milliseconds.
+     */
+    boolean isStale( StyleInfo info ) {
+        StyleFile stamp = styleFiles.get( info );
+        if ( stamp == null ) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if ( now - stamp.lastChecked < STYLE_CHECK_INTERVAL_DEFAULT ) {
+            return false;
+        }
+        stamp.lastChecked = now;
+        return stamp.file.lastModified() != stamp.lastModified;
+    }
+    
     /**
      * Clears a style resource from the cache.
      * 
@@ -1504,6 +1699,8 @@ public class ResourcePool {
      */
     public void clear(StyleInfo info) {
         styleCache.remove( info );
+        styleFiles.remove( info );
+        loader.reset(loadKey(StyleInfo.class, info.getId()));
     }
     
     /**
@@ -1611,11 +1808,12 @@ public class ResourcePool {
         dataStoreCache.clear();
         featureTypeCache.clear();
         featureTypeAttributeCache.clear();
-        coverageReaderCache.clear();
-        hintCoverageReaderCache.clear();
+        coverageReaderPool.clear();
         wmsCache.clear();
         styleCache.clear();
+        styleFiles.clear();
         listeners.clear();
+        loader.reset();
     }
     
     /**
@@ -1668,6 +1866,35 @@ public class ResourcePool {
         protected abstract void dispose(K key, V object);
     }
     
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+
+        public StyleCache(int maxSize) {
+            super(maxSize);
+        }
+
+        protected void dispose(StyleInfo info, Style style) {
+            styleFiles.remove(info);
+        }
+    }
+
+    /**
+     * The file a cached style was parsed from, and its modification time at parse time.
+     */
+    static class StyleFile {
+
+        final File file;
+
+        final long lastModified;
+
+        volatile long lastChecked;
+
+        StyleFile(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.lastChecked = System.currentTimeMillis();
+        }
+    }
+
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
@@ -1702,32 +1929,18 @@ public class ResourcePool {
         }
     }
     
-    class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
+    class ReaderPool extends CoverageReaderPool {
         
-        protected void dispose(String id, GridCoverageReader reader) {
-        	CoverageStoreInfo info = catalog.getCoverageStore(id);
-        	if(info != null) {
-                String name = info.getName();
-                LOGGER.info( "Disposing coverage store '" + name + "'" );
-                
-                fireDisposed(info, reader);
-            }
-            try {
-                reader.dispose();
-            }
-            catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
-                LOGGER.log(Level.FINE, "", e );
-            }
+        ReaderPool(int maxReaders, long idleTimeout, long maxAge) {
+            super(maxReaders, idleTimeout, maxAge);
         }
-    }
-    
-    class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
         
-        protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
-        	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
-        	if(info != null) {
-                String name = info.getName();
+        protected void dispose(Object key, GridCoverageReader reader) {
+            String id = key instanceof CoverageHintReaderKey ? ((CoverageHintReaderKey) key).id
+                    : (String) key;
+            CoverageStoreInfo info = catalog.getCoverageStore(id);
+            String name = info != null ? info.getName() : id;
+            if(info != null) {
                 LOGGER.info( "Disposing coverage store '" + name + "'" );
                 
                 fireDisposed(info, reader);
@@ -1736,15 +1949,14 @@ public class ResourcePool {
                 reader.dispose();
             }
             catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
+                LOGGER.warning( "Error occured disposing coverage reader '" + name + "'");
                 LOGGER.log(Level.FINE, "", e );
             }
         }
-        
     }
     
     /**
-     * The key in the {@link CoverageHintReaderCache}
+     * The key in the {@link CoverageReaderPool} of readers opened with hints
      * 
      * @author Andrea Aime - GeoSolutions
      */
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.event;
+
+/**
+ * Marker interface for catalog listeners that can be notified asynchronously.
+ * <p>
+ * Events are delivered to such listeners in the order they are fired, one at a time, on a thread
+ * dedicated to the listener, so that slow listeners do not hold up the thread changing the
+ * catalog. This means that:
+ * <ul>
+ * <li>the catalog might have been further modified by the time the event is handled, so the
+ * listener should rely on the event contents (property names, old and new values) rather than
+ * the current state of the source object</li>
+ * <li>exceptions thrown by the listener, including {@link org.geoserver.catalog.CatalogException},
+ * are logged and do not reach the code that changed the catalog</li>
+ * </ul>
+ * Listeners that must be notified before the change returns to the caller, such as the ones
+ * persisting the configuration or clearing caches, should not implement this interface.
+ * </p>
+ * <p>
+ * Other listeners can be delivered asynchronously without being modified by listing their class
+ * names in the {@link #ASYNC_LISTENERS} property. No listener shipped with GeoServer implements
+ * this interface, so the property is the only way to turn asynchronous delivery on. Among the
+ * shipped listeners:
+ * <ul>
+ * <li>the persister, the resource pool cache clearing listener and the update sequence listener
+ * must stay synchronous, later steps of the same change rely on their work being done</li>
+ * <li>the GWC layer and style listeners must stay synchronous, they pair pre and post modify
+ * events through a thread local or read the current state of the modified object</li>
+ * <li>listeners that only drop caches rebuilt on demand, such as the WFS schema cache listener,
+ * can be made asynchronous, at the cost of serving the stale cache for a short while. The KML
+ * regionating caches are not catalog listeners in this version, they would fall in this group if
+ * they became one.</li>
+ * </ul>
+ * The queue depth and handling times of each listener are exported over JMX as
+ * <code>org.geoserver:type=CatalogListeners</code>.
+ * </p>
+ */
+public interface AsynchronousCatalogListener extends CatalogListener {
+
+    /**
+     * Comma separated list of fully qualified class names of listeners to be notified
+     * asynchronously, looked up as a system property, context parameter or environment variable.
+     */
+    static final String ASYNC_LISTENERS = "GEOSERVER_ASYNC_CATALOG_LISTENERS";
+}
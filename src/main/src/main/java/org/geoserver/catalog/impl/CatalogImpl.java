@@ -10,7 +10,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -41,12 +43,8 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
-import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogEvent;
 import org.geoserver.catalog.event.CatalogListener;
-import org.geoserver.catalog.event.CatalogModifyEvent;
-import org.geoserver.catalog.event.CatalogPostModifyEvent;
-import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.event.impl.CatalogAddEventImpl;
 import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
 import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
@@ -77,6 +75,12 @@ public class CatalogImpl implements Catalog {
      */
     private static final Logger LOGGER = Logging.getLogger(CatalogImpl.class);
 
+    /**
+     * Property (system, servlet context or environment) that when set to <code>true</code> makes
+     * the catalog use an {@link IndexedCatalogFacade} instead of a {@link DefaultCatalogFacade}
+     */
+    public static final String INDEXED_FACADE = "GEOSERVER_INDEXED_CATALOG_FACADE";
+
     /**
      * data access facade
      */
@@ -86,6 +90,12 @@ public class CatalogImpl implements Catalog {
      * listeners
      */
     protected List listeners = new ArrayList();
+    
+    /**
+     * event delivery queues, keyed by listener
+     */
+    protected Map<CatalogListener, CatalogListenerQueue> listenerQueues = 
+        new ConcurrentHashMap<CatalogListener, CatalogListenerQueue>();
 
     /** 
      * resources
@@ -99,7 +109,11 @@ public class CatalogImpl implements Catalog {
     protected boolean extendedValidation = true;
 
     public CatalogImpl() {
-        facade = new DefaultCatalogFacade(this);
+        if (Boolean.valueOf(GeoServerExtensions.getProperty(INDEXED_FACADE))) {
+            facade = new IndexedCatalogFacade(this);
+        } else {
+            facade = new DefaultCatalogFacade(this);
+        }
         resourcePool = ResourcePool.create(this);
     }
     
@@ -1341,6 +1355,7 @@ public class CatalogImpl implements Catalog {
 
     public void removeListener(CatalogListener listener) {
         listeners.remove(listener);
+        removeQueue(listener);
     }
     
     @Override
@@ -1349,8 +1364,42 @@ public class CatalogImpl implements Catalog {
             CatalogListener listener = (CatalogListener) it.next();
             if(listenerClass.isInstance(listener)) {
                 it.remove();
+                removeQueue(listener);
+            }
+        }
+    }
+    
+    void removeQueue(CatalogListener listener) {
+        CatalogListenerQueue queue = listenerQueues.remove(listener);
+        if (queue != null && !listeners.contains(listener)) {
+            queue.shutdown();
+        }
+    }
+    
+    /**
+     * Returns the event delivery queues of the current listeners, providing statistics about 
+     * the event handling.
+     */
+    public List<CatalogListenerQueue> getListenerQueues() {
+        List<CatalogListenerQueue> queues = new ArrayList<CatalogListenerQueue>();
+        for (Object l : listeners) {
+            queues.add(queue((CatalogListener) l));
+        }
+        return queues;
+    }
+    
+    CatalogListenerQueue queue(CatalogListener listener) {
+        CatalogListenerQueue queue = listenerQueues.get(listener);
+        if (queue == null) {
+            synchronized (listenerQueues) {
+                queue = listenerQueues.get(listener);
+                if (queue == null) {
+                    queue = new CatalogListenerQueue(listener);
+                    listenerQueues.put(listener, queue);
+                }
             }
         }
+        return queue;
     }
 
     public Iterator search(String cql) {
@@ -1424,15 +1473,9 @@ public class CatalogImpl implements Catalog {
         for (Iterator l = listeners.iterator(); l.hasNext();) {
             try {
                 CatalogListener listener = (CatalogListener) l.next();
-                if (event instanceof CatalogAddEvent) {
-                    listener.handleAddEvent((CatalogAddEvent) event);
-                } else if (event instanceof CatalogRemoveEvent) {
-                    listener.handleRemoveEvent((CatalogRemoveEvent) event);
-                } else if (event instanceof CatalogModifyEvent) {
-                    listener.handleModifyEvent((CatalogModifyEvent) event);
-                } else if (event instanceof CatalogPostModifyEvent) {
-                    listener.handlePostModifyEvent((CatalogPostModifyEvent)event);
-                }
+                //synchronous listeners are notified right away, asynchronous ones get the event
+                // queued
+                queue(listener).dispatch(event);
             } catch(Throwable t) {
                 if ( t instanceof CatalogException && toThrow == null) {
                     toThrow = (CatalogException) t;
@@ -1482,6 +1525,9 @@ public class CatalogImpl implements Catalog {
         if ( listeners == null ) {
             listeners = new ArrayList<CatalogListener>();
         }
+        if ( listenerQueues == null ) {
+            listenerQueues = new ConcurrentHashMap<CatalogListener, CatalogListenerQueue>();
+        }
         
         if ( resourcePool == null ) {
             resourcePool = ResourcePool.create(this);
@@ -1670,6 +1716,7 @@ public class CatalogImpl implements Catalog {
     public void sync( CatalogImpl other ) {
         other.facade.syncTo(facade);
         listeners = other.listeners;
+        listenerQueues = other.listenerQueues;
         
         if ( resourcePool != other.resourcePool ) {
             resourcePool.dispose();
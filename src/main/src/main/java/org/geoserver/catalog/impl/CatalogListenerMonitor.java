@@ -0,0 +1,54 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+
+/**
+ * Exposes the {@link CatalogListenerQueue} metrics of a {@link CatalogImpl} over JMX.
+ */
+public class CatalogListenerMonitor implements CatalogListenerMonitorMBean {
+
+    Catalog catalog;
+
+    public CatalogListenerMonitor(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    List<CatalogListenerQueue> queues() {
+        if (catalog instanceof CatalogImpl) {
+            return ((CatalogImpl) catalog).getListenerQueues();
+        }
+        return Collections.emptyList();
+    }
+
+    public String[] getListenerStatistics() {
+        List<CatalogListenerQueue> queues = queues();
+        String[] lines = new String[queues.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = queues.get(i).toString();
+        }
+        return lines;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (CatalogListenerQueue queue : queues()) {
+            depth += queue.getQueueDepth();
+        }
+        return depth;
+    }
+
+    public long getFailureCount() {
+        long failures = 0;
+        for (CatalogListenerQueue queue : queues()) {
+            failures += queue.getFailureCount();
+        }
+        return failures;
+    }
+}
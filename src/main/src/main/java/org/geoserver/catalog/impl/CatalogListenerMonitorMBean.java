@@ -0,0 +1,27 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+/**
+ * JMX management interface of {@link CatalogListenerMonitor}
+ */
+public interface CatalogListenerMonitorMBean {
+
+    /**
+     * One line per catalog listener, with event and failure counts, queue depth, total and max
+     * handling time
+     */
+    String[] getListenerStatistics();
+
+    /**
+     * Number of events queued and not yet handled, summed over the asynchronous listeners
+     */
+    int getQueueDepth();
+
+    /**
+     * Number of events for which a listener threw an exception, summed over all listeners
+     */
+    long getFailureCount();
+}
@@ -0,0 +1,232 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.event.AsynchronousCatalogListener;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Delivers catalog events to a single listener, either on the thread firing the event or, for
+ * {@link AsynchronousCatalogListener asynchronous listeners}, in order on a thread dedicated to
+ * the listener, and keeps statistics about the delivery.
+ */
+public class CatalogListenerQueue {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogListenerQueue.class);
+
+    final CatalogListener listener;
+
+    final ThreadPoolExecutor executor;
+
+    final AtomicInteger pending = new AtomicInteger();
+
+    final AtomicLong events = new AtomicLong();
+
+    final AtomicLong failures = new AtomicLong();
+
+    final AtomicLong totalTime = new AtomicLong();
+
+    final AtomicLong maxTime = new AtomicLong();
+
+    public CatalogListenerQueue(CatalogListener listener) {
+        this(listener, isAsynchronous(listener));
+    }
+
+    public CatalogListenerQueue(final CatalogListener listener, boolean asynchronous) {
+        this.listener = listener;
+        if (asynchronous) {
+            executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Catalog listener "
+                                    + listener.getClass().getSimpleName());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Whether the listener should be notified asynchronously, either because it implements
+     * {@link AsynchronousCatalogListener} or because it is listed in
+     * {@link AsynchronousCatalogListener#ASYNC_LISTENERS}.
+     */
+    static boolean isAsynchronous(CatalogListener listener) {
+        if (listener instanceof AsynchronousCatalogListener) {
+            return true;
+        }
+        String classes = GeoServerExtensions.getProperty(AsynchronousCatalogListener.ASYNC_LISTENERS);
+        if (classes != null) {
+            for (String name : classes.split(",")) {
+                if (name.trim().equals(listener.getClass().getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delivers the event to the listener.
+     * <p>
+     * Synchronous listeners are notified before the method returns, and any exception they throw
+     * is propagated. For asynchronous listeners the event is queued and the method returns
+     * immediately.
+     * </p>
+     */
+    public void dispatch(final CatalogEvent event) {
+        if (executor == null) {
+            deliver(event);
+            return;
+        }
+
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        deliver(event);
+                    } catch (Throwable t) {
+                        LOGGER.log(Level.WARNING, "Catalog listener threw exception handling event.", t);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected, the queue is being shut down
+            pending.decrementAndGet();
+            LOGGER.log(Level.WARNING, "Unable to queue catalog event for "
+                    + listener.getClass().getName(), e);
+        }
+    }
+
+    void deliver(CatalogEvent event) {
+        long start = System.nanoTime();
+        try {
+            if (event instanceof CatalogAddEvent) {
+                listener.handleAddEvent((CatalogAddEvent) event);
+            } else if (event instanceof CatalogRemoveEvent) {
+                listener.handleRemoveEvent((CatalogRemoveEvent) event);
+            } else if (event instanceof CatalogModifyEvent) {
+                listener.handleModifyEvent((CatalogModifyEvent) event);
+            } else if (event instanceof CatalogPostModifyEvent) {
+                listener.handlePostModifyEvent((CatalogPostModifyEvent) event);
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } catch (Error e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            // microseconds, most listeners take well below a millisecond
+            long time = (System.nanoTime() - start) / 1000;
+            events.incrementAndGet();
+            totalTime.addAndGet(time);
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+        }
+    }
+
+    /**
+     * Waits for the queued events to be delivered, up to the specified timeout.
+     *
+     * @return true if all the queued events have been delivered
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pending.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting events, the ones already queued are still delivered.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public CatalogListener getListener() {
+        return listener;
+    }
+
+    public boolean isAsynchronous() {
+        return executor != null;
+    }
+
+    /**
+     * Number of events queued and not yet handled by the listener, always zero for synchronous
+     * listeners.
+     */
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    /**
+     * Number of events handled by the listener.
+     */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    /**
+     * Number of events for which the listener threw an exception.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Total time, in microseconds, spent by the listener handling events.
+     */
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    /**
+     * Longest time, in microseconds, spent by the listener handling a single event.
+     */
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return listener.getClass().getName() + (isAsynchronous() ? " (async)" : "")
+                + ": events=" + getEventCount() + ", failures=" + getFailureCount()
+                + ", queued=" + getQueueDepth() + ", totalTime=" + getTotalTime()
+                + "us, maxTime=" + getMaxTime() + "us";
+    }
+}
@@ -388,9 +388,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public LayerInfo getLayer(String id) {
-        for (LayerInfo layer : layers) {
-            if (id.equals(layer.getId())) {
-                return ModificationProxy.create( layer, LayerInfo.class );
+        synchronized (layers) {
+            for (LayerInfo layer : layers) {
+                if (id.equals(layer.getId())) {
+                    return ModificationProxy.create( layer, LayerInfo.class );
+                }
             }
         }
 
@@ -398,9 +400,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public LayerInfo getLayerByName(String name) {
-        for (LayerInfo layer : layers) {
-            if ( name.equals( layer.getName() ) ) {
-                return ModificationProxy.create( layer, LayerInfo.class );
+        synchronized (layers) {
+            for (LayerInfo layer : layers) {
+                if ( name.equals( layer.getName() ) ) {
+                    return ModificationProxy.create( layer, LayerInfo.class );
+                }
             }
         }
       
@@ -409,9 +413,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public List<LayerInfo> getLayers(ResourceInfo resource) {
         List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( resource.equals( layer.getResource() ) ) {
-                matches.add( layer );
+        synchronized (layers) {
+            for (LayerInfo layer : layers) {
+                if ( resource.equals( layer.getResource() ) ) {
+                    matches.add( layer );
+                }
             }
         }
 
@@ -420,9 +426,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public List<LayerInfo> getLayers(StyleInfo style) {
         List<LayerInfo> matches = new ArrayList<LayerInfo>();
-        for (LayerInfo layer : layers) {
-            if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
-                matches.add( layer );
+        synchronized (layers) {
+            for (LayerInfo layer : layers) {
+                if ( style.equals( layer.getDefaultStyle() ) || layer.getStyles().contains( style ) ) {
+                    matches.add( layer );
+                }
             }
         }
 
@@ -528,17 +536,19 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         List<LayerGroupInfo> matches = new ArrayList();
 
-        for (Iterator s = layerGroups.iterator(); s.hasNext();) {
-            LayerGroupInfo layerGroup = (LayerGroupInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = layerGroup.getWorkspace() == null;
-            }
-            else {
-                match = workspace.equals(layerGroup.getWorkspace());
-            }
-            if (match) {
-                matches.add(layerGroup);
+        synchronized (layerGroups) {
+            for (Iterator s = layerGroups.iterator(); s.hasNext();) {
+                LayerGroupInfo layerGroup = (LayerGroupInfo) s.next();
+                boolean match = false;
+                if (workspace == NO_WORKSPACE) {
+                    match = layerGroup.getWorkspace() == null;
+                }
+                else {
+                    match = workspace.equals(layerGroup.getWorkspace());
+                }
+                if (match) {
+                    matches.add(layerGroup);
+                }
             }
         }
 
@@ -548,9 +558,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public LayerGroupInfo getLayerGroup(String id) {
-        for (LayerGroupInfo layerGroup : layerGroups ) {
-            if ( id.equals( layerGroup.getId() ) ) {
-                return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
+        synchronized (layerGroups) {
+            for (LayerGroupInfo layerGroup : layerGroups ) {
+                if ( id.equals( layerGroup.getId() ) ) {
+                    return ModificationProxy.create(layerGroup,LayerGroupInfo.class);
+                }
             }
         }
         
@@ -567,22 +579,24 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         ArrayList<LayerGroupInfo> matches = new ArrayList<LayerGroupInfo>(2);
 
-        for (LayerGroupInfo layerGroup : layerGroups) {
-            if (!name.equals(layerGroup.getName())) {
-                continue;
-            }
-            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
-            if (NO_WORKSPACE == workspace) {
-                if (lgWorkspace == null) {
+        synchronized (layerGroups) {
+            for (LayerGroupInfo layerGroup : layerGroups) {
+                if (!name.equals(layerGroup.getName())) {
+                    continue;
+                }
+                WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+                if (NO_WORKSPACE == workspace) {
+                    if (lgWorkspace == null) {
+                        matches.add(layerGroup);
+                    }
+                } else if (ANY_WORKSPACE == workspace) {
+                    matches.add(layerGroup);
+                } else if (lgWorkspace != null && workspace.equals(lgWorkspace)) {
                     matches.add(layerGroup);
                 }
-            } else if (ANY_WORKSPACE == workspace) {
-                matches.add(layerGroup);
-            } else if (lgWorkspace != null && workspace.equals(lgWorkspace)) {
-                matches.add(layerGroup);
-            }
-            if (matches.size() > 1) {
-                break;
+                if (matches.size() > 1) {
+                    break;
+                }
             }
         }
 
@@ -812,10 +826,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public StyleInfo getStyle(String id) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (id.equals(style.getId())) {
-                return ModificationProxy.create(style,StyleInfo.class);
+        synchronized (styles) {
+            for (Iterator s = styles.iterator(); s.hasNext();) {
+                StyleInfo style = (StyleInfo) s.next();
+                if (id.equals(style.getId())) {
+                    return ModificationProxy.create(style,StyleInfo.class);
+                }
             }
         }
 
@@ -823,10 +839,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public StyleInfo getStyleByName(String name) {
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            if (null == style.getWorkspace() && name.equals(style.getName())) {
-                return ModificationProxy.create(style, StyleInfo.class);
+        synchronized (styles) {
+            for (Iterator s = styles.iterator(); s.hasNext();) {
+                StyleInfo style = (StyleInfo) s.next();
+                if (null == style.getWorkspace() && name.equals(style.getName())) {
+                    return ModificationProxy.create(style, StyleInfo.class);
+                }
             }
         }
 
@@ -844,10 +862,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if (workspace == ANY_WORKSPACE) {
             //do an exhaustive search through all workspaces
             ArrayList<StyleInfo> matches = new ArrayList();
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if ( name.equals( style.getName() ) ) {
-                    matches.add( style );
+            synchronized (styles) {
+                for (Iterator i = styles.iterator(); i.hasNext();) {
+                    StyleInfo style = (StyleInfo) i.next();
+                    if ( name.equals( style.getName() ) ) {
+                        matches.add( style );
+                    }
                 }
             }
             
@@ -856,12 +876,14 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             }
         }
         else {
-            for (Iterator i = styles.iterator(); i.hasNext();) {
-                StyleInfo style = (StyleInfo) i.next();
-                if (name.equals(style.getName())) {
-                    if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
-                        style.getWorkspace() == null && workspace == NO_WORKSPACE) {
-                        return ModificationProxy.create( style, StyleInfo.class );
+            synchronized (styles) {
+                for (Iterator i = styles.iterator(); i.hasNext();) {
+                    StyleInfo style = (StyleInfo) i.next();
+                    if (name.equals(style.getName())) {
+                        if (style.getWorkspace() != null && style.getWorkspace().equals(workspace) || 
+                            style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                            return ModificationProxy.create( style, StyleInfo.class );
+                        }
                     }
                 }
             }
@@ -882,17 +904,19 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         List<StyleInfo> matches = new ArrayList();
 
-        for (Iterator s = styles.iterator(); s.hasNext();) {
-            StyleInfo style = (StyleInfo) s.next();
-            boolean match = false;
-            if (workspace == NO_WORKSPACE) {
-                match = style.getWorkspace() == null;
-            }
-            else {
-                match = workspace.equals(style.getWorkspace());
-            }
-            if (match) {
-                matches.add(style);
+        synchronized (styles) {
+            for (Iterator s = styles.iterator(); s.hasNext();) {
+                StyleInfo style = (StyleInfo) s.next();
+                boolean match = false;
+                if (workspace == NO_WORKSPACE) {
+                    match = style.getWorkspace() == null;
+                }
+                else {
+                    match = workspace.equals(style.getWorkspace());
+                }
+                if (match) {
+                    matches.add(style);
+                }
             }
         }
 
@@ -960,8 +984,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if ( styles == null ) {
             styles = new ArrayList<StyleInfo>();
         }
-        for ( StyleInfo s : styles ) {
-            resolve(s);
+        synchronized (styles) {
+            for ( StyleInfo s : styles ) {
+                resolve(s);
+            }
         }
         
         //resources
@@ -976,16 +1002,20 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         if ( layers == null ) {
             layers = new CopyOnWriteArrayList<LayerInfo>();
         }
-        for ( LayerInfo l : layers ) { 
-            resolve(l);
+        synchronized (layers) {
+            for ( LayerInfo l : layers ) { 
+                resolve(l);
+            }
         }
         
         //layer groups
         if ( layerGroups == null ) {
             layerGroups = new ArrayList<LayerGroupInfo>();    
         }
-        for ( LayerGroupInfo lg : layerGroups ) {
-            resolve(lg);
+        synchronized (layerGroups) {
+            for ( LayerGroupInfo lg : layerGroups ) {
+                resolve(lg);
+            }
         }
         
         //maps
@@ -995,6 +1025,16 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         for ( MapInfo m : maps ) {
             resolve(m);
         }
+        
+        rebuildIndexes();
+    }
+
+    /**
+     * Hook for subclasses maintaining lookup structures over the collections held by this
+     * facade, called whenever those collections are replaced wholesale, as happens on
+     * {@link #resolve()} and {@link #syncTo(CatalogFacade)}.
+     */
+    protected void rebuildIndexes() {
     }
 
     public void syncTo(CatalogFacade dao) {
@@ -1011,6 +1051,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             other.maps = maps;
             other.layerGroups = layerGroups;
             other.styles = styles;
+            other.rebuildIndexes();
         }
         else {
             //do a manual import
@@ -1041,9 +1082,15 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 }
             }
             
-            for (StyleInfo s : styles) { dao.add(s); }
-            for (LayerInfo l : layers) { dao.add(l); }
-            for (LayerGroupInfo lg : layerGroups) { dao.add(lg); }
+            synchronized (styles) {
+                for (StyleInfo s : styles) { dao.add(s); }
+            }
+            synchronized (layers) {
+                for (LayerInfo l : layers) { dao.add(l); }
+            }
+            synchronized (layerGroups) {
+                for (LayerGroupInfo lg : layerGroups) { dao.add(lg); }
+            }
             for (MapInfo m : maps) { dao.add(m); }
             
             if (workspaces.containsKey(null)) {
@@ -1172,7 +1219,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return Iterables.filter(all, filterAdapter);
     }
 
-    private Comparator<Object> comparator(final SortBy sortOrder) {
+    protected Comparator<Object> comparator(final SortBy sortOrder) {
         return new Comparator<Object>() {
             @Override
             public int compare(Object o1, Object o2) {
@@ -0,0 +1,1083 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * In memory catalog facade that keeps hash based indexes over layers, layer groups and styles so
+ * that the lookups hit by every OWS request run in constant time instead of scanning the whole
+ * collection.
+ * <p>
+ * The indexes are maintained on add, remove and save, and are rebuilt from scratch whenever the
+ * underlying collections are replaced (on {@link #resolve()} and {@link #syncTo}). Objects are
+ * indexed by id, so a lookup key stays valid when the object it refers to is renamed. Saving a
+ * resource, store or workspace re-indexes the layers whose names depend on it.
+ * </p>
+ * <p>
+ * The layer, layer group and style lists are plain synchronized lists rather than copy on write
+ * ones, so adding objects in bulk (e.g. creating layers through REST) no longer copies the whole
+ * collection on each addition. Code iterating over them must hold the list lock, as
+ * {@link DefaultCatalogFacade} does.
+ * </p>
+ * <p>
+ * Layer queries through {@link #list} and {@link #count} use the same indexes: equality and
+ * case sensitive prefix matches against the indexed properties (see {@link #LAYER_PROPERTIES})
+ * narrow down the layers the filter is evaluated against, and sorting by one of the sortable
+ * properties walks a sorted view that is built once and reused until the layers change, so
+ * paging through the layers does not sort the whole catalog on every page.
+ * </p>
+ * <p>
+ * This facade is used by {@link CatalogImpl} when the {@link CatalogImpl#INDEXED_FACADE} property
+ * is set to <code>true</code>.
+ * </p>
+ */
+public class IndexedCatalogFacade extends DefaultCatalogFacade {
+
+    static final Logger LOGGER = Logging.getLogger(IndexedCatalogFacade.class);
+
+    /**
+     * key used to index layer groups and styles that are not bound to any workspace
+     */
+    static final Object NO_WORKSPACE_KEY = new Object();
+
+    static final Class<?> SYNCHRONIZED_LIST = Collections.synchronizedList(
+            new ArrayList<Object>()).getClass();
+
+    /**
+     * layer properties queries can be answered from the indexes for, keyed by property path, the
+     * ones with a {@link LayerProperty#sortable} value can also be sorted on without sorting the
+     * whole collection. Low cardinality properties (enabled, advertised, type) are only sortable,
+     * an index would return most of the layers, so they are evaluated as part of the filter.
+     */
+    static final Map<String, LayerProperty> LAYER_PROPERTIES = new HashMap<String, LayerProperty>();
+    static {
+        LayerProperty name = new LayerProperty(String.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.getName();
+            }
+        };
+        LAYER_PROPERTIES.put("name", name);
+        LAYER_PROPERTIES.put("resource.name", name);
+        LAYER_PROPERTIES.put("id", new LayerProperty(String.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.getId();
+            }
+        });
+        LAYER_PROPERTIES.put("resource.id", new LayerProperty(String.class, false) {
+            Object get(LayerInfo layer) {
+                return layer.getResource().getId();
+            }
+        });
+        LAYER_PROPERTIES.put("resource.store.id", new LayerProperty(String.class, false) {
+            Object get(LayerInfo layer) {
+                return layer.getResource().getStore().getId();
+            }
+        });
+        LAYER_PROPERTIES.put("resource.store.name", new LayerProperty(String.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.getResource().getStore().getName();
+            }
+        });
+        LAYER_PROPERTIES.put("resource.store.workspace.id", new LayerProperty(String.class, false) {
+            Object get(LayerInfo layer) {
+                return layer.getResource().getStore().getWorkspace().getId();
+            }
+        });
+        LAYER_PROPERTIES.put("resource.store.workspace.name", new LayerProperty(String.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.getResource().getStore().getWorkspace().getName();
+            }
+        });
+        LAYER_PROPERTIES.put("enabled", new LayerProperty(Boolean.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.isEnabled();
+            }
+        });
+        LAYER_PROPERTIES.put("advertised", new LayerProperty(Boolean.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.isAdvertised();
+            }
+        });
+        LAYER_PROPERTIES.put("type", new LayerProperty(LayerInfo.Type.class, true) {
+            Object get(LayerInfo layer) {
+                return layer.getType();
+            }
+        });
+        // the style index holds both default and alternate styles, so it only narrows down
+        LayerProperty style = new LayerProperty(String.class, false) {
+            Object get(LayerInfo layer) {
+                return null;
+            }
+        };
+        LAYER_PROPERTIES.put("defaultStyle.id", style);
+        LAYER_PROPERTIES.put("styles.id", style);
+    }
+
+    static final Function<LayerInfo, LayerInfo> PROXY_LAYER = new Function<LayerInfo, LayerInfo>() {
+        public LayerInfo apply(LayerInfo layer) {
+            return ModificationProxy.create(layer, LayerInfo.class);
+        }
+    };
+
+    transient Map<String, LayerInfo> layersById;
+
+    transient MultiIndex<LayerInfo> layersByName;
+
+    transient MultiIndex<LayerInfo> layersByPrefixedName;
+
+    transient MultiIndex<LayerInfo> layersByResource;
+
+    transient MultiIndex<LayerInfo> layersByStore;
+
+    transient MultiIndex<LayerInfo> layersByWorkspace;
+
+    transient MultiIndex<LayerInfo> layersByStyle;
+
+    transient MultiIndex<LayerInfo> layersByStoreName;
+
+    transient MultiIndex<LayerInfo> layersByWorkspaceName;
+
+    /**
+     * the layer indexes by property path, see {@link #LAYER_PROPERTIES}
+     */
+    transient Map<String, MultiIndex<LayerInfo>> layerIndexes;
+
+    /**
+     * position of each layer in the order they were added, used to return query results in the
+     * same order as the layers collection
+     */
+    transient Map<LayerInfo, Long> layerSequence;
+
+    transient AtomicLong nextLayerSequence;
+
+    /**
+     * incremented every time a layer is indexed or unindexed, invalidates the sorted views
+     */
+    transient AtomicLong layersVersion;
+
+    transient Map<String, SortedLayers> sortedLayers;
+
+    transient Map<String, LayerGroupInfo> layerGroupsById;
+
+    transient MultiIndex<LayerGroupInfo> layerGroupsByName;
+
+    transient MultiIndex<LayerGroupInfo> layerGroupsByWorkspace;
+
+    transient Map<String, StyleInfo> stylesById;
+
+    transient MultiIndex<StyleInfo> stylesByName;
+
+    transient MultiIndex<StyleInfo> stylesByWorkspace;
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        super(catalog);
+        layers = Collections.synchronizedList(new ArrayList<LayerInfo>());
+        layerGroups = Collections.synchronizedList(new ArrayList<LayerGroupInfo>());
+        styles = Collections.synchronizedList(new ArrayList<StyleInfo>());
+        createIndexes();
+    }
+
+    void createIndexes() {
+        layersById = new ConcurrentHashMap<String, LayerInfo>();
+        layersByName = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                keys.add(layer.getName());
+            }
+        };
+        layersByPrefixedName = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                keys.add(layer.prefixedName());
+            }
+        };
+        layersByResource = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                keys.add(layer.getResource().getId());
+            }
+        };
+        layersByStore = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                keys.add(layer.getResource().getStore().getId());
+            }
+        };
+        layersByWorkspace = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                keys.add(layer.getResource().getStore().getWorkspace().getId());
+            }
+        };
+        layersByStyle = new MultiIndex<LayerInfo>() {
+            protected void keys(LayerInfo layer, Collection<Object> keys) {
+                if (layer.getDefaultStyle() != null) {
+                    keys.add(layer.getDefaultStyle().getId());
+                }
+                for (StyleInfo style : layer.getStyles()) {
+                    if (style != null) {
+                        keys.add(style.getId());
+                    }
+                }
+            }
+        };
+        layersByStoreName = new PropertyIndex(LAYER_PROPERTIES.get("resource.store.name"));
+        layersByWorkspaceName = new PropertyIndex(
+                LAYER_PROPERTIES.get("resource.store.workspace.name"));
+
+        layerIndexes = new HashMap<String, MultiIndex<LayerInfo>>();
+        layerIndexes.put("name", layersByName);
+        layerIndexes.put("resource.name", layersByName);
+        layerIndexes.put("resource.id", layersByResource);
+        layerIndexes.put("resource.store.id", layersByStore);
+        layerIndexes.put("resource.store.name", layersByStoreName);
+        layerIndexes.put("resource.store.workspace.id", layersByWorkspace);
+        layerIndexes.put("resource.store.workspace.name", layersByWorkspaceName);
+        layerIndexes.put("defaultStyle.id", layersByStyle);
+        layerIndexes.put("styles.id", layersByStyle);
+
+        layerSequence = Collections.synchronizedMap(new IdentityHashMap<LayerInfo, Long>());
+        nextLayerSequence = new AtomicLong();
+        layersVersion = new AtomicLong();
+        sortedLayers = new ConcurrentHashMap<String, SortedLayers>();
+
+        layerGroupsById = new ConcurrentHashMap<String, LayerGroupInfo>();
+        layerGroupsByName = new MultiIndex<LayerGroupInfo>() {
+            protected void keys(LayerGroupInfo layerGroup, Collection<Object> keys) {
+                keys.add(layerGroup.getName());
+            }
+        };
+        layerGroupsByWorkspace = new MultiIndex<LayerGroupInfo>() {
+            protected void keys(LayerGroupInfo layerGroup, Collection<Object> keys) {
+                keys.add(workspaceKey(layerGroup.getWorkspace()));
+            }
+        };
+
+        stylesById = new ConcurrentHashMap<String, StyleInfo>();
+        stylesByName = new MultiIndex<StyleInfo>() {
+            protected void keys(StyleInfo style, Collection<Object> keys) {
+                keys.add(style.getName());
+            }
+        };
+        stylesByWorkspace = new MultiIndex<StyleInfo>() {
+            protected void keys(StyleInfo style, Collection<Object> keys) {
+                keys.add(workspaceKey(style.getWorkspace()));
+            }
+        };
+    }
+
+    static Object workspaceKey(WorkspaceInfo workspace) {
+        return workspace == null ? NO_WORKSPACE_KEY : workspace.getId();
+    }
+
+    //
+    // Stores
+    //
+    @Override
+    public void save(StoreInfo store) {
+        super.save(store);
+        reindexLayers(layersByStore.get(store.getId()));
+    }
+
+    //
+    // Resources
+    //
+    @Override
+    public void save(ResourceInfo resource) {
+        super.save(resource);
+        reindexLayers(layersByResource.get(resource.getId()));
+    }
+
+    //
+    // Layers
+    //
+    @Override
+    public LayerInfo add(LayerInfo layer) {
+        LayerInfo added = super.add(layer);
+        LayerInfo real = unwrap(layer);
+        layerSequence.put(real, nextLayerSequence.getAndIncrement());
+        index(real);
+        return added;
+    }
+
+    @Override
+    public void remove(LayerInfo layer) {
+        LayerInfo real = layer.getId() != null ? layersById.get(layer.getId()) : null;
+        super.remove(layer);
+        if (real != null) {
+            unindex(real);
+            layerSequence.remove(real);
+        }
+    }
+
+    @Override
+    public void save(LayerInfo layer) {
+        super.save(layer);
+        reindexLayers(Collections.singletonList(layersById.get(layer.getId())));
+    }
+
+    @Override
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = layersById.get(id);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    @Override
+    public LayerInfo getLayerByName(String name) {
+        for (LayerInfo layer : layersByName.get(name)) {
+            if (name.equals(layer.getName())) {
+                return ModificationProxy.create(layer, LayerInfo.class);
+            }
+        }
+        if (name.indexOf(':') != -1) {
+            List<LayerInfo> matches = layersByPrefixedName.get(name);
+            if (!matches.isEmpty()) {
+                return ModificationProxy.create(matches.get(0), LayerInfo.class);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        if (resource.getId() == null) {
+            return super.getLayers(resource);
+        }
+        return ModificationProxy.createList(layersByResource.get(resource.getId()),
+                LayerInfo.class);
+    }
+
+    @Override
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        if (style.getId() == null) {
+            return super.getLayers(style);
+        }
+        return ModificationProxy.createList(layersByStyle.get(style.getId()), LayerInfo.class);
+    }
+
+    void index(LayerInfo layer) {
+        layersById.put(layer.getId(), layer);
+        layersByName.add(layer);
+        layersByPrefixedName.add(layer);
+        layersByResource.add(layer);
+        layersByStore.add(layer);
+        layersByWorkspace.add(layer);
+        layersByStyle.add(layer);
+        layersByStoreName.add(layer);
+        layersByWorkspaceName.add(layer);
+        layersVersion.incrementAndGet();
+    }
+
+    void unindex(LayerInfo layer) {
+        layersById.remove(layer.getId());
+        layersByName.remove(layer);
+        layersByPrefixedName.remove(layer);
+        layersByResource.remove(layer);
+        layersByStore.remove(layer);
+        layersByWorkspace.remove(layer);
+        layersByStyle.remove(layer);
+        layersByStoreName.remove(layer);
+        layersByWorkspaceName.remove(layer);
+        layersVersion.incrementAndGet();
+    }
+
+    void reindexLayers(List<LayerInfo> toReindex) {
+        for (LayerInfo layer : toReindex) {
+            if (layer != null) {
+                unindex(layer);
+                index(layer);
+            }
+        }
+    }
+
+    //
+    // Layer groups
+    //
+    @Override
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        LayerGroupInfo added = super.add(layerGroup);
+        index(unwrap(layerGroup));
+        return added;
+    }
+
+    @Override
+    public void remove(LayerGroupInfo layerGroup) {
+        LayerGroupInfo real = layerGroup.getId() != null ?
+                layerGroupsById.get(layerGroup.getId()) : null;
+        super.remove(layerGroup);
+        if (real != null) {
+            unindex(real);
+        }
+    }
+
+    @Override
+    public void save(LayerGroupInfo layerGroup) {
+        super.save(layerGroup);
+        LayerGroupInfo real = layerGroupsById.get(layerGroup.getId());
+        if (real != null) {
+            unindex(real);
+            index(real);
+        }
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroup(String id) {
+        LayerGroupInfo layerGroup = layerGroupsById.get(id);
+        return layerGroup != null ?
+                ModificationProxy.create(layerGroup, LayerGroupInfo.class) : null;
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        LayerGroupInfo match = null;
+        for (LayerGroupInfo layerGroup : layerGroupsByName.get(name)) {
+            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+            boolean matches;
+            if (NO_WORKSPACE == workspace) {
+                matches = lgWorkspace == null;
+            } else if (ANY_WORKSPACE == workspace) {
+                matches = true;
+            } else {
+                matches = lgWorkspace != null && workspace.equals(lgWorkspace);
+            }
+            if (matches) {
+                if (match != null) {
+                    // ambiguous
+                    return null;
+                }
+                match = layerGroup;
+            }
+        }
+
+        return match != null ? ModificationProxy.create(match, LayerGroupInfo.class) : null;
+    }
+
+    @Override
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace != NO_WORKSPACE && (workspace == null || workspace.getId() == null)) {
+            return super.getLayerGroupsByWorkspace(workspace);
+        }
+
+        Object key = workspace == NO_WORKSPACE ? NO_WORKSPACE_KEY : workspace.getId();
+        return ModificationProxy.createList(layerGroupsByWorkspace.get(key),
+                LayerGroupInfo.class);
+    }
+
+    void index(LayerGroupInfo layerGroup) {
+        layerGroupsById.put(layerGroup.getId(), layerGroup);
+        layerGroupsByName.add(layerGroup);
+        layerGroupsByWorkspace.add(layerGroup);
+    }
+
+    void unindex(LayerGroupInfo layerGroup) {
+        layerGroupsById.remove(layerGroup.getId());
+        layerGroupsByName.remove(layerGroup);
+        layerGroupsByWorkspace.remove(layerGroup);
+    }
+
+    //
+    // Workspaces
+    //
+    @Override
+    public void save(WorkspaceInfo workspace) {
+        super.save(workspace);
+        // prefixed names depend on the workspace name
+        reindexLayers(layersByWorkspace.get(workspace.getId()));
+    }
+
+    //
+    // Styles
+    //
+    @Override
+    public StyleInfo add(StyleInfo style) {
+        StyleInfo added = super.add(style);
+        index(unwrap(style));
+        return added;
+    }
+
+    @Override
+    public void remove(StyleInfo style) {
+        StyleInfo real = style.getId() != null ? stylesById.get(style.getId()) : null;
+        super.remove(style);
+        if (real != null) {
+            unindex(real);
+        }
+    }
+
+    @Override
+    public void save(StyleInfo style) {
+        super.save(style);
+        StyleInfo real = stylesById.get(style.getId());
+        if (real != null) {
+            unindex(real);
+            index(real);
+        }
+    }
+
+    @Override
+    public StyleInfo getStyle(String id) {
+        StyleInfo style = stylesById.get(id);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(String name) {
+        for (StyleInfo style : stylesByName.get(name)) {
+            if (null == style.getWorkspace()) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+
+        List<StyleInfo> candidates = stylesByName.get(name);
+        if (workspace == ANY_WORKSPACE) {
+            if (candidates.size() == 1) {
+                return ModificationProxy.create(candidates.get(0), StyleInfo.class);
+            }
+            return null;
+        }
+        for (StyleInfo style : candidates) {
+            if (style.getWorkspace() != null && style.getWorkspace().equals(workspace)
+                    || style.getWorkspace() == null && workspace == NO_WORKSPACE) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace != NO_WORKSPACE && (workspace == null || workspace.getId() == null)) {
+            return super.getStylesByWorkspace(workspace);
+        }
+
+        Object key = workspace == NO_WORKSPACE ? NO_WORKSPACE_KEY : workspace.getId();
+        return ModificationProxy.createList(stylesByWorkspace.get(key), StyleInfo.class);
+    }
+
+    void index(StyleInfo style) {
+        stylesById.put(style.getId(), style);
+        stylesByName.add(style);
+        stylesByWorkspace.add(style);
+    }
+
+    void unindex(StyleInfo style) {
+        stylesById.remove(style.getId());
+        stylesByName.remove(style);
+        stylesByWorkspace.remove(style);
+    }
+
+    //
+    // Lifecycle
+    //
+    @Override
+    protected void rebuildIndexes() {
+        // collections coming from xstream or another facade may be copy on write or plain lists
+        layers = synchronizedList(layers);
+        layerGroups = synchronizedList(layerGroups);
+        styles = synchronizedList(styles);
+
+        createIndexes();
+        for (LayerInfo layer : new ArrayList<LayerInfo>(layers)) {
+            layerSequence.put(layer, nextLayerSequence.getAndIncrement());
+            index(layer);
+        }
+        for (LayerGroupInfo layerGroup : new ArrayList<LayerGroupInfo>(layerGroups)) {
+            index(layerGroup);
+        }
+        for (StyleInfo style : new ArrayList<StyleInfo>(styles)) {
+            index(style);
+        }
+    }
+
+    static <T> List<T> synchronizedList(List<T> list) {
+        if (list == null) {
+            return Collections.synchronizedList(new ArrayList<T>());
+        }
+        if (SYNCHRONIZED_LIST.isInstance(list)) {
+            return list;
+        }
+        return Collections.synchronizedList(new ArrayList<T>(list));
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        createIndexes();
+    }
+
+    //
+    // Queries
+    //
+    @Override
+    public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
+        if (!LayerInfo.class.isAssignableFrom(of)) {
+            return super.count(of, filter);
+        }
+        if (Filter.INCLUDE.equals(filter)) {
+            return layers.size();
+        }
+        return Iterables.size(queryLayers(filter, null));
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public <T extends CatalogInfo> Iterable<T> iterable(final Class<? super T> of,
+            final Filter filter, final SortBy sortBy) {
+        if (!LayerInfo.class.isAssignableFrom(of)) {
+            return super.iterable(of, filter, sortBy);
+        }
+
+        Iterable<LayerInfo> result = queryLayers(filter, sortBy);
+        // only wrap the layers actually consumed by the caller, lists are kept as such so that
+        // skipping to the requested page does not walk the skipped layers
+        if (result instanceof List) {
+            return (Iterable) Lists.transform((List<LayerInfo>) result, PROXY_LAYER);
+        }
+        return (Iterable) Iterables.transform(result, PROXY_LAYER);
+    }
+
+    /**
+     * Returns the (unwrapped) layers matching the filter, in the requested order or in the
+     * order of the layers collection if no sort order is specified.
+     */
+    Iterable<LayerInfo> queryLayers(final Filter filter, final SortBy sortBy) {
+        final boolean include = Filter.INCLUDE.equals(filter);
+        Collection<LayerInfo> candidates = include ? null : candidateLayers(filter);
+
+        List<LayerInfo> sorted;
+        if (sortBy == null) {
+            sorted = candidates == null ? snapshot(layers) : inNaturalOrder(candidates);
+        } else {
+            String property = sortBy.getPropertyName().getPropertyName();
+            boolean ascending = !SortOrder.DESCENDING.equals(sortBy.getSortOrder());
+            LayerProperty sortProperty = LAYER_PROPERTIES.get(property);
+            if (sortProperty != null && sortProperty.sortable
+                    && (candidates == null || candidates.size() > layers.size() / 2)) {
+                // walk the cached sorted view, evaluating the filter on the fly
+                sorted = Arrays.asList(sortedLayers(property, ascending).layers);
+            } else {
+                sorted = candidates == null ? snapshot(layers) : inNaturalOrder(candidates);
+                Comparator<Object> comparator = comparator(sortBy);
+                if (!ascending) {
+                    comparator = Collections.reverseOrder(comparator);
+                }
+                Collections.sort(sorted, comparator);
+            }
+        }
+
+        if (include) {
+            return sorted;
+        }
+        return Iterables.filter(sorted, new Predicate<LayerInfo>() {
+            public boolean apply(LayerInfo input) {
+                return filter.evaluate(input);
+            }
+        });
+    }
+
+    /**
+     * Uses the indexes to compute a superset of the layers matching the filter, the filter
+     * still has to be evaluated against each of the returned layers.
+     * 
+     * @return the candidate layers, in no particular order, or <code>null</code> if the
+     *         indexes can't help with the filter and all layers are candidates
+     */
+    Collection<LayerInfo> candidateLayers(Filter filter) {
+        if (Filter.EXCLUDE.equals(filter)) {
+            return Collections.emptyList();
+        }
+        if (filter instanceof PropertyIsEqualTo) {
+            return candidateLayers((PropertyIsEqualTo) filter);
+        }
+        if (filter instanceof PropertyIsLike) {
+            return candidateLayers((PropertyIsLike) filter);
+        }
+        if (filter instanceof And) {
+            // the most selective of the indexed conditions
+            Collection<LayerInfo> best = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Collection<LayerInfo> candidates = candidateLayers(child);
+                if (candidates != null && (best == null || candidates.size() < best.size())) {
+                    best = candidates;
+                }
+            }
+            return best;
+        }
+        if (filter instanceof Or) {
+            // usable only if all the conditions are
+            Set<LayerInfo> union = Collections
+                    .newSetFromMap(new IdentityHashMap<LayerInfo, Boolean>());
+            for (Filter child : ((Or) filter).getChildren()) {
+                Collection<LayerInfo> candidates = candidateLayers(child);
+                if (candidates == null) {
+                    return null;
+                }
+                union.addAll(candidates);
+            }
+            return union;
+        }
+        return null;
+    }
+
+    Collection<LayerInfo> candidateLayers(PropertyIsEqualTo equal) {
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        if (e1 instanceof Literal && e2 instanceof PropertyName) {
+            Expression tmp = e1;
+            e1 = e2;
+            e2 = tmp;
+        }
+        if (!(e1 instanceof PropertyName && e2 instanceof Literal)) {
+            return null;
+        }
+
+        String path = ((PropertyName) e1).getPropertyName();
+        LayerProperty property = LAYER_PROPERTIES.get(path);
+        if (property == null || (property.binding == String.class && !equal.isMatchingCase())) {
+            return null;
+        }
+        Object key = property.key(((Literal) e2).getValue());
+        if (key == null) {
+            return null;
+        }
+
+        if ("id".equals(path)) {
+            LayerInfo layer = layersById.get(key);
+            return layer == null ? Collections.<LayerInfo>emptyList() : Collections
+                    .singletonList(layer);
+        }
+        // sortable only properties are left to the filter
+        MultiIndex<LayerInfo> index = layerIndexes.get(path);
+        return index != null ? index.get(key) : null;
+    }
+
+    Collection<LayerInfo> candidateLayers(PropertyIsLike like) {
+        if (!(like.getExpression() instanceof PropertyName) || !like.isMatchingCase()) {
+            return null;
+        }
+        String path = ((PropertyName) like.getExpression()).getPropertyName();
+        LayerProperty property = LAYER_PROPERTIES.get(path);
+        if (property == null || !property.sortable || property.binding != String.class) {
+            return null;
+        }
+
+        // the literal part of the pattern up to the first special character
+        String pattern = like.getLiteral();
+        int end = pattern.length();
+        for (String special : new String[] { like.getWildCard(), like.getSingleChar(),
+                like.getEscape() }) {
+            int idx = special == null || special.length() == 0 ? -1 : pattern.indexOf(special);
+            if (idx != -1 && idx < end) {
+                end = idx;
+            }
+        }
+        String prefix = pattern.substring(0, end);
+        if (prefix.length() == 0) {
+            return null;
+        }
+
+        // binary search the ascending view, null keys sort first
+        SortedLayers view = sortedLayers(path, true);
+        int low = 0;
+        int high = view.keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            String key = (String) view.keys[mid];
+            if (key == null || key.compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<LayerInfo> matches = new ArrayList<LayerInfo>();
+        for (int i = low; i < view.keys.length && ((String) view.keys[i]).startsWith(prefix); i++) {
+            matches.add(view.layers[i]);
+        }
+        return matches;
+    }
+
+    List<LayerInfo> snapshot(List<LayerInfo> list) {
+        synchronized (list) {
+            return new ArrayList<LayerInfo>(list);
+        }
+    }
+
+    /**
+     * Sorts the layers in the order they appear in the layers collection.
+     */
+    List<LayerInfo> inNaturalOrder(Collection<LayerInfo> candidates) {
+        final Map<LayerInfo, Long> sequence = new IdentityHashMap<LayerInfo, Long>();
+        for (LayerInfo layer : candidates) {
+            Long position = layerSequence.get(layer);
+            sequence.put(layer, position == null ? Long.MAX_VALUE : position);
+        }
+        List<LayerInfo> sorted = new ArrayList<LayerInfo>(sequence.keySet());
+        Collections.sort(sorted, new Comparator<LayerInfo>() {
+            public int compare(LayerInfo l1, LayerInfo l2) {
+                return sequence.get(l1).compareTo(sequence.get(l2));
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Returns the layers sorted by the specified property, reusing the last sorted view if no
+     * layer has been indexed or unindexed since it was built.
+     */
+    SortedLayers sortedLayers(String property, boolean ascending) {
+        String cacheKey = property + (ascending ? " ASC" : " DESC");
+        // read the version before taking the snapshot, so that concurrent changes invalidate it
+        long version = layersVersion.get();
+        SortedLayers sorted = sortedLayers.get(cacheKey);
+        if (sorted == null || sorted.version != version) {
+            sorted = new SortedLayers(version, snapshot(layers), LAYER_PROPERTIES.get(property),
+                    ascending);
+            sortedLayers.put(cacheKey, sorted);
+        }
+        return sorted;
+    }
+
+    /**
+     * A layer property the facade keeps an index for.
+     */
+    static abstract class LayerProperty {
+
+        final Class<?> binding;
+
+        final boolean sortable;
+
+        LayerProperty(Class<?> binding, boolean sortable) {
+            this.binding = binding;
+            this.sortable = sortable;
+        }
+
+        abstract Object get(LayerInfo layer);
+
+        /**
+         * The property value, or <code>null</code> if it can't be computed due to unresolved
+         * references.
+         */
+        Object value(LayerInfo layer) {
+            try {
+                return get(layer);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Converts a filter literal to the key the property is indexed under, returns
+         * <code>null</code> if the literal can't be matched against the index.
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object key(Object literal) {
+            if (binding.isInstance(literal)) {
+                return literal;
+            }
+            if (!(literal instanceof String)) {
+                return null;
+            }
+            String value = ((String) literal).trim();
+            if (binding == Boolean.class) {
+                return "true".equalsIgnoreCase(value) ? Boolean.TRUE : "false"
+                        .equalsIgnoreCase(value) ? Boolean.FALSE : null;
+            }
+            if (binding.isEnum()) {
+                try {
+                    return Enum.valueOf((Class<Enum>) binding, value);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Indexes layers by the value of a {@link LayerProperty}.
+     */
+    static class PropertyIndex extends MultiIndex<LayerInfo> {
+
+        final LayerProperty property;
+
+        PropertyIndex(LayerProperty property) {
+            this.property = property;
+        }
+
+        protected void keys(LayerInfo layer, Collection<Object> keys) {
+            keys.add(property.get(layer));
+        }
+    }
+
+    /**
+     * Immutable view of the layers sorted by a property, along with the sort keys.
+     */
+    static class SortedLayers {
+
+        final long version;
+
+        final LayerInfo[] layers;
+
+        final Object[] keys;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        SortedLayers(long version, List<LayerInfo> all, LayerProperty property,
+                boolean ascending) {
+            this.version = version;
+
+            // compute the keys once, the sort is stable so ties keep the natural order
+            final Map<LayerInfo, Object> values = new IdentityHashMap<LayerInfo, Object>();
+            for (LayerInfo layer : all) {
+                values.put(layer, property.value(layer));
+            }
+            Comparator<LayerInfo> comparator = new Comparator<LayerInfo>() {
+                public int compare(LayerInfo l1, LayerInfo l2) {
+                    Comparable v1 = (Comparable) values.get(l1);
+                    Comparable v2 = (Comparable) values.get(l2);
+                    if (v1 == null) {
+                        return v2 == null ? 0 : -1;
+                    } else if (v2 == null) {
+                        return 1;
+                    }
+                    return v1.compareTo(v2);
+                }
+            };
+            if (!ascending) {
+                comparator = Collections.reverseOrder(comparator);
+            }
+            Collections.sort(all, comparator);
+
+            layers = all.toArray(new LayerInfo[all.size()]);
+            keys = new Object[layers.length];
+            for (int i = 0; i < layers.length; i++) {
+                keys[i] = values.get(layers[i]);
+            }
+        }
+    }
+
+    /**
+     * A thread safe index mapping keys to the (possibly many) objects they identify.
+     * <p>
+     * Access is serialized, and lookups return a copy of the matching objects, so that adding
+     * objects in bulk does not copy the lists already indexed. The keys an object was indexed
+     * under are remembered so that it can be unindexed after its properties changed.
+     * </p>
+     */
+    static abstract class MultiIndex<T> {
+
+        final Map<Object, List<T>> index = new HashMap<Object, List<T>>();
+
+        final Map<T, Collection<Object>> keys = new IdentityHashMap<T, Collection<Object>>();
+
+        /**
+         * Collects the keys the object should be indexed under.
+         */
+        protected abstract void keys(T object, Collection<Object> keys);
+
+        /**
+         * Returns a copy of the objects indexed under the key, the caller is free to modify it.
+         */
+        public synchronized List<T> get(Object key) {
+            List<T> objects = key != null ? index.get(key) : null;
+            return objects != null ? new ArrayList<T>(objects) : new ArrayList<T>();
+        }
+
+        public synchronized void add(T object) {
+            Collection<Object> objectKeys = new LinkedHashSet<Object>();
+            try {
+                keys(object, objectKeys);
+            } catch (RuntimeException e) {
+                // unresolved references, keep whatever keys could be computed
+                LOGGER.log(Level.FINE, "Unable to compute all index keys for " + object, e);
+            }
+            objectKeys.remove(null);
+
+            for (Object key : objectKeys) {
+                List<T> objects = index.get(key);
+                if (objects == null) {
+                    objects = new ArrayList<T>();
+                    index.put(key, objects);
+                }
+                objects.add(object);
+            }
+            keys.put(object, objectKeys);
+        }
+
+        public synchronized void remove(T object) {
+            Collection<Object> objectKeys = keys.remove(object);
+            if (objectKeys == null) {
+                return;
+            }
+            for (Object key : objectKeys) {
+                List<T> objects = index.get(key);
+                if (objects == null) {
+                    continue;
+                }
+                for (int i = 0; i < objects.size(); i++) {
+                    if (objects.get(i) == object) {
+                        objects.remove(i);
+                        break;
+                    }
+                }
+                if (objects.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+}
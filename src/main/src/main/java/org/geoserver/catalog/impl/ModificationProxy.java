@@ -10,12 +10,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogInfo;
@@ -41,6 +43,10 @@ import org.opengis.filter.FilterFactory;
  * Any collections handled through this interface are cloned and client code 
  * obtains a copy. The two collections will be synced on a call to {@link #commit()}.
  * </p>
+ * <p>
+ * Method classification and getter/setter lookups are computed once per method and per proxied 
+ * class and then cached, as proxies are created for every catalog object handed out.
+ * </p>
  * 
  * @author Justin Deoliveira, The Open Planning Project
  * 
@@ -54,11 +60,6 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      */
     Object proxyObject;
     
-    /**
-     * reflection helper
-     */
-    transient ClassProperties cp;
-    
     /** 
      * "dirty" properties 
      */
@@ -75,32 +76,23 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         this.proxyObject = proxyObject;
     }
 
-    private ClassProperties cp(){
-        if(cp == null){
-            this.cp = OwsUtils.getClassProperties(proxyObject.getClass());
-        }
-        return cp;
-    }
-    
     /**
      * Intercepts getter and setter methods.
      */
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         
-        String property = null;
-        if ( ( method.getName().startsWith( "get")  || method.getName().startsWith( "is" ) ) 
-                && method.getParameterTypes().length == 0 ) {
+        MethodInfo info = methodInfo( method );
+        String property = info.property;
+        if ( info.kind == MethodInfo.GETTER ) {
             //intercept getter to check the dirty property set
-            property = method.getName().substring( 
-                method.getName().startsWith( "get") ? 3 : 2 );
             if ( properties != null && properties().containsKey( property ) ) {
                 //return the previously set object
                 return properties().get( property );
             }
             else {
                 //if collection, create a wrapper
-                if ( Collection.class.isAssignableFrom( method.getReturnType() ) ) {
+                if ( info.collection ) {
                     Collection real = (Collection) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
@@ -115,7 +107,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     clone.addAll( real );
                     oldCollectionValues().put(property, clone);
                     return wrap;
-                } else if(Map.class.isAssignableFrom( method.getReturnType() )) {
+                } else if( info.map ) {
                     Map real = (Map) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
@@ -137,9 +129,8 @@ public class ModificationProxy implements WrappingProxy, Serializable {
             }
             
         }
-        if ( method.getName().startsWith( "set") && args.length == 1) {
+        if ( info.kind == MethodInfo.SETTER ) {
             //intercept setter and put new value in list
-            property = method.getName().substring( 3 );
             properties().put( property, args[0] );
             
             return null;
@@ -288,6 +279,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      * are changed.
      */
     public boolean isDirty() {
+        if ( properties == null ) {
+            return false;
+        }
         boolean dirty = false;
         for ( Iterator i = properties().entrySet().iterator(); i.hasNext() && !dirty; ) {
             Map.Entry e = (Map.Entry) i.next();
@@ -400,37 +394,192 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      * Helper method for looking up a getter method.
      */
     Method getter( String propertyName ) {
-        Method g = null;
-        try {
-            g = proxyObject.getClass().getMethod( "get" + propertyName , null );
+        return accessors( proxyObject.getClass() ).getter( propertyName );
+    }
+
+    /*
+     * Helper method for looking up a setter method.
+     */
+    Method setter( String propertyName, Class type ) {
+        return accessors( proxyObject.getClass() ).setter( propertyName, type );
+    }
+
+    /**
+     * Returns the parsed description of a proxied method, computed once per method.
+     */
+    static MethodInfo methodInfo( Method method ) {
+        MethodInfo info = METHODS.get( method );
+        if ( info == null ) {
+            info = new MethodInfo( method );
+            MethodInfo existing = METHODS.putIfAbsent( method, info );
+            if ( existing != null ) {
+                info = existing;
+            }
         }
-        catch( NoSuchMethodException e1 ) {
-            //could be boolean
-            try {
-                g = proxyObject.getClass().getMethod( "is" + propertyName , null );    
+        return info;
+    }
+
+    /**
+     * Returns the accessor table of a proxied class, computed once per class.
+     */
+    static Accessors accessors( Class clazz ) {
+        Accessors accessors = ACCESSORS.get( clazz );
+        if ( accessors == null ) {
+            accessors = new Accessors( clazz );
+            Accessors existing = ACCESSORS.putIfAbsent( clazz, accessors );
+            if ( existing != null ) {
+                accessors = existing;
             }
-            catch( NoSuchMethodException e2 ) {}
         }
+        return accessors;
+    }
+
+    /**
+     * Proxied method descriptions, keyed by interface method
+     */
+    static final ConcurrentHashMap<Method, MethodInfo> METHODS = 
+        new ConcurrentHashMap<Method, MethodInfo>();
+
+    /**
+     * Accessor tables, keyed by proxied class
+     */
+    static final ConcurrentHashMap<Class, Accessors> ACCESSORS = 
+        new ConcurrentHashMap<Class, Accessors>();
+
+    /**
+     * Description of a proxied method, classifying it as getter, setter or other method so that 
+     * {@link ModificationProxy#invoke(Object, Method, Object[])} does not need to parse the method
+     * name and signature on each call.
+     */
+    static final class MethodInfo {
         
-        if ( g == null ) {
-            g = cp().getter(propertyName, null);
-        }
+        static final int GETTER = 0;
+        static final int SETTER = 1;
+        static final int OTHER = 2;
+        
+        final int kind;
         
-        return g;
+        /** name of the property, null for methods other than getters and setters */
+        final String property;
+        
+        /** getter returning a collection */
+        final boolean collection;
+        
+        /** getter returning a map */
+        final boolean map;
+        
+        MethodInfo( Method method ) {
+            String name = method.getName();
+            int params = method.getParameterTypes().length;
+            if ( ( name.startsWith( "get") || name.startsWith( "is" ) ) && params == 0 ) {
+                kind = GETTER;
+                property = name.substring( name.startsWith( "get") ? 3 : 2 );
+                collection = Collection.class.isAssignableFrom( method.getReturnType() );
+                map = !collection && Map.class.isAssignableFrom( method.getReturnType() );
+            }
+            else if ( name.startsWith( "set" ) && params == 1 ) {
+                kind = SETTER;
+                property = name.substring( 3 );
+                collection = false;
+                map = false;
+            }
+            else {
+                kind = OTHER;
+                property = null;
+                collection = false;
+                map = false;
+            }
+        }
     }
 
-    /*
-     * Helper method for looking up a getter method.
+    /**
+     * Getters and setters of a proxied class, looked up on first use and then cached, used when
+     * comparing and committing the dirty properties.
      */
-    Method setter( String propertyName, Class type ) {
-        Method s = null;
-        try {
-            s = proxyObject.getClass().getMethod( "set" + propertyName, type );
+    static final class Accessors {
+        
+        final Class clazz;
+        
+        final ConcurrentHashMap<String, Accessor> getters = 
+            new ConcurrentHashMap<String, Accessor>();
+        
+        final ConcurrentHashMap<List<Object>, Accessor> setters = 
+            new ConcurrentHashMap<List<Object>, Accessor>();
+        
+        ClassProperties cp;
+        
+        Accessors( Class clazz ) {
+            this.clazz = clazz;
+        }
+        
+        Method getter( String propertyName ) {
+            Accessor a = getters.get( propertyName );
+            if ( a == null ) {
+                a = new Accessor( findGetter( propertyName ) );
+                getters.putIfAbsent( propertyName, a );
+            }
+            return a.method;
         }
-        catch( NoSuchMethodException e ) {
-            s = cp().setter(propertyName, type);
+        
+        Method setter( String propertyName, Class type ) {
+            List<Object> key = Arrays.asList( new Object[] { propertyName, type } );
+            Accessor a = setters.get( key );
+            if ( a == null ) {
+                a = new Accessor( findSetter( propertyName, type ) );
+                setters.putIfAbsent( key, a );
+            }
+            return a.method;
+        }
+        
+        Method findGetter( String propertyName ) {
+            Method g = null;
+            try {
+                g = clazz.getMethod( "get" + propertyName , null );
+            }
+            catch( NoSuchMethodException e1 ) {
+                //could be boolean
+                try {
+                    g = clazz.getMethod( "is" + propertyName , null );    
+                }
+                catch( NoSuchMethodException e2 ) {}
+            }
+            
+            if ( g == null ) {
+                g = cp().getter(propertyName, null);
+            }
+            
+            return g;
+        }
+        
+        Method findSetter( String propertyName, Class type ) {
+            Method s = null;
+            try {
+                s = clazz.getMethod( "set" + propertyName, type );
+            }
+            catch( NoSuchMethodException e ) {
+                s = cp().setter(propertyName, type);
+            }
+            return s;
+        }
+        
+        synchronized ClassProperties cp() {
+            if ( cp == null ) {
+                cp = OwsUtils.getClassProperties( clazz );
+            }
+            return cp;
+        }
+    }
+    
+    /**
+     * Holder for a possibly missing method, as concurrent maps do not accept null values
+     */
+    static final class Accessor {
+        
+        final Method method;
+        
+        Accessor( Method method ) {
+            this.method = method;
         }
-        return s;
     }
 
     private Object readResolve() throws ObjectStreamException {
@@ -4,11 +4,13 @@
  */
 package org.geoserver.catalog.impl;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for working with proxies.
@@ -18,6 +20,14 @@ import java.util.List;
  */
 public class ProxyUtils {
 
+    /**
+     * Proxy class constructors, keyed by the class of the proxied object and the explicit
+     * interface, proxies are created for every catalog object handed out so we avoid looking up
+     * the proxy class and its constructor each time
+     */
+    static final ConcurrentHashMap<List<Class>, Constructor> PROXY_CONSTRUCTORS = 
+        new ConcurrentHashMap<List<Class>, Constructor>();
+
     /**
      * Creates a proxy for the specified object.
      * 
@@ -26,12 +36,32 @@ public class ProxyUtils {
      * @param h The invocation handler to intercept method calls.
      */
     public static <T> T createProxy(T proxyObject, Class<T> clazz, InvocationHandler h) {
+        T proxy;
+        try {
+            proxy = (T) proxyConstructor(proxyObject.getClass(), clazz).newInstance(
+                new Object[] { h } );
+        }
+        catch( Exception e ) {
+            throw new RuntimeException( e );
+        }
+        
+        return proxy;
+    }
+
+    static Constructor proxyConstructor(Class<?> objectClass, Class<?> clazz) 
+        throws NoSuchMethodException {
+        List<Class> key = Arrays.asList(new Class[] { objectClass, clazz });
+        Constructor constructor = PROXY_CONSTRUCTORS.get(key);
+        if (constructor != null) {
+            return constructor;
+        }
+        
         // proxy all interfaces implemented by the source object
-        List<Class> proxyInterfaces = (List) Arrays.asList( proxyObject.getClass().getInterfaces() );
+        List<Class> proxyInterfaces = (List) Arrays.asList( objectClass.getInterfaces() );
         
         // ensure that the specified class is included
         boolean add = true;
-        for ( Class interfce : proxyObject.getClass().getInterfaces() ) {
+        for ( Class interfce : objectClass.getInterfaces() ) {
             if ( clazz.isAssignableFrom( interfce) ) {
                 add = false;
                 break;
@@ -45,17 +75,9 @@ public class ProxyUtils {
         
         Class proxyClass = Proxy.getProxyClass( clazz.getClassLoader(), 
             (Class[]) proxyInterfaces.toArray(new Class[proxyInterfaces.size()]) );
-        
-        T proxy;
-        try {
-            proxy = (T) proxyClass.getConstructor(
-                new Class[] { InvocationHandler.class }).newInstance(new Object[] { h } );
-        }
-        catch( Exception e ) {
-            throw new RuntimeException( e );
-        }
-        
-        return proxy;
+        constructor = proxyClass.getConstructor(new Class[] { InvocationHandler.class });
+        PROXY_CONSTRUCTORS.putIfAbsent(key, constructor);
+        return constructor;
     }
 
     /**
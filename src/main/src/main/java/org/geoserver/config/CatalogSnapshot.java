@@ -0,0 +1,358 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Binary snapshot of a catalog read from a 2.x style data directory, used to speed up restarts.
+ * <p>
+ * After the catalog has been read from the XML files, all of its objects are written, in a
+ * compact binary encoding, to a single file in the data directory <tt>temp</tt> folder, along
+ * with a fingerprint of the catalog configuration files (paths, sizes and modification times).
+ * On the next start the snapshot is used instead of parsing the XML files as long as the
+ * fingerprint still matches. A stale, unreadable or incomplete snapshot is simply ignored, and the
+ * catalog is read from the XML files as usual.
+ * </p>
+ *
+ * @see GeoServerLoader#CATALOG_SNAPSHOT
+ */
+class CatalogSnapshot {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    static final String FILENAME = "catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    static final int VERSION = 1;
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersister xp;
+
+    /**
+     * Creates the snapshot.
+     *
+     * @param resourceLoader The data directory resource loader.
+     * @param xp A persister using a binary driver, see
+     *        {@link org.geoserver.config.util.XStreamPersisterFactory#createBinaryPersister()}
+     */
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader, XStreamPersister xp) {
+        this.resourceLoader = resourceLoader;
+        this.xp = xp;
+    }
+
+    /**
+     * Computes the fingerprint of the catalog configuration files, to be computed once the catalog
+     * has been read from the XML files, as reading can update some of them, and passed to
+     * {@link #write(Catalog, String)}.
+     */
+    public String fingerprint() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw (IOException) new IOException().initCause(e);
+        }
+        File root = resourceLoader.getBaseDirectory();
+        for (String dir : new String[] { "workspaces", "styles", "layergroups" }) {
+            fingerprint(new File(root, dir), dir, digest);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return sb.toString();
+    }
+
+    void fingerprint(File file, String path, MessageDigest digest) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        digest.update(path.getBytes("UTF-8"));
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (String child : children) {
+                fingerprint(new File(file, child), path + "/" + child, digest);
+            }
+        } else {
+            digest.update(Long.toString(file.length()).getBytes("UTF-8"));
+            digest.update(Long.toString(file.lastModified()).getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * Reads the catalog from the snapshot.
+     *
+     * @return The catalog, or <code>null</code> if there is no snapshot or it is not usable.
+     */
+    public Catalog read() {
+        long start = System.currentTimeMillis();
+        DataInputStream in = null;
+        try {
+            File f = resourceLoader.find("temp", FILENAME);
+            if (f == null) {
+                return null;
+            }
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.info("Ignoring catalog snapshot written by a different version");
+                return null;
+            }
+            String fingerprint = in.readUTF();
+            if (!fingerprint.equals(fingerprint())) {
+                LOGGER.info("Catalog configuration changed since the last snapshot, "
+                    + "reading the catalog from the data directory");
+                return null;
+            }
+
+            Catalog catalog = read(in);
+            LOGGER.info("Read catalog from snapshot in " + (System.currentTimeMillis() - start)
+                + "ms");
+            return catalog;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to read the catalog snapshot, "
+                + "reading the catalog from the data directory", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    Catalog read(DataInputStream in) throws IOException {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        xp.setCatalog(catalog);
+
+        String defaultWorkspace = readId(in);
+        String defaultNamespace = readId(in);
+        Set<String> failedStores = new HashSet<String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            failedStores.add(in.readUTF());
+        }
+
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, WorkspaceInfo.class));
+        }
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, NamespaceInfo.class));
+        }
+        if (defaultWorkspace != null) {
+            catalog.setDefaultWorkspace(catalog.getWorkspace(defaultWorkspace));
+        }
+        if (defaultNamespace != null) {
+            catalog.setDefaultNamespace(catalog.getNamespace(defaultNamespace));
+        }
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, StyleInfo.class));
+        }
+
+        List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+        for (byte[] record : readRecords(in)) {
+            StoreInfo s = load(record, StoreInfo.class);
+            if (failedStores.contains(s.getId())) {
+                // disabled because of a connection failure at the last load, try again
+                s.setEnabled(true);
+            }
+            catalog.add(s);
+            if (s instanceof DataStoreInfo && s.isEnabled()) {
+                dataStores.add((DataStoreInfo) s);
+            }
+        }
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, ResourceInfo.class));
+        }
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, LayerInfo.class));
+        }
+        // groups are added one at a time, nested groups reference the ones written before them
+        for (byte[] record : readRecords(in)) {
+            catalog.add(load(record, LayerGroupInfo.class));
+        }
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Catalog snapshot is truncated");
+        }
+
+        // same check as when reading from the data directory
+        for (DataStoreInfo ds : dataStores) {
+            try {
+                ds.getDataStore(null);
+            }
+            catch( Throwable t ) {
+                LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                LOGGER.log( Level.INFO, "", t );
+
+                ds.setError(t);
+                ds.setEnabled(false);
+            }
+        }
+        return catalog;
+    }
+
+    List<byte[]> readRecords(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<byte[]> records = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] record = new byte[in.readInt()];
+            in.readFully(record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    <T> T load(byte[] record, Class<T> clazz) throws IOException {
+        return xp.load(new ByteArrayInputStream(record), clazz);
+    }
+
+    String readId(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        return id.length() > 0 ? id : null;
+    }
+
+    /**
+     * Writes out the snapshot of the catalog.
+     *
+     * @param catalog The catalog just read from the data directory.
+     * @param fingerprint The fingerprint of the configuration files the catalog was read from.
+     */
+    public void write(Catalog catalog, String fingerprint) {
+        long start = System.currentTimeMillis();
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            File dir = resourceLoader.findOrCreateDirectory("temp");
+            tmp = File.createTempFile(FILENAME, ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+
+            WorkspaceInfo ws = catalog.getDefaultWorkspace();
+            NamespaceInfo ns = catalog.getDefaultNamespace();
+            writeId(out, ws != null ? ws.getId() : null);
+            writeId(out, ns != null ? ns.getId() : null);
+
+            List<StoreInfo> stores = catalog.getStores(StoreInfo.class);
+            List<String> failedStores = new ArrayList<String>();
+            for (StoreInfo s : stores) {
+                if (!s.isEnabled() && s.getError() != null) {
+                    failedStores.add(s.getId());
+                }
+            }
+            out.writeInt(failedStores.size());
+            for (String id : failedStores) {
+                out.writeUTF(id);
+            }
+
+            writeAll(out, catalog.getWorkspaces());
+            writeAll(out, catalog.getNamespaces());
+            writeAll(out, catalog.getStyles());
+            writeAll(out, stores);
+            writeAll(out, catalog.getResources(ResourceInfo.class));
+            writeAll(out, catalog.getLayers());
+            writeAll(out, sortLayerGroups(catalog.getLayerGroups()));
+            out.writeInt(MAGIC);
+            out.close();
+            out = null;
+
+            File f = new File(dir, FILENAME);
+            if (f.exists() && !f.delete()) {
+                throw new IOException("Unable to delete " + f.getAbsolutePath());
+            }
+            if (!tmp.renameTo(f)) {
+                throw new IOException("Unable to rename " + tmp.getAbsolutePath() + " to "
+                    + f.getAbsolutePath());
+            }
+            tmp = null;
+            LOGGER.info("Wrote catalog snapshot in " + (System.currentTimeMillis() - start)
+                + "ms");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to write the catalog snapshot", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    void writeAll(DataOutputStream out, List<?> objects) throws IOException {
+        out.writeInt(objects.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object o : objects) {
+            bytes.reset();
+            xp.save(o, bytes);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    void writeId(DataOutputStream out, String id) throws IOException {
+        out.writeUTF(id != null ? id : "");
+    }
+
+    /**
+     * Orders the layer groups so that nested groups come before the groups containing them.
+     */
+    List<LayerGroupInfo> sortLayerGroups(List<LayerGroupInfo> groups) {
+        List<LayerGroupInfo> sorted = new ArrayList<LayerGroupInfo>();
+        Set<String> visited = new HashSet<String>();
+        for (LayerGroupInfo lg : groups) {
+            sortLayerGroups(lg, sorted, visited);
+        }
+        return sorted;
+    }
+
+    void sortLayerGroups(LayerGroupInfo lg, List<LayerGroupInfo> sorted, Set<String> visited) {
+        if (!visited.add(lg.getId())) {
+            return;
+        }
+        for (Object child : lg.getLayers()) {
+            if (child instanceof LayerGroupInfo) {
+                sortLayerGroups((LayerGroupInfo) child, sorted, visited);
+            }
+        }
+        sorted.add(lg);
+    }
+}
@@ -67,6 +67,21 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Number of threads used to read the catalog from a 2.x style data directory, looked up as
+     * a system property, context parameter or environment variable. Values greater than one
+     * enable the parallel catalog loading, by default the catalog is read sequentially.
+     */
+    public static final String CATALOG_LOADING_THREADS = "GEOSERVER_CATALOG_LOADING_THREADS";
+    
+    /**
+     * Flag enabling the binary catalog snapshot, looked up as a system property, context 
+     * parameter or environment variable. When set to true the catalog read from a 2.x style data
+     * directory is also saved in a binary snapshot, used on the next start as long as the 
+     * catalog configuration files did not change. See {@link CatalogSnapshot}.
+     */
+    public static final String CATALOG_SNAPSHOT = "GEOSERVER_CATALOG_SNAPSHOT";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
@@ -223,7 +238,20 @@ public abstract class GeoServerLoader {
         File f = resourceLoader.find( "catalog.xml" );
         if ( f == null ) {
             //assume 2.x style data directory
-            CatalogImpl catalog2 = (CatalogImpl) readCatalog( xp );
+            CatalogImpl catalog2;
+            if (Boolean.valueOf(GeoServerExtensions.getProperty(CATALOG_SNAPSHOT))) {
+                CatalogSnapshot snapshot = 
+                    new CatalogSnapshot(resourceLoader, xpf.createBinaryPersister());
+                catalog2 = (CatalogImpl) snapshot.read();
+                if (catalog2 == null) {
+                    catalog2 = (CatalogImpl) readCatalog( xp );
+                    // reading may fix up and write back some files, fingerprint what we end with
+                    snapshot.write(catalog2, snapshot.fingerprint());
+                }
+            }
+            else {
+                catalog2 = (CatalogImpl) readCatalog( xp );
+            }
             // make to remove the old resource pool catalog listener
             ((CatalogImpl)catalog).sync( catalog2 );
         } else {
@@ -243,6 +271,11 @@ public abstract class GeoServerLoader {
      * Reads the catalog from disk.
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        int threads = getCatalogLoadingThreads();
+        if (threads > 1) {
+            return new ParallelCatalogReader(this, xp, threads).read();
+        }
+        
         Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
@@ -736,6 +769,24 @@ public abstract class GeoServerLoader {
         }
     }
 
+    /**
+     * Number of threads to use when reading the catalog, see {@link #CATALOG_LOADING_THREADS}.
+     */
+    int getCatalogLoadingThreads() {
+        String value = GeoServerExtensions.getProperty(CATALOG_LOADING_THREADS);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch( NumberFormatException e ) {
+            LOGGER.warning("Invalid value for " + CATALOG_LOADING_THREADS + ": " + value 
+                + ", reading the catalog sequentially");
+            return 1;
+        }
+    }
+    
     /**
      * Helper method for listing files in a directory.
      */
@@ -753,6 +804,14 @@ public abstract class GeoServerLoader {
     }
     
     public void destroy() throws Exception {
+        //make sure any configuration change still queued gets written out
+        try {
+            GeoServerPersister.flush(geoserver);
+        }
+        catch( IOException e ) {
+            LOGGER.log(Level.WARNING, "Error writing out pending configuration changes", e);
+        }
+        
         //dispose
         geoserver.dispose();
     }
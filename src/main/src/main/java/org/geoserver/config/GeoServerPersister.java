@@ -12,7 +12,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +44,9 @@ import org.geoserver.catalog.event.CatalogListener;
 import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.data.DataUtilities;
 import org.geotools.styling.AbstractStyleVisitor;
@@ -48,21 +56,145 @@ import org.geotools.util.logging.Logging;
 import static org.geoserver.data.util.IOUtils.rename;
 import static org.geoserver.data.util.IOUtils.xStreamPersist;
 
+/**
+ * Persists catalog and configuration changes to the data directory.
+ * <p>
+ * By default every change is written out while the event is being processed. When 
+ * {@link #WRITE_BEHIND} is set the configuration files are instead queued and written out by a
+ * background thread after the specified delay, so that repeated changes to the same object 
+ * result in a single write. Operations moving or removing files and directories first flush
+ * the queued writes, and {@link #flush()} can be used to wait for all pending writes.
+ * </p>
+ */
 public class GeoServerPersister implements CatalogListener, ConfigurationListener {
 
     /**
      * logging instance
      */
     static Logger LOGGER = Logging.getLogger( "org.geoserver.config");
+    
+    /**
+     * Delay, in milliseconds, after which queued configuration files are written out, looked up
+     * as a system property, context parameter or environment variable. Zero or less (the 
+     * default) means writing out the files synchronously.
+     */
+    public static final String WRITE_BEHIND = "GEOSERVER_PERSISTER_WRITE_BEHIND";
+    
+    /**
+     * Background thread shared by all the persisters running in write behind mode
+     */
+    static ScheduledExecutorService FLUSHER;
      
     GeoServerResourceLoader rl;
     GeoServerDataDirectory dd;
     XStreamPersister xp;
     
+    /**
+     * write behind delay, in milliseconds
+     */
+    volatile long writeBehind;
+    
+    /**
+     * files waiting to be written out, and the object to write in them. Guarded by itself.
+     */
+    Map<File, Object> pending = new LinkedHashMap<File, Object>();
+    
+    /**
+     * whether a flush of the pending writes is already scheduled. Guarded by pending.
+     */
+    boolean flushScheduled;
+    
+    /**
+     * first failure writing out a queued file, reported by the next call to flush()
+     */
+    IOException flushError;
+    
+    /**
+     * serializes the actual file system operations, held while flushing
+     */
+    final Object ioLock = new Object();
+    
     public GeoServerPersister(GeoServerResourceLoader rl, XStreamPersister xp) {
         this.rl = rl;
         this.dd = new GeoServerDataDirectory(rl);
         this.xp = xp;
+        
+        String value = GeoServerExtensions.getProperty(WRITE_BEHIND);
+        if (value != null) {
+            try {
+                writeBehind = Long.parseLong(value.trim());
+            }
+            catch( NumberFormatException e ) {
+                LOGGER.warning("Invalid value for " + WRITE_BEHIND + ": " + value 
+                    + ", writing configuration files synchronously");
+            }
+        }
+    }
+    
+    /**
+     * Sets the write behind delay in milliseconds, zero or less disables write behind.
+     */
+    public void setWriteBehind(long writeBehind) throws IOException {
+        this.writeBehind = writeBehind;
+        if (writeBehind <= 0) {
+            flush();
+        }
+    }
+    
+    public long getWriteBehind() {
+        return writeBehind;
+    }
+    
+    /**
+     * Writes out any pending configuration file, returning once they are all on disk.
+     * 
+     * @throws IOException If any pending write, including the ones performed in background
+     * since the last flush, failed.
+     */
+    public void flush() throws IOException {
+        IOException error;
+        synchronized (ioLock) {
+            flushPending();
+            error = flushError;
+            flushError = null;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+    
+    /**
+     * Flushes all the persisters listening to the configuration and catalog of <tt>geoServer</tt>.
+     */
+    public static void flush(GeoServer geoServer) throws IOException {
+        List<GeoServerPersister> persisters = new ArrayList<GeoServerPersister>();
+        for (Object l : geoServer.getListeners()) {
+            if (l instanceof GeoServerPersister) {
+                persisters.add((GeoServerPersister) l);
+            }
+        }
+        if (geoServer.getCatalog() != null) {
+            for (Object l : geoServer.getCatalog().getListeners()) {
+                if (l instanceof GeoServerPersister) {
+                    persisters.add((GeoServerPersister) l);
+                }
+            }
+        }
+        
+        IOException error = null;
+        for (GeoServerPersister p : persisters) {
+            try {
+                p.flush();
+            }
+            catch( IOException e ) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
     }
     
     public void handleAddEvent(CatalogAddEvent event) {
@@ -108,98 +240,112 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
 
     public void handleModifyEvent(CatalogModifyEvent event) {
-        Object source = event.getSource();
+        List<String> names = event.getPropertyNames();
+        if ( !(event.getSource() instanceof Catalog) && !names.contains( "name" ) 
+            && !names.contains( "workspace" ) && !names.contains( "store" ) ) {
+            //no file is going to be moved around
+            return;
+        }
         
         try {
-            //here we handle name changes
-            int i = event.getPropertyNames().indexOf( "name" );
-            if ( i > -1 ) {
-                String newName = (String) event.getNewValues().get( i );
-                
-                if ( source instanceof WorkspaceInfo ) {
-                    renameWorkspace( (WorkspaceInfo) source, newName );
-                }
-                else if ( source instanceof StoreInfo ) {
-                    renameStore( (StoreInfo) source, newName );
-                }
-                else if ( source instanceof ResourceInfo ) {
-                    renameResource( (ResourceInfo) source, newName );
-                }
-                else if ( source instanceof StyleInfo ) {
-                    renameStyle( (StyleInfo) source, newName );
-                }
-                else if ( source instanceof LayerGroupInfo ) {
-                    renameLayerGroup( (LayerGroupInfo) source, newName );
-                }
+            synchronized (ioLock) {
+                //files are about to be moved around, write out the pending ones first
+                flushPending();
+                handleModifyEventInternal(event);
             }
+        }
+        catch (IOException e) {
+            throw new RuntimeException( e );
+        }
+    }
+    
+    void handleModifyEventInternal(CatalogModifyEvent event) throws IOException {
+        Object source = event.getSource();
+        
+        //here we handle name changes
+        int i = event.getPropertyNames().indexOf( "name" );
+        if ( i > -1 ) {
+            String newName = (String) event.getNewValues().get( i );
             
-            //handle the case of a store changing workspace
-            if ( source instanceof StoreInfo ) {
-                i = event.getPropertyNames().indexOf( "workspace");
-                if ( i > -1 ) {
-                    WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
-                    File oldDir = dir( (StoreInfo) source );
-                    oldDir.renameTo( new File( dir( newWorkspace ), oldDir.getName() ) );
-                }
+            if ( source instanceof WorkspaceInfo ) {
+                renameWorkspace( (WorkspaceInfo) source, newName );
             }
-            
-            //handle the case of a feature type changing store
-            if ( source instanceof FeatureTypeInfo ) {
-                i = event.getPropertyNames().indexOf( "store");
-                if ( i > -1 ) {
-                    StoreInfo newStore = (StoreInfo) event.getNewValues().get( i );
-                    File oldDir = dir( (FeatureTypeInfo) source );
-                    oldDir.renameTo( new File( dir( newStore ), oldDir.getName() ) );
-                }
+            else if ( source instanceof StoreInfo ) {
+                renameStore( (StoreInfo) source, newName );
             }
+            else if ( source instanceof ResourceInfo ) {
+                renameResource( (ResourceInfo) source, newName );
+            }
+            else if ( source instanceof StyleInfo ) {
+                renameStyle( (StyleInfo) source, newName );
+            }
+            else if ( source instanceof LayerGroupInfo ) {
+                renameLayerGroup( (LayerGroupInfo) source, newName );
+            }
+        }
+        
+        //handle the case of a store changing workspace
+        if ( source instanceof StoreInfo ) {
+            i = event.getPropertyNames().indexOf( "workspace");
+            if ( i > -1 ) {
+                WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
+                File oldDir = dir( (StoreInfo) source );
+                oldDir.renameTo( new File( dir( newWorkspace ), oldDir.getName() ) );
+            }
+        }
+        
+        //handle the case of a feature type changing store
+        if ( source instanceof FeatureTypeInfo ) {
+            i = event.getPropertyNames().indexOf( "store");
+            if ( i > -1 ) {
+                StoreInfo newStore = (StoreInfo) event.getNewValues().get( i );
+                File oldDir = dir( (FeatureTypeInfo) source );
+                oldDir.renameTo( new File( dir( newStore ), oldDir.getName() ) );
+            }
+        }
 
-            //handle the case of a style changing workspace
-            if (source instanceof StyleInfo) {
-                i = event.getPropertyNames().indexOf("workspace");
-                if (i > -1) {
-                    WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
-                    File newDir = dd.styleDir(true, newWorkspace);
-
-                    //look for any resource files (image, etc...) and copy them over, don't move 
-                    // since they could be shared among other styles
-                    for (File oldFile : resources((StyleInfo) source)) {
-                        FileUtils.copyFile(oldFile, new File(newDir, oldFile.getName()));
-                    }
+        //handle the case of a style changing workspace
+        if (source instanceof StyleInfo) {
+            i = event.getPropertyNames().indexOf("workspace");
+            if (i > -1) {
+                WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
+                File newDir = dd.styleDir(true, newWorkspace);
 
-                    //move over the config file and the sld
-                    for (File oldFile : files((StyleInfo)source)) {
-                        oldFile.renameTo(new File(newDir, oldFile.getName()));
-                    }
+                //look for any resource files (image, etc...) and copy them over, don't move 
+                // since they could be shared among other styles
+                for (File oldFile : resources((StyleInfo) source)) {
+                    FileUtils.copyFile(oldFile, new File(newDir, oldFile.getName()));
+                }
 
+                //move over the config file and the sld
+                for (File oldFile : files((StyleInfo)source)) {
+                    oldFile.renameTo(new File(newDir, oldFile.getName()));
                 }
+
             }
+        }
 
-            //handle the case of a layer group changing workspace
-            if (source instanceof LayerGroupInfo) {
-                i = event.getPropertyNames().indexOf("workspace");
-                if (i > -1) {
-                    WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
-                    File oldFile = file((LayerGroupInfo)source);
-                    oldFile.renameTo(new File(dd.layerGroupDir(true, newWorkspace), oldFile.getName()));
-                }
+        //handle the case of a layer group changing workspace
+        if (source instanceof LayerGroupInfo) {
+            i = event.getPropertyNames().indexOf("workspace");
+            if (i > -1) {
+                WorkspaceInfo newWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
+                File oldFile = file((LayerGroupInfo)source);
+                oldFile.renameTo(new File(dd.layerGroupDir(true, newWorkspace), oldFile.getName()));
             }
+        }
 
-            //handle default workspace
-            if ( source instanceof Catalog ) {
-                i = event.getPropertyNames().indexOf("defaultWorkspace");
-                if ( i > -1 ) {
-                    WorkspaceInfo defWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
-                    // SG don't bother with a default workspace if we do not have one
-                    if (defWorkspace != null) {
-                        File d = rl.createDirectory("workspaces");
-                        persist(defWorkspace, new File(d, "default.xml"));
-                    }
+        //handle default workspace
+        if ( source instanceof Catalog ) {
+            i = event.getPropertyNames().indexOf("defaultWorkspace");
+            if ( i > -1 ) {
+                WorkspaceInfo defWorkspace = (WorkspaceInfo) event.getNewValues().get( i );
+                // SG don't bother with a default workspace if we do not have one
+                if (defWorkspace != null) {
+                    File d = rl.createDirectory("workspaces");
+                    persist(defWorkspace, new File(d, "default.xml"));
                 }
             }
-            
-        } 
-        catch (IOException e) {
-            throw new RuntimeException( e );
         }
     }
     
@@ -246,46 +392,54 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
 
     public void handleRemoveEvent(CatalogRemoveEvent event) {
-        Object source = event.getSource();
         try {
-            if ( source instanceof WorkspaceInfo ) {
-                removeWorkspace( (WorkspaceInfo) source );
-            }
-            else if ( source instanceof NamespaceInfo ) {
-                removeNamespace( (NamespaceInfo) source );
-            }
-            else if ( source instanceof DataStoreInfo ) {
-                removeDataStore( (DataStoreInfo) source );
-            }
-            else if ( source instanceof FeatureTypeInfo ) {
-                removeFeatureType( (FeatureTypeInfo) source );
-            }
-            else if ( source instanceof CoverageStoreInfo ) {
-                removeCoverageStore( (CoverageStoreInfo) source );
-            }
-            else if ( source instanceof CoverageInfo ) {
-                removeCoverage( (CoverageInfo) source );
-            }
-            else if ( source instanceof WMSStoreInfo ) {
-                removeWMSStore( (WMSStoreInfo) source );
-            }
-            else if ( source instanceof WMSLayerInfo ) {
-                removeWMSLayer( (WMSLayerInfo) source );
-            }
-            else if ( source instanceof LayerInfo ) {
-                removeLayer( (LayerInfo) source );
-            }
-            else if ( source instanceof StyleInfo ) {
-                removeStyle( (StyleInfo) source );
-            }
-            else if ( source instanceof LayerGroupInfo ) {
-                removeLayerGroup( (LayerGroupInfo) source );
+            synchronized (ioLock) {
+                //files are about to be removed, write out the pending ones first
+                flushPending();
+                handleRemoveEventInternal(event);
             }
         }
         catch( IOException e ) {
             throw new RuntimeException( e );
         }
     }
+    
+    void handleRemoveEventInternal(CatalogRemoveEvent event) throws IOException {
+        Object source = event.getSource();
+        if ( source instanceof WorkspaceInfo ) {
+            removeWorkspace( (WorkspaceInfo) source );
+        }
+        else if ( source instanceof NamespaceInfo ) {
+            removeNamespace( (NamespaceInfo) source );
+        }
+        else if ( source instanceof DataStoreInfo ) {
+            removeDataStore( (DataStoreInfo) source );
+        }
+        else if ( source instanceof FeatureTypeInfo ) {
+            removeFeatureType( (FeatureTypeInfo) source );
+        }
+        else if ( source instanceof CoverageStoreInfo ) {
+            removeCoverageStore( (CoverageStoreInfo) source );
+        }
+        else if ( source instanceof CoverageInfo ) {
+            removeCoverage( (CoverageInfo) source );
+        }
+        else if ( source instanceof WMSStoreInfo ) {
+            removeWMSStore( (WMSStoreInfo) source );
+        }
+        else if ( source instanceof WMSLayerInfo ) {
+            removeWMSLayer( (WMSLayerInfo) source );
+        }
+        else if ( source instanceof LayerInfo ) {
+            removeLayer( (LayerInfo) source );
+        }
+        else if ( source instanceof StyleInfo ) {
+            removeStyle( (StyleInfo) source );
+        }
+        else if ( source instanceof LayerGroupInfo ) {
+            removeLayerGroup( (LayerGroupInfo) source );
+        }
+    }
 
     public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
             List<Object> oldValues, List<Object> newValues) {
@@ -313,8 +467,11 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
             LOGGER.fine( "Moving settings '" + settings + " to workspace: " + newWorkspace);
 
             try {
-                File oldFile = file(settings);
-                oldFile.renameTo( new File( dir( newWorkspace ), oldFile.getName() ) );
+                synchronized (ioLock) {
+                    flushPending();
+                    File oldFile = file(settings);
+                    oldFile.renameTo( new File( dir( newWorkspace ), oldFile.getName() ) );
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -334,7 +491,10 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     public void handleSettingsRemoved(SettingsInfo settings) {
         LOGGER.fine( "Removing settings " + settings );
         try {
-            file(settings).delete();
+            synchronized (ioLock) {
+                flushPending();
+                file(settings).delete();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -781,9 +941,26 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
 
     void persist( Object o, File f ) throws IOException {
+        if (writeBehind > 0) {
+            synchronized (pending) {
+                //coalesce with any write of the same file still pending
+                pending.put(f, o);
+                scheduleFlush();
+            }
+            LOGGER.fine("Queued " + o.getClass().getName() + " for " + f.getAbsolutePath() );
+            return;
+        }
+        write( o, f );
+    }
+    
+    void write( Object o, File f ) throws IOException {
         try {
             synchronized ( xp ) {
-                xStreamPersist(f, o, xp);
+                //avoid writing out a half committed modification proxy, commits lock the 
+                //proxied object
+                synchronized ( ModificationProxy.unwrap( o ) ) {
+                    xStreamPersist(f, o, xp);
+                }
             }
             LOGGER.fine("Persisted " + o.getClass().getName() + " to " + f.getAbsolutePath() );
         }
@@ -794,6 +971,66 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         }
     }
 
+    /**
+     * Schedules a flush of the pending writes, if not already scheduled. Must be called while 
+     * holding the pending lock.
+     */
+    void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        flusher().schedule(new Runnable() {
+            public void run() {
+                synchronized (ioLock) {
+                    flushPending();
+                }
+            }
+        }, writeBehind, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Writes out the pending files. Must be called while holding the io lock. Failures are logged 
+     * and reported by the next call to {@link #flush()}.
+     */
+    void flushPending() {
+        Map<File, Object> writes;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            writes = new LinkedHashMap<File, Object>(pending);
+            pending.clear();
+        }
+        
+        for (Map.Entry<File, Object> w : writes.entrySet()) {
+            try {
+                write(w.getValue(), w.getKey());
+            }
+            catch( Exception e ) {
+                LOGGER.log(Level.SEVERE, "Error writing out " + w.getKey().getAbsolutePath(), e);
+                if (flushError == null) {
+                    flushError = e instanceof IOException ? (IOException) e :
+                        (IOException) new IOException(e.getMessage()).initCause(e);
+                }
+            }
+        }
+    }
+    
+    static synchronized ScheduledExecutorService flusher() {
+        if (FLUSHER == null) {
+            FLUSHER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GeoServer configuration writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return FLUSHER;
+    }
+
     void rmdir(File dir) throws IOException {
         if (dir != null) {
             FileUtils.deleteDirectory( dir );
@@ -0,0 +1,479 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Reads the catalog from a 2.x style data directory parsing the configuration files on a bounded
+ * pool of threads.
+ * <p>
+ * Loading happens in phases (workspaces, styles, stores, resources, layers, store connections,
+ * layer groups). Within each phase the files are parsed concurrently, but the parsed objects are
+ * added to the catalog from the calling thread, in data directory order (directories sorted by
+ * name), once the phase is complete. This way references to objects loaded in earlier phases are
+ * resolved during parsing, exactly as in the sequential load, and the resulting catalog does not
+ * depend on thread scheduling.
+ * </p>
+ * <p>
+ * The time spent in each phase is logged at INFO level.
+ * </p>
+ *
+ * @see GeoServerLoader#CATALOG_LOADING_THREADS
+ */
+class ParallelCatalogReader {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    GeoServerLoader loader;
+
+    GeoServerResourceLoader resourceLoader;
+
+    XStreamPersister xp;
+
+    int threads;
+
+    ExecutorService executor;
+
+    public ParallelCatalogReader(GeoServerLoader loader, XStreamPersister xp, int threads) {
+        this.loader = loader;
+        this.resourceLoader = loader.resourceLoader;
+        this.xp = xp;
+        this.threads = threads;
+    }
+
+    public Catalog read() throws Exception {
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServer catalog loader " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            return doRead();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    Catalog doRead() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        catalog.setResourceLoader(resourceLoader);
+        xp.setCatalog(catalog);
+
+        long start = System.currentTimeMillis();
+        long phase = start;
+
+        File workspaces = resourceLoader.find("workspaces");
+        List<File> workspaceDirs = workspaces != null ?
+            sorted(loader.list(workspaces, DirectoryFileFilter.INSTANCE)) : new ArrayList<File>();
+        if (workspaces == null) {
+            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        }
+
+        List<File> loadedWorkspaceDirs = readWorkspaces(workspaces, workspaceDirs, catalog);
+        phase = logPhase("workspaces", phase);
+
+        readStyles(loadedWorkspaceDirs, catalog);
+        phase = logPhase("styles", phase);
+
+        List<StoreEntry> stores = readStores(workspaceDirs, catalog);
+        phase = logPhase("stores", phase);
+
+        List<ResourceEntry> resources = readResources(stores, catalog);
+        phase = logPhase("resources", phase);
+
+        readLayers(resources, catalog);
+        phase = logPhase("layers", phase);
+
+        connectDataStores(stores);
+        phase = logPhase("store connections", phase);
+
+        // layer groups can reference each other, load them sequentially as they appear
+        for (File wsd : workspaceDirs) {
+            File layergroups = resourceLoader.find(wsd, "layergroups");
+            if (layergroups != null) {
+                loader.loadLayerGroups(layergroups, catalog, xp);
+            }
+        }
+        File layergroups = resourceLoader.find( "layergroups" );
+        if ( layergroups != null ) {
+            loader.loadLayerGroups(layergroups, catalog, xp);
+        }
+        logPhase("layer groups", phase);
+
+        LOGGER.info("Read catalog in " + (System.currentTimeMillis() - start) + "ms using "
+            + threads + " threads");
+        return catalog;
+    }
+
+    List<File> readWorkspaces(File workspaces, List<File> workspaceDirs, Catalog catalog) {
+        List<File> loaded = new ArrayList<File>();
+        if (workspaces == null) {
+            return loaded;
+        }
+
+        //do a first quick scan over all workspaces, setting the default
+        File dws = new File(workspaces, "default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (dws.exists()) {
+            try {
+                defaultWorkspace = loader.depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            }
+            catch( Exception e ) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        }
+        else {
+            LOGGER.warning("No default workspace was found.");
+        }
+
+        List<File> dirs = new ArrayList<File>();
+        List<File> workspaceFiles = new ArrayList<File>();
+        List<File> namespaceFiles = new ArrayList<File>();
+        for (File wsd : workspaceDirs) {
+            File f = new File(wsd, "workspace.xml");
+            if (!f.exists()) {
+                continue;
+            }
+            File nsf = new File(wsd, "namespace.xml");
+            dirs.add(wsd);
+            workspaceFiles.add(f);
+            namespaceFiles.add(nsf.exists() ? nsf : null);
+        }
+
+        List<Future<WorkspaceInfo>> parsedWorkspaces = depersistAll(workspaceFiles, WorkspaceInfo.class);
+        List<Future<NamespaceInfo>> parsedNamespaces = depersistAll(namespaceFiles, NamespaceInfo.class);
+
+        for (int i = 0; i < dirs.size(); i++) {
+            File wsd = dirs.get(i);
+            WorkspaceInfo ws = null;
+            try {
+                ws = get(parsedWorkspaces.get(i));
+                catalog.add( ws );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load workspace '" + wsd.getName() + "'" , e );
+                continue;
+            }
+
+            LOGGER.info( "Loaded workspace '" + ws.getName() +"'");
+            loaded.add(wsd);
+
+            NamespaceInfo ns = null;
+            if (parsedNamespaces.get(i) != null) {
+                try {
+                    ns = get(parsedNamespaces.get(i));
+                    catalog.add( ns );
+                }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, "Failed to load namespace for '" + wsd.getName() + "'" , e );
+                }
+            }
+
+            //set the default workspace, this value might be null in the case of coming from a
+            // 2.0.0 data directory. See http://jira.codehaus.org/browse/GEOS-3440
+            if (defaultWorkspace != null ) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            }
+            else {
+                //create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        loader.persist(xp, defaultWorkspace, dws);
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to persist default workspace '" +
+                            wsd.getName() + "'" , e );
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    void readStyles(List<File> workspaceDirs, Catalog catalog) {
+        List<File> styleDirs = new ArrayList<File>();
+        styleDirs.add(resourceLoader.find("styles"));
+        for (File wsd : workspaceDirs) {
+            styleDirs.add(resourceLoader.find(wsd, "styles"));
+        }
+
+        List<File> styleFiles = new ArrayList<File>();
+        for (File styles : styleDirs) {
+            for (File sf : sorted(loader.list(styles, new SuffixFileFilter(".xml")))) {
+                //handle the .xml.xml case
+                if (!new File(styles,sf.getName()+".xml").exists()) {
+                    styleFiles.add(sf);
+                }
+            }
+        }
+
+        List<Future<StyleInfo>> parsed = depersistAll(styleFiles, StyleInfo.class);
+        for (int i = 0; i < styleFiles.size(); i++) {
+            try {
+                StyleInfo s = get(parsed.get(i));
+                catalog.add( s );
+
+                LOGGER.info( "Loaded style '" + s.getName() + "'" );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load style from file '"
+                    + styleFiles.get(i).getName() + "'" , e );
+            }
+        }
+    }
+
+    List<StoreEntry> readStores(List<File> workspaceDirs, Catalog catalog) {
+        List<StoreEntry> entries = new ArrayList<StoreEntry>();
+        List<File> files = new ArrayList<File>();
+        for (File wsd : workspaceDirs) {
+            for (File sd : sorted(loader.list(wsd, DirectoryFileFilter.INSTANCE))) {
+                StoreEntry entry;
+                if (new File(sd, "datastore.xml").exists()) {
+                    entry = new StoreEntry(sd, DataStoreInfo.class, "datastore.xml",
+                        FeatureTypeInfo.class, "featuretype.xml");
+                } else if (new File(sd, "coveragestore.xml").exists()) {
+                    entry = new StoreEntry(sd, CoverageStoreInfo.class, "coveragestore.xml",
+                        CoverageInfo.class, "coverage.xml");
+                } else if (new File(sd, "wmsstore.xml").exists()) {
+                    entry = new StoreEntry(sd, WMSStoreInfo.class, "wmsstore.xml",
+                        WMSLayerInfo.class, "wmslayer.xml");
+                } else {
+                    LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+                    continue;
+                }
+                entries.add(entry);
+                files.add(new File(sd, entry.storeFile));
+            }
+        }
+
+        List<StoreEntry> loaded = new ArrayList<StoreEntry>();
+        List<Future<StoreInfo>> parsed = depersistAll(files, StoreInfo.class);
+        for (int i = 0; i < entries.size(); i++) {
+            StoreEntry entry = entries.get(i);
+            try {
+                entry.store = entry.storeClass.cast(get(parsed.get(i)));
+                catalog.add( entry.store );
+
+                LOGGER.info( "Loaded store '" + entry.store.getName() +"'");
+                loaded.add(entry);
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load store '" + entry.dir.getName() +"'", e);
+            }
+        }
+        return loaded;
+    }
+
+    List<ResourceEntry> readResources(List<StoreEntry> stores, Catalog catalog) {
+        List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+        List<File> files = new ArrayList<File>();
+        for (StoreEntry store : stores) {
+            for (File rd : sorted(loader.list(store.dir, DirectoryFileFilter.INSTANCE))) {
+                File f = new File(rd, store.resourceFile);
+                if (!f.exists()) {
+                    LOGGER.warning( "Ignoring resource directory " + rd.getAbsolutePath() );
+                    continue;
+                }
+                entries.add(new ResourceEntry(rd, store.resourceClass));
+                files.add(f);
+            }
+        }
+
+        List<ResourceEntry> loaded = new ArrayList<ResourceEntry>();
+        List<Future<ResourceInfo>> parsed = depersistAll(files, ResourceInfo.class);
+        for (int i = 0; i < entries.size(); i++) {
+            ResourceEntry entry = entries.get(i);
+            try {
+                entry.resource = entry.resourceClass.cast(get(parsed.get(i)));
+                catalog.add( entry.resource );
+
+                LOGGER.info( "Loaded resource '" + entry.resource.getName() +"'");
+                loaded.add(entry);
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load resource '" + entry.dir.getName() +"'", e);
+            }
+        }
+        return loaded;
+    }
+
+    void readLayers(List<ResourceEntry> resources, Catalog catalog) {
+        List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+        List<File> files = new ArrayList<File>();
+        for (ResourceEntry resource : resources) {
+            File f = new File(resource.dir, "layer.xml");
+            if (f.exists()) {
+                entries.add(resource);
+                files.add(f);
+            }
+        }
+
+        List<Future<LayerInfo>> parsed = depersistAll(files, LayerInfo.class);
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                LayerInfo l = get(parsed.get(i));
+                catalog.add( l );
+
+                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+            }
+            catch( Exception e ) {
+                LOGGER.log( Level.WARNING, "Failed to load layer for resource '"
+                    + entries.get(i).resource.getName() +"'", e);
+            }
+        }
+    }
+
+    /**
+     * Connects to the enabled data stores to determine if they should be disabled
+     */
+    void connectDataStores(List<StoreEntry> stores) throws InterruptedException {
+        List<Future<?>> connections = new ArrayList<Future<?>>();
+        for (StoreEntry entry : stores) {
+            if (!(entry.store instanceof DataStoreInfo) || !entry.store.isEnabled()) {
+                continue;
+            }
+
+            final DataStoreInfo ds = (DataStoreInfo) entry.store;
+            connections.add(executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        ds.getDataStore(null);
+                    }
+                    catch( Throwable t ) {
+                        LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                        LOGGER.log( Level.INFO, "", t );
+
+                        ds.setError(t);
+                        ds.setEnabled(false);
+                    }
+                }
+            }));
+        }
+        for (Future<?> connection : connections) {
+            try {
+                connection.get();
+            } catch (ExecutionException e) {
+                // the task handles its own errors
+                LOGGER.log(Level.WARNING, "", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Parses the files concurrently, a null file results in a null future.
+     */
+    <T> List<Future<T>> depersistAll(List<File> files, final Class<T> clazz) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(files.size());
+        for (final File f : files) {
+            if (f == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return loader.depersist(xp, f, clazz);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    List<File> sorted(Collection<File> files) {
+        List<File> result = new ArrayList<File>(files);
+        Collections.sort(result);
+        return result;
+    }
+
+    long logPhase(String phase, long start) {
+        long now = System.currentTimeMillis();
+        LOGGER.info("Loaded " + phase + " in " + (now - start) + "ms");
+        return now;
+    }
+
+    static class StoreEntry {
+        File dir;
+        Class<? extends StoreInfo> storeClass;
+        String storeFile;
+        Class<? extends ResourceInfo> resourceClass;
+        String resourceFile;
+        StoreInfo store;
+
+        StoreEntry(File dir, Class<? extends StoreInfo> storeClass, String storeFile,
+            Class<? extends ResourceInfo> resourceClass, String resourceFile) {
+            this.dir = dir;
+            this.storeClass = storeClass;
+            this.storeFile = storeFile;
+            this.resourceClass = resourceClass;
+            this.resourceFile = resourceFile;
+        }
+    }
+
+    static class ResourceEntry {
+        File dir;
+        Class<? extends ResourceInfo> resourceClass;
+        ResourceInfo resource;
+
+        ResourceEntry(File dir, Class<? extends ResourceInfo> resourceClass) {
+            this.dir = dir;
+            this.resourceClass = resourceClass;
+        }
+    }
+}
@@ -130,6 +130,7 @@ import com.thoughtworks.xstream.converters.reflection.SortableFieldKeySorter;
 import com.thoughtworks.xstream.converters.reflection.Sun14ReflectionProvider;
 import com.thoughtworks.xstream.io.ExtendedHierarchicalStreamWriterHelper;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.mapper.ClassAliasingMapper;
@@ -238,6 +239,11 @@ public class XStreamPersister {
      * Flag controlling whether the persister should perform encryption on password fields
      */
     boolean encryptPasswordFields = true;
+    
+    /**
+     * Whether the underlying driver is byte oriented, rather than character oriented
+     */
+    boolean binary;
 
     /**
      * Constructs the persister and underlying xstream.
@@ -250,6 +256,7 @@ public class XStreamPersister {
      * Constructs the persister and underlying xstream specifying the stream driver explicitly.
      */
     protected XStreamPersister(HierarchicalStreamDriver streamDriver) {
+        binary = streamDriver instanceof BinaryStreamDriver;
         
         //control the order in which fields are sorted
         SortableFieldKeySorter sorter = new SortableFieldKeySorter();
@@ -319,6 +326,7 @@ public class XStreamPersister {
         xs.omitField(impl(Catalog.class), "resourcePool");
         xs.omitField(impl(Catalog.class), "resourceLoader");
         xs.omitField(impl(Catalog.class), "listeners");
+        xs.omitField(impl(Catalog.class), "listenerQueues");
         xs.omitField(impl(Catalog.class), "LOGGER");
         
         xs.omitField(impl(DefaultCatalogFacade.class), "catalog");
@@ -521,7 +529,12 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        if ( binary ) {
+            xs.toXML(obj, out);
+        }
+        else {
+            xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        }
     }
     
     /**
@@ -27,6 +27,7 @@ public class AlternativesResponseStream extends ServletOutputStream {
     HttpServletResponse myResponse;
     ServletOutputStream myStream;
     Set myCompressibleTypes;
+    CompressionSettings mySettings;
     Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public AlternativesResponseStream(HttpServletResponse response, Set compressible) throws IOException {
@@ -35,6 +36,12 @@ public class AlternativesResponseStream extends ServletOutputStream {
         myCompressibleTypes = compressible;
     }
 
+    public AlternativesResponseStream(HttpServletResponse response, CompressionSettings settings) throws IOException {
+        super();
+        myResponse = response;
+        mySettings = settings;
+    }
+
     public void close() throws IOException {
         if (isDirty())
             getStream().close();
@@ -65,9 +72,13 @@ public class AlternativesResponseStream extends ServletOutputStream {
 //            logger.warning("Mime type was not set before first write!");
 //        }
 
-        if (type != null && isCompressible(type)){
+        if (mySettings != null && mySettings.isEncoded(myResponse)) {
+            logger.log(Level.FINE, "Output already encoded, not compressing it");
+            myStream = myResponse.getOutputStream();
+        } else if (type != null && isCompressible(type)){
             logger.log(Level.FINE, "Compressing output for mimetype: {0}", type);
-            myStream = new GZIPResponseStream(myResponse);
+            myStream = mySettings != null ? mySettings.createStream(myResponse)
+                    : new GZIPResponseStream(myResponse);
         } else {
             logger.log(Level.FINE, "Not compressing output for mimetype: {0}", type);
             myStream = myResponse.getOutputStream();
@@ -82,6 +93,9 @@ public class AlternativesResponseStream extends ServletOutputStream {
 
     protected boolean isCompressible(String mimetype){
         String stripped = stripParams(mimetype);
+        if (mySettings != null) {
+            return mySettings.isCompressible(stripped);
+        }
         
         Iterator it = myCompressibleTypes.iterator();
 
@@ -24,6 +24,10 @@ public class BufferedRequestStream extends ServletInputStream{
         myInputStream.reset();
     }
 
+    public BufferedRequestStream(InputStream in) {
+        myInputStream = in;
+    }
+
     public int readLine(byte[] b, int off, int len) throws IOException{
         int read; 
         int index = off;
@@ -45,6 +49,10 @@ public class BufferedRequestStream extends ServletInputStream{
         return myInputStream.read();
     }
 
+    public int read(byte[] b, int off, int len) throws IOException {
+        return myInputStream.read(b, off, len);
+    }
+
     public int available() throws IOException {
         return myInputStream.available();
     }
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -29,6 +30,7 @@ import org.geotools.util.Converters;
 public class BufferedRequestWrapper extends HttpServletRequestWrapper{
     protected HttpServletRequest myWrappedRequest;
     protected String myBuffer;
+    protected RequestBodyBuffer myBody;
     protected ServletInputStream myStream = null;
     protected BufferedReader myReader = null;
 	protected Map myParameterMap;
@@ -42,10 +44,20 @@ public class BufferedRequestWrapper extends HttpServletRequestWrapper{
 		logger.fine("Created BufferedRequestWrapper with String: \"" + buff + "\" as buffer");
     }
 
+    /**
+     * Creates the wrapper over a body buffer, which the caller is responsible to dispose
+     */
+    public BufferedRequestWrapper(HttpServletRequest req, RequestBodyBuffer body){
+        super(req);
+        myWrappedRequest = req;
+        myBody = body;
+    }
+
     public ServletInputStream getInputStream() throws IOException{
         if (myStream == null){
             if (myReader == null){
-                myStream = new BufferedRequestStream(myBuffer);
+                myStream = myBody != null ? new BufferedRequestStream(myBody.getInputStream())
+                        : new BufferedRequestStream(myBuffer);
             } else {
                 throw new IOException("Requesting a stream after a reader is already in use!!");
             }
@@ -56,7 +68,11 @@ public class BufferedRequestWrapper extends HttpServletRequestWrapper{
 
     public BufferedReader getReader() throws IOException{
         if (myReader == null){
-            if (myStream == null){
+            if (myStream == null && myBody != null){
+                String encoding = getCharacterEncoding();
+                myReader = new BufferedReader(new InputStreamReader(myBody.getInputStream(),
+                        encoding != null ? encoding : "ISO-8859-1"));
+            } else if (myStream == null){
 
                 myReader = new BufferedReader(
                         new InputStreamReader(
@@ -131,7 +147,7 @@ public class BufferedRequestWrapper extends HttpServletRequestWrapper{
 		myParameterMap = new TreeMap();
 		
 		// parse the body
-		String[] pairs = myBuffer.split("\\&");
+		String[] pairs = getBuffer().split("\\&");
 		
 		for (int i = 0; i < pairs.length; i++){
 			parsePair(pairs[i]);
@@ -147,6 +163,18 @@ public class BufferedRequestWrapper extends HttpServletRequestWrapper{
 		}
 	}
 
+	protected String getBuffer(){
+		if (myBuffer == null && myBody != null) {
+			// form bodies are plain ascii, being url encoded
+			try {
+				myBuffer = myBody.toString(Integer.MAX_VALUE, Charset.forName("ISO-8859-1"));
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to read the request body", e);
+			}
+		}
+		return myBuffer;
+	}
+
 	protected void parsePair(String pair){
 		int index = 0;
 		String[] split = pair.split("=", 2);
@@ -0,0 +1,145 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Decides which responses the {@link GZIPFilter} compresses, and how.
+ * <p>
+ * Besides the configured compressed and excluded mime types, formats that are already compressed
+ * (PNG, JPEG, zip and the like) and responses that already declare a content encoding are never
+ * compressed again.
+ * </p>
+ */
+public class CompressionSettings {
+
+    /**
+     * Mime types whose content is already compressed, deflating them again only wastes cpu
+     */
+    static final String[] PRECOMPRESSED_TYPES = { "image/png.*", "image/jpeg", "image/gif",
+            "application/zip", "application/x-zip-compressed", "application/gzip",
+            "application/x-gzip", "application/vnd.google-earth.kmz.*" };
+
+    Set<Pattern> compressed;
+
+    Set<Pattern> excluded;
+
+    int level = Deflater.DEFAULT_COMPRESSION;
+
+    int minSize = 0;
+
+    boolean streaming = false;
+
+    DeflaterPool pool;
+
+    /**
+     * Creates the settings.
+     *
+     * @param compressed The patterns of mime types to compress.
+     * @param excluded The patterns of mime types never to compress, in addition to the already
+     *        compressed formats.
+     */
+    public CompressionSettings(Set<Pattern> compressed, Set<Pattern> excluded) {
+        this.compressed = compressed != null ? compressed : Collections.<Pattern> emptySet();
+        this.excluded = new HashSet<Pattern>();
+        for (String type : PRECOMPRESSED_TYPES) {
+            this.excluded.add(Pattern.compile(type));
+        }
+        if (excluded != null) {
+            this.excluded.addAll(excluded);
+        }
+        this.pool = new DeflaterPool(32);
+    }
+
+    /**
+     * The compression level, from 1 to 9, or -1 for the zlib default
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        DeflaterPool.index(level);
+        this.level = level;
+    }
+
+    /**
+     * Responses smaller than this number of bytes are sent uncompressed. Only honored in streaming
+     * mode.
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * When true responses are compressed as they are written and sent chunked, otherwise they are
+     * compressed in memory and sent with their content length.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public DeflaterPool getPool() {
+        return pool;
+    }
+
+    public void setPool(DeflaterPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns true if a response with the specified mime type (parameters already stripped) should
+     * be compressed.
+     */
+    public boolean isCompressible(String mimeType) {
+        for (Pattern pattern : excluded) {
+            if (pattern.matcher(mimeType).matches()) {
+                return false;
+            }
+        }
+        for (Pattern pattern : compressed) {
+            if (pattern.matcher(mimeType).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the response has been already encoded by the code producing it
+     */
+    public boolean isEncoded(HttpServletResponse response) {
+        return response.containsHeader("Content-Encoding");
+    }
+
+    /**
+     * Creates the compressing stream for the response
+     */
+    public ServletOutputStream createStream(HttpServletResponse response)
+            throws IOException {
+        if (streaming) {
+            return new StreamingGZIPResponseStream(response, pool, level, minSize);
+        } else {
+            return new GZIPResponseStream(response, pool, level);
+        }
+    }
+}
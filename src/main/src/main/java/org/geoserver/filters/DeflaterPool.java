@@ -0,0 +1,85 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of raw (no zlib wrapper) {@link Deflater} objects, one queue per compression level.
+ * <p>
+ * Each deflater holds a sizeable chunk of native memory that is only given back by
+ * {@link Deflater#end()} or finalization, reusing them avoids allocating it for every compressed
+ * response. Deflaters released when the pool already holds <code>maxSize</code> idle ones for
+ * that level are ended right away.
+ * </p>
+ */
+public class DeflaterPool {
+
+    final Queue<Deflater>[] idle;
+
+    final AtomicInteger[] sizes;
+
+    final int maxSize;
+
+    /**
+     * Creates the pool.
+     *
+     * @param maxSize Maximum number of idle deflaters kept for each compression level.
+     */
+    public DeflaterPool(int maxSize) {
+        this.maxSize = maxSize;
+        // levels go from -1 (default) to 9
+        idle = new Queue[11];
+        sizes = new AtomicInteger[11];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new ConcurrentLinkedQueue<Deflater>();
+            sizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns a deflater for the compression level, either an idle one or a new one.
+     */
+    public Deflater acquire(int level) {
+        int idx = index(level);
+        Deflater deflater = idle[idx].poll();
+        if (deflater != null) {
+            sizes[idx].decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Gives back a deflater acquired with the same compression level.
+     */
+    public void release(Deflater deflater, int level) {
+        int idx = index(level);
+        if (sizes[idx].incrementAndGet() <= maxSize) {
+            deflater.reset();
+            idle[idx].offer(deflater);
+        } else {
+            sizes[idx].decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Number of idle deflaters for the compression level.
+     */
+    public int getIdleCount(int level) {
+        return sizes[index(level)].get();
+    }
+
+    static int index(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        return level + 1;
+    }
+}
@@ -30,6 +30,8 @@ public class GZIPFilter implements Filter {
 
     private Set myCompressedTypes;
 
+    private CompressionSettings mySettings;
+
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
         if (req instanceof HttpServletRequest) {
@@ -38,7 +40,7 @@ public class GZIPFilter implements Filter {
             String ae = request.getHeader("accept-encoding");
             if (ae != null && ae.indexOf("gzip") != -1) {
                 GZIPResponseWrapper wrappedResponse =
-                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
+                    new GZIPResponseWrapper(response, mySettings, request.getRequestURL().toString());
                 chain.doFilter(req, wrappedResponse);
                 wrappedResponse.finishResponse();
                 return;
@@ -50,17 +52,49 @@ public class GZIPFilter implements Filter {
 
     public void init(FilterConfig filterConfig) {
         try {
-            String compressedTypes = filterConfig.getInitParameter("compressed-types");
-            String[] typeNames = 
-                (compressedTypes == null ? new String[0] : compressedTypes.split(",")); 
-            // TODO: Are commas allowed in mimetypes?
-            myCompressedTypes = new HashSet();
-            for (int i = 0; i < typeNames.length; i++){
-                myCompressedTypes.add(Pattern.compile(typeNames[i]));
+            myCompressedTypes = patterns(filterConfig.getInitParameter("compressed-types"));
+            mySettings = new CompressionSettings(myCompressedTypes,
+                    patterns(filterConfig.getInitParameter("excluded-types")));
+
+            String level = filterConfig.getInitParameter("compression-level");
+            if (level != null) {
+                mySettings.setLevel(Integer.parseInt(level.trim()));
+            }
+            String minSize = filterConfig.getInitParameter("min-size");
+            if (minSize != null) {
+                mySettings.setMinSize(Integer.parseInt(minSize.trim()));
+            }
+            String streaming = filterConfig.getInitParameter("streaming");
+            if (streaming != null) {
+                mySettings.setStreaming(Boolean.valueOf(streaming.trim()));
+            }
+            String poolSize = filterConfig.getInitParameter("deflater-pool-size");
+            if (poolSize != null) {
+                mySettings.setPool(new DeflaterPool(Integer.parseInt(poolSize.trim())));
             }
         } catch (Exception e){
             System.out.println("Error while setting up GZIPFilter; " + e);
         }
+        if (mySettings == null) {
+            mySettings = new CompressionSettings(myCompressedTypes, null);
+        }
+    }
+
+    Set patterns(String types) {
+        String[] typeNames = 
+            (types == null ? new String[0] : types.split(",")); 
+        // TODO: Are commas allowed in mimetypes?
+        Set patterns = new HashSet();
+        for (int i = 0; i < typeNames.length; i++){
+            if (typeNames[i].trim().length() > 0) {
+                patterns.add(Pattern.compile(typeNames[i].trim()));
+            }
+        }
+        return patterns;
+    }
+
+    CompressionSettings getSettings() {
+        return mySettings;
     }
 
     public void destroy() {
@@ -13,6 +13,7 @@ package org.geoserver.filters;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
@@ -21,7 +22,7 @@ import javax.servlet.http.HttpServletResponse;
 
 public class GZIPResponseStream extends ServletOutputStream {
     protected ByteArrayOutputStream baos = null;
-    protected GZIPOutputStream gzipstream = null;
+    protected DeflaterOutputStream gzipstream = null;
     protected boolean closed = false;
     protected HttpServletResponse response = null;
     protected ServletOutputStream output = null;
@@ -35,11 +36,25 @@ public class GZIPResponseStream extends ServletOutputStream {
         gzipstream = new GZIPOutputStream(baos);
     }
 
+    /**
+     * Creates a stream compressing with the specified level, using a deflater from the pool
+     */
+    public GZIPResponseStream(HttpServletResponse response, DeflaterPool pool, int level)
+            throws IOException {
+        super();
+        closed = false;
+        this.response = response;
+        this.output = response.getOutputStream();
+        baos = new ByteArrayOutputStream();
+        gzipstream = new PooledGZIPOutputStream(baos, pool, level);
+    }
+
     public void close() throws IOException {
         if (closed) {
             throw new IOException("This output stream has already been closed");
         }
-        gzipstream.finish();
+        // closing also gives back the deflater, if pooled
+        gzipstream.close();
 
         byte[] bytes = baos.toByteArray();
         String contentLength = Integer.toString(bytes.length);
@@ -27,6 +27,7 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
     protected PrintWriter writer = null;
     protected Set formatsToCompress;
     protected String requestedURL;
+    protected CompressionSettings settings;
     protected Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url) {
@@ -37,7 +38,17 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
         formatsToCompress = toCompress;
     }
 
+    public GZIPResponseWrapper(HttpServletResponse response, CompressionSettings settings, String url) {
+        super(response);
+        requestedURL = url;
+        origResponse = response;
+        this.settings = settings;
+    }
+
     protected AlternativesResponseStream createOutputStream() throws IOException {
+        if (settings != null) {
+            return new AlternativesResponseStream(origResponse, settings);
+        }
         return new AlternativesResponseStream(origResponse, formatsToCompress);
     }
 
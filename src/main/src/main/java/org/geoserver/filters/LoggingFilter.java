@@ -4,8 +4,8 @@
  */
 package org.geoserver.filters;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
 import javax.servlet.Filter;
@@ -34,6 +34,7 @@ public class LoggingFilter implements Filter {
         String message = "";
         String body = null;
         String path = "";
+        RequestBodyBuffer buffer = null;
 
         if (enabled){
             if (req instanceof HttpServletRequest){
@@ -52,25 +53,32 @@ public class LoggingFilter implements Filter {
                 if (logBodies && (hreq.getMethod().equals("PUT") || hreq.getMethod().equals("POST"))){
                     message += " request-size: " + hreq.getContentLength();
                     message += " body: ";
-                    StringBuffer buff = new StringBuffer();
-                    BufferedReader reader = hreq.getReader();
-                    char[] readIn = new char[256];
-                    int amountRead = 0;
-                    while ((amountRead = reader.read(readIn, 0 , 256)) != -1){
-                        buff.append(readIn, 0, amountRead);
+                    // large bodies are spilled to disk, only log their beginning
+                    buffer = new RequestBodyBuffer(hreq.getInputStream(),
+                            RequestBodyBuffer.DEFAULT_MEMORY_THRESHOLD);
+                    String encoding = hreq.getCharacterEncoding();
+                    body = buffer.toString(RequestBodyBuffer.DEFAULT_MEMORY_THRESHOLD,
+                            Charset.forName(encoding != null ? encoding : "UTF-8"));
+                    if (buffer.isSpilled()) {
+                        body += "...";
                     }
-                    body = buff.toString();
-                    req = new BufferedRequestWrapper(hreq, buff.toString());
+                    req = new BufferedRequestWrapper(hreq, buffer);
                 }
             } else {
                 message = "" + req.getRemoteHost() + " made a non-HTTP request";
             }
 
-            logger.info(message + (body == null? "" : "\n" + body + "\n"));
-            long startTime = System.currentTimeMillis();
-            chain.doFilter(req, res);
-            long requestTime = System.currentTimeMillis() - startTime;
-            logger.info(path +  " took " + requestTime + "ms");
+            try {
+                logger.info(message + (body == null? "" : "\n" + body + "\n"));
+                long startTime = System.currentTimeMillis();
+                chain.doFilter(req, res);
+                long requestTime = System.currentTimeMillis() - startTime;
+                logger.info(path +  " took " + requestTime + "ms");
+            } finally {
+                if (buffer != null) {
+                    buffer.dispose();
+                }
+            }
         } else {
             chain.doFilter(req, res);
         }
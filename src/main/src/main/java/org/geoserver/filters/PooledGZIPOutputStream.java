@@ -0,0 +1,91 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the GZIP format like {@link GZIPOutputStream}, but with a configurable compression level
+ * and a {@link java.util.zip.Deflater} taken from a {@link DeflaterPool}, and given back to it
+ * once the stream is closed.
+ */
+public class PooledGZIPOutputStream extends DeflaterOutputStream {
+
+    static final byte[] HEADER = { 0x1f, (byte) 0x8b, // magic number
+            8, // deflate
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            0 // operating system
+    };
+
+    final DeflaterPool pool;
+
+    final int level;
+
+    final CRC32 crc = new CRC32();
+
+    long size;
+
+    boolean released;
+
+    public PooledGZIPOutputStream(OutputStream out, DeflaterPool pool, int level)
+            throws IOException {
+        super(out, pool.acquire(level), 8192);
+        this.pool = pool;
+        this.level = level;
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (released) {
+            throw new IOException("Stream closed");
+        }
+        super.write(b, off, len);
+        crc.update(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gives the deflater back to the pool, the stream cannot be used anymore afterwards
+     */
+    void release() {
+        if (!released) {
+            released = true;
+            pool.release(def, level);
+        }
+    }
+
+    void writeInt(int i) throws IOException {
+        // little endian, as mandated by the format
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+}
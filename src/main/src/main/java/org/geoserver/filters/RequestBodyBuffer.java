@@ -0,0 +1,279 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Holds a request body so that it can be read multiple times.
+ * <p>
+ * Bodies up to <code>memoryThreshold</code> bytes are kept in direct buffers taken from a shared
+ * pool, larger ones are spilled to a temporary file which is then read back memory mapped. Either
+ * way the body does not end up on the heap, which matters for large transactions. Call
+ * {@link #dispose()} once done, to give back the buffers and remove the file.
+ * </p>
+ */
+public class RequestBodyBuffer {
+
+    static final Logger LOGGER = Logging.getLogger(RequestBodyBuffer.class);
+
+    /**
+     * Size of the pooled buffers
+     */
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Bodies larger than this are spilled to disk, unless specified otherwise
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = Integer.getInteger(
+            "org.geoserver.filters.requestBodyMemoryThreshold", 1024 * 1024);
+
+    /**
+     * Max number of idle buffers kept in the pool
+     */
+    static final int MAX_POOLED = Integer.getInteger(
+            "org.geoserver.filters.requestBodyPooledBuffers", 256);
+
+    static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    static final AtomicInteger POOLED = new AtomicInteger();
+
+    List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    File file;
+
+    long size;
+
+    /**
+     * Reads the whole stream into a buffer, spilling it to disk if larger than
+     * <code>memoryThreshold</code> bytes.
+     */
+    public RequestBodyBuffer(InputStream in, int memoryThreshold) throws IOException {
+        byte[] bytes = new byte[8192];
+        ByteBuffer current = null;
+        FileChannel channel = null;
+        try {
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                if (channel == null && size + read > memoryThreshold) {
+                    channel = spill();
+                }
+                if (channel != null) {
+                    ByteBuffer bb = ByteBuffer.wrap(bytes, 0, read);
+                    while (bb.hasRemaining()) {
+                        channel.write(bb);
+                    }
+                } else {
+                    int off = 0;
+                    while (off < read) {
+                        if (current == null || !current.hasRemaining()) {
+                            current = acquire();
+                            chunks.add(current);
+                        }
+                        int len = Math.min(read - off, current.remaining());
+                        current.put(bytes, off, len);
+                        off += len;
+                    }
+                }
+                size += read;
+            }
+        } catch (IOException e) {
+            dispose();
+            throw e;
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+        }
+    }
+
+    /**
+     * Moves the data read so far to a temporary file, and gives back the memory buffers
+     */
+    FileChannel spill() throws IOException {
+        file = File.createTempFile("request", ".body");
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            release(chunk);
+        }
+        chunks.clear();
+        return channel;
+    }
+
+    /**
+     * The size of the body, in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the body did not fit in memory
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns a new stream reading the body from the start
+     */
+    public InputStream getInputStream() throws IOException {
+        if (file == null) {
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(chunks.size());
+            for (ByteBuffer chunk : chunks) {
+                buffers.add(chunk.duplicate());
+            }
+            return new BufferInputStream(buffers);
+        }
+        if (size > Integer.MAX_VALUE) {
+            // too large to be mapped in one go
+            return new FileInputStream(file);
+        }
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(1);
+            buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            return new BufferInputStream(buffers);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            channel.close();
+        }
+    }
+
+    /**
+     * Decodes the first <code>maxBytes</code> of the body, for logging purposes
+     */
+    public String toString(int maxBytes, Charset charset) throws IOException {
+        int length = (int) Math.min(size, maxBytes);
+        byte[] bytes = new byte[length];
+        InputStream in = getInputStream();
+        try {
+            int off = 0;
+            int read;
+            while (off < length && (read = in.read(bytes, off, length - off)) != -1) {
+                off += read;
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Gives back the memory buffers and removes the temporary file, if any. Streams returned by
+     * {@link #getInputStream()} must not be used afterwards.
+     */
+    public void dispose() {
+        for (ByteBuffer chunk : chunks) {
+            release(chunk);
+        }
+        chunks.clear();
+        if (file != null) {
+            if (!file.delete()) {
+                // mapped files cannot be deleted on some platforms until the mapping is collected
+                LOGGER.log(Level.FINE, "Could not delete " + file + " right away");
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = POOL.poll();
+        if (buffer != null) {
+            POOLED.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    static void release(ByteBuffer buffer) {
+        if (POOLED.incrementAndGet() <= MAX_POOLED) {
+            POOL.offer(buffer);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads a sequence of buffers
+     */
+    static class BufferInputStream extends InputStream {
+
+        List<ByteBuffer> buffers;
+
+        int index;
+
+        BufferInputStream(List<ByteBuffer> buffers) {
+            this.buffers = buffers;
+        }
+
+        ByteBuffer current() {
+            while (index < buffers.size()) {
+                ByteBuffer buffer = buffers.get(index);
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                index++;
+            }
+            return null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer buffer = current();
+            return buffer == null ? -1 : buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = current();
+            if (buffer == null) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            ByteBuffer buffer = current();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            index = buffers.size();
+        }
+    }
+}
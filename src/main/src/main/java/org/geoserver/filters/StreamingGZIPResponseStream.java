@@ -0,0 +1,128 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A response stream compressing the output as it is written, instead of compressing it all in
+ * memory like {@link GZIPResponseStream} does to compute the content length. The response goes
+ * out with chunked transfer encoding.
+ * <p>
+ * The first <code>minSize</code> bytes are held back: if the response ends before reaching them
+ * it is sent uncompressed, with its content length, as compression would not pay off. Flushing
+ * the stream does not force the decision, the held back bytes stay in memory until the threshold
+ * is crossed or the stream is closed.
+ * </p>
+ */
+public class StreamingGZIPResponseStream extends ServletOutputStream {
+
+    HttpServletResponse response;
+
+    DeflaterPool pool;
+
+    int level;
+
+    byte[] pending;
+
+    int count;
+
+    PooledGZIPOutputStream gzip;
+
+    boolean closed;
+
+    /**
+     * Creates the stream.
+     *
+     * @param response The response to compress.
+     * @param pool The pool of deflaters.
+     * @param level The compression level.
+     * @param minSize Responses smaller than this number of bytes are not compressed.
+     */
+    public StreamingGZIPResponseStream(HttpServletResponse response, DeflaterPool pool,
+            int level, int minSize) {
+        this.response = response;
+        this.pool = pool;
+        this.level = level;
+        this.pending = new byte[Math.max(0, minSize)];
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte b[]) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Cannot write to a closed output stream");
+        }
+        if (gzip == null) {
+            if (count + len < pending.length) {
+                System.arraycopy(b, off, pending, count, len);
+                count += len;
+                return;
+            }
+            start();
+        }
+        gzip.write(b, off, len);
+    }
+
+    /**
+     * Starts compressing, the response headers cannot be changed afterwards
+     */
+    void start() throws IOException {
+        response.addHeader("Content-Encoding", "gzip");
+        gzip = new PooledGZIPOutputStream(response.getOutputStream(), pool, level);
+        if (count > 0) {
+            gzip.write(pending, 0, count);
+        }
+        pending = null;
+        count = 0;
+    }
+
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Cannot flush a closed output stream");
+        }
+        if (gzip != null) {
+            gzip.flush();
+        }
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            throw new IOException("This output stream has already been closed");
+        }
+        closed = true;
+        if (gzip != null) {
+            gzip.close();
+        } else {
+            // small response, send it as is
+            ServletOutputStream output = response.getOutputStream();
+            response.setContentLength(count);
+            output.write(pending, 0, count);
+            output.flush();
+            output.close();
+            pending = null;
+        }
+    }
+
+    /**
+     * Returns true if the output is being compressed
+     */
+    public boolean isCompressing() {
+        return gzip != null;
+    }
+
+    public boolean closed() {
+        return closed;
+    }
+}
@@ -0,0 +1,111 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed bucket latency histogram, safe for concurrent updates without locking.
+ * <p>
+ * Percentiles are approximated with the upper bound of the bucket they fall into.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets, in microseconds. The last bucket collects everything above
+     * the last bound.
+     */
+    static final long[] BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000, 60000000 };
+
+    final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    final AtomicLong count = new AtomicLong();
+
+    final AtomicLong total = new AtomicLong();
+
+    final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a sample, in nanoseconds
+     */
+    public void add(long nanos) {
+        long micros = nanos / 1000;
+        int i = 0;
+        while (i < BOUNDS.length && micros > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros))
+            ;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Mean latency in milliseconds
+     */
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : total.get() / 1000d / c;
+    }
+
+    /**
+     * Max latency in milliseconds
+     */
+    public double getMax() {
+        return max.get() / 1000d;
+    }
+
+    /**
+     * Approximate latency in milliseconds below which the specified fraction (0-1) of the samples
+     * fall
+     */
+    public double getPercentile(double fraction) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(c * fraction);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min(BOUNDS[i], max.get()) / 1000d;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the summary of the histogram as a map, suitable for the REST api
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", getCount());
+        map.put("mean", getMean());
+        map.put("p50", getPercentile(0.5));
+        map.put("p90", getPercentile(0.9));
+        map.put("p99", getPercentile(0.99));
+        map.put("max", getMax());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                getCount(), getMean(), getPercentile(0.5), getPercentile(0.9),
+                getPercentile(0.99), getMax());
+    }
+}
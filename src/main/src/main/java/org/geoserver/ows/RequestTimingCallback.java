@@ -0,0 +1,272 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Times the phases of each request going through the dispatcher and aggregates them into latency
+ * histograms, per service operation and per requested layer.
+ * <p>
+ * The phases are:
+ * <ul>
+ * <li><b>parse</b>: reading the request and parsing its kvp parameters</li>
+ * <li><b>service</b>: looking up the service</li>
+ * <li><b>dispatch</b>: parsing the request object, which includes the catalog lookups</li>
+ * <li><b>execute</b>: running the operation, data access and rendering for most of them</li>
+ * <li><b>response</b>: looking up the response</li>
+ * <li><b>write</b>: encoding and writing the response</li>
+ * </ul>
+ * Phases a request did not go through, for example because of an error, are not recorded.
+ * </p>
+ * <p>
+ * Timing is off unless the <code>OWS_REQUEST_TIMING</code> property is set to true, or it is
+ * enabled at runtime via JMX. When off, each callback method returns right away.
+ * </p>
+ */
+public class RequestTimingCallback extends AbstractDispatcherCallback implements
+        RequestTimingCallbackMBean {
+
+    public static final String PROPERTY = "OWS_REQUEST_TIMING";
+
+    /**
+     * The names of the phases, in execution order
+     */
+    public static final String[] PHASES = { "parse", "service", "dispatch", "execute",
+            "response", "write" };
+
+    static final String TOTAL = "total";
+
+    /**
+     * The kvp parameters listing the layers of a request
+     */
+    static final String[] LAYER_PARAMS = { "LAYERS", "TYPENAME", "TYPENAMES", "COVERAGE",
+            "COVERAGEID", "LAYER" };
+
+    /**
+     * Cap on the number of distinct layers tracked, as layer names come from the clients
+     */
+    static final int MAX_LAYERS = 1000;
+
+    static final int INIT = 0, SERVICE = 1, OPERATION = 2, EXECUTED = 3, RESPONSE = 4,
+            FINISHED = 5;
+
+    /**
+     * Timestamps of a request in flight
+     */
+    static class Timing {
+        long[] marks = new long[FINISHED + 1];
+
+        long parse = -1;
+
+        String operation;
+    }
+
+    volatile boolean enabled;
+
+    ConcurrentMap<Request, Timing> inFlight = new ConcurrentHashMap<Request, Timing>();
+
+    ConcurrentMap<String, Map<String, LatencyHistogram>> operations = new ConcurrentHashMap<String, Map<String, LatencyHistogram>>();
+
+    ConcurrentMap<String, LatencyHistogram> layers = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public RequestTimingCallback() {
+        enabled = Boolean.valueOf(GeoServerExtensions.getProperty(PROPERTY));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            inFlight.clear();
+        }
+    }
+
+    public void reset() {
+        operations.clear();
+        layers.clear();
+    }
+
+    @Override
+    public Request init(Request request) {
+        if (enabled) {
+            Timing timing = timing(request);
+            timing.marks[INIT] = System.nanoTime();
+            if (request.getTimestamp() != null) {
+                long millis = System.currentTimeMillis() - request.getTimestamp().getTime();
+                timing.parse = millis * 1000000;
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) throws ServiceException {
+        mark(request, SERVICE);
+        return service;
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        Timing timing = mark(request, OPERATION);
+        if (timing != null) {
+            timing.operation = operation.getService().getId().toUpperCase() + "."
+                    + operation.getId();
+        }
+        return operation;
+    }
+
+    @Override
+    public Object operationExecuted(Request request, Operation operation, Object result) {
+        mark(request, EXECUTED);
+        return result;
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        mark(request, RESPONSE);
+        return response;
+    }
+
+    @Override
+    public void finished(Request request) {
+        if (!enabled) {
+            return;
+        }
+        Timing timing = inFlight.remove(request);
+        if (timing == null || timing.operation == null || timing.marks[INIT] == 0) {
+            return;
+        }
+        timing.marks[FINISHED] = System.nanoTime();
+
+        Map<String, LatencyHistogram> phases = operations.get(timing.operation);
+        if (phases == null) {
+            phases = new LinkedHashMap<String, LatencyHistogram>();
+            for (String phase : PHASES) {
+                phases.put(phase, new LatencyHistogram());
+            }
+            phases.put(TOTAL, new LatencyHistogram());
+            Map<String, LatencyHistogram> existing = operations.putIfAbsent(timing.operation,
+                    phases);
+            if (existing != null) {
+                phases = existing;
+            }
+        }
+
+        if (timing.parse >= 0) {
+            phases.get(PHASES[0]).add(timing.parse);
+        }
+        for (int i = SERVICE; i <= FINISHED; i++) {
+            if (timing.marks[i] != 0 && timing.marks[i - 1] != 0) {
+                phases.get(PHASES[i]).add(timing.marks[i] - timing.marks[i - 1]);
+            }
+        }
+        long total = timing.marks[FINISHED] - timing.marks[INIT] + Math.max(0, timing.parse);
+        phases.get(TOTAL).add(total);
+
+        for (String layer : layers(request)) {
+            LatencyHistogram histogram = layers.get(layer);
+            if (histogram == null) {
+                if (layers.size() >= MAX_LAYERS) {
+                    continue;
+                }
+                histogram = new LatencyHistogram();
+                LatencyHistogram existing = layers.putIfAbsent(layer, histogram);
+                if (existing != null) {
+                    histogram = existing;
+                }
+            }
+            histogram.add(total);
+        }
+    }
+
+    Timing timing(Request request) {
+        Timing timing = inFlight.get(request);
+        if (timing == null) {
+            timing = new Timing();
+            Timing existing = inFlight.putIfAbsent(request, timing);
+            if (existing != null) {
+                timing = existing;
+            }
+        }
+        return timing;
+    }
+
+    Timing mark(Request request, int event) {
+        if (!enabled) {
+            return null;
+        }
+        Timing timing = timing(request);
+        timing.marks[event] = System.nanoTime();
+        return timing;
+    }
+
+    List<String> layers(Request request) {
+        List<String> result = new ArrayList<String>();
+        Map kvp = request.getRawKvp();
+        if (kvp == null) {
+            return result;
+        }
+        for (String param : LAYER_PARAMS) {
+            Object value = kvp.get(param);
+            if (value instanceof String) {
+                for (String layer : ((String) value).split(",")) {
+                    layer = layer.trim();
+                    if (layer.length() > 0) {
+                        result.add(layer);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the histograms of each operation, keyed by service and operation and then by phase
+     */
+    public Map<String, Map<String, LatencyHistogram>> getOperations() {
+        return new TreeMap<String, Map<String, LatencyHistogram>>(operations);
+    }
+
+    /**
+     * Returns the histograms of the total request time, keyed by layer
+     */
+    public Map<String, LatencyHistogram> getLayers() {
+        return new TreeMap<String, LatencyHistogram>(layers);
+    }
+
+    public String[] getOperationTimings() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Map<String, LatencyHistogram>> op : getOperations().entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> phase : op.getValue().entrySet()) {
+                result.add(op.getKey() + " " + phase.getKey() + ": " + phase.getValue());
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public String[] getLayerTimings() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, LatencyHistogram> layer : getLayers().entrySet()) {
+            result.add(layer.getKey() + ": " + layer.getValue());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+/**
+ * JMX management interface of {@link RequestTimingCallback}
+ */
+public interface RequestTimingCallbackMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Clears the collected timings
+     */
+    void reset();
+
+    /**
+     * One line per operation and phase, with count, mean, percentiles and max latency
+     */
+    String[] getOperationTimings();
+
+    /**
+     * One line per layer, with count, mean, percentiles and max total request latency
+     */
+    String[] getLayerTimings();
+}
@@ -0,0 +1,28 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+
+package org.geoserver.security.event;
+
+import java.util.EventObject;
+
+import org.geoserver.security.impl.AbstractAccessRuleDAO;
+
+/**
+ * Event fired after the rules of an {@link AbstractAccessRuleDAO} have been loaded from the
+ * property file, or changed in memory.
+ */
+public class RulesLoadedEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    public RulesLoadedEvent(AbstractAccessRuleDAO<?> source) {
+        super(source);
+    }
+
+    public AbstractAccessRuleDAO<?> getDAO() {
+        return (AbstractAccessRuleDAO<?>) getSource();
+    }
+
+}
@@ -0,0 +1,15 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.event;
+
+import java.util.EventListener;
+
+/**
+ * Classes implementing this interface may register for notifications of access rules being
+ * loaded or changed, for example to drop what they computed out of the previous rules.
+ */
+public interface RulesLoadedListener extends EventListener {
+    public void rulesChanged(RulesLoadedEvent event);
+}
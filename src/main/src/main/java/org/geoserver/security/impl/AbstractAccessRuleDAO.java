@@ -18,11 +18,14 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.security.PropertyFileWatcher;
+import org.geoserver.security.event.RulesLoadedEvent;
+import org.geoserver.security.event.RulesLoadedListener;
 
 /**
  * Abstract class for security dao's whose configuration is stored in a property file.
@@ -70,6 +73,11 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
      * Data directory accessor
      */
     GeoServerDataDirectory dd;
+
+    /**
+     * Notified when the rules are loaded or changed
+     */
+    protected Set<RulesLoadedListener> listeners = new CopyOnWriteArraySet<RulesLoadedListener>();
     
     protected AbstractAccessRuleDAO(GeoServerDataDirectory dd, String propertyFileName) throws IOException {
         this.dd = dd;
@@ -102,7 +110,9 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
      */
     public boolean addRule(R rule) {
         lastModified = System.currentTimeMillis();
-        return rules.add(rule);
+        boolean added = rules.add(rule);
+        fireRulesLoadedEvent();
+        return added;
     }
     
     /**
@@ -118,6 +128,7 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
     public void clear() {
         rules.clear();
         lastModified = System.currentTimeMillis();
+        fireRulesLoadedEvent();
     }
 
     /**
@@ -127,7 +138,9 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
      */
     public boolean removeRule(R rule) {
         lastModified = System.currentTimeMillis();
-        return rules.remove(rule);
+        boolean removed = rules.remove(rule);
+        fireRulesLoadedEvent();
+        return removed;
     }
 
     /**
@@ -143,6 +156,24 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
     public boolean isModified() {
         return watcher != null && watcher.isStale();
     }
+
+    /**
+     * Registers a listener notified each time the rules are loaded or changed
+     */
+    public void registerRulesLoadedListener(RulesLoadedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unregisterRulesLoadedListener(RulesLoadedListener listener) {
+        listeners.remove(listener);
+    }
+
+    protected void fireRulesLoadedEvent() {
+        RulesLoadedEvent event = new RulesLoadedEvent(this);
+        for (RulesLoadedListener listener : listeners) {
+            listener.rulesChanged(event);
+        }
+    }
     
     /**
      * Writes the rules back to file system
@@ -200,9 +231,11 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable<?>> {
                     }
                 }
                 lastModified = System.currentTimeMillis();
+                fireRulesLoadedEvent();
             } else if (isModified()) {    
                 loadRules(watcher.getProperties());
                 lastModified = System.currentTimeMillis();
+                fireRulesLoadedEvent();
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE,
@@ -0,0 +1,32 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.Map;
+
+import org.geoserver.security.AdminRequest;
+
+/**
+ * Transfers the {@link AdminRequest} marker
+ */
+public class AdminRequestThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = AdminRequest.class.getName() + "#threadLocal";
+
+    public void collect(Map<String, Object> storage) {
+        storage.put(KEY, AdminRequest.get());
+    }
+
+    public void apply(Map<String, Object> storage) {
+        Object request = storage.get(KEY);
+        if (request != null) {
+            AdminRequest.start(request);
+        }
+    }
+
+    public void cleanup() {
+        AdminRequest.finish();
+    }
+}
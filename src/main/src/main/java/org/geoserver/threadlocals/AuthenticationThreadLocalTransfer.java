@@ -0,0 +1,34 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.Map;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Transfers the security context, so that the data access restrictions of the user keep on
+ * being applied
+ */
+public class AuthenticationThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = SecurityContextHolder.class.getName() + "#threadLocal";
+
+    public void collect(Map<String, Object> storage) {
+        storage.put(KEY, SecurityContextHolder.getContext());
+    }
+
+    public void apply(Map<String, Object> storage) {
+        SecurityContext context = (SecurityContext) storage.get(KEY);
+        if (context != null) {
+            SecurityContextHolder.setContext(context);
+        }
+    }
+
+    public void cleanup() {
+        SecurityContextHolder.clearContext();
+    }
+}
@@ -0,0 +1,36 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.filter.function.EnvFunction;
+
+/**
+ * Transfers the {@link EnvFunction} local values, set from the <code>env</code> parameter
+ */
+public class EnvFunctionThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = EnvFunction.class.getName() + "#threadLocal";
+
+    public void collect(Map<String, Object> storage) {
+        Map<String, Object> values = EnvFunction.getLocalValues();
+        if (values != null && !values.isEmpty()) {
+            storage.put(KEY, new HashMap<String, Object>(values));
+        }
+    }
+
+    public void apply(Map<String, Object> storage) {
+        Map<String, Object> values = (Map<String, Object>) storage.get(KEY);
+        if (values != null) {
+            EnvFunction.setLocalValues(values);
+        }
+    }
+
+    public void cleanup() {
+        EnvFunction.clearLocalValues();
+    }
+}
@@ -0,0 +1,33 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.Map;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.ows.LocalLayer;
+
+/**
+ * Transfers the {@link LocalLayer} of virtual services
+ */
+public class LocalLayerThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = LocalLayer.class.getName() + "#threadLocal";
+
+    public void collect(Map<String, Object> storage) {
+        storage.put(KEY, LocalLayer.get());
+    }
+
+    public void apply(Map<String, Object> storage) {
+        LayerInfo layer = (LayerInfo) storage.get(KEY);
+        if (layer != null) {
+            LocalLayer.set(layer);
+        }
+    }
+
+    public void cleanup() {
+        LocalLayer.remove();
+    }
+}
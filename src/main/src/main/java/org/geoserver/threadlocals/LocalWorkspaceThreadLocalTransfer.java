@@ -0,0 +1,33 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.Map;
+
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.LocalWorkspace;
+
+/**
+ * Transfers the {@link LocalWorkspace} of virtual services
+ */
+public class LocalWorkspaceThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = LocalWorkspace.class.getName() + "#threadLocal";
+
+    public void collect(Map<String, Object> storage) {
+        storage.put(KEY, LocalWorkspace.get());
+    }
+
+    public void apply(Map<String, Object> storage) {
+        WorkspaceInfo workspace = (WorkspaceInfo) storage.get(KEY);
+        if (workspace != null) {
+            LocalWorkspace.set(workspace);
+        }
+    }
+
+    public void cleanup() {
+        LocalWorkspace.remove();
+    }
+}
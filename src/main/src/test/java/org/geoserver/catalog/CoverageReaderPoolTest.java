@@ -0,0 +1,157 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.coverage.grid.GridCoverageReader;
+
+public class CoverageReaderPoolTest {
+
+    List<GridCoverageReader> disposed = Collections
+            .synchronizedList(new ArrayList<GridCoverageReader>());
+
+    CoverageReaderPool pool;
+
+    @After
+    public void clear() {
+        if (pool != null) {
+            pool.clear();
+        }
+    }
+
+    CoverageReaderPool pool(int maxReaders, long idleTimeout, long maxAge) {
+        pool = new CoverageReaderPool(maxReaders, idleTimeout, maxAge) {
+            protected void dispose(Object key, GridCoverageReader reader) {
+                disposed.add(reader);
+            }
+        };
+        return pool;
+    }
+
+    GridCoverageReader reader() {
+        return createNiceMock(GridCoverageReader.class);
+    }
+
+    @Test
+    public void testRoundRobin() {
+        CoverageReaderPool pool = pool(2, 0, 0);
+        assertNull(pool.get("store"));
+
+        GridCoverageReader r1 = reader();
+        assertTrue(pool.grow("store"));
+        // only one thread at a time opens a reader
+        assertFalse(pool.grow("store"));
+        pool.add("store", r1);
+        pool.release("store");
+        assertSame(r1, pool.get("store"));
+
+        GridCoverageReader r2 = reader();
+        assertTrue(pool.grow("store"));
+        pool.add("store", r2);
+        pool.release("store");
+        // full
+        assertFalse(pool.grow("store"));
+
+        GridCoverageReader first = pool.get("store");
+        GridCoverageReader second = pool.get("store");
+        assertNotSame(first, second);
+        assertSame(first, pool.get("store"));
+        assertEquals(2, pool.getOpenReaders());
+        assertEquals(2, pool.getCreatedCount());
+
+        pool.remove("store");
+        assertNull(pool.get("store"));
+        assertEquals(2, disposed.size());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        CoverageReaderPool pool = pool(1, 50, 0);
+        GridCoverageReader reader = reader();
+        pool.add("store", reader);
+
+        pool.evict();
+        assertSame(reader, pool.get("store"));
+
+        Thread.sleep(100);
+        pool.evict();
+        assertNull(pool.get("store"));
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(0, pool.getOpenReaders());
+        assertEquals(1, disposed.size());
+        assertTrue(pool.keys().isEmpty());
+    }
+
+    @Test
+    public void testAddWhileEvicting() throws Exception {
+        final CoverageReaderPool pool = pool(1, 1, 0);
+        final GridCoverageReader reader = reader();
+        Thread evictor = new Thread() {
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    pool.evict();
+                }
+            }
+        };
+        evictor.start();
+        for (int i = 0; i < 2000; i++) {
+            pool.add("store", reader);
+        }
+        evictor.join();
+
+        // every reader is either still in the pool or has been disposed, none got lost in an
+        // entry removed from the pool
+        assertEquals(pool.getCreatedCount(), disposed.size() + pool.getOpenReaders());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        long grace = CoverageReaderPool.RETIRED_GRACE;
+        CoverageReaderPool.RETIRED_GRACE = 50;
+        try {
+            CoverageReaderPool pool = pool(1, 0, 50);
+            GridCoverageReader reader = reader();
+            pool.add("store", reader);
+            pool.get("store");
+
+            Thread.sleep(100);
+            pool.evict();
+            // retired, no longer handed out, but not disposed either
+            assertNull(pool.get("store"));
+            assertEquals(1, pool.getOpenReaders());
+            assertTrue(disposed.isEmpty());
+
+            Thread.sleep(100);
+            pool.evict();
+            assertEquals(0, pool.getOpenReaders());
+            assertEquals(1, disposed.size());
+        } finally {
+            CoverageReaderPool.RETIRED_GRACE = grace;
+        }
+    }
+
+    @Test
+    public void testWaitStatistics() {
+        CoverageReaderPool pool = pool(1, 0, 0);
+        pool.waited(10);
+        pool.waited(30);
+        assertEquals(2, pool.getWaitCount());
+        assertEquals(40, pool.getTotalWaitTime());
+        assertEquals(30, pool.getMaxWaitTime());
+    }
+}
@@ -0,0 +1,203 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedLoaderTest {
+
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameKeyLoadedOnce() throws Exception {
+        final KeyedLoader loader = new KeyedLoader(0, 0);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> load = new Callable<String>() {
+            public String call() throws Exception {
+                loads.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "value";
+            }
+        };
+
+        Future<String> first = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("key", load, true);
+            }
+        });
+        started.await();
+        Future<String> second = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("key", load, true);
+            }
+        });
+        // give the second thread a chance to queue up behind the first
+        Thread.sleep(50);
+        release.countDown();
+
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testOtherKeysNotBlocked() throws Exception {
+        final KeyedLoader loader = new KeyedLoader(0, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> slow = executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("slow", new Callable<String>() {
+                    public String call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return "slow";
+                    }
+                }, true);
+            }
+        });
+        started.await();
+
+        String fast = loader.load("fast", new Callable<String>() {
+            public String call() throws Exception {
+                return "fast";
+            }
+        }, true);
+        assertEquals("fast", fast);
+
+        release.countDown();
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        final KeyedLoader loader = new KeyedLoader(50, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        executor.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return loader.load("key", new Callable<String>() {
+                    public String call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return "value";
+                    }
+                }, true);
+            }
+        });
+        started.await();
+
+        try {
+            loader.load("key", new Callable<String>() {
+                public String call() throws Exception {
+                    return "other";
+                }
+            }, true);
+            fail("Should have timed out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFailureBackoff() throws Exception {
+        KeyedLoader loader = new KeyedLoader(0, 60000);
+        final AtomicInteger attempts = new AtomicInteger();
+        Callable<String> failing = new Callable<String>() {
+            public String call() throws Exception {
+                attempts.incrementAndGet();
+                throw new IOException("unreachable");
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                loader.load("key", failing, true);
+                fail("Should have failed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(1, attempts.get());
+
+        loader.reset("key");
+        try {
+            loader.load("key", failing, true);
+            fail("Should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testFailureNotRemembered() throws Exception {
+        KeyedLoader loader = new KeyedLoader(0, 60000);
+        final AtomicInteger attempts = new AtomicInteger();
+        Callable<String> failing = new Callable<String>() {
+            public String call() throws Exception {
+                attempts.incrementAndGet();
+                throw new IOException("unreachable");
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                loader.load("key", failing, false);
+                fail("Should have failed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testRuntimeExceptionNotWrapped() throws Exception {
+        KeyedLoader loader = new KeyedLoader(0, 0);
+        try {
+            loader.load("key", new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IllegalArgumentException("broken store");
+                }
+            }, true);
+            fail("Should have failed");
+        } catch (IllegalArgumentException e) {
+            assertEquals("broken store", e.getMessage());
+        }
+    }
+}
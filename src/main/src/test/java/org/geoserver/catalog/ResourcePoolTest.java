@@ -30,6 +30,7 @@ import org.geoserver.test.SystemTest;
 import org.geotools.data.DataAccess;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
+import org.geotools.styling.Style;
 import org.geotools.util.SoftValueHashMap;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -126,6 +127,23 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         assertTrue( cleared );
     }
 
+    @Test public void testStyleCacheFileModified() throws IOException {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        StyleInfo info = getCatalog().getStyleByName(StyleInfo.DEFAULT_POINT);
+
+        Style s1 = pool.getStyle(info);
+        assertSame(s1, pool.getStyle(info));
+
+        // touch the file, and pretend the last check happened long ago
+        File file = new GeoServerDataDirectory(getResourceLoader()).findStyleSldFile(info);
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        pool.styleFiles.get(info).lastChecked = 0;
+
+        Style s2 = pool.getStyle(info);
+        assertNotSame(s1, s2);
+        assertSame(s2, pool.getStyle(info));
+    }
+
     boolean disposeCalled;
 
     /**
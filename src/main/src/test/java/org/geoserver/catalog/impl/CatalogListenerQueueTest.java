@@ -0,0 +1,126 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.AsynchronousCatalogListener;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.junit.Test;
+
+public class CatalogListenerQueueTest {
+
+    @Test
+    public void testAsynchronousDelivery() throws Exception {
+        CatalogImpl catalog = new CatalogImpl();
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingListener slow = new AsyncRecordingListener(release);
+        RecordingListener fast = new RecordingListener();
+        catalog.addListener(slow);
+        catalog.addListener(fast);
+
+        for (int i = 0; i < 5; i++) {
+            WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+            ws.setName("ws" + i);
+            catalog.add(ws);
+        }
+
+        // the synchronous listener got all the events already, the slow one is blocked
+        assertEquals(5, fast.names.size());
+        CatalogListenerQueue queue = catalog.queue(slow);
+        assertTrue(queue.isAsynchronous());
+        assertFalse(catalog.queue(fast).isAsynchronous());
+        assertTrue(queue.getQueueDepth() > 0);
+
+        release.countDown();
+        assertTrue(queue.await(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(5, queue.getEventCount());
+
+        // events are delivered in order
+        assertEquals(fast.names, slow.names);
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        CatalogImpl catalog = new CatalogImpl();
+        RecordingListener listener = new AsyncRecordingListener(null) {
+            @Override
+            public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+                throw new CatalogException("async failure");
+            }
+        };
+        catalog.addListener(listener);
+
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("ws");
+        // does not reach the caller
+        catalog.add(ws);
+
+        CatalogListenerQueue queue = catalog.queue(listener);
+        assertTrue(queue.await(5, TimeUnit.SECONDS));
+        assertEquals(1, queue.getFailureCount());
+
+        CatalogListenerMonitor monitor = new CatalogListenerMonitor(catalog);
+        assertEquals(1, monitor.getFailureCount());
+        assertEquals(0, monitor.getQueueDepth());
+        assertEquals(catalog.getListenerQueues().size(), monitor.getListenerStatistics().length);
+    }
+
+    static class RecordingListener implements CatalogListener {
+
+        List<String> names = Collections.synchronizedList(new ArrayList<String>());
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            names.add(((WorkspaceInfo) event.getSource()).getName());
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        }
+
+        public void reloaded() {
+        }
+    }
+
+    static class AsyncRecordingListener extends RecordingListener implements
+            AsynchronousCatalogListener {
+
+        CountDownLatch release;
+
+        AsyncRecordingListener(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new CatalogException(e);
+            }
+            super.handleAddEvent(event);
+        }
+    }
+}
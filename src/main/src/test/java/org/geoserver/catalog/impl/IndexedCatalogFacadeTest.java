@@ -0,0 +1,189 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.Predicates.acceptAll;
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.asc;
+import static org.geoserver.catalog.Predicates.desc;
+import static org.geoserver.catalog.Predicates.equal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * Runs the whole catalog test suite against the {@link IndexedCatalogFacade}, plus a few checks
+ * on keeping the indexes in synch with renames.
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    @Test
+    public void testLayerLookupsAfterResourceRename() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("renamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getLayerByName("ftName"));
+        LayerInfo layer = catalog.getLayerByName("renamed");
+        assertNotNull(layer);
+        assertEquals(l.getId(), layer.getId());
+        assertNotNull(catalog.getLayerByName("wsName:renamed"));
+        assertEquals(1, catalog.getLayers(ft2).size());
+    }
+
+    @Test
+    public void testLayerLookupsAfterWorkspaceRename() {
+        addLayer();
+
+        WorkspaceInfo ws2 = catalog.getWorkspaceByName(ws.getName());
+        ws2.setName("renamedWs");
+        catalog.save(ws2);
+
+        assertNotNull(catalog.getFacade().getLayerByName("renamedWs:ftName"));
+        assertNull(catalog.getFacade().getLayerByName("wsName:ftName"));
+    }
+
+    @Test
+    public void testLayersByStyleAfterSave() {
+        addLayer();
+
+        StyleInfo s2 = catalog.getFactory().createStyle();
+        s2.setName("styleName2");
+        s2.setFilename("styleFilename2");
+        catalog.add(s2);
+
+        LayerInfo l2 = catalog.getLayerByName(l.getName());
+        l2.getStyles().add(s2);
+        catalog.save(l2);
+
+        assertEquals(1, catalog.getLayers(s).size());
+        assertEquals(1, catalog.getLayers(s2).size());
+
+        catalog.remove(catalog.getLayerByName(l.getName()));
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertTrue(catalog.getLayers(s2).isEmpty());
+        assertNull(catalog.getLayer(l.getId()));
+    }
+
+    @Test
+    public void testIndexLookupsReturnCopies() {
+        addLayer();
+
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+        List<LayerInfo> layers = facade.layersByStyle.get(s.getId());
+        assertEquals(1, layers.size());
+        layers.clear();
+        assertEquals(1, facade.layersByStyle.get(s.getId()).size());
+        assertEquals(1, catalog.getLayers(s).size());
+    }
+
+    @Test
+    public void testListsSynchronizedOnResolve() {
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+        facade.layers = new ArrayList<LayerInfo>();
+        facade.layerGroups = null;
+        facade.resolve();
+
+        assertTrue(IndexedCatalogFacade.SYNCHRONIZED_LIST.isInstance(facade.layers));
+        assertTrue(IndexedCatalogFacade.SYNCHRONIZED_LIST.isInstance(facade.layerGroups));
+        assertTrue(IndexedCatalogFacade.SYNCHRONIZED_LIST.isInstance(facade.styles));
+    }
+
+    @Test
+    public void testLayerGroupLookupsAfterRename() {
+        addLayerGroup();
+
+        LayerGroupInfo lg2 = catalog.getLayerGroupByName(lg.getName());
+        lg2.setName("renamedGroup");
+        catalog.save(lg2);
+
+        assertNull(catalog.getLayerGroupByName("layerGroup"));
+        assertNotNull(catalog.getLayerGroupByName("renamedGroup"));
+        assertEquals(1, catalog.getLayerGroupsByWorkspace(CatalogFacade.NO_WORKSPACE).size());
+    }
+
+    @Test
+    public void testIndexedLayerQueries() {
+        addDataStore();
+        addNamespace();
+        addStyle();
+        for (String name : new String[] { "c", "a", "d", "b" }) {
+            FeatureTypeInfo ft2 = newFeatureType(name, ds);
+            catalog.add(ft2);
+            LayerInfo l2 = newLayer(ft2, s);
+            l2.setEnabled(!"d".equals(name));
+            catalog.add(l2);
+        }
+
+        assertEquals(Arrays.asList("a"), list(equal("name", "a"), null, null, null));
+        assertEquals(Arrays.asList("c", "a", "b"), list(and(
+                equal("resource.store.workspace.name", ws.getName()), equal("enabled", true)),
+                null, null, null));
+        assertEquals(3, catalog.count(LayerInfo.class, equal("enabled", Boolean.TRUE)));
+        // low cardinality properties are not indexed, the selective condition is used instead
+        IndexedCatalogFacade facade = (IndexedCatalogFacade) catalog.getFacade();
+        assertNull(facade.candidateLayers(equal("enabled", true)));
+        assertEquals(1, facade.candidateLayers(
+                and(equal("name", "a"), equal("enabled", true))).size());
+        assertEquals(4, catalog.count(LayerInfo.class, acceptAll()));
+
+        Filter like = Predicates.factory.like(Predicates.factory.property("name"), "b*", "*",
+                "?", "\\", true);
+        assertEquals(Arrays.asList("b"), list(like, null, null, null));
+
+        assertEquals(Arrays.asList("b", "c"), list(acceptAll(), 1, 2, asc("name")));
+        assertEquals(Arrays.asList("c", "b"), list(acceptAll(), 1, 2, desc("name")));
+        assertEquals(Arrays.asList("a", "b", "c"),
+                list(equal("enabled", true), null, null, asc("resource.name")));
+
+        // the sorted view follows renames
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName("a");
+        ft2.setName("z");
+        catalog.save(ft2);
+        assertEquals(Arrays.asList("b", "c", "d", "z"), list(acceptAll(), null, null, asc("name")));
+        assertEquals(Arrays.asList("z"), list(equal("name", "z"), null, null, null));
+    }
+
+    List<String> list(Filter filter, Integer offset, Integer count, SortBy sortBy) {
+        List<String> names = new ArrayList<String>();
+        CloseableIterator<LayerInfo> it = catalog.list(LayerInfo.class, filter, offset, count,
+                sortBy);
+        try {
+            while (it.hasNext()) {
+                names.add(it.next().getName());
+            }
+        } finally {
+            it.close();
+        }
+        return names;
+    }
+}
@@ -52,6 +52,36 @@ public class InfoObjectProxyTest {
         assertEquals( 2, bean.getScratch().size() );
     }
     
+    @Test
+    public void testDirtyTracking() throws Exception {
+        BeanImpl bean = new BeanImpl();
+        bean.setFoo( "one" );
+        
+        Bean proxy = ModificationProxy.create( bean, Bean.class );
+        ModificationProxy handler = ModificationProxy.handler( proxy );
+        assertFalse( handler.isDirty() );
+        
+        // setting the same value is not a change
+        proxy.setFoo( "one" );
+        assertFalse( handler.isDirty() );
+        
+        proxy.setFoo( "two" );
+        assertTrue( handler.isDirty() );
+        assertEquals( "foo", handler.getPropertyNames().get( 0 ) );
+        assertEquals( "one", handler.getOldValues().get( 0 ) );
+        assertEquals( "two", handler.getNewValues().get( 0 ) );
+        
+        // a second proxy on the same class shares the accessors and sees its own state only
+        Bean other = ModificationProxy.create( new BeanImpl(), Bean.class );
+        other.setBar( 3 );
+        ModificationProxy.handler( other ).commit();
+        assertEquals( new Integer(3), ModificationProxy.unwrap( other ).getBar() );
+        assertEquals( "two", proxy.getFoo() );
+        assertNull( proxy.getBar() );
+        assertSame( ModificationProxy.accessors( BeanImpl.class ), 
+            ModificationProxy.accessors( BeanImpl.class ) );
+    }
+    
     static interface Bean {
         
         String getFoo();
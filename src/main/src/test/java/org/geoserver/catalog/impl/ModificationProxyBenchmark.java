@@ -0,0 +1,268 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Info;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+
+/**
+ * Measures the cost of iterating {@link Catalog#getLayers()} through {@link ModificationProxy},
+ * accessing the properties a capabilities document typically reads. The current proxy is compared
+ * against {@link BaselineProxy}, a copy of the read path of the proxy before the method and
+ * accessor tables were cached, and against the same iteration over the unwrapped objects.
+ * <p>
+ * Not a unit test, run it with the main method, optionally passing the number of layers and
+ * iterations.
+ * </p>
+ */
+public class ModificationProxyBenchmark {
+
+    public static void main(String[] args) {
+        int layers = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Catalog catalog = createCatalog(layers);
+        List<LayerInfo> raw = new ArrayList<LayerInfo>();
+        for (LayerInfo l : catalog.getLayers()) {
+            raw.add(ModificationProxy.unwrap(l));
+        }
+
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            iterate(catalog.getLayers());
+            iterate(baselineLayers(raw));
+            iterate(raw);
+        }
+
+        long current = 0;
+        long baseline = 0;
+        long unwrapped = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            iterate(catalog.getLayers());
+            current += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            iterate(baselineLayers(raw));
+            baseline += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            iterate(raw);
+            unwrapped += System.nanoTime() - start;
+        }
+
+        long total = (long) layers * iterations;
+        System.out.println("Layers: " + layers + ", iterations: " + iterations);
+        System.out.println("Current proxy:  " + (current / total) + " ns/layer");
+        System.out.println("Baseline proxy: " + (baseline / total) + " ns/layer");
+        System.out.println("Unwrapped:      " + (unwrapped / total) + " ns/layer");
+    }
+
+    static int iterate(List<LayerInfo> layers) {
+        int hash = 0;
+        for (LayerInfo l : layers) {
+            hash += l.getName().hashCode();
+            hash += l.getResource().getName().hashCode();
+            hash += l.getResource().getStore().getName().hashCode();
+            hash += l.getResource().getNamespace().getPrefix().hashCode();
+            hash += l.getDefaultStyle().getName().hashCode();
+            hash += l.getStyles().size();
+            hash += l.isEnabled() ? 1 : 0;
+        }
+        return hash;
+    }
+
+    /**
+     * Wraps the layers the way getLayers() used to, proxying each one on access
+     */
+    static List<LayerInfo> baselineLayers(List<LayerInfo> raw) {
+        return new ProxyList(raw, LayerInfo.class) {
+            protected <T> T createProxy(T proxyObject, Class<T> proxyInterface) {
+                return BaselineProxy.create(proxyObject, proxyInterface);
+            }
+
+            protected <T> T unwrapProxy(T proxy, Class<T> proxyInterface) {
+                return BaselineProxy.unwrap(proxy);
+            }
+        };
+    }
+
+    /**
+     * The read path of {@link ModificationProxy} before the method and accessor tables were
+     * cached: each call parses the method name and each proxy creation looks up the proxy class
+     * and its constructor
+     */
+    static class BaselineProxy implements InvocationHandler {
+
+        Object proxyObject;
+
+        HashMap<String, Object> properties;
+
+        HashMap<String, Object> oldCollectionValues;
+
+        BaselineProxy(Object proxyObject) {
+            this.proxyObject = proxyObject;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String property = null;
+            if ((method.getName().startsWith("get") || method.getName().startsWith("is"))
+                    && method.getParameterTypes().length == 0) {
+                property = method.getName().substring(method.getName().startsWith("get") ? 3 : 2);
+                if (properties != null && properties().containsKey(property)) {
+                    return properties().get(property);
+                } else if (Collection.class.isAssignableFrom(method.getReturnType())) {
+                    Collection real = (Collection) method.invoke(proxyObject, null);
+                    if (real == null) {
+                        return null;
+                    }
+                    Collection wrap = real.getClass().newInstance();
+                    wrap.addAll(real);
+                    properties().put(property, wrap);
+                    Collection clone = real.getClass().newInstance();
+                    clone.addAll(real);
+                    oldCollectionValues().put(property, clone);
+                    return wrap;
+                } else if (Map.class.isAssignableFrom(method.getReturnType())) {
+                    Map real = (Map) method.invoke(proxyObject, null);
+                    if (real == null) {
+                        return null;
+                    }
+                    Map wrap = real.getClass().newInstance();
+                    wrap.putAll(real);
+                    properties().put(property, wrap);
+                    Map clone = real.getClass().newInstance();
+                    clone.putAll(real);
+                    oldCollectionValues().put(property, clone);
+                    return wrap;
+                }
+            }
+            if (method.getName().startsWith("set") && args.length == 1) {
+                properties().put(method.getName().substring(3), args[0]);
+                return null;
+            }
+
+            try {
+                Object result = method.invoke(proxyObject, args);
+                if (result != null && !Catalog.class.isAssignableFrom(result.getClass())
+                        && Info.class.isAssignableFrom(result.getClass())) {
+                    Object o = unwrap(result);
+                    if (o == result) {
+                        result = create(result, (Class) method.getReturnType());
+                        properties().put(property, result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        HashMap<String, Object> properties() {
+            if (properties == null) {
+                properties = new HashMap<String, Object>();
+            }
+            return properties;
+        }
+
+        HashMap<String, Object> oldCollectionValues() {
+            if (oldCollectionValues == null) {
+                oldCollectionValues = new HashMap<String, Object>();
+            }
+            return oldCollectionValues;
+        }
+
+        static <T> T unwrap(T object) {
+            if (object instanceof Proxy
+                    && Proxy.getInvocationHandler(object) instanceof BaselineProxy) {
+                return (T) ((BaselineProxy) Proxy.getInvocationHandler(object)).proxyObject;
+            }
+            return object;
+        }
+
+        static <T> T create(T proxyObject, Class<T> clazz) {
+            List<Class> interfaces = new ArrayList<Class>(Arrays.asList(proxyObject.getClass()
+                    .getInterfaces()));
+            boolean add = true;
+            for (Class i : interfaces) {
+                if (clazz.isAssignableFrom(i)) {
+                    add = false;
+                    break;
+                }
+            }
+            if (add) {
+                interfaces.add(clazz);
+            }
+            Class proxyClass = Proxy.getProxyClass(clazz.getClassLoader(),
+                    interfaces.toArray(new Class[interfaces.size()]));
+            try {
+                return (T) proxyClass.getConstructor(new Class[] { InvocationHandler.class })
+                        .newInstance(new Object[] { new BaselineProxy(proxyObject) });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    static Catalog createCatalog(int layers) {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("bench");
+        catalog.add(ws);
+
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("bench");
+        ns.setURI("http://bench");
+        catalog.add(ns);
+
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("store");
+        ds.setWorkspace(ws);
+        ds.setEnabled(true);
+        catalog.add(ds);
+
+        StyleInfo s = factory.createStyle();
+        s.setName("style");
+        s.setFilename("style.sld");
+        catalog.add(s);
+
+        for (int i = 0; i < layers; i++) {
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName("layer" + i);
+            ft.setNativeName(ft.getName());
+            ft.setStore(ds);
+            ft.setNamespace(ns);
+            ft.setEnabled(true);
+            catalog.add(ft);
+
+            LayerInfo l = factory.createLayer();
+            l.setResource(ft);
+            l.setDefaultStyle(s);
+            l.setEnabled(true);
+            catalog.add(l);
+        }
+        return catalog;
+    }
+}
@@ -0,0 +1,108 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SystemTest.class)
+public class CatalogSnapshotTest extends GeoServerSystemTestSupport {
+
+    CatalogSnapshot snapshot;
+
+    @Before
+    public void createSnapshot() throws Exception {
+        snapshot = new CatalogSnapshot(getResourceLoader(),
+            new XStreamPersisterFactory().createBinaryPersister());
+        File f = getResourceLoader().find("temp", CatalogSnapshot.FILENAME);
+        if (f != null) {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testNoSnapshot() throws Exception {
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Catalog catalog = getCatalog();
+        snapshot.write(catalog, snapshot.fingerprint());
+
+        Catalog read = snapshot.read();
+        assertNotNull(read);
+        assertEquals(ids(catalog.getWorkspaces()), ids(read.getWorkspaces()));
+        assertEquals(ids(catalog.getNamespaces()), ids(read.getNamespaces()));
+        assertEquals(ids(catalog.getStyles()), ids(read.getStyles()));
+        assertEquals(ids(catalog.getStores(StoreInfo.class)), ids(read.getStores(StoreInfo.class)));
+        assertEquals(ids(catalog.getResources(ResourceInfo.class)),
+            ids(read.getResources(ResourceInfo.class)));
+        assertEquals(ids(catalog.getLayers()), ids(read.getLayers()));
+        assertEquals(ids(catalog.getLayerGroups()), ids(read.getLayerGroups()));
+        assertEquals(catalog.getDefaultWorkspace().getId(), read.getDefaultWorkspace().getId());
+
+        for (LayerInfo l : read.getLayers()) {
+            assertNotNull(l.getResource().getStore().getWorkspace());
+            assertNotNull(l.getDefaultStyle());
+        }
+    }
+
+    @Test
+    public void testStale() throws Exception {
+        snapshot.write(getCatalog(), snapshot.fingerprint());
+        assertNotNull(snapshot.read());
+
+        File styles = getResourceLoader().find("styles");
+        File f = new File(styles, "snapshotTest.xml");
+        f.createNewFile();
+        try {
+            assertNull(snapshot.read());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        snapshot.write(getCatalog(), snapshot.fingerprint());
+        File f = getResourceLoader().find("temp", CatalogSnapshot.FILENAME);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        assertNull(snapshot.read());
+    }
+
+    Set<String> ids(List<? extends CatalogInfo> infos) {
+        Set<String> ids = new TreeSet<String>();
+        for (CatalogInfo info : infos) {
+            ids.add(info.getId());
+        }
+        return ids;
+    }
+}
@@ -9,6 +9,7 @@ import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -26,6 +27,7 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.config.util.XStreamPersisterFactory;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.util.IOUtils;
@@ -819,6 +821,105 @@ public class GeoServerPersisterTest extends GeoServerSystemTestSupport {
         assertNull(f);
     }
 
+    @Test
+    public void testWriteBehind() throws Exception {
+        testAddDataStore();
+        setWriteBehind(60000);
+        try {
+            File f = new File( testData.getDataDirectoryRoot(), 
+                "workspaces/acme/foostore/datastore.xml");
+            
+            DataStoreInfo ds = catalog.getDataStoreByName( "acme", "foostore" );
+            ds.getConnectionParameters().put( "foo", "bar" );
+            catalog.save( ds );
+            ds = catalog.getDataStoreByName( "acme", "foostore" );
+            ds.getConnectionParameters().put( "foo", "baz" );
+            catalog.save( ds );
+            
+            // not written out yet
+            assertXpathEvaluatesTo( "0", "count(/dataStore/connectionParameters/entry[@key='foo'])", 
+                dom( f ) );
+            
+            GeoServerPersister.flush(getGeoServer());
+            assertXpathEvaluatesTo( "baz", "/dataStore/connectionParameters/entry[@key='foo']", 
+                dom( f ) );
+        }
+        finally {
+            setWriteBehind(0);
+        }
+    }
+    
+    @Test
+    public void testWriteBehindFlushedBeforeRename() throws Exception {
+        testAddDataStore();
+        setWriteBehind(60000);
+        try {
+            DataStoreInfo ds = catalog.getDataStoreByName( "acme", "foostore" );
+            ds.getConnectionParameters().put( "foo", "bar" );
+            catalog.save( ds );
+            
+            ds = catalog.getDataStoreByName( "acme", "foostore" );
+            ds.setName( "foostore2" );
+            catalog.save( ds );
+            GeoServerPersister.flush(getGeoServer());
+            
+            assertFalse( new File( testData.getDataDirectoryRoot(), "workspaces/acme/foostore").exists() );
+            File f = new File( testData.getDataDirectoryRoot(), 
+                "workspaces/acme/foostore2/datastore.xml");
+            Document dom = dom( f );
+            assertXpathEvaluatesTo( "foostore2", "/dataStore/name", dom );
+            assertXpathEvaluatesTo( "bar", "/dataStore/connectionParameters/entry[@key='foo']", dom );
+        }
+        finally {
+            setWriteBehind(0);
+        }
+    }
+    
+    @Test
+    public void testWriteWaitsForCommit() throws Exception {
+        testAddDataStore();
+        final GeoServerPersister persister = getPersister();
+        final DataStoreInfo ds = catalog.getDataStoreByName( "acme", "foostore" );
+        final File f = new File( testData.getDataDirectoryRoot(), 
+            "workspaces/acme/foostore/datastore.xml");
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    persister.write( ds, f );
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        
+        // a commit of the modification proxy holds the lock of the proxied object
+        synchronized ( ModificationProxy.unwrap( ds ) ) {
+            writer.start();
+            writer.join( 500 );
+            assertTrue( writer.isAlive() );
+        }
+        writer.join();
+        assertXpathEvaluatesTo( "foostore", "/dataStore/name", dom( f ) );
+    }
+    
+    GeoServerPersister getPersister() {
+        for (Object l : catalog.getListeners()) {
+            if (l instanceof GeoServerPersister) {
+                return (GeoServerPersister) l;
+            }
+        }
+        return null;
+    }
+    
+    void setWriteBehind(long writeBehind) throws Exception {
+        // there might be more than one persister attached to the catalog
+        for (Object l : catalog.getListeners()) {
+            if (l instanceof GeoServerPersister) {
+                ((GeoServerPersister) l).setWriteBehind(writeBehind);
+            }
+        }
+    }
+    
     Document dom( File f ) throws Exception {
         return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( f );
     }
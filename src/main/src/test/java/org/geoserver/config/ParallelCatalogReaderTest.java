@@ -0,0 +1,78 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SystemTest.class)
+public class ParallelCatalogReaderTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+
+        Catalog sequential = loader.readCatalog(xpf.createXMLPersister());
+        Catalog parallel = new ParallelCatalogReader(loader, xpf.createXMLPersister(), 4).read();
+
+        assertEquals(ids(sequential.getWorkspaces()), ids(parallel.getWorkspaces()));
+        assertEquals(ids(sequential.getNamespaces()), ids(parallel.getNamespaces()));
+        assertEquals(ids(sequential.getStyles()), ids(parallel.getStyles()));
+        assertEquals(ids(sequential.getStores(StoreInfo.class)),
+            ids(parallel.getStores(StoreInfo.class)));
+        assertEquals(ids(sequential.getResources(ResourceInfo.class)),
+            ids(parallel.getResources(ResourceInfo.class)));
+        assertEquals(ids(sequential.getLayers()), ids(parallel.getLayers()));
+        assertEquals(ids(sequential.getLayerGroups()), ids(parallel.getLayerGroups()));
+
+        WorkspaceInfo ws = sequential.getDefaultWorkspace();
+        assertNotNull(parallel.getDefaultWorkspace());
+        assertEquals(ws.getId(), parallel.getDefaultWorkspace().getId());
+    }
+
+    @Test
+    public void testReferencesResolved() throws Exception {
+        GeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        Catalog parallel = new ParallelCatalogReader(loader,
+            new XStreamPersisterFactory().createXMLPersister(), 4).read();
+
+        for (LayerInfo l : parallel.getLayers()) {
+            ResourceInfo r = l.getResource();
+            assertNotNull(r);
+            assertNotNull(r.getStore());
+            assertNotNull(r.getStore().getWorkspace());
+            assertNotNull(r.getNamespace());
+            for (StyleInfo s : l.getStyles()) {
+                assertNotNull(s.getName());
+            }
+        }
+    }
+
+    Set<String> ids(List<? extends CatalogInfo> infos) {
+        Set<String> ids = new TreeSet<String>();
+        for (CatalogInfo info : infos) {
+            ids.add(info.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestTimingCallbackTest {
+
+    RequestTimingCallback callback;
+
+    Service wms = new Service("wms", new Object(), new Version("1.1.1"), null);
+
+    @Before
+    public void setUp() {
+        callback = new RequestTimingCallback();
+        callback.setEnabled(true);
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(100, histogram.getMax(), 0);
+        // bucket upper bounds
+        assertEquals(50, histogram.getPercentile(0.5), 0);
+        assertEquals(100, histogram.getPercentile(0.99), 0);
+        assertEquals(2.5, histogram.getPercentile(0.02), 0);
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        Request request = request("topp:states,topp:roads");
+        run(request, new Operation("GetMap", wms, null, null), true);
+
+        Map<String, Map<String, LatencyHistogram>> operations = callback.getOperations();
+        assertEquals(1, operations.size());
+        Map<String, LatencyHistogram> phases = operations.get("WMS.GetMap");
+        for (String phase : RequestTimingCallback.PHASES) {
+            assertEquals(phase, 1, phases.get(phase).getCount());
+        }
+        assertTrue(phases.get("write").getMax() >= 5);
+        assertTrue(phases.get("total").getMax() >= phases.get("write").getMax());
+
+        Map<String, LatencyHistogram> layers = callback.getLayers();
+        assertEquals(2, layers.size());
+        assertEquals(1, layers.get("topp:states").getCount());
+        assertEquals(1, layers.get("topp:roads").getCount());
+        assertEquals(0, callback.inFlight.size());
+
+        assertEquals(7, callback.getOperationTimings().length);
+        assertEquals(2, callback.getLayerTimings().length);
+        callback.reset();
+        assertTrue(callback.getOperations().isEmpty());
+    }
+
+    @Test
+    public void testFailedRequest() throws Exception {
+        // fails during the execution, no response phases
+        Request request = request("topp:states");
+        run(request, new Operation("GetMap", wms, null, null), false);
+
+        Map<String, LatencyHistogram> phases = callback.getOperations().get("WMS.GetMap");
+        assertEquals(1, phases.get("dispatch").getCount());
+        assertEquals(0, phases.get("execute").getCount());
+        assertEquals(0, phases.get("write").getCount());
+        assertEquals(1, phases.get("total").getCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        callback.setEnabled(false);
+        run(request("topp:states"), new Operation("GetMap", wms, null, null), true);
+        assertTrue(callback.getOperations().isEmpty());
+        assertTrue(callback.getLayers().isEmpty());
+        assertTrue(callback.inFlight.isEmpty());
+    }
+
+    Request request(String layers) {
+        Request request = new Request();
+        KvpMap kvp = new KvpMap();
+        kvp.put("layers", layers);
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    void run(Request request, Operation operation, boolean success) throws Exception {
+        callback.init(request);
+        callback.serviceDispatched(request, wms);
+        callback.operationDispatched(request, operation);
+        if (success) {
+            callback.operationExecuted(request, operation, "result");
+            callback.responseDispatched(request, operation, "result", null);
+            Thread.sleep(5);
+        }
+        callback.finished(request);
+    }
+}
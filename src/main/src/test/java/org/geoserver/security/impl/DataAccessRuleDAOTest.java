@@ -10,7 +10,9 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 import junit.framework.TestCase;
@@ -19,6 +21,8 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.impl.LayerInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
 import org.geoserver.security.AccessMode;
+import org.geoserver.security.event.RulesLoadedEvent;
+import org.geoserver.security.event.RulesLoadedListener;
 import org.geoserver.security.impl.DataAccessRule;
 import org.geoserver.security.impl.DataAccessRuleDAO;
 import org.junit.Before;
@@ -88,6 +92,22 @@ public class DataAccessRuleDAOTest extends TestCase {
         assertEquals(2, dao.getRules().size());
     }
     
+    @Test
+    public void testRulesLoadedListener() {
+        final List<RulesLoadedEvent> events = new ArrayList<RulesLoadedEvent>();
+        dao.registerRulesLoadedListener(new RulesLoadedListener() {
+            public void rulesChanged(RulesLoadedEvent event) {
+                events.add(event);
+            }
+        });
+        DataAccessRule newRule = dao.parseDataAccessRule("*.*.w", "ROLE_GENERIC_W");
+        dao.addRule(newRule);
+        dao.removeRule(newRule);
+        dao.clear();
+        assertEquals(3, events.size());
+        assertSame(dao, events.get(0).getDAO());
+    }
+
     @Test
     public void testStore() {
         Properties newProps = dao.toProperties();
@@ -0,0 +1,26 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+/**
+ * Tells whether the client that sent a request has gone away.
+ * <p>
+ * The servlet API only reports a closed connection when the response is written, see
+ * {@link ClientStreamAbortedException}, which for expensive operations is after all the work has
+ * been done. Implementations that can find out earlier (e.g. looking at the container own
+ * connection objects) can be registered in the application context, and long running operations
+ * such as map rendering will check them periodically and give up as soon as the client is gone.
+ * {@link SocketStateConnectionProbe} is registered by default.
+ * </p>
+ */
+public interface ClientConnectionProbe {
+
+    /**
+     * Returns true if the client connection of the request is known to be closed. This method
+     * is called periodically, from a thread other than the one handling the request, so it must
+     * be quick and thread safe.
+     */
+    boolean isClosed(Request request);
+}
@@ -0,0 +1,529 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Service;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Indexes the extensions the {@link Dispatcher} looks up to handle a request: services by id,
+ * kvp parsers by key, kvp readers by request bean, xml readers by element, responses by binding
+ * and output format, exception handlers by service.
+ * <p>
+ * Each index is built from the extensions the first time it is used, and stays valid until the
+ * application context is refreshed, at which point the dispatcher drops the registry. Lookups
+ * return the candidates in extension order, the dispatcher still picks among them the way it
+ * always did.
+ * </p>
+ * <p>
+ * Beans declared as prototypes (<code>singleton="false"</code>) are looked up again in the
+ * application context every time they are returned, so that each request gets its own instance.
+ * </p>
+ *
+ * @see Dispatcher
+ */
+public class DispatchRegistry {
+
+    /**
+     * The registry of the last initialized dispatcher, used by the static lookups
+     */
+    static volatile DispatchRegistry current;
+
+    /**
+     * marker for cached lookups that found nothing
+     */
+    static final Extension NONE = new Extension(null, null, null);
+
+    final ApplicationContext context;
+
+    volatile Services services;
+
+    volatile KvpParsers kvpParsers;
+
+    volatile KvpReaders kvpReaders;
+
+    volatile XmlReaders xmlReaders;
+
+    volatile Responses responses;
+
+    volatile Map<Service, ServiceExceptionHandler> exceptionHandlers;
+
+    /**
+     * Returns the registry of the running dispatcher, or a new registry looking up extensions in
+     * the {@link GeoServerExtensions} context if there is no dispatcher.
+     */
+    public static DispatchRegistry get() {
+        DispatchRegistry registry = current;
+        return registry != null ? registry : new DispatchRegistry(null);
+    }
+
+    /**
+     * Creates the registry.
+     *
+     * @param context The context to load the extensions from, if <code>null</code> the
+     *        {@link GeoServerExtensions} one will be used.
+     */
+    public DispatchRegistry(ApplicationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the services with the specified id (case insensitive), in extension order.
+     */
+    public List<Service> getServices(String id) {
+        return resolve(services().byId.get(id.toLowerCase()));
+    }
+
+    /**
+     * Returns all the services.
+     */
+    public List<Service> getServices() {
+        return resolve(services().all);
+    }
+
+    /**
+     * Returns true if the service declares the operation (case insensitive).
+     */
+    public boolean hasOperation(Service service, String operation) {
+        Map<Service, Set<String>> operations = services().operations;
+        Set<String> names = operations.get(service);
+        if (names == null) {
+            names = new HashSet<String>();
+            for (String op : service.getOperations()) {
+                names.add(op.toLowerCase());
+            }
+            operations.put(service, names);
+        }
+        return names.contains(operation.toLowerCase());
+    }
+
+    /**
+     * Returns the parser for the kvp key in the context of the service, version and request, as
+     * {@link KvpUtils#findParser} would choose it among the parsers left by
+     * {@link KvpUtils#purgeParsers}, or <code>null</code> if there is none.
+     * 
+     * @throws IllegalStateException if more than one candidate parser is found
+     */
+    public KvpParser getKvpParser(String key, String service, String version, String request) {
+        return kvpParsers().find(key, service, version, request);
+    }
+
+    /**
+     * Returns the kvp reader for the request bean class, the one whose bean is the most specific
+     * superclass of it, or <code>null</code> if there is none.
+     */
+    public KvpRequestReader getKvpRequestReader(Class type) {
+        KvpReaders readers = kvpReaders();
+        Extension<KvpRequestReader> match = readers.byType.get(type);
+        if (match == null) {
+            match = readers.find(type);
+            readers.byType.put(type, match);
+        }
+        return match.get();
+    }
+
+    /**
+     * Returns the xml readers for the element, matching both namespace and local name case
+     * insensitively.
+     */
+    public List<XmlRequestReader> getXmlReaders(String namespace, String element) {
+        if (namespace == null || element == null) {
+            return new ArrayList<XmlRequestReader>();
+        }
+        return resolve(xmlReaders().byName.get(xmlKey(namespace, element)));
+    }
+
+    /**
+     * Returns the xml readers for the element local name, regardless of namespace.
+     */
+    public List<XmlRequestReader> getXmlReaders(String element) {
+        return resolve(xmlReaders().byLocalName.get(element));
+    }
+
+    static String xmlKey(String namespace, String element) {
+        return namespace.toLowerCase() + " " + element.toLowerCase();
+    }
+
+    /**
+     * Returns the responses whose binding is assignable from the result class and that handle the
+     * output format, in extension order. Responses that declare no output format handle them
+     * all, a <code>null</code> output format matches any response.
+     */
+    public List<Response> getResponses(Class resultClass, String outputFormat) {
+        return resolve(responses().find(resultClass, outputFormat));
+    }
+
+    /**
+     * Returns the exception handler for the service, or <code>null</code> if there is none.
+     */
+    public ServiceExceptionHandler getServiceExceptionHandler(Service service) {
+        Map<Service, ServiceExceptionHandler> handlers = exceptionHandlers;
+        if (handlers == null) {
+            handlers = new HashMap<Service, ServiceExceptionHandler>();
+            for (ServiceExceptionHandler handler : extensions(ServiceExceptionHandler.class)) {
+                for (Object s : handler.getServices()) {
+                    if (!handlers.containsKey(s)) {
+                        handlers.put((Service) s, handler);
+                    }
+                }
+            }
+            exceptionHandlers = handlers;
+        }
+        return handlers.get(service);
+    }
+
+    Services services() {
+        Services result = services;
+        if (result == null) {
+            result = new Services(load(Service.class));
+            services = result;
+        }
+        return result;
+    }
+
+    KvpParsers kvpParsers() {
+        KvpParsers result = kvpParsers;
+        if (result == null) {
+            result = new KvpParsers(load(KvpParser.class));
+            kvpParsers = result;
+        }
+        return result;
+    }
+
+    KvpReaders kvpReaders() {
+        KvpReaders result = kvpReaders;
+        if (result == null) {
+            result = new KvpReaders(load(KvpRequestReader.class));
+            kvpReaders = result;
+        }
+        return result;
+    }
+
+    XmlReaders xmlReaders() {
+        XmlReaders result = xmlReaders;
+        if (result == null) {
+            result = new XmlReaders(load(XmlRequestReader.class));
+            xmlReaders = result;
+        }
+        return result;
+    }
+
+    Responses responses() {
+        Responses result = responses;
+        if (result == null) {
+            result = new Responses(load(Response.class));
+            responses = result;
+        }
+        return result;
+    }
+
+    <T> List<T> extensions(Class<T> extensionPoint) {
+        return context != null ? GeoServerExtensions.extensions(extensionPoint, context)
+                : GeoServerExtensions.extensions(extensionPoint);
+    }
+
+    /**
+     * Loads the extensions, pairing the prototype ones with their bean name
+     */
+    <T> List<Extension<T>> load(Class<T> extensionPoint) {
+        Map<Class, LinkedList<String>> prototypes = new HashMap<Class, LinkedList<String>>();
+        if (context != null) {
+            for (String name : context.getBeanNamesForType(extensionPoint)) {
+                Class type = context.isSingleton(name) ? null : context.getType(name);
+                if (type != null) {
+                    LinkedList<String> names = prototypes.get(type);
+                    if (names == null) {
+                        names = new LinkedList<String>();
+                        prototypes.put(type, names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+
+        List<Extension<T>> result = new ArrayList<Extension<T>>();
+        for (T bean : extensions(extensionPoint)) {
+            LinkedList<String> names = prototypes.get(bean.getClass());
+            String name = names != null ? names.poll() : null;
+            result.add(new Extension<T>(bean, name, context));
+        }
+        return result;
+    }
+
+    static <T> List<T> resolve(List<Extension<T>> extensions) {
+        if (extensions == null) {
+            return new ArrayList<T>();
+        }
+        List<T> result = new ArrayList<T>(extensions.size());
+        for (Extension<T> e : extensions) {
+            result.add(e.get());
+        }
+        return result;
+    }
+
+    static <K, T> void add(Map<K, List<Extension<T>>> index, K key, Extension<T> extension) {
+        List<Extension<T>> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<Extension<T>>();
+            index.put(key, list);
+        }
+        list.add(extension);
+    }
+
+    static <T> void checkDuplicates(List<Extension<T>> extensions, String msg) {
+        Set<T> beans = new HashSet<T>();
+        for (Extension<T> e : extensions) {
+            if (!beans.add(e.bean)) {
+                throw new IllegalStateException(msg + ": " + e.bean);
+            }
+        }
+    }
+
+    /**
+     * An extension, along with the name of its bean if it is a prototype.
+     */
+    static class Extension<T> {
+
+        final T bean;
+
+        final String prototype;
+
+        final ApplicationContext context;
+
+        Extension(T bean, String prototype, ApplicationContext context) {
+            this.bean = bean;
+            this.prototype = prototype;
+            this.context = context;
+        }
+
+        T get() {
+            return prototype == null ? bean : (T) context.getBean(prototype);
+        }
+    }
+
+    static class Services {
+
+        final List<Extension<Service>> all;
+
+        final Map<String, List<Extension<Service>>> byId = new HashMap<String, List<Extension<Service>>>();
+
+        final Map<Service, Set<String>> operations = new ConcurrentHashMap<Service, Set<String>>();
+
+        Services(List<Extension<Service>> services) {
+            checkDuplicates(services, "Two identical service descriptors found");
+            this.all = services;
+            for (Extension<Service> s : services) {
+                add(byId, s.bean.getId().toLowerCase(), s);
+            }
+        }
+    }
+
+    static class KvpParsers {
+
+        /**
+         * key for the service, version and request values no parser declares
+         */
+        static final String OTHER = "";
+
+        /**
+         * parsers by lower case key
+         */
+        final Map<String, List<Extension<KvpParser>>> byKey = new HashMap<String, List<Extension<KvpParser>>>();
+
+        /**
+         * lookups already performed, by key, service, version and request
+         */
+        final Map<List<String>, Extension<KvpParser>> cache = new ConcurrentHashMap<List<String>, Extension<KvpParser>>();
+
+        KvpParsers(List<Extension<KvpParser>> parsers) {
+            for (Extension<KvpParser> p : parsers) {
+                if (p.bean.getKey() != null) {
+                    add(byKey, p.bean.getKey().toLowerCase(), p);
+                }
+            }
+        }
+
+        KvpParser find(String key, String service, String version, String request) {
+            String lowerKey = key.toLowerCase();
+            List<Extension<KvpParser>> candidates = byKey.get(lowerKey);
+            if (candidates == null) {
+                return null;
+            }
+
+            // values no candidate refers to select the same parser, fold them in a single key
+            // so that the cache does not grow with arbitrary client input
+            String s = OTHER, v = OTHER, r = OTHER;
+            for (Extension<KvpParser> c : candidates) {
+                KvpParser p = c.bean;
+                if (service != null && p.getService() != null
+                        && p.getService().equalsIgnoreCase(service)) {
+                    s = service.toLowerCase();
+                }
+                if (version != null && p.getVersion() != null
+                        && p.getVersion().toString().equals(version)) {
+                    v = version;
+                }
+                if (request != null && p.getRequest() != null
+                        && p.getRequest().equalsIgnoreCase(request)) {
+                    r = request.toLowerCase();
+                }
+            }
+
+            List<String> cacheKey = Arrays.asList(lowerKey, s, v, r);
+            Extension<KvpParser> match = cache.get(cacheKey);
+            if (match == null) {
+                List<KvpParser> parsers = new ArrayList<KvpParser>();
+                Map<KvpParser, Extension<KvpParser>> extensions = new IdentityHashMap<KvpParser, Extension<KvpParser>>();
+                for (Extension<KvpParser> c : candidates) {
+                    parsers.add(c.bean);
+                    extensions.put(c.bean, c);
+                }
+                KvpUtils.purgeParsers(parsers, service, version, request);
+                KvpParser parser = KvpUtils.findParser(key, service, request, version, parsers);
+                match = parser != null ? extensions.get(parser) : NONE;
+                cache.put(cacheKey, match);
+            }
+            return (KvpParser) match.get();
+        }
+    }
+
+    static class KvpReaders {
+
+        final List<Extension<KvpRequestReader>> all;
+
+        final Map<Class, Extension<KvpRequestReader>> byType = new ConcurrentHashMap<Class, Extension<KvpRequestReader>>();
+
+        KvpReaders(List<Extension<KvpRequestReader>> readers) {
+            checkDuplicates(readers, "Two identical kvp readers found");
+            this.all = readers;
+        }
+
+        Extension<KvpRequestReader> find(Class type) {
+            List<Extension<KvpRequestReader>> matches = new ArrayList<Extension<KvpRequestReader>>();
+            for (Extension<KvpRequestReader> e : all) {
+                if (e.bean.getRequestBean().isAssignableFrom(type)) {
+                    matches.add(e);
+                }
+            }
+
+            if (matches.isEmpty()) {
+                return NONE;
+            }
+
+            if (matches.size() > 1) {
+                //sort by class hierarchy
+                Collections.sort(matches, new Comparator<Extension<KvpRequestReader>>() {
+                    public int compare(Extension<KvpRequestReader> o1,
+                            Extension<KvpRequestReader> o2) {
+                        if (o2.bean.getRequestBean().isAssignableFrom(o1.bean.getRequestBean())) {
+                            return -1;
+                        }
+
+                        return 1;
+                    }
+                });
+            }
+
+            return matches.get(0);
+        }
+    }
+
+    static class XmlReaders {
+
+        final Map<String, List<Extension<XmlRequestReader>>> byName = new HashMap<String, List<Extension<XmlRequestReader>>>();
+
+        final Map<String, List<Extension<XmlRequestReader>>> byLocalName = new HashMap<String, List<Extension<XmlRequestReader>>>();
+
+        XmlReaders(List<Extension<XmlRequestReader>> readers) {
+            checkDuplicates(readers, "Two identical xml readers found");
+            for (Extension<XmlRequestReader> r : readers) {
+                QName element = r.bean.getElement();
+                add(byName, xmlKey(element.getNamespaceURI(), element.getLocalPart()), r);
+                add(byLocalName, element.getLocalPart(), r);
+            }
+        }
+    }
+
+    static class Responses {
+
+        /**
+         * key for the output formats no response declares
+         */
+        static final String UNKNOWN_FORMAT = "";
+
+        final List<Extension<Response>> all;
+
+        /**
+         * the lower case output formats of each response
+         */
+        final Map<Extension<Response>, Set<String>> formats = new HashMap<Extension<Response>, Set<String>>();
+
+        /**
+         * all the output formats declared by the responses, lower case
+         */
+        final Set<String> knownFormats = new HashSet<String>();
+
+        final Map<List<Object>, List<Extension<Response>>> byBindingAndFormat = new ConcurrentHashMap<List<Object>, List<Extension<Response>>>();
+
+        Responses(List<Extension<Response>> responses) {
+            this.all = responses;
+            for (Extension<Response> r : responses) {
+                Set<String> lower = new HashSet<String>();
+                for (Object f : r.bean.getOutputFormats()) {
+                    lower.add(((String) f).toLowerCase());
+                }
+                formats.put(r, lower);
+                knownFormats.addAll(lower);
+            }
+        }
+
+        List<Extension<Response>> find(Class resultClass, String outputFormat) {
+            String format = null;
+            if (outputFormat != null) {
+                format = outputFormat.toLowerCase();
+                if (!knownFormats.contains(format)) {
+                    // only the responses handling any format match, share the cache entry
+                    format = UNKNOWN_FORMAT;
+                }
+            }
+
+            List<Object> key = new ArrayList<Object>(2);
+            key.add(resultClass);
+            key.add(format);
+            List<Extension<Response>> matches = byBindingAndFormat.get(key);
+            if (matches == null) {
+                matches = new ArrayList<Extension<Response>>();
+                for (Extension<Response> r : all) {
+                    if (!r.bean.getBinding().isAssignableFrom(resultClass)) {
+                        continue;
+                    }
+                    Set<String> declared = formats.get(r);
+                    if (format == null || declared.isEmpty() || declared.contains(format)) {
+                        matches.add(r);
+                    }
+                }
+                byBindingAndFormat.put(key, matches);
+            }
+            return matches;
+        }
+    }
+}
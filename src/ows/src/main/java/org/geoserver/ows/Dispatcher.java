@@ -4,12 +4,9 @@
  */
 package org.geoserver.ows;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -25,13 +22,11 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -56,6 +51,10 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -64,6 +63,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 
@@ -118,7 +118,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -147,6 +147,16 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * index of the extensions used to dispatch requests, replaced when the context is refreshed
+     */
+    volatile DispatchRegistry registry;
+
+    /**
+     * limits on the concurrent requests of long running operations, if any has been configured
+     */
+    OperationLimits limits;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -167,6 +177,21 @@ public class Dispatcher extends AbstractController {
         }
     }
 
+    /**
+     * pull parser factory, used to sniff the root element of xml requests. Creating a factory
+     * requires a class path lookup, while creating parsers out of it is cheap and thread safe.
+     */
+    XmlPullParserFactory pullParserFactory;
+    {
+        try {
+            pullParserFactory = XmlPullParserFactory.newInstance();
+            pullParserFactory.setNamespaceAware(true);
+            pullParserFactory.setValidating(false);
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Sets the flag to control wether the dispatcher is cite compliante.
      * <p>
@@ -191,6 +216,12 @@ public class Dispatcher extends AbstractController {
     protected void initApplicationContext(ApplicationContext context) {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
+        registry = new DispatchRegistry(context);
+        DispatchRegistry.current = registry;
+        if (limits == null) {
+            limits = new OperationLimits(GeoServerExtensions.getProperty(
+                    OperationLimits.PROPERTY, context));
+        }
         
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
@@ -208,6 +239,32 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            // plugins might have been added, index the extensions again
+            registry = new DispatchRegistry(getApplicationContext());
+            DispatchRegistry.current = registry;
+        } else if (event instanceof ContextClosedEvent) {
+            // don't let static lookups use the extensions of a closed context
+            ApplicationContext closed = ((ContextClosedEvent) event).getApplicationContext();
+            if (closed == getApplicationContext() && DispatchRegistry.current == registry) {
+                DispatchRegistry.current = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the registry used to look up services, readers, responses and exception handlers.
+     */
+    DispatchRegistry registry() {
+        DispatchRegistry result = registry;
+        if (result == null) {
+            // not running in an application context, use the GeoServerExtensions one
+            result = new DispatchRegistry(null);
+        }
+        return result;
+    }
+    
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -268,13 +325,8 @@ public class Dispatcher extends AbstractController {
                 flagAsSOAP(operation);
             }
 
-            //execute it
-            Object result = execute(request, operation);
-
-            //write the response
-            if (result != null) {
-                response(result, request, operation);
-            }
+            //execute it and write the response
+            run(request, operation);
         } catch (Throwable t) {
          // make Spring security exceptions flow so that exception transformer filter can handle them
             if (isSecurityException(t))
@@ -288,6 +340,29 @@ public class Dispatcher extends AbstractController {
         return null;
     }
 
+    /**
+     * Executes the operation and writes its response, once the {@link OperationLimits} of the
+     * operation, if any, allow it to run. Requests exceeding the limit are refused with a 503.
+     */
+    void run(Request request, Operation operation) throws Throwable {
+        OperationLimits.Limit limit = limits != null ? limits.find(operation) : null;
+        if (limit != null && !limit.enter()) {
+            throw new HttpErrorCodeException(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many concurrent " + operation.getService().getId() + " "
+                            + operation.getId() + " requests, please try again later");
+        }
+        try {
+            Object result = execute(request, operation);
+            if (result != null) {
+                response(result, request, operation);
+            }
+        } finally {
+            if (limit != null) {
+                limit.exit();
+            }
+        }
+    }
+
     void flagAsSOAP(Operation op) {
         for (Object reqObj : op.getParameters()) {
             if (OwsUtils.has(reqObj, "formatOptions")) {
@@ -331,10 +406,10 @@ public class Dispatcher extends AbstractController {
                 request.setInput(reader(httpRequest));
             }
 
-            char[] req = new char[xmlPostRequestLogBufferSize];
-            int read = request.getInput().read(req, 0, xmlPostRequestLogBufferSize);
-
-            if (logger.isLoggable(Level.FINE)) {
+            int read;
+            if (logger.isLoggable(Level.FINE) && xmlPostRequestLogBufferSize > 0) {
+                char[] req = new char[xmlPostRequestLogBufferSize];
+                read = request.getInput().read(req, 0, xmlPostRequestLogBufferSize);
                 if (read == -1) {
                     request.setInput(null);
                 } else if (read < xmlPostRequestLogBufferSize) {
@@ -344,6 +419,9 @@ public class Dispatcher extends AbstractController {
                 } else {
                     logger.fine("Raw XML request starts with: " + new String(req) + "...");
                 }
+            } else {
+                // just check the body is not empty
+                read = request.getInput().read();
             }
             if (read == -1)
                 request.setInput(null);
@@ -452,6 +530,9 @@ public class Dispatcher extends AbstractController {
         //check the body
         if (req.getInput() != null) {
             Map xml = readOpPost(req.getInput());
+            // keep it around, the xml reader lookup needs it again
+            req.xmlRoot = xml;
+            req.xmlRootInput = req.getInput();
             if (req.getService() == null) {
                 req.setService(normalize((String) xml.get("service")));    
             }
@@ -575,13 +656,7 @@ public class Dispatcher extends AbstractController {
         }
 
         // ensure the requested operation exists
-        boolean exists = false;
-        for ( String op : serviceDescriptor.getOperations() ) {
-            if ( op.equalsIgnoreCase( req.getRequest() ) ) {
-                exists = true;
-                break;
-            }
-        }
+        boolean exists = registry().hasOperation(serviceDescriptor, req.getRequest());
 
         // lookup the operation, initial lookup based on (service,request)
         Object serviceBean = serviceDescriptor.getService();
@@ -795,36 +870,14 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
+            //look up respones, already filtered by binding and output format
+            List responses = registry().getResponses(result.getClass(), req.getOutputFormat());
 
-            //first filter by binding, and canHandle
-         O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
+            //then filter by canHandle
+            for (Iterator itr = responses.iterator(); itr.hasNext();) {
                 Response response = (Response) itr.next();
 
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
-                    itr.remove();
-
-                    continue;
-                }
-
-                //filter by output format
-                Set outputFormats = response.getOutputFormats();
-
-                if ((req.getOutputFormat() != null) && (!outputFormats.isEmpty())
-                        && !outputFormats.contains(req.getOutputFormat())) {
-                    
-                    //must do a case insensitive check
-                    for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
-                        String outputFormat = (String) of.next();
-                        if( req.getOutputFormat().equalsIgnoreCase( outputFormat ) ) {
-                            continue O;
-                        }
-                    }
-                    
+                if (!response.canHandle(opDescriptor)) {
                     itr.remove();
                 }
             }
@@ -1013,19 +1066,11 @@ public class Dispatcher extends AbstractController {
     }
     
     Collection loadServices() {
-        Collection services = GeoServerExtensions.extensions(Service.class);
-
-        if (!(new HashSet(services).size() == services.size())) {
-            String msg = "Two identical service descriptors found";
-            throw new IllegalStateException(msg);
-        }
-
-        return services;
+        return registry().getServices();
     }
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1035,15 +1080,7 @@ public class Dispatcher extends AbstractController {
         }
 
         //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
+        List matches = registry().getServices(id);
 
         if (matches.isEmpty()) {
             return null;
@@ -1130,83 +1167,16 @@ public class Dispatcher extends AbstractController {
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
-
-        List matches = new ArrayList();
-
-        for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
-            KvpRequestReader kvpReader = (KvpRequestReader) itr.next();
-
-            if (kvpReader.getRequestBean().isAssignableFrom(type)) {
-                matches.add(kvpReader);
-            }
-        }
-
-        if (matches.isEmpty()) {
-            return null;
-        }
-
-        if (matches.size() > 1) {
-            //sort by class hierarchy
-            Comparator comparator = new Comparator() {
-                    public int compare(Object o1, Object o2) {
-                        KvpRequestReader kvp1 = (KvpRequestReader) o1;
-                        KvpRequestReader kvp2 = (KvpRequestReader) o2;
-
-                        if (kvp2.getRequestBean().isAssignableFrom(kvp1.getRequestBean())) {
-                            return -1;
-                        }
-
-                        return 1;
-                    }
-                };
-
-            Collections.sort(matches, comparator);
-        }
-
-        return (KvpRequestReader) matches.get(0);
-    }
-
-    Collection loadXmlReaders() {
-        List<XmlRequestReader> xmlReaders = GeoServerExtensions.extensions(XmlRequestReader.class);
-
-        if (!(new HashSet<XmlRequestReader>(xmlReaders).size() == xmlReaders.size())) {
-        
-            String msg = "Two identical xml readers found";
-            for (int i = 0; i < xmlReaders.size(); i++) {
-                XmlRequestReader r1 = xmlReaders.get(i);
-                for (int j = i + 1; j < xmlReaders.size(); j++) {
-                    XmlRequestReader r2 = xmlReaders.get(j);
-                    if(r1.equals(r2)) {
-                        msg += ": " + r1 + " and " + r2;
-                        break;
-                    }
-                }
-                
-            }
-            
-            throw new IllegalStateException(msg);
+        DispatchRegistry registry = DispatchRegistry.current;
+        if (registry == null) {
+            registry = new DispatchRegistry(null);
         }
-
-        return xmlReaders;
+        return registry.getKvpRequestReader(type);
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
-
         //first just match on namespace, element
-        List matches = new ArrayList();
-
-        for (Iterator itr = xmlReaders.iterator(); itr.hasNext();) {
-            XmlRequestReader xmlReader = (XmlRequestReader) itr.next();
-            QName xmlElement = xmlReader.getElement();
-
-            if (xmlElement.getLocalPart().equalsIgnoreCase(element)) {
-                if (xmlElement.getNamespaceURI().equalsIgnoreCase(namespace)) {
-                    matches.add(xmlReader);
-                }
-            }
-        }
+        List matches = registry().getXmlReaders(namespace, element);
 
         if (matches.isEmpty()) {
             //do a more lax serach, search only on the element name if the 
@@ -1216,12 +1186,7 @@ public class Dispatcher extends AbstractController {
                     + " xml reader by element name only";
                 logger.info( msg );
                 
-                for ( Iterator itr = xmlReaders.iterator(); itr.hasNext(); ) {
-                    XmlRequestReader xmlReader = (XmlRequestReader) itr.next();
-                    if ( xmlReader.getElement().getLocalPart().equals( element ) ) {
-                        matches.add( xmlReader );
-                    }
-                }
+                matches.addAll( registry().getXmlReaders( element ) );
                 
                 if ( !matches.isEmpty() ) {
                     //we found some matches, make sure they are all in the 
@@ -1363,10 +1328,6 @@ public class Dispatcher extends AbstractController {
         return factory.createOutputStrategy(response);
     }
 
-    BufferedInputStream input(File cache) throws IOException {
-        return (cache == null) ? null : new BufferedInputStream(new FileInputStream(cache));
-    }
-
     void preParseKVP(Request req) throws ServiceException {
         HttpServletRequest request = req.getHttpRequest();
 
@@ -1380,8 +1341,8 @@ public class Dispatcher extends AbstractController {
         }
 
         //track parsed kvp and unparsd
-        Map parsedKvp = KvpUtils.normalize(kvp);
-        Map rawKvp = new KvpMap( parsedKvp );
+        KvpMap parsedKvp = KvpUtils.normalize(kvp);
+        Map rawKvp = (Map) parsedKvp.clone();
         
         req.setKvp(parsedKvp);
         req.setRawKvp(rawKvp);
@@ -1426,37 +1387,13 @@ public class Dispatcher extends AbstractController {
             return null;
         }
 
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-
-        //parse root element
-        XmlPullParser parser = factory.newPullParser();
-        //parser.setInput(input, "UTF-8");
-        parser.setInput(input);
-        parser.nextTag();
-
-        String namespace = (parser.getNamespace() != null) ? parser.getNamespace() : "";
-        String element = parser.getName();
-        String version = null;
-        String service = null;
-
-        for (int i = 0; i < parser.getAttributeCount(); i++) {
-            if ("version".equals(parser.getAttributeName(i))) {
-                version = parser.getAttributeValue(i);
-            }
-            if ("service".equals(parser.getAttributeName(i))) {
-                service = parser.getAttributeValue(i);
-            }
-        }
-        
-        
-
-        parser.setInput(null);
-
-        //reset input stream
-        input.reset();
+        //sniff the root element, unless the service lookup already did
+        Map root = (request != null && request.xmlRoot != null && request.xmlRootInput == input) ? 
+                request.xmlRoot : readOpPost(input);
+        String namespace = (root.get("namespace") != null) ? (String) root.get("namespace") : "";
+        String element = (String) root.get("request");
+        String version = (String) root.get("version");
+        String service = (String) root.get("service");
 
         XmlRequestReader xmlReader = findXmlReader(namespace, element, service, version);
         if (xmlReader == null ) {
@@ -1483,13 +1420,8 @@ public class Dispatcher extends AbstractController {
     }
 
     Map readOpPost(BufferedReader input) throws Exception {
-        //create stream parser
-        XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-
         //parse root element
-        XmlPullParser parser = factory.newPullParser();
+        XmlPullParser parser = pullParserFactory.newPullParser();
         parser.setInput(input);
         parser.nextTag();
 
@@ -1609,17 +1541,7 @@ public class Dispatcher extends AbstractController {
 
         if (service != null) {
             //look up the service exception handler
-            Collection handlers = GeoServerExtensions.extensions(ServiceExceptionHandler.class);
-            for (Iterator h = handlers.iterator(); h.hasNext();) {
-                ServiceExceptionHandler seh = (ServiceExceptionHandler) h.next();
-
-                if (seh.getServices().contains(service)) {
-                    //found one,
-                    handler = seh;
-
-                    break;
-                }
-            }
+            handler = registry().getServiceExceptionHandler(service);
         }
 
         if (handler == null) {
@@ -1643,6 +1565,18 @@ public class Dispatcher extends AbstractController {
             t.getClass().getPackage().getName().startsWith("org.springframework.security");
     }
 
+    /**
+     * Sets the limits on the concurrent requests of long running operations, replacing the ones
+     * configured with the {@link OperationLimits#PROPERTY} property.
+     */
+    public void setOperationLimits(OperationLimits limits) {
+        this.limits = limits;
+    }
+
+    public OperationLimits getOperationLimits() {
+        return limits;
+    }
+
     public int getXMLPostRequestLogBufferSize() {
         return xmlPostRequestLogBufferSize;
     }
@@ -0,0 +1,184 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.Operation;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Limits on the number of concurrent requests of selected services, so that long running ones
+ * (large WFS exports, synchronous WPS executions) cannot take over all the container threads and
+ * starve the short requests sharing them.
+ * <p>
+ * The configuration is a comma separated list of <code>key=running[:queue]</code> entries, where
+ * the key is either a service or a service and operation, like
+ * <code>WFS.GetFeature=4:16,WPS=2</code>. The operation specific entry wins over the service one.
+ * Up to <code>running</code> requests are executed at the same time, up to <code>queue</code>
+ * more wait for their turn, the others are refused with a 503 error right away.
+ * </p>
+ * <p>
+ * Requests run and wait in the container thread that received them: the servlet api in use
+ * (2.5) has no way to release the container thread before the response is written, so the limit
+ * caps the number of container threads long running operations can hold instead.
+ * </p>
+ */
+public class OperationLimits {
+
+    static final Logger LOGGER = Logging.getLogger(OperationLimits.class);
+
+    /**
+     * The property holding the configuration, looked up with
+     * {@link org.geoserver.platform.GeoServerExtensions#getProperty(String)}
+     */
+    public static final String PROPERTY = "OWS_OPERATION_LIMITS";
+
+    Map<String, Limit> limits = new HashMap<String, Limit>();
+
+    /**
+     * Parses the configuration, invalid entries are logged and skipped.
+     */
+    public OperationLimits(String config) {
+        if (config == null) {
+            return;
+        }
+        for (String entry : config.split(",")) {
+            entry = entry.trim();
+            if (entry.length() == 0) {
+                continue;
+            }
+            try {
+                int idx = entry.indexOf('=');
+                String key = entry.substring(0, idx).trim().toUpperCase();
+                String[] sizes = entry.substring(idx + 1).split(":");
+                int running = Integer.parseInt(sizes[0].trim());
+                int queue = sizes.length > 1 ? Integer.parseInt(sizes[1].trim()) : 0;
+                add(key, running, queue);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Invalid operation limit configuration: " + entry, e);
+            }
+        }
+    }
+
+    /**
+     * Adds a limit for the service (e.g. <code>WFS</code>) or operation (e.g.
+     * <code>WFS.GetFeature</code>) with the specified number of running and of queued requests.
+     */
+    public void add(String key, int running, int queue) {
+        if (running <= 0 || queue < 0) {
+            throw new IllegalArgumentException("Invalid limit for " + key + ": " + running
+                    + " running, " + queue + " queued");
+        }
+        limits.put(key.toUpperCase(), new Limit(running, queue));
+    }
+
+    /**
+     * Returns the limit for the operation, or null if the operation is not limited
+     */
+    public Limit find(Operation operation) {
+        if (limits.isEmpty()) {
+            return null;
+        }
+        String service = operation.getService().getId().toUpperCase();
+        Limit limit = limits.get(service + "." + operation.getId().toUpperCase());
+        if (limit == null) {
+            limit = limits.get(service);
+        }
+        return limit;
+    }
+
+    /**
+     * Returns true if no limit has been configured
+     */
+    public boolean isEmpty() {
+        return limits.isEmpty();
+    }
+
+    /**
+     * The number of requests of an operation, or service, allowed to run and to wait.
+     */
+    public static class Limit {
+
+        final int running;
+
+        final int queue;
+
+        /**
+         * Permits for the requests either running or waiting
+         */
+        final Semaphore admitted;
+
+        /**
+         * Permits for the running requests, fair so that the waiting ones run in order
+         */
+        final Semaphore runPermits;
+
+        final AtomicLong admittedCount = new AtomicLong();
+
+        final AtomicLong rejectedCount = new AtomicLong();
+
+        Limit(int running, int queue) {
+            this.running = running;
+            this.queue = queue;
+            this.admitted = new Semaphore(running + queue);
+            this.runPermits = new Semaphore(running, true);
+        }
+
+        /**
+         * Waits for the request turn to run. Returns false right away, without waiting, if the
+         * maximum number of requests are already running and waiting. If true is returned the
+         * caller must call {@link #exit()} once the request is done.
+         */
+        public boolean enter() throws InterruptedException {
+            if (!admitted.tryAcquire()) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            try {
+                runPermits.acquire();
+            } catch (InterruptedException e) {
+                admitted.release();
+                throw e;
+            }
+            admittedCount.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * Lets the next request run
+         */
+        public void exit() {
+            runPermits.release();
+            admitted.release();
+        }
+
+        /**
+         * Number of requests running
+         */
+        public int getRunning() {
+            return running - runPermits.availablePermits();
+        }
+
+        /**
+         * Number of requests run since the limit was created
+         */
+        public long getAdmittedCount() {
+            return admittedCount.get();
+        }
+
+        /**
+         * Number of requests refused since the limit was created
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+    }
+}
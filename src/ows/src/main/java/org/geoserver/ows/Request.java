@@ -99,6 +99,12 @@ public class Request {
      * Time when the request hit the server
      */
     protected Date timestamp;
+
+    /**
+     * Root element of the xml body, as sniffed by the dispatcher, and the input it was read from
+     */
+    Map xmlRoot;
+    BufferedReader xmlRootInput;
     
     public Request() {
         timestamp = new Date(); 
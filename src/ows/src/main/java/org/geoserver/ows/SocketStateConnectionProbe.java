@@ -0,0 +1,160 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Reports a client as gone when the kernel socket table shows its connection in the
+ * <code>CLOSE_WAIT</code> state, that is, the client (or the proxy in front of GeoServer) has
+ * closed its side of the connection.
+ * <p>
+ * The servlet API, and the connectors of the bundled Jetty, only notice a closed connection when
+ * reading from or writing to it, which a request being processed does not do. The socket table
+ * does show it right away, and looking it up does not touch the connection. The table is read
+ * from <code>/proc/net/tcp</code> and <code>/proc/net/tcp6</code>, on other operating systems
+ * the probe never reports a connection as closed. The connection is matched on the local port,
+ * remote address and remote port of the request, so connections that do not come straight from
+ * the socket (e.g. AJP) never match either.
+ * </p>
+ * <p>
+ * Clients that shut down their output after sending the request, while still waiting for the
+ * response, look closed as well. Such clients are rare, the checks can be disabled by setting
+ * the <code>org.geoserver.wms.clientCheckInterval</code> system property to 0.
+ * </p>
+ */
+public class SocketStateConnectionProbe implements ClientConnectionProbe {
+
+    static final Logger LOGGER = Logging.getLogger(SocketStateConnectionProbe.class);
+
+    /**
+     * The state code of CLOSE_WAIT in the socket tables
+     */
+    static final String CLOSE_WAIT = "08";
+
+    /**
+     * How long, in milliseconds, a read of the socket tables is reused by the checks of the
+     * requests being processed
+     */
+    static final long MAX_AGE = 500;
+
+    File[] tables;
+
+    Set<String> closing = Collections.emptySet();
+
+    long lastRead;
+
+    public SocketStateConnectionProbe() {
+        this(new File("/proc/net/tcp"), new File("/proc/net/tcp6"));
+    }
+
+    SocketStateConnectionProbe(File... tables) {
+        this.tables = tables;
+    }
+
+    public boolean isClosed(Request request) {
+        HttpServletRequest http = request.getHttpRequest();
+        if (http == null || http.getRemoteAddr() == null) {
+            return false;
+        }
+        InetAddress remote;
+        try {
+            remote = InetAddress.getByName(http.getRemoteAddr());
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        return getClosingConnections().contains(
+                key(http.getLocalPort(), remote, http.getRemotePort()));
+    }
+
+    /**
+     * Returns the connections in the CLOSE_WAIT state, re-reading the socket tables if the last
+     * read is older than {@link #MAX_AGE}
+     */
+    synchronized Set<String> getClosingConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastRead > MAX_AGE) {
+            Set<String> result = new HashSet<String>();
+            for (File table : tables) {
+                if (table.exists()) {
+                    try {
+                        read(table, result);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to read the socket table " + table, e);
+                    }
+                }
+            }
+            closing = result;
+            lastRead = now;
+        }
+        return closing;
+    }
+
+    /**
+     * Adds the connections of the table in the CLOSE_WAIT state. Each line lists, among
+     * others, the local and remote addresses as <code>address:port</code> in hexadecimal, then
+     * the state code.
+     */
+    void read(File table, Set<String> result) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(table));
+        try {
+            // skip the header
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 4 || !CLOSE_WAIT.equals(fields[3])) {
+                    continue;
+                }
+                try {
+                    int local = fields[1].indexOf(':');
+                    int remote = fields[2].indexOf(':');
+                    int localPort = Integer.parseInt(fields[1].substring(local + 1), 16);
+                    int remotePort = Integer.parseInt(fields[2].substring(remote + 1), 16);
+                    InetAddress address = parseAddress(fields[2].substring(0, remote));
+                    result.add(key(localPort, address, remotePort));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Skipping unexpected socket table line " + line, e);
+                } catch (UnknownHostException e) {
+                    LOGGER.log(Level.FINE, "Skipping unexpected socket table line " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses an address of the socket tables, written as 32 bit words in the native byte order.
+     * IPv4 addresses mapped to IPv6, as used by dual stack sockets, are returned as IPv4
+     * addresses, the same way the servlet container reports them.
+     */
+    static InetAddress parseAddress(String hex) throws UnknownHostException {
+        ByteBuffer bytes = ByteBuffer.allocate(hex.length() / 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < hex.length(); i += 8) {
+            bytes.putInt((int) Long.parseLong(hex.substring(i, i + 8), 16));
+        }
+        return InetAddress.getByAddress(bytes.array());
+    }
+
+    static String key(int localPort, InetAddress remote, int remotePort) {
+        return localPort + " " + remote.getHostAddress() + " " + remotePort;
+    }
+}
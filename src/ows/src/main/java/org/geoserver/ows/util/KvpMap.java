@@ -7,6 +7,7 @@ package org.geoserver.ows.util;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Map which makes keys case insensitive.
@@ -17,11 +18,23 @@ import java.util.Map;
 public class KvpMap extends HashMap {
 
     private static final long serialVersionUID = 1L;
+    
+    /**
+     * Upper case form of the keys seen so far, to avoid converting the same keys over and over.
+     * Bounded, as keys come from the clients.
+     */
+    static final Map<String, String> UPPER = new ConcurrentHashMap<String, String>();
+    
+    static final int UPPER_CACHE_SIZE = 1024;
 
     public KvpMap() {
         super();
     }
     
+    public KvpMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+    
     public KvpMap( Map other ) {
         this();
         for ( Iterator e = other.entrySet().iterator(); e.hasNext(); ) {
@@ -43,9 +56,33 @@ public class KvpMap extends HashMap {
 
     Object upper(Object key) {
         if ((key != null) && key instanceof String) {
-            return ((String) key).toUpperCase();
+            return upper((String) key);
         }
 
         return key;
     }
+    
+    static String upper(String key) {
+        String upper = UPPER.get(key);
+        if (upper == null) {
+            upper = isUpperCase(key) ? key : key.toUpperCase();
+            if (UPPER.size() < UPPER_CACHE_SIZE) {
+                UPPER.put(key, upper);
+            }
+        }
+        return upper;
+    }
+    
+    /**
+     * Returns true if the key is made only of ascii characters and has no lower case ones
+     */
+    static boolean isUpperCase(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c >= 128 || (c >= 'a' && c <= 'z')) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
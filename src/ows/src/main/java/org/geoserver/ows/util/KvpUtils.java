@@ -19,6 +19,7 @@ import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.ows.DispatchRegistry;
 import org.geoserver.ows.KvpParser;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
@@ -43,7 +44,8 @@ public class KvpUtils {
      * Defines how to tokenize a string by using some sort of delimiter.
      * <p>
      * Default implementation uses {@link String#split(String)} with the
-     * regular expression provided at the constructor. More specialized
+     * regular expression provided at the constructor, or a plain string scan
+     * when the expression just matches a literal delimiter. More specialized
      * subclasses may just override <code>readFlat(String)</code>.
      * </p>
      * @author Gabriel Roldan
@@ -51,9 +53,43 @@ public class KvpUtils {
      */
     public static class Tokenizer {
         private String regExp;
+        
+        /** the delimiter matched by the regular expression, if it is a literal one */
+        private String literal;
 
         public Tokenizer(String regExp) {
             this.regExp = regExp;
+            this.literal = literal(regExp);
+        }
+        
+        /**
+         * Returns the string matched by the regular expression if it does not use any
+         * regular expression construct besides escaping, <code>null</code> otherwise
+         */
+        static String literal(String regExp) {
+            if (regExp == null || regExp.length() == 0) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < regExp.length(); i++) {
+                char c = regExp.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 == regExp.length()) {
+                        return null;
+                    }
+                    char escaped = regExp.charAt(++i);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // character classes, back references and the like
+                        return null;
+                    }
+                    sb.append(escaped);
+                } else if (".$|()[]{}^?*+".indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
         }
 
         private String getRegExp() {
@@ -71,6 +107,18 @@ public class KvpUtils {
                 // handles explicit unconstrained case
                 return Collections.EMPTY_LIST;
             }
+            if (literal != null) {
+                // same result as split(regExp, -1), without going through the regex engine
+                List result = new ArrayList();
+                int start = 0;
+                int idx;
+                while ((idx = rawList.indexOf(literal, start)) >= 0) {
+                    result.add(rawList.substring(start, idx));
+                    start = idx + literal.length();
+                }
+                result.add(rawList.substring(start));
+                return result;
+            }
             // -1 keeps trailing empty strings in the pack
             String[] split = rawList.split(getRegExp(), -1);
             return new ArrayList(Arrays.asList(split));
@@ -325,7 +373,7 @@ public class KvpUtils {
         }
        
         //create a normalied map
-        KvpMap normalizedKvp = new KvpMap();
+        KvpMap normalizedKvp = new KvpMap(kvp.size());
         
         for (Iterator itr = kvp.entrySet().iterator(); itr.hasNext();) {
             Map.Entry entry = (Map.Entry) itr.next();
@@ -334,6 +382,10 @@ public class KvpUtils {
 
             if (entry.getValue() instanceof String) {
                 value = trim((String) entry.getValue());
+            } else if (entry.getValue() instanceof String[]
+                    && ((String[]) entry.getValue()).length == 1) {
+                // the common case, a parameter specified once
+                value = trim(((String[]) entry.getValue())[0]);
             } else if (entry.getValue() instanceof String[]) {
                 String[] values = (String[]) entry.getValue();
                 List<String> normalized = new ArrayList<String>();
@@ -352,8 +404,8 @@ public class KvpUtils {
                 }
             }
             
-            //convert key to lowercase 
-            normalizedKvp.put(key.toLowerCase(), value);
+            //the kvp map takes care of the key case
+            normalizedKvp.put(key, value);
         }
         
         return normalizedKvp;
@@ -388,15 +440,12 @@ public class KvpUtils {
      */
     public static List<Throwable> parse(Map kvp) {
 
-        // look up parser objects
-        List<KvpParser> parsers = GeoServerExtensions.extensions(KvpParser.class);
+        // parsers are indexed by key, service, version and request
+        DispatchRegistry registry = DispatchRegistry.get();
 
-        //strip out parsers which do not match current service/request/version
         String service = KvpUtils.getSingleValue(kvp, "service");
         String version = KvpUtils.getSingleValue(kvp, "version");
         String request = KvpUtils.getSingleValue(kvp, "request");
-        
-        purgeParsers(parsers, service, version, request);
 
         // parser the kvp's
         ArrayList<Throwable> errors = new ArrayList<Throwable>();
@@ -405,7 +454,7 @@ public class KvpUtils {
             String key = (String) entry.getKey();
 
             // find the parser for this key value pair
-            KvpParser parser = findParser(key, service, request, version, parsers);
+            KvpParser parser = registry.getKvpParser(key, service, version, request);
 
             // parse the value
             Object parsed = null;
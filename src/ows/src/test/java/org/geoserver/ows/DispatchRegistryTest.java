@@ -0,0 +1,109 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+public class DispatchRegistryTest extends TestCase {
+
+    FileSystemXmlApplicationContext context;
+
+    DispatchRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        context = new FileSystemXmlApplicationContext(url.toString());
+        registry = ((Dispatcher) context.getBean("dispatcher")).registry();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        context.close();
+    }
+
+    public void testServices() {
+        List<Service> services = registry.getServices("HELLO");
+        assertEquals(1, services.size());
+        Service service = services.get(0);
+        assertSame(context.getBean("helloWorldService"), service);
+        assertTrue(registry.getServices("foo").isEmpty());
+
+        assertTrue(registry.hasOperation(service, "HELLO"));
+        assertFalse(registry.hasOperation(service, "goodbye"));
+    }
+
+    public void testReaders() {
+        KvpRequestReader kvpReader = registry.getKvpRequestReader(Message.class);
+        assertSame(context.getBean("messageKvpReader"), kvpReader);
+        assertSame(kvpReader, registry.getKvpRequestReader(Message.class));
+        assertNull(registry.getKvpRequestReader(String.class));
+
+        XmlRequestReader xmlReader = (XmlRequestReader) context.getBean("messageXmlReader");
+        String namespace = xmlReader.getElement().getNamespaceURI();
+        String element = xmlReader.getElement().getLocalPart();
+        assertEquals(1, registry.getXmlReaders(namespace.toUpperCase(), element.toUpperCase())
+                .size());
+        assertSame(xmlReader, registry.getXmlReaders(element).get(0));
+        assertTrue(registry.getXmlReaders(null, element).isEmpty());
+    }
+
+    public void testResponses() {
+        Response response = (Response) context.getBean("messageResponse");
+        assertEquals(1, registry.getResponses(Message.class, null).size());
+        // the response declares no output format, it handles them all
+        assertSame(response, registry.getResponses(Message.class, "text/plain").get(0));
+        assertTrue(registry.getResponses(String.class, null).isEmpty());
+    }
+
+    public void testKvpParsers() {
+        KvpParser generic = new IntegerKvpParser("width");
+        KvpParser wms = new IntegerKvpParser("width");
+        wms.setService("wms");
+        KvpParser wms13 = new IntegerKvpParser("width");
+        wms13.setService("wms");
+        wms13.setVersion(new Version("1.3.0"));
+        KvpParser getMap = new IntegerKvpParser("height");
+        getMap.setRequest("GetMap");
+
+        List<DispatchRegistry.Extension<KvpParser>> parsers = new ArrayList<DispatchRegistry.Extension<KvpParser>>();
+        for (KvpParser p : Arrays.asList(generic, wms, wms13, getMap)) {
+            parsers.add(new DispatchRegistry.Extension<KvpParser>(p, null, null));
+        }
+        DispatchRegistry.KvpParsers index = new DispatchRegistry.KvpParsers(parsers);
+
+        assertSame(generic, index.find("WIDTH", null, null, null));
+        assertSame(generic, index.find("width", "wfs", "1.1.0", "GetFeature"));
+        assertSame(wms, index.find("width", "WMS", "1.1.1", "GetMap"));
+        assertSame(wms13, index.find("width", "wms", "1.3.0", "GetMap"));
+        assertSame(getMap, index.find("height", "wms", "1.1.1", "getmap"));
+        assertNull(index.find("height", "wms", "1.1.1", "GetFeatureInfo"));
+        assertNull(index.find("bbox", "wms", "1.1.1", "GetMap"));
+
+        // unknown values share the same cache entries
+        index.find("width", "foo", "1.0", "bar");
+        index.find("width", "baz", "2.0", "qux");
+        assertSame(generic, index.find("width", "other", "3.0", "whatever"));
+        assertEquals(5, index.cache.size());
+    }
+
+    public void testRefresh() {
+        assertSame(registry, DispatchRegistry.current);
+        context.refresh();
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        assertNotSame(registry, dispatcher.registry());
+        assertSame(dispatcher.registry(), DispatchRegistry.current);
+    }
+}
@@ -361,6 +361,74 @@ public class DispatcherTest extends TestCase {
         assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatusCode());
     }
     
+    public void testOperationLimits() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        OperationLimits limits = new OperationLimits("hello.Hello=1, hello=1:1");
+        dispatcher.setOperationLimits(limits);
+
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+                String encoding;
+
+                public int getServerPort() {
+                    return 8080;
+                }
+
+                public String getCharacterEncoding() {
+                    return encoding;
+                }
+
+                public void setCharacterEncoding(String encoding) {
+                    this.encoding = encoding;
+                }
+            };
+
+        request.setScheme("http");
+        request.setServerName("localhost");
+
+        request.setContextPath("/geoserver");
+        request.setMethod("GET");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        request.setupAddParameter("service", "hello");
+        request.setupAddParameter("request", "Hello");
+        request.setupAddParameter("version", "1.0.0");
+        request.setupAddParameter("message", "Hello world!");
+
+        request.setRequestURI(
+            "http://localhost/geoserver/ows?service=hello&request=hello&message=HelloWorld");
+        request.setQueryString("service=hello&request=hello&message=HelloWorld");
+        dispatcher.handleRequest(request, response);
+        assertEquals("Hello world!", response.getOutputStreamContent());
+        assertEquals(1, limits.limits.get("HELLO.HELLO").getAdmittedCount());
+        
+        // failures are reported as usual
+        request.setupAddParameter("request", "httpErrorCodeException");
+        CodeExpectingHttpServletResponse codeResponse = new CodeExpectingHttpServletResponse(new MockHttpServletResponse());
+        dispatcher.handleRequest(request, codeResponse);
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, codeResponse.getStatusCode());
+        assertEquals(1, limits.limits.get("HELLO").getAdmittedCount());
+        assertEquals(0, limits.limits.get("HELLO").getRunning());
+
+        // requests over the limit are refused
+        OperationLimits.Limit limit = limits.limits.get("HELLO.HELLO");
+        assertTrue(limit.enter());
+        try {
+            request.setupAddParameter("request", "Hello");
+            codeResponse = new CodeExpectingHttpServletResponse(new MockHttpServletResponse());
+            dispatcher.handleRequest(request, codeResponse);
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, codeResponse.getStatusCode());
+            assertEquals(1, limit.getRejectedCount());
+        } finally {
+            limit.exit();
+        }
+        context.close();
+    }
+    
     /**
      * Assert that if the service bean implements the optional {@link DirectInvocationService}
      * operation, then the dispatcher executes the operation through its
@@ -0,0 +1,89 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.OperationLimits.Limit;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+
+public class OperationLimitsTest extends TestCase {
+
+    Service wfs = new Service("wfs", new Object(), new Version("1.1.0"), null);
+
+    Service wms = new Service("wms", new Object(), new Version("1.1.1"), null);
+
+    public void testConfiguration() {
+        OperationLimits limits = new OperationLimits(
+                "WFS.GetFeature=4:16, wfs = 2, WPS=foo, WCS=-1");
+        Limit getFeature = limits.find(new Operation("GetFeature", wfs, null, null));
+        assertEquals(4, getFeature.running);
+        assertEquals(16, getFeature.queue);
+
+        Limit other = limits.find(new Operation("DescribeFeatureType", wfs, null, null));
+        assertNotSame(getFeature, other);
+        assertEquals(2, other.running);
+        assertEquals(0, other.queue);
+
+        assertNull(limits.find(new Operation("GetMap", wms, null, null)));
+        // the invalid entries have been skipped
+        assertEquals(2, limits.limits.size());
+        assertTrue(new OperationLimits(null).isEmpty());
+    }
+
+    public void testSaturation() throws Exception {
+        OperationLimits limits = new OperationLimits("wfs=1");
+        Limit limit = limits.find(new Operation("GetFeature", wfs, null, null));
+        assertTrue(limit.enter());
+        try {
+            assertEquals(1, limit.getRunning());
+            // no queue, refused right away
+            assertFalse(limit.enter());
+            assertEquals(1, limit.getRejectedCount());
+        } finally {
+            limit.exit();
+        }
+        assertEquals(0, limit.getRunning());
+        assertTrue(limit.enter());
+        limit.exit();
+        assertEquals(2, limit.getAdmittedCount());
+    }
+
+    public void testQueue() throws Exception {
+        OperationLimits limits = new OperationLimits("wfs=1:1");
+        final Limit limit = limits.find(new Operation("GetFeature", wfs, null, null));
+        assertTrue(limit.enter());
+
+        // the second request waits for the first one
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean entered = new AtomicBoolean();
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    entered.set(limit.enter());
+                    limit.exit();
+                } catch (InterruptedException e) {
+                    // test fails below
+                }
+                done.countDown();
+            }
+        };
+        waiting.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        // the queue is full as well
+        assertFalse(limit.enter());
+
+        limit.exit();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(entered.get());
+        assertEquals(0, limit.getRunning());
+    }
+}
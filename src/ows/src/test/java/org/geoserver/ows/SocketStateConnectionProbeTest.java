@@ -0,0 +1,77 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+public class SocketStateConnectionProbeTest extends TestCase {
+
+    public void testClientGone() throws Exception {
+        if (!new File("/proc/net/tcp").exists()) {
+            // the socket tables are only available on Linux
+            return;
+        }
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+            Socket accepted = server.accept();
+            try {
+                Request request = request(accepted);
+                SocketStateConnectionProbe probe = new SocketStateConnectionProbe();
+                assertFalse(probe.isClosed(request));
+
+                client.close();
+                // wait for the table to be re-read
+                boolean closed = false;
+                for (int i = 0; i < 20 && !closed; i++) {
+                    Thread.sleep(SocketStateConnectionProbe.MAX_AGE / 2);
+                    closed = probe.isClosed(request);
+                }
+                assertTrue(closed);
+            } finally {
+                accepted.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testNoTables() throws Exception {
+        SocketStateConnectionProbe probe = new SocketStateConnectionProbe(new File(
+                "/not/there/tcp"));
+        Request request = new Request();
+        request.setHttpRequest(new MockHttpServletRequest());
+        assertFalse(probe.isClosed(request));
+    }
+
+    Request request(final Socket socket) {
+        MockHttpServletRequest http = new MockHttpServletRequest() {
+            @Override
+            public String getRemoteAddr() {
+                return socket.getInetAddress().getHostAddress();
+            }
+
+            @Override
+            public int getRemotePort() {
+                return socket.getPort();
+            }
+
+            @Override
+            public int getLocalPort() {
+                return socket.getLocalPort();
+            }
+        };
+        Request request = new Request();
+        request.setHttpRequest(http);
+        return request;
+    }
+}
@@ -5,6 +5,7 @@
 package org.geoserver.ows.kvp;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -77,6 +78,34 @@ public class KvpUtilsTest extends TestCase {
         assertKvp(expected, actual);
     }
     
+    public void testRegExpTokenizer() {
+        List actual = KvpUtils.readFlat("a1b22c", new KvpUtils.Tokenizer("\\d+"));
+        assertKvp(new String[] {"a", "b", "c"}, actual);
+        
+        actual = KvpUtils.readFlat("a.b.c", new KvpUtils.Tokenizer("\\."));
+        assertKvp(new String[] {"a", "b", "c"}, actual);
+        
+        actual = KvpUtils.readFlat("a||b", new KvpUtils.Tokenizer("\\|\\|"));
+        assertKvp(new String[] {"a", "b"}, actual);
+    }
+    
+    public void testNormalize() {
+        Map<String, Object> raw = new HashMap<String, Object>();
+        raw.put("layers", new String[] {" topp:states "});
+        raw.put("Styles", "");
+        raw.put("time", new String[] {"2012", " 2013 "});
+        raw.put("bbox", new String[0]);
+        
+        Map kvp = KvpUtils.normalize(raw);
+        assertEquals(4, kvp.size());
+        assertEquals("topp:states", kvp.get("LAYERS"));
+        assertEquals("topp:states", kvp.get("layers"));
+        assertEquals("", kvp.get("styles"));
+        assertTrue(Arrays.equals(new String[] {"2012", "2013"}, (String[]) kvp.get("Time")));
+        assertTrue(kvp.containsKey("bbox"));
+        assertNull(kvp.get("bbox"));
+    }
+    
     private void assertKvp(String[] expected, List actual){
         List expectedList = Arrays.asList(expected);
         assertEquals(expectedList.size(), actual.size());
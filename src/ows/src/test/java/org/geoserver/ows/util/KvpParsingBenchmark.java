@@ -0,0 +1,159 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.KvpParser;
+import org.geoserver.ows.kvp.BooleanKvpParser;
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.Version;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Measures the normalization and parsing of typical GetMap kvp sets, as done by the dispatcher,
+ * against the former approach of looking up and scanning all the {@link KvpParser} extensions for
+ * each request.
+ * <p>
+ * Not a unit test, run it with the main method, optionally passing the number of registered
+ * parsers and iterations.
+ * </p>
+ */
+public class KvpParsingBenchmark {
+
+    static final String[] QUERIES = {
+            "service=WMS&version=1.1.1&request=GetMap&layers=topp:states&styles=&"
+                    + "bbox=-124.73,24.96,-66.97,49.37&width=256&height=256&srs=EPSG:4326&"
+                    + "format=image/png&transparent=true",
+            "SERVICE=WMS&VERSION=1.3.0&REQUEST=GetMap&LAYERS=nurc:Arc_Sample,topp:tasmania&"
+                    + "STYLES=,&CRS=EPSG:3857&BBOX=0,0,20037508,20037508&WIDTH=512&HEIGHT=512&"
+                    + "FORMAT=image/jpeg&TILED=true&TILESORIGIN=0,0",
+            "service=WMS&version=1.1.1&request=GetMap&layers=tiger:poi&styles=point&"
+                    + "bbox=-74.01,40.70,-73.99,40.72&width=768&height=330&srs=EPSG:4326&"
+                    + "format=image/png8&format_options=antialias:none&cql_filter=NAME='museam'" };
+
+    public static void main(String[] args) {
+        int parsers = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        GenericApplicationContext context = createContext(parsers);
+
+        Map[] requests = new Map[QUERIES.length];
+        for (int i = 0; i < QUERIES.length; i++) {
+            requests[i] = parameterMap(QUERIES[i]);
+        }
+
+        // warm up
+        for (int i = 0; i < iterations / 10; i++) {
+            indexed(requests[i % requests.length]);
+            scanning(requests[i % requests.length]);
+        }
+
+        long indexed = 0;
+        long scanning = 0;
+        for (int i = 0; i < iterations; i++) {
+            Map request = requests[i % requests.length];
+            long start = System.nanoTime();
+            indexed(request);
+            indexed += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            scanning(request);
+            scanning += System.nanoTime() - start;
+        }
+
+        System.out.println("Parsers: " + parsers + ", iterations: " + iterations);
+        System.out.println("Indexed:  " + (indexed / iterations) + " ns/request");
+        System.out.println("Scanning: " + (scanning / iterations) + " ns/request");
+        context.close();
+    }
+
+    /**
+     * Normalizes and parses the way the dispatcher does
+     */
+    static Map indexed(Map parameters) {
+        KvpMap kvp = KvpUtils.normalize(parameters);
+        Map raw = (Map) kvp.clone();
+        KvpUtils.parse(kvp);
+        return raw;
+    }
+
+    /**
+     * Normalizes and parses the way the dispatcher used to
+     */
+    static Map scanning(Map parameters) {
+        KvpMap kvp = new KvpMap();
+        for (Iterator it = parameters.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            String[] values = (String[]) e.getValue();
+            kvp.put(((String) e.getKey()).toLowerCase(), values[0].trim());
+        }
+        Map raw = new KvpMap(kvp);
+
+        List<KvpParser> parsers = GeoServerExtensions.extensions(KvpParser.class);
+        String service = KvpUtils.getSingleValue(kvp, "service");
+        String version = KvpUtils.getSingleValue(kvp, "version");
+        String request = KvpUtils.getSingleValue(kvp, "request");
+        KvpUtils.purgeParsers(parsers, service, version, request);
+        for (Iterator it = kvp.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            KvpParser parser = KvpUtils.findParser((String) e.getKey(), service, request,
+                    version, parsers);
+            if (parser != null) {
+                try {
+                    e.setValue(parser.parse((String) e.getValue()));
+                } catch (Exception ex) {
+                    // ignore, as the dispatcher would until the service is known
+                }
+            }
+        }
+        return raw;
+    }
+
+    static Map parameterMap(String query) {
+        Map<String, String[]> parameters = new HashMap<String, String[]>();
+        for (Object kvp : KvpUtils.readFlat(query, KvpUtils.KEYWORD_DELIMITER)) {
+            List pair = KvpUtils.readFlat((String) kvp, KvpUtils.VALUE_DELIMITER);
+            parameters.put((String) pair.get(0), new String[] { (String) pair.get(1) });
+        }
+        return parameters;
+    }
+
+    static GenericApplicationContext createContext(int parsers) {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBeanDefinition("extensions", new RootBeanDefinition(
+                GeoServerExtensions.class));
+        context.registerBeanDefinition("dispatcher", new RootBeanDefinition(Dispatcher.class));
+
+        register(context, "width", new IntegerKvpParser("width"));
+        register(context, "height", new IntegerKvpParser("height"));
+        register(context, "transparent", new BooleanKvpParser("transparent"));
+        register(context, "tiled", new BooleanKvpParser("tiled"));
+
+        // parsers of other services and versions, as a full install registers
+        String[] services = { "wms", "wfs", "wcs", "wps" };
+        for (int i = 4; i < parsers; i++) {
+            KvpParser parser = new IntegerKvpParser("param" + (i % (parsers / 3)));
+            parser.setService(services[i % services.length]);
+            if (i % 2 == 0) {
+                parser.setVersion(new Version("1." + (i % 3) + ".0"));
+            }
+            register(context, "parser" + i, parser);
+        }
+
+        context.refresh();
+        return context;
+    }
+
+    static void register(GenericApplicationContext context, String name, KvpParser parser) {
+        context.getBeanFactory().registerSingleton(name, parser);
+    }
+}
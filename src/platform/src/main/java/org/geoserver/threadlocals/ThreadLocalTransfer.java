@@ -0,0 +1,34 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.Map;
+
+/**
+ * Extension point carrying a thread local variable from the thread serving a request to another
+ * thread doing part of the work on its behalf.
+ * <p>
+ * Implementations are registered in the application context, {@link ThreadLocalsTransfer} looks
+ * them up and drives them.
+ * </p>
+ */
+public interface ThreadLocalTransfer {
+
+    /**
+     * Stores the value of the thread local of the calling thread in the map, under a key of its
+     * choice.
+     */
+    void collect(Map<String, Object> storage);
+
+    /**
+     * Sets the thread local of the calling thread to the value stored by {@link #collect(Map)}
+     */
+    void apply(Map<String, Object> storage);
+
+    /**
+     * Clears the thread local of the calling thread, once the work is done
+     */
+    void cleanup();
+}
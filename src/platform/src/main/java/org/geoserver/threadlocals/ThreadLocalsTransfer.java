@@ -0,0 +1,65 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.platform.GeoServerExtensions;
+
+/**
+ * Collects the thread locals of the calling thread when created, so that they can be applied to
+ * and then cleaned from another thread.
+ * 
+ * <pre>
+ * final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+ * executor.submit(new Runnable() {
+ *     public void run() {
+ *         transfer.apply();
+ *         try {
+ *             ...
+ *         } finally {
+ *             transfer.cleanup();
+ *         }
+ *     }
+ * });
+ * </pre>
+ */
+public class ThreadLocalsTransfer {
+
+    List<ThreadLocalTransfer> transfers;
+
+    Map<String, Object> storage = new HashMap<String, Object>();
+
+    public ThreadLocalsTransfer() {
+        this(GeoServerExtensions.extensions(ThreadLocalTransfer.class));
+    }
+
+    public ThreadLocalsTransfer(List<ThreadLocalTransfer> transfers) {
+        this.transfers = transfers;
+        for (ThreadLocalTransfer transfer : transfers) {
+            transfer.collect(storage);
+        }
+    }
+
+    /**
+     * Sets the collected thread locals in the calling thread
+     */
+    public void apply() {
+        for (ThreadLocalTransfer transfer : transfers) {
+            transfer.apply(storage);
+        }
+    }
+
+    /**
+     * Clears the thread locals from the calling thread
+     */
+    public void cleanup() {
+        for (ThreadLocalTransfer transfer : transfers) {
+            transfer.cleanup();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.rest;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerPersister;
+import org.geoserver.rest.RestletException;
+import org.restlet.Finder;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.resource.Resource;
+
+/**
+ * Writes out any configuration change still queued by a {@link GeoServerPersister} running in
+ * write behind mode, returning once all the changes are on disk.
+ */
+public class CatalogFlusher extends Finder {
+
+    GeoServer geoServer;
+
+    public CatalogFlusher(GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    @Override
+    public Resource findTarget(Request request, Response response) {
+        if (!(request.getMethod() == Method.POST || request.getMethod() == Method.PUT)) {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return null;
+        }
+        return new Resource() {
+            @Override
+            public boolean allowPost() {
+                return true;
+            }
+            
+            @Override
+            public boolean allowPut() {
+                return true;
+            }
+            
+            @Override
+            public void handlePost() {
+                try {   
+                    GeoServerPersister.flush(geoServer);
+                } catch (Exception e) {
+                    throw new RestletException("Error writing out the configuration", 
+                        Status.SERVER_ERROR_INTERNAL, e);
+                }
+            }
+            
+            @Override
+            public void handlePut() {
+                handlePost();
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.LatencyHistogram;
+import org.geoserver.ows.RequestTimingCallback;
+
+/**
+ * Exposes the request phase timings collected by {@link RequestTimingCallback}. A DELETE clears
+ * them.
+ */
+public class RequestTimingResource extends MapResource {
+
+    RequestTimingCallback timings;
+
+    public RequestTimingResource(RequestTimingCallback timings) {
+        this.timings = timings;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("enabled", timings.isEnabled());
+
+        List<Map> operations = new ArrayList<Map>();
+        for (Map.Entry<String, Map<String, LatencyHistogram>> op : timings.getOperations()
+                .entrySet()) {
+            Map<String, Object> operation = new LinkedHashMap<String, Object>();
+            operation.put("name", op.getKey());
+            for (Map.Entry<String, LatencyHistogram> phase : op.getValue().entrySet()) {
+                operation.put(phase.getKey(), phase.getValue().toMap());
+            }
+            operations.add(operation);
+        }
+        map.put("operations", operations);
+
+        List<Map> layers = new ArrayList<Map>();
+        for (Map.Entry<String, LatencyHistogram> l : timings.getLayers().entrySet()) {
+            Map<String, Object> layer = new LinkedHashMap<String, Object>();
+            // layer names are not valid xml element names, keep them as values
+            layer.put("name", l.getKey());
+            layer.put("total", l.getValue().toMap());
+            layers.add(layer);
+        }
+        map.put("layers", layers);
+
+        return map;
+    }
+
+    @Override
+    public boolean allowDelete() {
+        return true;
+    }
+
+    @Override
+    public void handleDelete() {
+        timings.reset();
+    }
+}
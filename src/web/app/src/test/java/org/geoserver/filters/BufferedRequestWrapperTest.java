@@ -85,4 +85,23 @@ public class BufferedRequestWrapperTest extends RequestWrapperTestSupport {
         assertEquals("3", ((String[]) params.get("c"))[0]);
         assertEquals("4", ((String[]) params.get("d"))[0]);
     }
+
+    @Test
+    public void testBodyBuffer() throws Exception {
+        String body = "a=1&b=2";
+        HttpServletRequest req = makeRequest(body, "c=3");
+        RequestBodyBuffer buffer = new RequestBodyBuffer(req.getInputStream(), 1024);
+        try {
+            BufferedRequestWrapper wrapper = new BufferedRequestWrapper(req, buffer);
+            Map params = wrapper.getParameterMap();
+            assertEquals(3, params.size());
+            assertEquals("1", ((String[]) params.get("a"))[0]);
+            assertEquals("3", ((String[]) params.get("c"))[0]);
+            
+            BufferedReader br = wrapper.getReader();
+            assertEquals(body, br.readLine());
+        } finally {
+            buffer.dispose();
+        }
+    }
 }
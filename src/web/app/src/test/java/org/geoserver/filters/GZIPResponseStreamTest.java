@@ -11,6 +11,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletOutputStream;
@@ -34,6 +38,91 @@ public class GZIPResponseStreamTest  {
         assertEquals("Hello world!", new String(unzip(response.toByteArray())));
     }
 
+    @Test
+    public void testPooledStream() throws Exception {
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+        DeflaterPool pool = new DeflaterPool(2);
+        GZIPResponseStream stream = new GZIPResponseStream(response, pool, Deflater.BEST_SPEED);
+        stream.write("Hello world!".getBytes());
+        stream.close();
+        assertEquals("Hello world!", new String(unzip(response.toByteArray())));
+        assertEquals(1, pool.getIdleCount(Deflater.BEST_SPEED));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        MockHttpServletResponse mock = new MockHttpServletResponse();
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(mock);
+        DeflaterPool pool = new DeflaterPool(2);
+        StreamingGZIPResponseStream stream = new StreamingGZIPResponseStream(response, pool,
+                Deflater.DEFAULT_COMPRESSION, 16);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String line = "Hello world " + i + "!\n";
+            expected.append(line);
+            stream.write(line.getBytes());
+            if (i % 100 == 0) {
+                stream.flush();
+            }
+        }
+        assertTrue(stream.isCompressing());
+        assertEquals(0, pool.getIdleCount(Deflater.DEFAULT_COMPRESSION));
+        stream.close();
+        
+        assertEquals("gzip", mock.getHeader("Content-Encoding"));
+        assertFalse(response.containsHeader("Content-Length"));
+        assertEquals(expected.toString(), new String(unzip(response.toByteArray())));
+        // the deflater went back to the pool and is reused
+        assertEquals(1, pool.getIdleCount(Deflater.DEFAULT_COMPRESSION));
+        new StreamingGZIPResponseStream(response, pool, Deflater.DEFAULT_COMPRESSION, 0).write(1);
+        assertEquals(0, pool.getIdleCount(Deflater.DEFAULT_COMPRESSION));
+    }
+
+    @Test
+    public void testStreamingBelowMinSize() throws Exception {
+        ByteStreamCapturingHttpServletResponse response = 
+            new ByteStreamCapturingHttpServletResponse(new MockHttpServletResponse());
+        StreamingGZIPResponseStream stream = new StreamingGZIPResponseStream(response,
+                new DeflaterPool(2), Deflater.DEFAULT_COMPRESSION, 1024);
+        stream.write("Hello world!".getBytes());
+        stream.flush();
+        stream.close();
+        
+        assertFalse(stream.isCompressing());
+        assertFalse(response.containsHeader("Content-Encoding"));
+        assertEquals("Hello world!", new String(response.toByteArray()));
+        try {
+            stream.close();
+            fail("Should not be possible to close twice");
+        } catch (IOException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        Set<Pattern> compressed = new HashSet<Pattern>();
+        compressed.add(Pattern.compile("text/.*"));
+        compressed.add(Pattern.compile("image/.*"));
+        Set<Pattern> excluded = new HashSet<Pattern>();
+        excluded.add(Pattern.compile("text/csv"));
+        CompressionSettings settings = new CompressionSettings(compressed, excluded);
+        
+        assertTrue(settings.isCompressible("text/xml"));
+        assertTrue(settings.isCompressible("image/svg+xml"));
+        assertFalse(settings.isCompressible("text/csv"));
+        assertFalse(settings.isCompressible("image/png"));
+        assertFalse(settings.isCompressible("image/jpeg"));
+        assertFalse(settings.isCompressible("application/json"));
+        
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(settings.isEncoded(response));
+        response.addHeader("Content-Encoding", "deflate");
+        assertTrue(settings.isEncoded(response));
+    }
+
     private byte[] unzip(byte[] zipped) throws Exception {
         InputStream stream  =
             new GZIPInputStream(new ByteArrayInputStream(zipped));
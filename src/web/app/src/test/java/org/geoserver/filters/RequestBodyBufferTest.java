@@ -0,0 +1,93 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RequestBodyBufferTest {
+
+    @Test
+    public void testInMemory() throws Exception {
+        byte[] body = randomBytes(100000);
+        RequestBodyBuffer buffer = new RequestBodyBuffer(new ByteArrayInputStream(body), 200000);
+        try {
+            assertFalse(buffer.isSpilled());
+            assertEquals(body.length, buffer.size());
+            // can be read multiple times
+            assertTrue(Arrays.equals(body, read(buffer.getInputStream())));
+            assertTrue(Arrays.equals(body, read(buffer.getInputStream())));
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        byte[] body = randomBytes(100000);
+        RequestBodyBuffer buffer = new RequestBodyBuffer(new ByteArrayInputStream(body), 50000);
+        File file = buffer.file;
+        try {
+            assertTrue(buffer.isSpilled());
+            assertTrue(file.exists());
+            assertEquals(body.length, file.length());
+            assertEquals(body.length, buffer.size());
+            assertTrue(Arrays.equals(body, read(buffer.getInputStream())));
+            assertTrue(Arrays.equals(body, read(buffer.getInputStream())));
+        } finally {
+            buffer.dispose();
+        }
+        assertNull(buffer.file);
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        String body = "<wfs:Transaction service=\"WFS\"/>";
+        RequestBodyBuffer buffer = new RequestBodyBuffer(new ByteArrayInputStream(
+                body.getBytes("UTF-8")), 1024);
+        try {
+            Charset utf8 = Charset.forName("UTF-8");
+            assertEquals(body, buffer.toString(Integer.MAX_VALUE, utf8));
+            assertEquals("<wfs:", buffer.toString(5, utf8));
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        RequestBodyBuffer buffer = new RequestBodyBuffer(new ByteArrayInputStream(new byte[0]),
+                1024);
+        assertEquals(0, buffer.size());
+        assertEquals(-1, buffer.getInputStream().read());
+        buffer.dispose();
+    }
+
+    byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    byte[] read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
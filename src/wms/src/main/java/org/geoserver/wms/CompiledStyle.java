@@ -0,0 +1,273 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.GeoTools;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleAttributeExtractor;
+import org.geotools.styling.Symbolizer;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.PropertyName;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * The analyzed form of a {@link Style}: rules are bucketed by the scale ranges they are active
+ * in, and the information WMS derives from the active rules (combined filter, rendering buffer,
+ * attributes used) is computed once per range instead of once per request.
+ * <p>
+ * Compiled styles are cached by style identity, and go away along with the style they have been
+ * built from. Styles are assumed not to change once compiled, which holds for the ones handed out
+ * by {@link org.geoserver.catalog.ResourcePool#getStyle}, since a style whose file or
+ * configuration is modified is parsed again into a new object.
+ * </p>
+ */
+public class CompiledStyle {
+
+    static final int CACHE_SIZE = 1000;
+
+    static final LoadingCache<Style, CompiledStyle> CACHE = CacheBuilder.newBuilder()
+            .weakKeys().maximumSize(CACHE_SIZE).build(new CacheLoader<Style, CompiledStyle>() {
+                public CompiledStyle load(Style style) {
+                    return new CompiledStyle(style);
+                }
+            });
+
+    /**
+     * Returns the compiled form of the style, compiling it on first access.
+     */
+    public static CompiledStyle get(Style style) {
+        return CACHE.getUnchecked(style);
+    }
+
+    final List<Rule> rules;
+
+    /**
+     * the distinct scale denominators at which the set of active rules changes, range
+     * <code>i</code> goes from <code>breaks[i - 1]</code> included to <code>breaks[i]</code>
+     * excluded
+     */
+    final double[] breaks;
+
+    final AtomicReferenceArray<ActiveRules> ranges;
+
+    final boolean transformation;
+
+    final boolean rasterSymbolizers;
+
+    volatile Set<PropertyName> attributes;
+
+    CompiledStyle(Style style) {
+        List<Rule> rules = new ArrayList<Rule>();
+        Set<Double> breaks = new TreeSet<Double>();
+        boolean transformation = false;
+        boolean rasterSymbolizers = false;
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                transformation = true;
+            }
+            for (Rule rule : fts.rules()) {
+                rules.add(rule);
+                addBreak(breaks, rule.getMinScaleDenominator());
+                addBreak(breaks, rule.getMaxScaleDenominator());
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    if (symbolizer instanceof RasterSymbolizer) {
+                        rasterSymbolizers = true;
+                    }
+                }
+            }
+        }
+
+        this.rules = rules;
+        this.breaks = new double[breaks.size()];
+        int i = 0;
+        for (Double b : breaks) {
+            this.breaks[i++] = b;
+        }
+        this.ranges = new AtomicReferenceArray<ActiveRules>(this.breaks.length + 1);
+        this.transformation = transformation;
+        this.rasterSymbolizers = rasterSymbolizers;
+    }
+
+    static void addBreak(Set<Double> breaks, double scale) {
+        if (!Double.isInfinite(scale) && !Double.isNaN(scale)) {
+            breaks.add(scale);
+        }
+    }
+
+    /**
+     * Returns the rules active at the specified scale denominator, that is, the ones whose
+     * minimum scale is less or equal and whose maximum scale is greater than it.
+     */
+    public ActiveRules getActiveRules(double scaleDenominator) {
+        if (Double.isNaN(scaleDenominator)) {
+            return ActiveRules.EMPTY;
+        }
+        int idx = Arrays.binarySearch(breaks, scaleDenominator);
+        idx = idx >= 0 ? idx + 1 : -idx - 1;
+
+        ActiveRules active = ranges.get(idx);
+        if (active == null) {
+            // any scale within the range selects the same rules, use its lower bound
+            double scale = idx == 0 ? Double.NEGATIVE_INFINITY : breaks[idx - 1];
+            List<Rule> selected = new ArrayList<Rule>();
+            for (Rule r : rules) {
+                if (r.getMinScaleDenominator() <= scale && r.getMaxScaleDenominator() > scale) {
+                    selected.add(r);
+                }
+            }
+            active = new ActiveRules(selected);
+            if (!ranges.compareAndSet(idx, null, active)) {
+                active = ranges.get(idx);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Whether any of the feature type styles has a rendering transformation.
+     */
+    public boolean hasTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Whether any of the rules, at any scale, contains a raster symbolizer.
+     */
+    public boolean hasRasterSymbolizers() {
+        return rasterSymbolizers;
+    }
+
+    /**
+     * The attributes used by all the rules of the style, regardless of scale.
+     */
+    public Set<PropertyName> getAttributes() {
+        Set<PropertyName> result = attributes;
+        if (result == null) {
+            result = attributes(rules);
+            attributes = result;
+        }
+        return result;
+    }
+
+    static Set<PropertyName> attributes(List<Rule> rules) {
+        StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+        for (Rule rule : rules) {
+            rule.accept(extractor);
+        }
+        return Collections.unmodifiableSet(extractor.getAttributes());
+    }
+
+    /**
+     * The rules active in a scale range, along with the information derived from them, computed
+     * on first access.
+     */
+    public static class ActiveRules {
+
+        static final ActiveRules EMPTY = new ActiveRules(Collections.<Rule>emptyList());
+
+        final List<Rule> rules;
+
+        volatile Filter filter;
+
+        volatile Set<PropertyName> attributes;
+
+        volatile MetaBufferEstimator estimator;
+
+        ActiveRules(List<Rule> rules) {
+            this.rules = Collections.unmodifiableList(rules);
+        }
+
+        public List<Rule> getRules() {
+            return rules;
+        }
+
+        public boolean isEmpty() {
+            return rules.isEmpty();
+        }
+
+        /**
+         * The simplified OR of the rule filters, {@link Filter#INCLUDE} if any of the rules has no
+         * filter or is an else rule.
+         */
+        public Filter getFilter() {
+            Filter result = filter;
+            if (result == null) {
+                result = buildFilter();
+                filter = result;
+            }
+            return result;
+        }
+
+        Filter buildFilter() {
+            List<Filter> filters = new ArrayList<Filter>();
+            for (Rule rule : rules) {
+                if (rule.getFilter() == null || rule.isElseFilter()) {
+                    return Filter.INCLUDE;
+                }
+                filters.add(rule.getFilter());
+            }
+            FilterFactory ff = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+            Filter or = ff.or(filters);
+            return (Filter) or.accept(new SimplifyingFilterVisitor(), null);
+        }
+
+        /**
+         * The attributes used by the active rules.
+         */
+        public Set<PropertyName> getAttributes() {
+            Set<PropertyName> result = attributes;
+            if (result == null) {
+                result = CompiledStyle.attributes(rules);
+                attributes = result;
+            }
+            return result;
+        }
+
+        /**
+         * The rendering buffer, in pixels, estimated from the active rules symbolizers.
+         */
+        public int getBuffer() {
+            return estimator().getBuffer();
+        }
+
+        /**
+         * Whether the estimated {@link #getBuffer() buffer} is accurate, that is, none of the
+         * symbolizer sizes depends on the features being rendered.
+         */
+        public boolean isBufferAccurate() {
+            return estimator().isEstimateAccurate();
+        }
+
+        MetaBufferEstimator estimator() {
+            MetaBufferEstimator result = estimator;
+            if (result == null) {
+                result = new MetaBufferEstimator();
+                for (Rule rule : rules) {
+                    rule.accept(result);
+                }
+                estimator = result;
+            }
+            return result;
+        }
+    }
+}
@@ -4,16 +4,32 @@
  */
 package org.geoserver.wms;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import net.opengis.wfs.FeatureCollectionType;
 
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.kml.KMLReflector;
+import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.sld.GetStyles;
@@ -23,6 +39,7 @@ import org.geoserver.wms.capabilities.Capabilities_1_3_0_Transformer;
 import org.geoserver.wms.capabilities.GetCapabilitiesTransformer;
 import org.geoserver.wms.describelayer.DescribeLayerModel;
 import org.geoserver.wms.describelayer.DescribeLayerTransformer;
+import org.geoserver.wms.map.RenderingTimeoutEnforcer;
 import org.geotools.data.ows.LayerDescription;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
@@ -30,6 +47,7 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.referencing.operation.projection.ProjectionException;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.util.logging.Logging;
 import org.geotools.xml.transform.TransformerBase;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
@@ -69,6 +87,9 @@ import com.vividsolutions.jts.geom.Envelope;
  */
 public class DefaultWebMapService implements WebMapService, ApplicationContextAware,
         DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(DefaultWebMapService.class);
+
     /**
      * default for 'format' parameter.
      */
@@ -145,6 +166,33 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Max number of threads in the rendering pool
+     */
+    private static Integer RENDERING_POOL_SIZE = null;
+
+    /**
+     * Max number of rendering tasks waiting for a thread
+     */
+    private static Integer RENDERING_POOL_QUEUE_SIZE = null;
+
+    /**
+     * Use a separate rendering pool for each workspace
+     */
+    private static Boolean RENDERING_POOL_PER_WORKSPACE = null;
+
+    /**
+     * The per workspace rendering pools
+     */
+    static final ConcurrentMap<String, RenderingThreadPool> WORKSPACE_RENDERING_POOLS = new ConcurrentHashMap<String, RenderingThreadPool>();
+
+    /**
+     * Render the layers of a map in parallel. Each layer is labelled on its own, so labels of
+     * different layers can overlap, as there is no conflict resolution across layers, and the
+     * labels of a layer are painted under the layers above it instead of on top of the map.
+     */
+    private static Boolean PARALLEL_LAYER_RENDERING = null;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -264,6 +312,42 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // size of the rendering pools
+        if (RENDERING_POOL_SIZE == null) {
+            String size = GeoServerExtensions.getProperty("RENDERING_POOL_SIZE", context);
+            // default to a few threads per core, rendering mixes cpu and I/O
+            if (size == null)
+                RENDERING_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+            else
+                RENDERING_POOL_SIZE = Integer.valueOf(size);
+        }
+        if (RENDERING_POOL_QUEUE_SIZE == null) {
+            String size = GeoServerExtensions.getProperty("RENDERING_POOL_QUEUE_SIZE", context);
+            if (size == null)
+                RENDERING_POOL_QUEUE_SIZE = RENDERING_POOL_SIZE * 8;
+            else
+                RENDERING_POOL_QUEUE_SIZE = Integer.valueOf(size);
+        }
+
+        // one rendering pool per workspace
+        if (RENDERING_POOL_PER_WORKSPACE == null) {
+            String perWorkspace = GeoServerExtensions.getProperty("RENDERING_POOL_PER_WORKSPACE",
+                    context);
+            // default to false, but allow switching on
+            RENDERING_POOL_PER_WORKSPACE = Boolean.valueOf(perWorkspace);
+        }
+        if (RENDERING_POOL_PER_WORKSPACE) {
+            // drop the pools of the workspaces that go away
+            wms.getCatalog().addListener(new WorkspaceRenderingPoolsCleaner());
+        }
+
+        // parallel rendering of the map layers
+        if (PARALLEL_LAYER_RENDERING == null) {
+            String parallel = GeoServerExtensions.getProperty("PARALLEL_LAYER_RENDERING", context);
+            // default to false, but allow switching on
+            PARALLEL_LAYER_RENDERING = Boolean.valueOf(parallel);
+        }
     }
 
     /**
@@ -305,6 +389,19 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return MAX_FILTER_RULES;
     }
     
+    /**
+     * Checks if the layers of a map are rendered in parallel on the rendering pool, each on its
+     * own surface, and then composited (defaults to false unless the user sets the
+     * PARALLEL_LAYER_RENDERING property to true). In this mode the labels are placed layer by
+     * layer: the label conflict resolution across layers is lost, and the labels of a layer end
+     * up under the layers composited above it.
+     * 
+     * @return
+     */
+    public static boolean isParallelLayerRenderingEnabled() {
+        return Boolean.TRUE.equals(PARALLEL_LAYER_RENDERING);
+    }
+
     /**
      * If true (default) the direct raster rendering path is enabled
      * @return
@@ -705,28 +802,187 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
     }
 
     /**
-     * Returns a app wide cached rendering pool that can be used for parallelized rendering
+     * Returns the rendering pool for the map, see {@link #getRenderingPool(String)}. The pool is
+     * picked the first time based on the workspace of the map layers, and then kept in the map
+     * content, so that rendering and encoding of the same request run on the same pool
      * 
+     * @param mapContent
      * @return
      */
-    public static ExecutorService getRenderingPool() {
-        if(USE_GLOBAL_RENDERING_POOL && RENDERING_POOL == null) {
+    public static ExecutorService getRenderingPool(WMSMapContent mapContent) {
+        if (mapContent == null) {
+            return getRenderingPool(getWorkspace(null));
+        }
+        ExecutorService pool = mapContent.getRenderingPool();
+        if (pool == null) {
+            pool = getRenderingPool(getWorkspace(mapContent));
+            mapContent.setRenderingPool(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the local workspace if set, otherwise the workspace shared by all the layers in the
+     * map, or null if they come from different workspaces
+     */
+    static String getWorkspace(WMSMapContent mapContent) {
+        WorkspaceInfo local = LocalWorkspace.get();
+        if (local != null) {
+            return local.getName();
+        }
+        if (mapContent == null || mapContent.getRequest() == null) {
+            return null;
+        }
+        String workspace = null;
+        for (MapLayerInfo layer : mapContent.getRequest().getLayers()) {
+            ResourceInfo resource = layer.getResource();
+            if (resource == null || resource.getStore() == null
+                    || resource.getStore().getWorkspace() == null) {
+                return null;
+            }
+            String name = resource.getStore().getWorkspace().getName();
+            if (workspace == null) {
+                workspace = name;
+            } else if (!workspace.equals(name)) {
+                return null;
+            }
+        }
+        return workspace;
+    }
+
+    /**
+     * Returns a app wide bounded rendering pool that can be used for parallelized rendering, or
+     * null if the USE_GLOBAL_RENDERING_POOL property is set to false. If the
+     * RENDERING_POOL_PER_WORKSPACE property is set to true each workspace gets its own pool, so that
+     * a heavy workspace cannot starve the others.
+     * 
+     * @param workspace the workspace the rendered layers belong to, or null if not known
+     * @return
+     */
+    public static ExecutorService getRenderingPool(String workspace) {
+        if (!USE_GLOBAL_RENDERING_POOL) {
+            return null;
+        }
+        if (workspace != null && Boolean.TRUE.equals(RENDERING_POOL_PER_WORKSPACE)) {
+            RenderingThreadPool pool = WORKSPACE_RENDERING_POOLS.get(workspace);
+            if (pool == null) {
+                synchronized (DefaultWebMapService.class) {
+                    pool = WORKSPACE_RENDERING_POOLS.get(workspace);
+                    if (pool == null) {
+                        pool = createRenderingPool("workspace", workspace);
+                        WORKSPACE_RENDERING_POOLS.put(workspace, pool);
+                    }
+                }
+            }
+            return pool;
+        }
+
+        if (RENDERING_POOL == null) {
             synchronized (DefaultWebMapService.class) {
-                if(RENDERING_POOL == null) {
-                    RENDERING_POOL = Executors.newCachedThreadPool();
+                if (RENDERING_POOL == null) {
+                    RENDERING_POOL = createRenderingPool("name", "global");
                 }
             }
         }
-        
+
         return RENDERING_POOL;
     }
 
+    static RenderingThreadPool createRenderingPool(String property, String name) {
+        int size = RENDERING_POOL_SIZE != null ? RENDERING_POOL_SIZE : Math.max(4, Runtime
+                .getRuntime().availableProcessors() * 4);
+        int queueSize = RENDERING_POOL_QUEUE_SIZE != null ? RENDERING_POOL_QUEUE_SIZE : size * 8;
+        RenderingThreadPool pool = new RenderingThreadPool(name, size, queueSize);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(pool,
+                    getRenderingPoolName(property, name));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not register the rendering pool " + name
+                    + " in JMX", e);
+        }
+        return pool;
+    }
+
+    static ObjectName getRenderingPoolName(String property, String name)
+            throws MalformedObjectNameException {
+        return new ObjectName("org.geoserver:type=RenderingPool," + property + "="
+                + ObjectName.quote(name));
+    }
+
+    static void disposeRenderingPool(ExecutorService pool, String property, String name)
+            throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        unregisterRenderingPool(property, name);
+    }
+
+    static void unregisterRenderingPool(String property, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    getRenderingPoolName(property, name));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not unregister the rendering pool from JMX", e);
+        }
+    }
+
+    /**
+     * Shuts down the rendering pool of a workspace, if any. The tasks already submitted are
+     * still run, but the method does not wait for them
+     */
+    static void releaseRenderingPool(String workspace) {
+        RenderingThreadPool pool = WORKSPACE_RENDERING_POOLS.remove(workspace);
+        if (pool != null) {
+            pool.shutdown();
+            unregisterRenderingPool("workspace", workspace);
+        }
+    }
+
+    /**
+     * Releases the rendering pools of the workspaces being removed or renamed, a renamed
+     * workspace gets a new pool on the next request
+     */
+    static class WorkspaceRenderingPoolsCleaner implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            // nothing to do
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            if (event.getSource() instanceof WorkspaceInfo) {
+                releaseRenderingPool(((WorkspaceInfo) event.getSource()).getName());
+            }
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            if (event.getSource() instanceof WorkspaceInfo) {
+                int idx = event.getPropertyNames().indexOf("name");
+                if (idx >= 0) {
+                    releaseRenderingPool((String) event.getOldValues().get(idx));
+                }
+            }
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            // nothing to do
+        }
+
+        public void reloaded() {
+            for (String workspace : WORKSPACE_RENDERING_POOLS.keySet()) {
+                releaseRenderingPool(workspace);
+            }
+        }
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
-            RENDERING_POOL.shutdown();
-            RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            disposeRenderingPool(RENDERING_POOL, "name", "global");
             RENDERING_POOL = null;
         }
+        for (String workspace : WORKSPACE_RENDERING_POOLS.keySet()) {
+            disposeRenderingPool(WORKSPACE_RENDERING_POOLS.remove(workspace), "workspace",
+                    workspace);
+        }
+        RenderingTimeoutEnforcer.dispose();
     }
 
 }
@@ -62,12 +62,9 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.WMSLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
-import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.resources.geometry.XRectangle2D;
 import org.geotools.resources.image.ImageUtilities;
-import org.geotools.styling.FeatureTypeStyle;
-import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
 import org.geotools.util.NullProgressListener;
 import org.geotools.util.logging.Logging;
@@ -229,8 +226,9 @@ public class GetFeatureInfo {
             } 
             final Style style = styles[i];
             // ok, internally rendered layer then, we check the style to see what's active
-            final List<Rule> rules = getActiveRules(style, scaleDenominator);
-            if (rules.size() == 0) {
+            final CompiledStyle.ActiveRules rules = CompiledStyle.get(style).getActiveRules(
+                    scaleDenominator);
+            if (rules.isEmpty()) {
                 continue;
             }
             
@@ -409,7 +407,7 @@ public class GetFeatureInfo {
             final int x, final int y, final int buffer, final Map<String, String> viewParams,
             final CoordinateReferenceSystem requestedCRS, final int width, final int height,
             final ReferencedEnvelope bbox, final FilterFactory2 ff,
-            List<FeatureCollection> results, int i, final MapLayerInfo layer, final List<Rule> rules,
+            List<FeatureCollection> results, int i, final MapLayerInfo layer, final CompiledStyle.ActiveRules rules,
             final int maxFeatures, List<Object> times, List<Object> elevations, final String[] propertyNames)
             throws IOException {
 
@@ -427,15 +425,10 @@ public class GetFeatureInfo {
                 radius = layerBuffer / 2.0;
             } else {
                 // estimate the radius given the currently active rules
-                MetaBufferEstimator estimator = new MetaBufferEstimator();
-                for (Rule rule : rules) {
-                    rule.accept(estimator);
-                }
-
-                if (estimator.getBuffer() < 6.0 || !estimator.isEstimateAccurate()) {
+                if (rules.getBuffer() < 6.0 || !rules.isBufferAccurate()) {
                     radius = 3.0;
                 } else {
-                    radius = estimator.getBuffer() / 2.0;
+                    radius = rules.getBuffer() / 2.0;
                 }
             }
         } else {
@@ -483,7 +476,7 @@ public class GetFeatureInfo {
         // see if we can include the rule filters as well, if too many we'll do them in
         // memory
         Filter postFilter = Filter.INCLUDE;
-        Filter rulesFilters = buildRulesFilter(ff, rules);
+        Filter rulesFilters = rules.getFilter();
         if (!(featureSource.getSchema() instanceof SimpleFeatureType) || !(rulesFilters instanceof Or)
                 || (rulesFilters instanceof Or && ((Or) rulesFilters).getChildren().size() <= 20)) { 
             getFInfoFilter = ff.and(getFInfoFilter, rulesFilters);
@@ -605,42 +598,6 @@ public class GetFeatureInfo {
         return results;
     }
 
-    private Filter buildRulesFilter(org.opengis.filter.FilterFactory ff, List<Rule> rules) {
-        // build up a or of all the rule filters
-        List<Filter> filters = new ArrayList<Filter>();
-        for (Rule rule : rules) {
-            if (rule.getFilter() == null || rule.isElseFilter())
-                return Filter.INCLUDE;
-            filters.add(rule.getFilter());
-        }
-        // not or and and simplify (if there is any include/exclude we'll get
-        // a very simple result ;-)
-        Filter or = ff.or(filters);
-        SimplifyingFilterVisitor simplifier = new SimplifyingFilterVisitor();
-        return (Filter) or.accept(simplifier, null);
-    }
-
-    /**
-     * Selects the rules active at this zoom level
-     * 
-     * @param style
-     * @param scaleDenominator
-     * @return
-     */
-    private List<Rule> getActiveRules(Style style, double scaleDenominator) {
-        List<Rule> result = new ArrayList<Rule>();
-
-        for (FeatureTypeStyle fts : style.getFeatureTypeStyles()) {
-            for (Rule r : fts.rules()) {
-                if ((r.getMinScaleDenominator() <= scaleDenominator)
-                        && (r.getMaxScaleDenominator() > scaleDenominator)) {
-                    result.add(r);
-                }
-            }
-        }
-        return result;
-    }
-
     private Polygon getEnvelopeFilter(int x, int y, int width, int height, ReferencedEnvelope bbox,
             double radius) {
         Coordinate upperLeft = WMS.pixelToWorld(x - radius, y - radius, bbox, width, height);
@@ -45,12 +45,9 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.WMSLayer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.FeatureTypeConstraint;
-import org.geotools.styling.FeatureTypeStyle;
-import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
@@ -587,18 +584,13 @@ public class GetMap {
      */
     static int computeLayerBuffer(Style style, double scaleDenominator) {
         final double TOLERANCE = 1e-6;
-        MetaBufferEstimator estimator = new MetaBufferEstimator();
-        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
-            for (Rule rule : fts.rules()) {
-                if (((rule.getMinScaleDenominator() - TOLERANCE) <= scaleDenominator)
-                        && ((rule.getMaxScaleDenominator() + TOLERANCE) > scaleDenominator)) {
-                    estimator.visit(rule);
-                }
-            }
-        }
+        // the rules active within the tolerance are the ones active at either end of it
+        CompiledStyle compiled = CompiledStyle.get(style);
+        int below = compiled.getActiveRules(scaleDenominator - TOLERANCE).getBuffer();
+        int above = compiled.getActiveRules(scaleDenominator + TOLERANCE).getBuffer();
 
         // we get any estimate, it's better than nothing...
-        return estimator.getBuffer();
+        return Math.max(below, above);
     }
 
     /**
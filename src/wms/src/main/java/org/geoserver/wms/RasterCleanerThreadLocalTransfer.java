@@ -0,0 +1,28 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.Map;
+
+import org.geoserver.threadlocals.ThreadLocalTransfer;
+
+/**
+ * Disposes the images and coverages a worker thread scheduled for cleanup once its work is done,
+ * as the {@link RasterCleaner} callback only cleans the thread serving the request
+ */
+public class RasterCleanerThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public void collect(Map<String, Object> storage) {
+        // nothing to carry over, each thread tracks its own images
+    }
+
+    public void apply(Map<String, Object> storage) {
+        // nothing to do
+    }
+
+    public void cleanup() {
+        RasterCleaner.dispose();
+    }
+}
@@ -0,0 +1,156 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool used for rendering, that queues work once all threads are busy instead of
+ * growing without limits.
+ * <p>
+ * Two kinds of tasks run in the pool:
+ * <ul>
+ * <li>the painter of the {@link org.geotools.renderer.lite.StreamingRenderer}, submitted with the
+ * usual {@link #submit(Runnable)} calls. The painter consumes a queue filled by the submitting
+ * thread, so it cannot run in the submitting thread: when the pool is saturated it runs on a
+ * temporary thread instead, as it would happen without a pool</li>
+ * <li>tasks submitted with {@link #submitOrRun(Callable)}, which can run in the submitting
+ * thread. When the pool is saturated they do, slowing down the caller instead of piling up more
+ * work. These tasks never take all the threads, so that the painters they might wait for can
+ * always make progress</li>
+ * </ul>
+ * </p>
+ */
+public class RenderingThreadPool extends ThreadPoolExecutor implements RenderingThreadPoolMBean {
+
+    /**
+     * A task that runs in the submitting thread when the pool is saturated
+     */
+    class CallerRunsTask<T> extends FutureTask<T> {
+
+        CallerRunsTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void done() {
+            permits.release();
+        }
+    }
+
+    /**
+     * Runs the rejected tasks in the caller when possible, on a temporary thread otherwise
+     */
+    static class RenderingRejectionHandler implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The rendering pool has been shut down");
+            }
+            RenderingThreadPool pool = (RenderingThreadPool) executor;
+            if (r instanceof CallerRunsTask) {
+                pool.callerRuns.incrementAndGet();
+                r.run();
+            } else {
+                pool.overflows.incrementAndGet();
+                pool.getThreadFactory().newThread(r).start();
+            }
+        }
+    }
+
+    final String name;
+
+    /**
+     * Limits the threads taken by the tasks that can run in the caller
+     */
+    final Semaphore permits;
+
+    final AtomicLong callerRuns = new AtomicLong();
+
+    final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Builds a new pool
+     *
+     * @param name the pool name, used to name the threads
+     * @param threads the max number of threads
+     * @param queueSize the max number of tasks waiting for a thread, tasks are handed over
+     *        directly to the threads if not positive
+     */
+    public RenderingThreadPool(final String name, int threads, int queueSize) {
+        super(threads, threads, 60, TimeUnit.SECONDS, createQueue(queueSize),
+                new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "GeoServer rendering " + name + " "
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new RenderingRejectionHandler());
+        allowCoreThreadTimeOut(true);
+        this.name = name;
+        this.permits = new Semaphore(threads - 1);
+    }
+
+    static BlockingQueue<Runnable> createQueue(int queueSize) {
+        if (queueSize > 0) {
+            return new ArrayBlockingQueue<Runnable>(queueSize);
+        } else {
+            return new SynchronousQueue<Runnable>();
+        }
+    }
+
+    /**
+     * Submits a task that can run in the calling thread, which is what happens if the pool is
+     * saturated
+     */
+    public <T> Future<T> submitOrRun(Callable<T> task) {
+        if (!permits.tryAcquire()) {
+            callerRuns.incrementAndGet();
+            FutureTask<T> future = new FutureTask<T>(task);
+            future.run();
+            return future;
+        }
+        CallerRunsTask<T> future = new CallerRunsTask<T>(task);
+        try {
+            execute(future);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return future;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueuedCount() {
+        return getQueue().size();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRuns.get();
+    }
+
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+}
@@ -0,0 +1,56 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+/**
+ * JMX management interface of {@link RenderingThreadPool}
+ */
+public interface RenderingThreadPoolMBean {
+
+    /**
+     * The name of the pool, the workspace for per workspace pools
+     */
+    String getName();
+
+    /**
+     * Max number of threads in the pool
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * Current number of threads in the pool
+     */
+    int getPoolSize();
+
+    /**
+     * Largest number of threads ever in the pool
+     */
+    int getLargestPoolSize();
+
+    /**
+     * Number of threads running tasks
+     */
+    int getActiveCount();
+
+    /**
+     * Number of tasks waiting for a thread
+     */
+    int getQueuedCount();
+
+    /**
+     * Number of tasks completed by the pool threads
+     */
+    long getCompletedTaskCount();
+
+    /**
+     * Number of tasks run by the submitting thread because the pool was saturated
+     */
+    long getCallerRunsCount();
+
+    /**
+     * Number of tasks run on a temporary thread because the pool was saturated
+     */
+    long getOverflowCount();
+}
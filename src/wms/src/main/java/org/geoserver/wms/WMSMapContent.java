@@ -12,6 +12,7 @@ import java.awt.image.IndexColorModel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
@@ -79,6 +80,11 @@ public class WMSMapContent extends MapContent {
 
     private GetMapRequest request; // hold onto it so we can grab info from it
 
+    /**
+     * The pool used for parallel rendering and encoding, picked once for the whole request
+     */
+    private ExecutorService renderingPool;
+
     // (request URL etc...)
 
     public WMSMapContent() {
@@ -147,6 +153,18 @@ public class WMSMapContent extends MapContent {
         this.icm = paletteInverter;
     }
 
+    /**
+     * The rendering pool for this map, see
+     * {@link DefaultWebMapService#getRenderingPool(WMSMapContent)}
+     */
+    public ExecutorService getRenderingPool() {
+        return renderingPool;
+    }
+
+    public void setRenderingPool(ExecutorService renderingPool) {
+        this.renderingPool = renderingPool;
+    }
+
     /**
      * The clockwise rotation angle of the map, in degrees
      * 
@@ -0,0 +1,395 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalLayer;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.event.RulesLoadedEvent;
+import org.geoserver.security.event.RulesLoadedListener;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches encoded WMS capabilities documents, which are expensive to build on large catalogs and
+ * requested over and over by clients and load balancers.
+ * <p>
+ * Documents are keyed by everything that makes them differ: version, base url, namespace
+ * filter, virtual service workspace and layer, user and roles. A document goes stale when the
+ * server update sequence moves forward (which happens on any catalog or configuration change),
+ * on configuration reloads, and after <code>maxAge</code> seconds to pick up changes that raise
+ * no event, like new time or elevation values in the data.
+ * </p>
+ * <p>
+ * The first request finding a document stale rebuilds it, while the concurrent requests are
+ * served the stale copy instead of waiting. Only the requests for a document that was never built
+ * wait, for the one building it. Changes to the data access rules drop all the documents
+ * instead, so that a document listing layers a user can no longer access is never served. When
+ * the client accepts it, the document is served gzipped straight from a compressed copy.
+ * </p>
+ */
+public class CapabilitiesCache {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Number of cached documents, 0 disables the cache
+     */
+    public static final int DEFAULT_SIZE = Integer.getInteger(
+            "org.geoserver.wms.capabilitiesCacheSize", 32);
+
+    /**
+     * Max age of a cached document in seconds
+     */
+    public static final long DEFAULT_MAX_AGE = Long.getLong(
+            "org.geoserver.wms.capabilitiesCacheMaxAge", 60);
+
+    /**
+     * Whether gzipped copies are kept and served
+     */
+    public static final boolean DEFAULT_GZIP = Boolean.valueOf(System.getProperty(
+            "org.geoserver.wms.capabilitiesCacheGzip", "true"));
+
+    /**
+     * Writes out a capabilities document
+     */
+    public interface DocumentWriter {
+        void write(OutputStream output) throws IOException, ServiceException;
+    }
+
+    /**
+     * An encoded document
+     */
+    static class Document {
+        final byte[] bytes;
+
+        /**
+         * The update sequence and cache generation the document was built for
+         */
+        final long updateSequence;
+
+        final long generation;
+
+        final long created = System.currentTimeMillis();
+
+        volatile byte[] gzipped;
+
+        Document(byte[] bytes, long updateSequence, long generation) {
+            this.bytes = bytes;
+            this.updateSequence = updateSequence;
+            this.generation = generation;
+        }
+
+        boolean isFresh(long updateSequence, long generation, long maxAge) {
+            return this.updateSequence == updateSequence && this.generation == generation
+                    && System.currentTimeMillis() - created < maxAge;
+        }
+
+        byte[] getGzipped() throws IOException {
+            byte[] result = gzipped;
+            if (result == null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 8);
+                GZIPOutputStream gos = new GZIPOutputStream(bos);
+                gos.write(bytes);
+                gos.close();
+                result = gzipped = bos.toByteArray();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The last document built for a key, and the rebuild in progress if any
+     */
+    static class Entry {
+        volatile Document document;
+
+        FutureTask<Document> rebuild;
+
+        /**
+         * Makes the task the rebuild in progress and returns null, or returns the rebuild
+         * already in progress
+         */
+        synchronized FutureTask<Document> startRebuild(FutureTask<Document> task) {
+            if (rebuild != null) {
+                return rebuild;
+            }
+            rebuild = task;
+            return null;
+        }
+
+        /**
+         * Ends the rebuild, keeping its document unless it failed
+         */
+        synchronized void endRebuild(FutureTask<Document> task) {
+            try {
+                document = task.get();
+            } catch (Exception e) {
+                // keep the previous document, the failure is reported by the caller
+            }
+            rebuild = null;
+        }
+    }
+
+    final GeoServer geoServer;
+
+    final Cache<List<Object>, Entry> documents;
+
+    final boolean gzip;
+
+    /**
+     * Max age of a document in milliseconds
+     */
+    final long maxAge;
+
+    /**
+     * Moved forward to make all the documents stale
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this(geoServer, DEFAULT_SIZE, DEFAULT_MAX_AGE, DEFAULT_GZIP);
+    }
+
+    public CapabilitiesCache(GeoServer geoServer, int size, long maxAge, boolean gzip) {
+        this.geoServer = geoServer;
+        this.gzip = gzip;
+        this.maxAge = maxAge * 1000;
+        this.documents = size > 0 ? CacheBuilder.newBuilder().maximumSize(size)
+                .<List<Object>, Entry> build() : null;
+        if (documents != null) {
+            geoServer.addListener(new ConfigurationListenerAdapter() {
+                @Override
+                public void handlePostGlobalChange(GeoServerInfo global) {
+                    // the update sequence moved, the current documents are stale
+                    generation.incrementAndGet();
+                }
+
+                @Override
+                public void reloaded() {
+                    generation.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops all the documents whenever the data access rules are loaded or changed
+     */
+    public void setDataAccessRuleDAO(DataAccessRuleDAO dao) {
+        if (documents != null) {
+            dao.registerRulesLoadedListener(new RulesLoadedListener() {
+                public void rulesChanged(RulesLoadedEvent event) {
+                    clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the capabilities document for the request, from the cache if possible, otherwise
+     * using the writer and caching the result.
+     */
+    public void write(GetCapabilitiesRequest request, String version, OutputStream output,
+            final DocumentWriter writer) throws IOException, ServiceException {
+        if (documents == null) {
+            writer.write(output);
+            return;
+        }
+
+        List<Object> key = key(request, version);
+        final long updateSequence = geoServer.getGlobal().getUpdateSequence();
+        final long generation = this.generation.get();
+        Entry entry;
+        try {
+            entry = documents.get(key, new Callable<Entry>() {
+                public Entry call() {
+                    return new Entry();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new ServiceException(e.getCause());
+        }
+
+        Document document = entry.document;
+        if (document != null && document.isFresh(updateSequence, generation, maxAge)) {
+            hits.incrementAndGet();
+            send(document, output);
+            return;
+        }
+
+        FutureTask<Document> task = new FutureTask<Document>(new Callable<Document>() {
+            public Document call() throws Exception {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                writer.write(bos);
+                return new Document(bos.toByteArray(), updateSequence, generation);
+            }
+        });
+        Future<Document> future = entry.startRebuild(task);
+        if (future == null) {
+            // this request rebuilds the document
+            misses.incrementAndGet();
+            future = task;
+            try {
+                task.run();
+            } finally {
+                entry.endRebuild(task);
+            }
+        } else if (document != null) {
+            // serve the stale document while another request rebuilds it
+            hits.incrementAndGet();
+            send(document, output);
+            return;
+        } else {
+            // the document was never built, wait for the request building it
+            hits.incrementAndGet();
+        }
+
+        try {
+            document = future.get();
+        } catch (InterruptedException e) {
+            throw new ServiceException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException(cause);
+        }
+        send(document, output);
+    }
+
+    /**
+     * Writes the document, gzipped if the client accepts it
+     */
+    void send(Document document, OutputStream output) throws IOException {
+        varyOnEncoding();
+        HttpServletResponse httpResponse = gzipResponse();
+        if (httpResponse != null) {
+            httpResponse.setHeader("Content-Encoding", "gzip");
+            output.write(document.getGzipped());
+        } else {
+            output.write(document.bytes);
+        }
+    }
+
+    /**
+     * Tells caches that the response depends on the encodings accepted by the client. With gzip
+     * enabled both the compressed and the identity responses need it, or a cache could serve
+     * either one to any client
+     */
+    void varyOnEncoding() {
+        Request request = Dispatcher.REQUEST.get();
+        if (!gzip || request == null || request.getHttpResponse() == null
+                || request.getHttpResponse().isCommitted()) {
+            return;
+        }
+        request.getHttpResponse().addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Returns the http response if the document can be sent gzipped
+     */
+    HttpServletResponse gzipResponse() {
+        Request request = Dispatcher.REQUEST.get();
+        if (!gzip || request == null || request.getHttpRequest() == null
+                || request.getHttpResponse() == null) {
+            return null;
+        }
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        HttpServletResponse httpResponse = request.getHttpResponse();
+        String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
+        if (acceptEncoding == null || acceptEncoding.indexOf("gzip") == -1
+                || httpResponse.isCommitted() || httpResponse.containsHeader("Content-Encoding")) {
+            return null;
+        }
+        return httpResponse;
+    }
+
+    List<Object> key(GetCapabilitiesRequest request, String version) {
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        LayerInfo layer = LocalLayer.get();
+
+        String user = null;
+        List<String> roles = Collections.emptyList();
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            // user specific url manglers (e.g. authkey) make the document depend on the user too
+            user = auth.getName();
+            roles = new ArrayList<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+        }
+
+        return Arrays.<Object> asList(version, request.getBaseUrl(), request.getNamespace(),
+                workspace != null ? workspace.getName() : null,
+                layer != null ? layer.prefixedName() : null, user, roles);
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public void clear() {
+        if (documents != null) {
+            documents.invalidateAll();
+        }
+    }
+
+    /**
+     * Number of requests served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of requests that built a new document
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -22,10 +22,20 @@ import org.geoserver.wms.GetCapabilitiesRequest;
  */
 public class Capabilities_1_3_0_Response extends Response {
 
+    private CapabilitiesCache capabilitiesCache;
+
     public Capabilities_1_3_0_Response() {
         super(Capabilities_1_3_0_Transformer.class);
     }
 
+    /**
+     * Sets the cache the encoded documents are served from, when null each request encodes its
+     * own document
+     */
+    public void setCapabilitiesCache(CapabilitiesCache capabilitiesCache) {
+        this.capabilitiesCache = capabilitiesCache;
+    }
+
     /**
      * @return {@code "application/vnd.ogc.wms_xml"}
      * @see org.geoserver.ows.Response#getMimeType(java.lang.Object,
@@ -57,10 +67,25 @@ public class Capabilities_1_3_0_Response extends Response {
     public void write(final Object value, final OutputStream output, final Operation operation)
             throws IOException, ServiceException {
 
-        Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        final Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
+
+        if (capabilitiesCache == null) {
+            encode(transformer, request, output);
+        } else {
+            capabilitiesCache.write(request, "1.3.0", output,
+                    new CapabilitiesCache.DocumentWriter() {
+                        public void write(OutputStream output) throws IOException,
+                                ServiceException {
+                            encode(transformer, request, output);
+                        }
+                    });
+        }
+    }
 
+    void encode(Capabilities_1_3_0_Transformer transformer, GetCapabilitiesRequest request,
+            OutputStream output) throws ServiceException {
         try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
             transformer.transform(request, output);
         } catch (TransformerException e) {
             throw new ServiceException(e);
@@ -79,6 +79,8 @@ public class GetCapabilitiesResponse extends Response {
 
     private WMS wms;
 
+    private CapabilitiesCache capabilitiesCache;
+
     /**
      * @param wms
      *            needed for {@link WMS#getAvailableExtendedCapabilitiesProviders()} in order to
@@ -89,6 +91,14 @@ public class GetCapabilitiesResponse extends Response {
         this.wms = wms;
     }
 
+    /**
+     * Sets the cache the encoded documents are served from, when null each request encodes its
+     * own document
+     */
+    public void setCapabilitiesCache(CapabilitiesCache capabilitiesCache) {
+        this.capabilitiesCache = capabilitiesCache;
+    }
+
     /**
      * @return {@code "text/xml"}
      * @see org.geoserver.ows.Response#getMimeType(java.lang.Object,
@@ -123,6 +133,21 @@ public class GetCapabilitiesResponse extends Response {
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        if (capabilitiesCache == null) {
+            encode(transformer, request, output);
+        } else {
+            capabilitiesCache.write(request, "1.1.1", output,
+                    new CapabilitiesCache.DocumentWriter() {
+                        public void write(OutputStream output) throws IOException,
+                                ServiceException {
+                            encode(transformer, request, output);
+                        }
+                    });
+        }
+    }
+
+    void encode(GetCapabilitiesTransformer transformer, GetCapabilitiesRequest request,
+            OutputStream output) throws IOException, ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
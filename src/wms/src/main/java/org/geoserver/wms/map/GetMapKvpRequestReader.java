@@ -36,6 +36,7 @@ import org.geoserver.ows.HttpServletRequestAware;
 import org.geoserver.ows.KvpRequestReader;
 import org.geoserver.ows.util.KvpUtils;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.CompiledStyle;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
@@ -54,12 +55,10 @@ import org.geotools.feature.FeatureTypes;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.FeatureTypeConstraint;
-import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.NamedLayer;
 import org.geotools.styling.NamedStyle;
 import org.geotools.styling.RemoteOWS;
 import org.geotools.styling.Style;
-import org.geotools.styling.StyleAttributeExtractor;
 import org.geotools.styling.StyleFactory;
 import org.geotools.styling.StyledLayer;
 import org.geotools.styling.StyledLayerDescriptor;
@@ -1104,13 +1103,12 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
             return;
         }
         // if a rendering transform is present don't check the attributes, since they may be changed
-        if (hasTransformation(style)) 
+        CompiledStyle compiled = CompiledStyle.get(style);
+        if (compiled.hasTransformation()) 
             return;  
 
         // extract attributes used in the style
-        StyleAttributeExtractor sae = new StyleAttributeExtractor();
-        sae.visit(style);
-        Set<PropertyName> styleAttributes = sae.getAttributes();
+        Set<PropertyName> styleAttributes = compiled.getAttributes();
 
         // see if we can collect any attribute out of the provided layer
        // Set attributes = new HashSet();
@@ -1139,20 +1137,6 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         }
     }
 
-    /**
-     * Tests whether a style contains a Rendering Transformation.
-     * 
-     * @param style the style to check
-     * @return true if the style contains a rendering transformation
-     */
-    private static boolean hasTransformation(Style style)
-    {
-        for (FeatureTypeStyle fs : style.featureTypeStyles()) {
-            if (fs.getTransformation() != null) 
-                return true;
-        }
-        return false;
-    }
     /**
      * Method to initialize a user layer which contains inline features.
      * 
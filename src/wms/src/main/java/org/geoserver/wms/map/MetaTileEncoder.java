@@ -0,0 +1,310 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Encodes the tiles of a meta-tile and puts them in the {@link QuickTileCache}.
+ * <p>
+ * When running with encoder threads, the sibling tiles are encoded in parallel on a bounded pool
+ * while the request thread encodes the tile it needs. Tiles are published as soon as they are
+ * ready, so requests for the siblings only wait for their own tile instead of the whole
+ * meta-tile. The tiles move to the cache once all of them are encoded. When the pool is
+ * saturated the request thread encodes the tiles itself.
+ * </p>
+ * <p>
+ * The encoders use the map content of the request that rendered the meta-tile, and the tiles
+ * use its rendered coverages, so that request does not return before all the siblings are
+ * encoded. Requests waiting for a sibling give up after {@link #TIMEOUT} seconds and build the
+ * meta-tile again.
+ * </p>
+ */
+class MetaTileEncoder {
+
+    static final Logger LOGGER = Logging.getLogger(MetaTileEncoder.class);
+
+    /**
+     * Number of threads encoding sibling tiles, 0 encodes them all on the request thread
+     */
+    static final int DEFAULT_THREADS = Integer.getInteger(
+            "org.geoserver.wms.metaTileEncoderThreads", Runtime.getRuntime()
+                    .availableProcessors());
+
+    /**
+     * Max time, in seconds, waiting for a tile being encoded by another request
+     */
+    static final long TIMEOUT = Long.getLong("org.geoserver.wms.metaTileEncoderTimeout", 60);
+
+    /**
+     * A meta-tile whose tiles are being encoded
+     */
+    class EncodingMetaTile {
+        final MetaTileKey key;
+
+        final EncodingTask[] tasks;
+
+        final AtomicInteger remaining;
+
+        EncodingMetaTile(MetaTileKey key, int size) {
+            this.key = key;
+            this.tasks = new EncodingTask[size];
+            this.remaining = new AtomicInteger(size);
+        }
+
+        /**
+         * Moves the tiles to the cache once all are encoded
+         */
+        void taskDone() {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            try {
+                byte[][] encoded = new byte[tasks.length][];
+                for (int i = 0; i < tasks.length; i++) {
+                    encoded[i] = tasks[i].get();
+                }
+                tileCache.storeTiles(key, encoded);
+            } catch (Exception e) {
+                // the failure is reported to the requests waiting for the tile
+                LOGGER.log(Level.FINE, "Meta tile encoding failed, not caching it", e);
+            } finally {
+                encoding.remove(key, this);
+            }
+        }
+    }
+
+    /**
+     * Encodes a single tile
+     */
+    class EncodingTask extends FutureTask<byte[]> {
+
+        final EncodingMetaTile metaTile;
+
+        EncodingTask(EncodingMetaTile metaTile, final RenderedImageMapResponse encoder,
+                final RenderedImage tile, final WMSMapContent mapContent,
+                final ThreadLocalsTransfer transfer, final Thread requestThread) {
+            super(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    // the task might end up running in the request thread, when the pool is
+                    // saturated, in that case its thread locals must be left alone
+                    boolean worker = Thread.currentThread() != requestThread;
+                    if (worker) {
+                        transfer.apply();
+                    }
+                    try {
+                        return encode(encoder, tile, mapContent);
+                    } finally {
+                        if (worker) {
+                            transfer.cleanup();
+                        }
+                    }
+                }
+            });
+            this.metaTile = metaTile;
+        }
+
+        @Override
+        protected void done() {
+            metaTile.taskDone();
+        }
+    }
+
+    final QuickTileCache tileCache;
+
+    final ThreadPoolExecutor executor;
+
+    final ConcurrentMap<MetaTileKey, EncodingMetaTile> encoding = new ConcurrentHashMap<MetaTileKey, EncodingMetaTile>();
+
+    /**
+     * Timeout in milliseconds
+     */
+    final long timeout;
+
+    MetaTileEncoder(QuickTileCache tileCache, int threads) {
+        this(tileCache, threads, TimeUnit.SECONDS.toMillis(TIMEOUT));
+    }
+
+    MetaTileEncoder(QuickTileCache tileCache, int threads, long timeout) {
+        this.tileCache = tileCache;
+        this.timeout = timeout;
+        if (threads > 0) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GeoServer meta tile encoder "
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the encoded tile from the cache, or from the meta-tile being encoded waiting for the
+     * tile to be ready. Returns null if the meta-tile needs to be built.
+     */
+    byte[] getTile(MetaTileKey key, GetMapRequest request) {
+        byte[] tile = tileCache.getTile(key, request);
+        if (tile != null) {
+            return tile;
+        }
+        EncodingMetaTile metaTile = encoding.get(key);
+        if (metaTile == null) {
+            return null;
+        }
+        return getTile(metaTile, tileCache.getTileIndex(key, request));
+    }
+
+    /**
+     * Waits for a tile of a meta-tile being encoded. Returns null if the encoding failed or
+     * timed out, in which case the meta-tile is forgotten so that it can be built again.
+     */
+    byte[] getTile(EncodingMetaTile metaTile, int index) {
+        MetaTileKey key = metaTile.key;
+        try {
+            return metaTile.tasks[index].get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new ServiceException(e);
+        } catch (ExecutionException e) {
+            // let the caller build the meta-tile again
+            encoding.remove(key, metaTile);
+            return null;
+        } catch (CancellationException e) {
+            encoding.remove(key, metaTile);
+            return null;
+        } catch (TimeoutException e) {
+            LOGGER.log(Level.WARNING, "Timed out waiting for a meta tile being encoded, "
+                    + "building it again");
+            encoding.remove(key, metaTile);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the tiles of the meta-tile, and returns the one at the specified index
+     */
+    byte[] encode(MetaTileKey key, int index, RenderedImageMapResponse encoder,
+            RenderedImage[] tiles, WMSMapContent mapContent) throws IOException {
+        if (executor == null) {
+            byte[][] encoded = new byte[tiles.length][];
+            for (int i = 0; i < tiles.length; i++) {
+                encoded[i] = encode(encoder, tiles[i], mapContent);
+            }
+            tileCache.storeTiles(key, encoded);
+            return encoded[index];
+        }
+
+        ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        Thread requestThread = Thread.currentThread();
+        EncodingMetaTile metaTile = new EncodingMetaTile(key, tiles.length);
+        for (int i = 0; i < tiles.length; i++) {
+            metaTile.tasks[i] = new EncodingTask(metaTile, encoder, tiles[i], mapContent,
+                    transfer, requestThread);
+        }
+        // publish before starting, the last task to complete removes it
+        encoding.put(key, metaTile);
+        for (int i = 0; i < tiles.length; i++) {
+            if (i != index) {
+                executor.execute(metaTile.tasks[i]);
+            }
+        }
+        EncodingTask task = metaTile.tasks[index];
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new ServiceException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException(cause);
+        } finally {
+            // the siblings use the map content, which is disposed once this request is done
+            awaitSiblings(metaTile, index);
+        }
+    }
+
+    /**
+     * Waits for the tiles other than the one at the specified index to be encoded, cancelling
+     * them if they take too long
+     */
+    void awaitSiblings(EncodingMetaTile metaTile, int index) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = false;
+        for (int i = 0; i < metaTile.tasks.length; i++) {
+            EncodingTask task = metaTile.tasks[i];
+            if (i == index || task.isDone()) {
+                continue;
+            }
+            if (interrupted) {
+                task.cancel(true);
+                continue;
+            }
+            try {
+                task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // reported to the requests waiting for the tile
+            } catch (CancellationException e) {
+                // ditto
+            } catch (TimeoutException e) {
+                LOGGER.log(Level.WARNING, "Timed out encoding a meta tile sibling, cancelling it");
+                encoding.remove(metaTile.key, metaTile);
+                task.cancel(true);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                encoding.remove(metaTile.key, metaTile);
+                task.cancel(true);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Encodes a tile with the response handling the requested format
+     */
+    static byte[] encode(RenderedImageMapResponse encoder, RenderedImage tile,
+            WMSMapContent mapContent) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(16 * 1024);
+        encoder.formatImageOutputStream(tile, bos, mapContent);
+        return bos.toByteArray();
+    }
+}
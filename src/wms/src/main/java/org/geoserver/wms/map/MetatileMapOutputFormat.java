@@ -12,7 +12,6 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,8 +38,9 @@ import org.geotools.util.logging.Logging;
 /**
  * Wrapping map producer that performs on the fly meta tiling wrapping another map producer. It will
  * first peek inside a tile cache to see if the requested tile has already been computed, if so,
- * it'll encode and return that one, otherwise it'll build a meta tile, split it, and finally encode
- * just the requested tile, putting the others in the tile cache.
+ * it'll return the already encoded tile, otherwise it'll build a meta tile, split it, encode all
+ * the tiles putting them in the tile cache, and return the requested one. The sibling tiles are
+ * encoded in parallel, see {@link MetaTileEncoder}.
  * 
  * @author Andrea Aime - TOPP
  * @author Simone Giannecchini - GeoSolutions
@@ -102,13 +102,18 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
     private static QuickTileCache tileCache;
 
+    private static MetaTileEncoder tileEncoder;
+
     private GetMapRequest request;
 
     private RenderedImageMapOutputFormat delegate;
     
     public MetatileMapOutputFormat(GetMapRequest request, RenderedImageMapOutputFormat delegate) {
-        if (tileCache == null) {
-            tileCache = (QuickTileCache) GeoServerExtensions.bean("metaTileCache");
+        synchronized (MetatileMapOutputFormat.class) {
+            if (tileCache == null) {
+                tileCache = (QuickTileCache) GeoServerExtensions.bean("metaTileCache");
+                tileEncoder = new MetaTileEncoder(tileCache, MetaTileEncoder.DEFAULT_THREADS);
+            }
         }
         this.request = request;
         this.delegate = delegate;
@@ -127,45 +132,79 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         // to be used)
         QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
 
+        // tiles already encoded, or being encoded by another request, do not need the lock
+        byte[] tile = tileEncoder.getTile(key, request);
+        if (tile != null) {
+            return new RawMap(mapContent, tile, getMimeType());
+        }
+
         synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
+            tile = tileEncoder.getTile(key, request);
 
             if (LOGGER.isLoggable(Level.FINER)) {
                 LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
                         + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
             }
 
-            if (tile == null) {
-                // compute the meta-tile
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
-                            + key.metaTileCoords.y+" of size w="+
-                            key.getTileSize() * key.getMetaFactor()+", h="+
-                            key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
-                    
+            if (tile != null) {
+                return new RawMap(mapContent, tile, getMimeType());
+            }
+
+            // compute the meta-tile
+            if (LOGGER.isLoggable(Level.FINER)) {
+                LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
+                        + key.metaTileCoords.y+" of size w="+
+                        key.getTileSize() * key.getMetaFactor()+", h="+
+                        key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
+                
+            }
+
+            // alter the map definition so that we build a meta-tile instead
+            // of just the tile
+            mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
+            mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
+            mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+            mapContent.setTileSize(key.getTileSize());
+
+            RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
+
+            RenderedImage metaTile = metaTileMap.getImage();
+            RenderedImage[] tiles = split(key, metaTile, mapContent);
+
+            RenderedImageMapResponse encoder = getEncoder(request.getFormat());
+            if (encoder == null || !tileCache.isEnabled()) {
+                // no way to cache the siblings, just return the requested tile
+                RenderedImageMap tileMap = new RenderedImageMap(mapContent, tileCache.getTile(key,
+                        request, tiles), getMimeType());
+                tileMap.setRenderedCoverages(metaTileMap.getRenderedCoverages());
+                return tileMap;
+            }
+
+            // encode all the tiles, so that the siblings can be served straight from the cache
+            try {
+                tile = tileEncoder.encode(key, tileCache.getTileIndex(key, request), encoder,
+                        tiles, mapContent);
+                return new RawMap(mapContent, tile, getMimeType());
+            } finally {
+                for (GridCoverage2D coverage : metaTileMap.getRenderedCoverages()) {
+                    RasterCleaner.addCoverage(coverage);
                 }
+            }
+        }
+    }
 
-                // alter the map definition so that we build a meta-tile instead
-                // of just the tile
-                ReferencedEnvelope origEnv = mapContent.getRenderingArea();
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
-                mapContent.setTileSize(key.getTileSize());
-
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile, mapContent);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+    /**
+     * Looks up the response that would encode the tiles, or null if there is none (in which case
+     * encoded tiles cannot be cached)
+     */
+    static RenderedImageMapResponse getEncoder(String format) {
+        for (RenderedImageMapResponse response : GeoServerExtensions
+                .extensions(RenderedImageMapResponse.class)) {
+            if (response.getOutputFormats().contains(format)) {
+                return response;
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
         }
+        return null;
     }
 
     /**
@@ -15,12 +15,14 @@ import java.util.logging.Logger;
 
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
@@ -46,6 +48,12 @@ public class PNGMapResponse extends RenderedImageMapResponse {
 
     private static final String[] OUTPUT_FORMATS = { MIME_TYPE, MIME_TYPE_8BIT, "image/png8" };
 
+    /**
+     * Use the built-in parallel encoder for the image layouts it supports
+     */
+    static final boolean BUILTIN_ENCODER = Boolean.valueOf(System.getProperty(
+            "org.geoserver.wms.builtinPngEncoder", "true"));
+
     /**
      * The two quantizers available for PNG images
      */
@@ -108,6 +116,18 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
+        if (BUILTIN_ENCODER && PNGEncoder.isSupported(image)) {
+            int level = Math.round(wms.getPngCompression() * 9 / 100f);
+            PNGEncoder encoder = new PNGEncoder(
+                    DefaultWebMapService.getRenderingPool(mapContent), level);
+            encoder.encode(image, outStream);
+            RasterCleaner.addImage(image);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         SampleModel sm = image.getSampleModel();
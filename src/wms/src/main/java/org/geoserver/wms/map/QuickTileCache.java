@@ -13,10 +13,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
@@ -27,14 +32,46 @@ import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
-
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.vividsolutions.jts.geom.Envelope;
 
-public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+/**
+ * Caches the encoded tiles of the meta-tiles built for tiled GetMap requests, so that requests for
+ * the sibling tiles are served without rendering nor encoding.
+ * <p>
+ * The cache is bounded by the total size of the encoded tiles, least recently used meta-tiles are
+ * evicted first. WFS transactions drop the meta-tiles of the modified layers overlapping the
+ * modified features, configuration changes drop everything.
+ * </p>
+ */
+public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler,
+        QuickTileCacheMBean {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Memory budget of the cache, in bytes of encoded tiles. 0 disables the cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = Long.getLong(
+            "org.geoserver.wms.metaTileCacheMaxBytes", 32 * 1024 * 1024);
+
+    /**
+     * Rough per tile overhead accounted for on top of the encoded bytes
+     */
+    static final int TILE_OVERHEAD = 64;
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -58,22 +95,31 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    Cache<MetaTileKey, CacheElement> tileCache;
+
+    private long maxBytes;
+
+    private AtomicLong bytes = new AtomicLong();
 
     public QuickTileCache(GeoServer geoServer) {
+        this(geoServer, DEFAULT_MAX_BYTES);
+    }
+
+    public QuickTileCache(GeoServer geoServer, long maxBytes) {
+        this(maxBytes);
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,6 +128,31 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    QuickTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (maxBytes > 0) {
+            tileCache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                    .weigher(new Weigher<MetaTileKey, CacheElement>() {
+                        public int weigh(MetaTileKey key, CacheElement value) {
+                            return value.weight;
+                        }
+                    }).removalListener(new RemovalListener<MetaTileKey, CacheElement>() {
+                        public void onRemoval(
+                                RemovalNotification<MetaTileKey, CacheElement> notification) {
+                            bytes.addAndGet(-notification.getValue().weight);
+                        }
+                    }).build();
+        }
+    }
+
+    /**
+     * Returns true if tiles are actually cached
+     */
+    public boolean isEnabled() {
+        return tileCache != null;
     }
 
     /**
@@ -111,6 +182,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
         MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        key.layers = getLayerNames(request);
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -118,6 +190,23 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return (MetaTileKey) metaTileKeys.unique(key);
     }
 
+    /**
+     * Returns the qualified names of the feature types in the map, or null if the map contains
+     * something else that could be modified by a transaction (e.g. a remote layer)
+     */
+    Set<QName> getLayerNames(GetMapRequest request) {
+        Set<QName> names = new HashSet<QName>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
+                FeatureTypeInfo ft = layer.getFeature();
+                names.add(new QName(ft.getNamespace().getURI(), ft.getName()));
+            } else if (layer.getType() == MapLayerInfo.TYPE_REMOTE_VECTOR) {
+                return null;
+            }
+        }
+        return names;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
@@ -262,6 +351,12 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * The feature types painted in the meta-tile, not part of the identity as they are
+         * derived from the map definition
+         */
+        Set<QName> layers;
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
             super();
             this.mapKey = mapKey;
@@ -310,20 +405,23 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Gathers a tile from the cache, if available
+     * Gathers an encoded tile from the cache, if available
      * 
      * @param key
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public byte[] getTile(MetaTileKey key, GetMapRequest request) {
+        if (tileCache == null) {
+            return null;
+        }
+        CacheElement ce = tileCache.getIfPresent(key);
 
         if (ce == null) {
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        return ce.tiles[getTileIndex(key, request)];
     }
 
     /**
@@ -334,6 +432,14 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @return
      */
     public RenderedImage getTile(MetaTileKey key, GetMapRequest request, RenderedImage[] tiles) {
+        return tiles[getTileIndex(key, request)];
+    }
+
+    /**
+     * Returns the position of the requested tile in the meta-tile, see
+     * {@link MetatileMapOutputFormat} for the layout
+     */
+    public int getTileIndex(MetaTileKey key, GetMapRequest request) {
         Envelope bbox = request.getBbox();
         if(CRS.getAxisOrder(request.getCrs()) == AxisOrder.NORTH_EAST) {
             bbox = new Envelope(bbox.getMinY(), bbox.getMaxY(), bbox.getMinX(), bbox.getMaxX());
@@ -341,51 +447,141 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoord = getTileCoordinates(bbox, key.mapKey.origin);
         Point metaCoord = key.metaTileCoords;
 
-        return tiles[tileCoord.x - metaCoord.x
-                + ((tileCoord.y - metaCoord.y) * key.getMetaFactor())];
+        return tileCoord.x - metaCoord.x + ((tileCoord.y - metaCoord.y) * key.getMetaFactor());
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified encoded tiles in the cache
      * 
      * @param key
-     * @param request
      * @param tiles
-     * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, byte[][] tiles) {
+        if (tileCache == null) {
+            return;
+        }
+        CacheElement ce = new CacheElement(tiles);
+        if (ce.weight > maxBytes) {
+            return;
+        }
+        bytes.addAndGet(ce.weight);
+        tileCache.put(key, ce);
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    static class CacheElement {
+        byte[][] tiles;
+
+        int weight;
 
-        public CacheElement(RenderedImage[] tiles) {
+        public CacheElement(byte[][] tiles) {
             this.tiles = tiles;
+            for (byte[] tile : tiles) {
+                weight += tile.length + TILE_OVERHEAD;
+            }
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        if (tileCache == null) {
+            return;
+        }
+
+        // drop the meta tiles painting the layer around the modified features, both the pre
+        // and post events are handled so that old and new positions of updated features are
+        // covered
+        QName layer = event.getLayerName();
+        ReferencedEnvelope bounds = null;
+        try {
+            SimpleFeatureCollection features = event.getAffectedFeatures();
+            if (features != null) {
+                bounds = features.getBounds();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the bounds of the modified features", e);
+        }
+        if (bounds != null && bounds.isNull()) {
+            return;
+        }
+
+        for (MetaTileKey key : tileCache.asMap().keySet()) {
+            if ((key.layers == null || key.layers.contains(layer)) && intersects(key, bounds)) {
+                tileCache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Checks if the modified area can affect the meta tile, erring on the safe side
+     */
+    boolean intersects(MetaTileKey key, ReferencedEnvelope bounds) {
+        ReferencedEnvelope envelope = key.getMetaTileEnvelope();
+        if (bounds == null || envelope == null) {
+            return true;
+        }
+        try {
+            if (bounds.getCoordinateReferenceSystem() != null
+                    && envelope.getCoordinateReferenceSystem() != null) {
+                bounds = bounds.transform(envelope.getCoordinateReferenceSystem(), true);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not reproject the modified area, assuming it "
+                    + "overlaps the meta tile", e);
+            return true;
+        }
+        // symbols painted around the features can spill over, allow for a tile of slack
+        Envelope expanded = new Envelope(envelope);
+        expanded.expandBy(envelope.getWidth() / key.getMetaFactor(), envelope.getHeight()
+                / key.getMetaFactor());
+        return expanded.intersects(bounds);
+    }
+
+    public void clear() {
+        if (tileCache != null) {
+            tileCache.invalidateAll();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getSize() {
+        return tileCache == null ? 0 : tileCache.size();
+    }
+
+    public long getHitCount() {
+        return stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return stats().evictionCount();
+    }
+
+    CacheStats stats() {
+        return tileCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : tileCache.stats();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+/**
+ * JMX management interface of {@link QuickTileCache}
+ */
+public interface QuickTileCacheMBean {
+
+    /**
+     * Memory budget of the cache, in bytes
+     */
+    long getMaxBytes();
+
+    /**
+     * Bytes currently used by the cached tiles
+     */
+    long getBytes();
+
+    /**
+     * Number of cached meta-tiles
+     */
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    /**
+     * Drops all the cached meta-tiles
+     */
+    void clear();
+}
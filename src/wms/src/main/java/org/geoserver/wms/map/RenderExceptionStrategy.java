@@ -5,6 +5,8 @@
 package org.geoserver.wms.map;
 
 import java.awt.geom.NoninvertibleTransformException;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,9 +42,9 @@ import org.opengis.referencing.operation.TransformException;
 public class RenderExceptionStrategy implements RenderListener {
 
     private static final Logger LOGGER = Logging.getLogger("org.geoserver.wms");
-    private final GTRenderer renderer;
+    private final List<? extends GTRenderer> renderers;
 
-    private Exception renderException;
+    private volatile Exception renderException;
 
     /**
      * Creates a render listener to stop the given {@code renderer} when a non ignorable
@@ -53,7 +55,19 @@ public class RenderExceptionStrategy implements RenderListener {
      *            ignorable exception occurs
      */
     public RenderExceptionStrategy(final GTRenderer renderer) {
-        this.renderer = renderer;
+        this(Collections.singletonList(renderer));
+    }
+
+    /**
+     * Creates a render listener to be registered on a set of renderers working on the same map
+     * in parallel, all of them are stopped when any of them notifies a non ignorable exception
+     * 
+     * @param renderers
+     *            the renderers to {@link GTRenderer#stopRendering() stop} if a non
+     *            ignorable exception occurs
+     */
+    public RenderExceptionStrategy(final List<? extends GTRenderer> renderers) {
+        this.renderers = renderers;
         this.renderException = null;
     }
 
@@ -100,8 +114,15 @@ public class RenderExceptionStrategy implements RenderListener {
 
         // not an ignorable cause... stop rendering
         LOGGER.log(Level.FINE, "Got an unexpected render exception.", renderException);
-        this.renderException = renderException;
-        renderer.stopRendering();
+        synchronized (this) {
+            // keep the first one, the others are likely caused by stopping the renderers
+            if (this.renderException == null) {
+                this.renderException = renderException;
+            }
+        }
+        for (GTRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
     }
 
     /**
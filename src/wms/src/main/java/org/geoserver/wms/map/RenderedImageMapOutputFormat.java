@@ -11,6 +11,7 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
@@ -22,9 +23,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,11 +54,16 @@ import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.LookupDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.ows.ClientStreamAbortedException;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.CompiledStyle;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.RenderingThreadPool;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
@@ -63,11 +78,13 @@ import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
 import org.geotools.map.StyleLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
@@ -78,11 +95,13 @@ import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.renderer.shape.ShapefileRenderer;
+import org.geotools.resources.coverage.FeatureUtilities;
 import org.geotools.resources.image.ColorUtilities;
 import org.geotools.styling.RasterSymbolizer;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.geometry.Envelope;
@@ -90,6 +109,7 @@ import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.TransformException;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 
@@ -332,11 +352,25 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             try {
                 image = directRasterRender(mapContent, 0, renderedCoverages);
             } catch (Exception e) {
-                throw new ServiceException("Error rendering coverage on the fast path", e);
+                if (!isFastPathUnsupported(e)) {
+                    throw new ServiceException("Error rendering coverage on the fast path", e);
+                }
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Could not render the coverage on the fast path, "
+                            + "falling back on the normal rendering path", e);
+                }
+                image = null;
             }
 
             if (image != null) {
-                return buildMap(mapContent, image);
+                // the coverages back the image chain, they can be disposed only after encoding
+                RenderedImageMap map = buildMap(mapContent, image);
+                map.setRenderedCoverages(renderedCoverages);
+                return map;
+            }
+            // nothing uses the coverages read so far, let them go
+            for (GridCoverage2D coverage : renderedCoverages) {
+                RasterCleaner.addCoverage(coverage);
             }
         }
 
@@ -398,16 +432,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        GTRenderer renderer;
-        if (DefaultWebMapService.useShapefileRenderer()) {
-            renderer = new ShapefileRenderer();
-        } else {
-            StreamingRenderer sr = new StreamingRenderer();
-            sr.setThreadPool(DefaultWebMapService.getRenderingPool());
-            renderer = sr;
-        }
-        renderer.setMapContent(mapContent);
-        renderer.setJava2DHints(hints);
 
         // setup the renderer hints
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
@@ -463,7 +487,45 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         }
-        renderer.setRendererHints(rendererParams);
+        // render the layers in parallel, if enabled and if the extra surfaces fit in the memory
+        // limits, or sequentially with a single renderer
+        final List<Layer> layers = mapContent.layers();
+        final ExecutorService pool = DefaultWebMapService.getRenderingPool(mapContent);
+        boolean parallel = isParallelLayerRenderingEnabled() && pool != null
+                && layers.size() > 1 && palette == null
+                && !DefaultWebMapService.useShapefileRenderer();
+        if (parallel && maxMemory > 0) {
+            long layerMemory = ImageUtils.getDrawingSurfaceMemoryUse(paintArea.width,
+                    paintArea.height, null, true)
+                    + testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+            parallel = memory + layerMemory * layers.size() <= maxMemory;
+        }
+
+        final List<GTRenderer> renderers = new ArrayList<GTRenderer>();
+        final List<Graphics2D> graphics = new ArrayList<Graphics2D>();
+        final List<BufferedImage> layerImages = new ArrayList<BufferedImage>();
+        final List<MapContent> layerContents = new ArrayList<MapContent>();
+        if (parallel) {
+            for (Layer layer : layers) {
+                MapContent layerContent = new MapContent();
+                // set the area first, or the content will compute it from the layer bounds
+                layerContent.getViewport().setBounds(mapContent.getRenderingArea());
+                layerContent.addLayer(layer);
+                layerContents.add(layerContent);
+                renderers.add(createRenderer(layerContent, hints, rendererParams, pool));
+
+                BufferedImage layerImage = ImageUtils.createImage(paintArea.width,
+                        paintArea.height, null, true);
+                Graphics2D layerGraphic = ImageUtils.prepareTransparency(true, bgColor,
+                        layerImage, hintsMap);
+                layerGraphic.setRenderingHints(hintsMap);
+                layerImages.add(layerImage);
+                graphics.add(layerGraphic);
+            }
+        } else {
+            renderers.add(createRenderer(mapContent, hints, rendererParams, pool));
+        }
+        graphics.add(graphic);
 
         // if abort already requested bail out
         // if (this.abortRequested) {
@@ -473,26 +535,40 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
 
         // enforce no more than x rendering errors
         int maxErrors = wms.getMaxRenderingErrors();
-        MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderer, maxErrors);
+        MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderers, maxErrors);
 
         // Add a render listener that ignores well known rendering exceptions and reports back non
-        // ignorable ones
-        final RenderExceptionStrategy nonIgnorableExceptionListener;
-        nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
-        renderer.addRenderListener(nonIgnorableExceptionListener);
+        // ignorable ones, a failure in any layer stops all the renderers
+        final RenderExceptionStrategy nonIgnorableExceptionListener = new RenderExceptionStrategy(
+                renderers);
+        for (GTRenderer renderer : renderers) {
+            renderer.addRenderListener(nonIgnorableExceptionListener);
+        }
 
-        // setup the timeout enforcer (the enforcer is neutral when the timeout is 0)
+        // setup the timeout enforcer (the enforcer is neutral when the timeout is 0), it covers
+        // all the renderers working in parallel
         int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
-        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
-                graphic);
+        RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime,
+                renderers, graphics);
         timeout.start();
+        Exception parallelError = null;
         try {
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            if (parallel) {
+                parallelError = renderParallel(pool, renderers, graphics, paintArea, mapContent);
+                if (parallelError == null) {
+                    // composite the layers in order
+                    for (BufferedImage layerImage : layerImages) {
+                        graphic.drawImage(layerImage, 0, 0, null);
+                    }
+                }
+            } else {
+                renderers.get(0).paint(graphic, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            }
 
             // apply watermarking
-            if (layout != null) {
+            if (layout != null && parallelError == null) {
                 try {
                     layout.paint(graphic, paintArea, mapContent);
                 } catch (Exception e) {
@@ -501,7 +577,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         } finally {
             timeout.stop();
-            graphic.dispose();
+            for (Graphics2D g : graphics) {
+                g.dispose();
+            }
+            for (int i = 0; i < layerContents.size(); i++) {
+                // the layers belong to the map content, they must not be disposed here
+                MapContent layerContent = layerContents.get(i);
+                layerContent.removeLayer(layers.get(i));
+                layerContent.dispose();
+            }
+        }
+
+        // check if the client went away while rendering, there is nobody to report errors to
+        if (timeout.isAborted()) {
+            throw new ServiceException("The client closed the connection during rendering",
+                    new ClientStreamAbortedException());
         }
 
         // check if the request did timeout
@@ -516,6 +606,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             Exception renderError = nonIgnorableExceptionListener.getException();
             throw new ServiceException("Rendering process failed", renderError, "internalError");
         }
+        if (parallelError != null) {
+            throw new ServiceException("Rendering process failed", parallelError, "internalError");
+        }
 
         // check if too many errors occurred
         if (errorChecker.exceedsMaxErrors()) {
@@ -535,6 +628,146 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Returns true if the layers of multi layer maps should be rendered in parallel, see
+     * {@link DefaultWebMapService#isParallelLayerRenderingEnabled()}
+     */
+    protected boolean isParallelLayerRenderingEnabled() {
+        return DefaultWebMapService.isParallelLayerRenderingEnabled();
+    }
+
+    /**
+     * Creates a renderer for the map content
+     */
+    GTRenderer createRenderer(MapContent mapContent, RenderingHints hints,
+            Map<Object, Object> rendererParams, ExecutorService pool) {
+        GTRenderer renderer;
+        if (DefaultWebMapService.useShapefileRenderer()) {
+            renderer = new ShapefileRenderer();
+        } else {
+            StreamingRenderer sr = new StreamingRenderer();
+            sr.setThreadPool(pool);
+            renderer = sr;
+        }
+        renderer.setMapContent(mapContent);
+        renderer.setJava2DHints(hints);
+        renderer.setRendererHints(rendererParams);
+        return renderer;
+    }
+
+    /**
+     * Runs the renderers in parallel on the pool, each painting on its own graphics, and waits
+     * for them to complete. Returns the first failure, if any. When the pool is saturated the
+     * renderers run in the calling thread instead.
+     */
+    Exception renderParallel(ExecutorService pool, List<GTRenderer> renderers,
+            List<Graphics2D> graphics, final Rectangle paintArea, final WMSMapContent mapContent) {
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        final Thread requestThread = Thread.currentThread();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < renderers.size(); i++) {
+            final GTRenderer renderer = renderers.get(i);
+            final Graphics2D layerGraphic = graphics.get(i);
+            Callable<Void> task = new Callable<Void>() {
+                public Void call() throws Exception {
+                    // the thread locals of the request thread must be left alone
+                    boolean worker = Thread.currentThread() != requestThread;
+                    if (stopped.get()) {
+                        // queued after the rendering was stopped
+                        return null;
+                    }
+                    if (worker) {
+                        transfer.apply();
+                    }
+                    try {
+                        renderer.paint(layerGraphic, paintArea, mapContent.getRenderingArea(),
+                                mapContent.getRenderingTransform());
+                        return null;
+                    } finally {
+                        if (worker) {
+                            transfer.cleanup();
+                        }
+                    }
+                }
+            };
+            if (pool instanceof RenderingThreadPool) {
+                futures.add(((RenderingThreadPool) pool).submitOrRun(task));
+            } else {
+                futures.add(pool.submit(task));
+            }
+        }
+
+        Exception error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    // no point in going on
+                    stopped.set(true);
+                    for (GTRenderer renderer : renderers) {
+                        renderer.stopRendering();
+                    }
+                }
+            } catch (InterruptedException e) {
+                stopAndWait(futures, renderers, stopped);
+                Thread.currentThread().interrupt();
+                return e;
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Stops the renderers and waits for all the parallel renders to finish, so that their
+     * graphics and map contents can be disposed of. Interruptions are ignored while waiting, the
+     * caller restores the interrupted status.
+     */
+    void stopAndWait(List<Future<Void>> futures, List<GTRenderer> renderers,
+            AtomicBoolean stopped) {
+        stopped.set(true);
+        for (Future<Void> future : futures) {
+            while (true) {
+                // StreamingRenderer clears the stop request when it starts painting, so keep
+                // asking until the render is done
+                for (GTRenderer renderer : renderers) {
+                    renderer.stopRendering();
+                }
+                try {
+                    future.get(100, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // still painting
+                } catch (InterruptedException e) {
+                    // keep waiting
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the fast path failed because it cannot handle the coverage, e.g. a missing
+     * transformation or an operation the reader does not support, in which case the normal
+     * rendering path can still give it a try
+     */
+    static boolean isFastPathUnsupported(Throwable t) {
+        while (t != null) {
+            if (t instanceof FactoryException || t instanceof TransformException
+                    || t instanceof NoninvertibleTransformException
+                    || t instanceof UnsupportedOperationException) {
+                return true;
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
     protected RenderedImageMap buildMap(final WMSMapContent mapContent, RenderedImage image) {
         RenderedImageMap map = new RenderedImageMap(mapContent, image, getMimeType());
         if(extension != null) {
@@ -735,8 +968,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
      * @param renderedCoverages
      *            placeholder where to deposit rendered coverages, if any, so that they can be
      *            disposed later
-     * @return the result of rendering the coverage, or null if there was no coverage, or the
-     *         coverage could not be renderer for some reason
+     * @return the result of rendering the coverage, or null if there was no coverage, the layer
+     *         is not backed by a grid coverage reader, or the coverage could not be renderer for
+     *         some reason, in which case the normal rendering path should be used
      */
     private RenderedImage directRasterRender(WMSMapContent mapContent, int layerIndex,
             List<GridCoverage2D> renderedCoverages) throws IOException {
@@ -744,17 +978,36 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         //
         // extract the raster symbolizers 
         //
-        List<RasterSymbolizer> symbolizers = getRasterSymbolizers(mapContent, 0);
+        List<RasterSymbolizer> symbolizers = getRasterSymbolizers(mapContent, layerIndex);
         if (symbolizers.size() != 1){
             return null;
         }
         RasterSymbolizer symbolizer = symbolizers.get(0);
 
         //
-        // Get the reader
+        // Get the reader, only layers backed by a grid coverage reader can take this path
         //
-        final Feature feature = mapContent.layers().get(0).getFeatureSource().getFeatures().features().next();
-        final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) feature.getProperty("grid").getValue();
+        final Layer layer = mapContent.layers().get(layerIndex);
+        final FeatureType schema = layer.getFeatureSource().getSchema();
+        if (!(schema instanceof SimpleFeatureType)
+                || !FeatureUtilities.isWrappedCoverageReader((SimpleFeatureType) schema)) {
+            return null;
+        }
+        final Feature feature;
+        final FeatureIterator<? extends Feature> features = layer.getFeatureSource().getFeatures().features();
+        try {
+            if (!features.hasNext()) {
+                return null;
+            }
+            feature = features.next();
+        } finally {
+            features.close();
+        }
+        final Object gridValue = feature.getProperty("grid").getValue();
+        if (!(gridValue instanceof AbstractGridCoverage2DReader)) {
+            return null;
+        }
+        final AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) gridValue;
         final Object params = feature.getProperty("params").getValue();
 
         // 
@@ -1322,6 +1575,12 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         FeatureType featureType = layer.getFeatureSource().getSchema();
         Style style = layer.getStyle();
 
+        // quick exit for the styles the visitor would reject anyways
+        CompiledStyle compiled = CompiledStyle.get(style);
+        if (compiled.hasTransformation() || !compiled.hasRasterSymbolizers()) {
+            return Collections.emptyList();
+        }
+
         RasterSymbolizerVisitor visitor = new RasterSymbolizerVisitor(scaleDenominator, featureType);
         style.accept(visitor);
 
@@ -9,10 +9,18 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
@@ -25,6 +33,7 @@ import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
 import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.quantize.PaletteCache;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
@@ -60,6 +69,17 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
     /** Which format to encode the image in if one is not supplied */
     private static final String DEFAULT_MAP_FORMAT = "image/png";
 
+    /**
+     * Parameters that change the extent of the map, but not how it looks
+     */
+    static final Set<String> EXTENT_PARAMETERS = new HashSet<String>(Arrays.asList("BBOX",
+            "WIDTH", "HEIGHT", "TILED", "TILESORIGIN", "X", "Y", "I", "J"));
+
+    /**
+     * Palettes of the recent paletted maps, shared by all the paletted formats
+     */
+    static final PaletteCache PALETTE_CACHE = new PaletteCache();
+
     /** WMS Service configuration * */
     protected final WMS wms;
 
@@ -176,8 +196,16 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 if (mapContent.getPalette() != null) {
                     indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
-                    // build the palette and grab the optimized color indexer
-                    indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+                    // reuse the palette of a map that looks alike, if close enough
+                    List<Object> key = getPaletteKey(request);
+                    indexer = PALETTE_CACHE.getColorIndexer(key, image);
+                    if (indexer == null) {
+                        // build the palette and grab the optimized color indexer
+                        indexer = new Quantizer(256).subsample()
+                                .parallel(DefaultWebMapService.getRenderingPool(mapContent))
+                                .buildColorIndexer(image);
+                        PALETTE_CACHE.put(key, indexer);
+                    }
                 }
 
                 // if we have an indexer transform the image
@@ -190,6 +218,28 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
         return image;
     }
     
+    /**
+     * Returns the key of the palette in the palette cache, made of the request parameters other
+     * than the map extent, or null if the request did not come with its raw parameters
+     */
+    List<Object> getPaletteKey(GetMapRequest request) {
+        Map<String, String> rawKvp = request.getRawKvp();
+        if (rawKvp == null) {
+            return null;
+        }
+        Map<String, String> parameters = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : rawKvp.entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if (!EXTENT_PARAMETERS.contains(name)) {
+                parameters.put(name, entry.getValue());
+            }
+        }
+        // virtual services can resolve the same layer names to different layers
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        return Arrays.<Object> asList(workspace != null ? workspace.getName() : null,
+                request.getFormat(), parameters);
+    }
+
     /**
      * @param originalImage
      * @return
@@ -5,54 +5,153 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.geoserver.ows.ClientConnectionProbe;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.renderer.GTRenderer;
+import org.geotools.util.logging.Logging;
 
 /**
  * An utility class that can be used to set a strict timeout on rendering operations:
  * if the timeout elapses, the renderer will be asked to stop rendering and the graphics
  * will be disposed of to make extra sure the renderer cannot keep going on.
+ * <p>
+ * The same happens if the client goes away while the map is being rendered, as reported
+ * by the {@link ClientConnectionProbe} found in the application context, which are checked
+ * every {@link #CLIENT_CHECK_INTERVAL} milliseconds.
+ * </p>
+ * <p>
+ * All the enforcers share a single scheduler thread, see {@link #dispose()}.
+ * </p>
  * @author Andrea Aime - OpenGeo
  */
 public class RenderingTimeoutEnforcer {
-    
+
+    static final Logger LOGGER = Logging.getLogger(RenderingTimeoutEnforcer.class);
+
+    /**
+     * How often the client connection is checked while rendering, in milliseconds, 0 disables
+     * the checks
+     */
+    static final long CLIENT_CHECK_INTERVAL = Long.getLong(
+            "org.geoserver.wms.clientCheckInterval", 1000);
+
+    /**
+     * Cancelled tasks stay in the scheduler queue until their delay elapses, above this size
+     * they are removed right away
+     */
+    static final int PURGE_THRESHOLD = 1000;
+
+    static ScheduledThreadPoolExecutor scheduler;
+
     long timeout;
-    GTRenderer renderer;
-    Graphics graphics;
-    Timer timer;
-    boolean timedOut = false;
+    List<? extends GTRenderer> renderers;
+    List<? extends Graphics> graphics;
+    Request request;
+    List<ClientConnectionProbe> probes = Collections.emptyList();
+    ScheduledFuture<?> timeoutTask;
+    ScheduledFuture<?> clientCheckTask;
+    volatile boolean timedOut = false;
+    volatile boolean aborted = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
+        this(timeout, Collections.singletonList(renderer), Collections.singletonList(graphics));
+    }
+
+    /**
+     * Enforces the timeout on a set of renderers working in parallel, each painting on one of
+     * the graphics
+     */
+    public RenderingTimeoutEnforcer(long timeout, List<? extends GTRenderer> renderers,
+            List<? extends Graphics> graphics) {
         this.timeout = timeout;
-        this.renderer = renderer;
+        this.renderers = renderers;
         this.graphics = graphics;
+        // grab the request while on the thread handling it
+        this.request = Dispatcher.REQUEST.get();
+        if (request != null && CLIENT_CHECK_INTERVAL > 0) {
+            this.probes = GeoServerExtensions.extensions(ClientConnectionProbe.class);
+        }
+    }
+
+    /**
+     * Returns the scheduler shared by all the enforcers, creating it if needed
+     */
+    static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GeoServer rendering timeout "
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Shuts down the shared scheduler, a new one will be created if needed
+     */
+    public static synchronized void dispose() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
     }
 
     /**
      * Starts checking the rendering timeout (if timeout is positive, does nothing otherwise)
+     * and the client connection (if there are probes to check it)
      */
     public void start() {
-        if(timer != null)
+        if(timeoutTask != null || clientCheckTask != null)
             throw new IllegalStateException("The timeout enforcer has already been started");
         
+        timedOut = false;
+        aborted = false;
         if(timeout > 0) {
-            timedOut = false;
-            timer = new Timer();
-            timer.schedule(new StopRenderingTask(), timeout);
+            timeoutTask = getScheduler().schedule(new StopRenderingTask(), timeout,
+                    TimeUnit.MILLISECONDS);
+        }
+        if(!probes.isEmpty()) {
+            clientCheckTask = getScheduler().scheduleWithFixedDelay(new ClientCheckTask(),
+                    CLIENT_CHECK_INTERVAL, CLIENT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
         }
     }
     
     /**
-     * Stops the timeout check
+     * Stops the timeout and client checks
      */
     public void stop() {
-        if(timer != null) {
-            timer.cancel();
-            timer.purge();
-            // timer.getTheHellOutOfDodge();
-            timer = null;
+        boolean cancelled = false;
+        if(timeoutTask != null) {
+            cancelled |= timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        if(clientCheckTask != null) {
+            cancelled |= clientCheckTask.cancel(false);
+            clientCheckTask = null;
+        }
+        if (cancelled) {
+            ScheduledThreadPoolExecutor executor = getScheduler();
+            if (executor.getQueue().size() > PURGE_THRESHOLD) {
+                executor.purge();
+            }
         }
     }
     
@@ -62,23 +161,60 @@ public class RenderingTimeoutEnforcer {
     public boolean isTimedOut() {
         return timedOut;
     }
+
+    /**
+     * Returns true if the renderer has been stopped mid-way because the client went away
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    void stopRendering() {
+        // ask gently...
+        for (GTRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+        // ... but also be rude for extra measure (coverage rendering is
+        // an atomic call to the graphics, it cannot be stopped
+        // by the above)
+        for (Graphics g : graphics) {
+            g.dispose();
+        }
+    }
     
-    class StopRenderingTask extends TimerTask {
+    class StopRenderingTask implements Runnable {
 
-        @Override
         public void run() {
             // mark as timed out
             timedOut = true;
-            
-            // ask gently...
-            renderer.stopRendering();
-            // ... but also be rude for extra measure (coverage rendering is
-            // an atomic call to the graphics, it cannot be stopped
-            // by the above)
-            graphics.dispose();
-            
+            stopRendering();
         }
         
     }
 
+    class ClientCheckTask implements Runnable {
+
+        public void run() {
+            if (aborted) {
+                // already stopped, waiting for the renderers to notice
+                return;
+            }
+            for (ClientConnectionProbe probe : probes) {
+                boolean closed;
+                try {
+                    closed = probe.isClosed(request);
+                } catch (Exception e) {
+                    // don't let it cancel the periodic checks
+                    LOGGER.log(Level.FINE, "Failed to check the client connection", e);
+                    closed = false;
+                }
+                if (closed) {
+                    aborted = true;
+                    stopRendering();
+                    return;
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,618 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.geoserver.wms.RenderingThreadPool;
+
+/**
+ * A PNG encoder splitting the image in horizontal strips that are filtered, and when possible
+ * compressed, in parallel.
+ * <p>
+ * Each strip is compressed as an independent deflate stream ended by a sync flush, primed with
+ * the tail of the previous strip as a dictionary, and the streams are joined in a single zlib
+ * stream, as pigz does. The strips are written out in order as soon as they are ready, with a
+ * bounded number of them in flight. Sync flushing requires Java 7, on older runtimes the strips
+ * are filtered in parallel and compressed in order by a single deflater.
+ * </p>
+ * <p>
+ * The filter and compression setup depend on the image type: paletted and sub byte images are not
+ * filtered and use the requested compression level, true color images get the adaptive filter
+ * (best of the five PNG filters for each row), the deflate filtered strategy, and a capped
+ * compression level, since the highest levels cost a lot and gain little on filtered data.
+ * </p>
+ */
+public class PNGEncoder {
+
+    /**
+     * Uncompressed bytes in each strip
+     */
+    static final int DEFAULT_STRIP_SIZE = Integer.getInteger("org.geoserver.wms.pngStripSize",
+            256 * 1024);
+
+    /**
+     * Max compression level used for true color images
+     */
+    static final int MAX_TRUE_COLOR_LEVEL = 6;
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int FILTER_NONE = 0;
+
+    static final int FILTER_SUB = 1;
+
+    static final int FILTER_UP = 2;
+
+    static final int FILTER_AVERAGE = 3;
+
+    static final int FILTER_PAETH = 4;
+
+    /**
+     * Size of the deflate window, and of the dictionary given to each strip
+     */
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * Size of the IDAT chunks
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Deflater.deflate(byte[], int, int, int), available since Java 7
+     */
+    static final Method DEFLATE_FLUSH;
+
+    static final int SYNC_FLUSH = 2;
+
+    static {
+        Method method = null;
+        try {
+            method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class,
+                    int.class);
+        } catch (NoSuchMethodException e) {
+            // running on Java 6
+        }
+        DEFLATE_FLUSH = method;
+    }
+
+    /**
+     * A filtered, and possibly compressed, strip
+     */
+    static class Strip {
+        byte[] data;
+
+        int length;
+
+        long adler;
+
+        int rawLength;
+    }
+
+    final ExecutorService executor;
+
+    final int level;
+
+    final int stripSize;
+
+    /**
+     * Whether the strips can be compressed in parallel
+     */
+    boolean parallelDeflate = DEFLATE_FLUSH != null;
+
+    /**
+     * Builds a new encoder
+     *
+     * @param executor the executor used to process the strips in parallel, or null to encode in
+     *        the calling thread
+     * @param level the compression level, between 0 and 9
+     */
+    public PNGEncoder(ExecutorService executor, int level) {
+        this(executor, level, DEFAULT_STRIP_SIZE);
+    }
+
+    PNGEncoder(ExecutorService executor, int level, int stripSize) {
+        this.executor = executor;
+        this.level = level;
+        this.stripSize = stripSize;
+    }
+
+    /**
+     * Returns true if the encoder can handle the image layout
+     */
+    public static boolean isSupported(RenderedImage image) {
+        return ScanlineFormat.lookup(image) != null;
+    }
+
+    /**
+     * Encodes the image in PNG format
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        final ScanlineFormat format = ScanlineFormat.lookup(image);
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported image layout: "
+                    + image.getSampleModel() + ", " + image.getColorModel());
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, image.getWidth());
+        writeInt(header, 4, image.getHeight());
+        header[8] = (byte) format.bitDepth;
+        header[9] = (byte) format.colorType;
+        writeChunk(out, "IHDR", header, 0, header.length);
+        if (format.isPaletted()) {
+            byte[] palette = format.getPalette();
+            writeChunk(out, "PLTE", palette, 0, palette.length);
+            byte[] transparency = format.getTransparency();
+            if (transparency != null) {
+                writeChunk(out, "tRNS", transparency, 0, transparency.length);
+            }
+        }
+
+        final boolean adaptive = !format.isPaletted() && format.bitDepth == 8 && level > 0;
+        int compression = adaptive ? Math.min(level, MAX_TRUE_COLOR_LEVEL) : level;
+        int strategy = adaptive ? Deflater.FILTERED : Deflater.DEFAULT_STRATEGY;
+        int stripRows = Math.max(1, stripSize / (format.rowBytes + 1));
+        int strips = (image.getHeight() + stripRows - 1) / stripRows;
+
+        IDATOutputStream idat = new IDATOutputStream(out);
+        if (executor != null && strips > 1 && parallelDeflate) {
+            encodeParallel(image, format, adaptive, compression, strategy, stripRows, strips,
+                    idat);
+        } else {
+            encodeSequential(image, format, adaptive, compression, strategy, stripRows, strips,
+                    idat);
+        }
+        idat.close();
+
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+    }
+
+    /**
+     * Compresses the strips in parallel and joins the deflate streams
+     */
+    void encodeParallel(final RenderedImage image, final ScanlineFormat format,
+            final boolean adaptive, final int compression, final int strategy,
+            final int stripRows, final int strips, IDATOutputStream idat) throws IOException {
+        // zlib header
+        int flevel = compression < 2 ? 0 : compression < 6 ? 1 : compression == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        int check = ((cmf << 8) | flg) % 31;
+        if (check != 0) {
+            flg += 31 - check;
+        }
+        idat.write(cmf);
+        idat.write(flg);
+
+        final int minY = image.getMinY();
+        final int maxY = minY + image.getHeight();
+        long adler = 1;
+        LinkedList<Future<Strip>> pending = new LinkedList<Future<Strip>>();
+        int next = 0;
+        try {
+            while (next < strips || !pending.isEmpty()) {
+                while (next < strips && pending.size() < getMaxPendingStrips()) {
+                    final int y0 = minY + next * stripRows;
+                    final int y1 = Math.min(y0 + stripRows, maxY);
+                    final boolean last = next == strips - 1;
+                    pending.add(submit(new Callable<Strip>() {
+                        public Strip call() throws Exception {
+                            return compress(image, format, adaptive, compression, strategy, y0,
+                                    y1, last);
+                        }
+                    }));
+                    next++;
+                }
+                Strip strip = get(pending.removeFirst());
+                idat.write(strip.data, 0, strip.length);
+                adler = combineAdler32(adler, strip.adler, strip.rawLength);
+                // stream out what we have so far
+                idat.flushChunk();
+            }
+        } finally {
+            for (Future<Strip> future : pending) {
+                future.cancel(false);
+            }
+        }
+
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) adler);
+        idat.write(trailer);
+    }
+
+    /**
+     * Filters the strips, in parallel if possible, and compresses them in order with a single
+     * deflater
+     */
+    void encodeSequential(final RenderedImage image, final ScanlineFormat format,
+            final boolean adaptive, int compression, int strategy, final int stripRows,
+            int strips, IDATOutputStream idat) throws IOException {
+        Deflater deflater = new Deflater(compression);
+        deflater.setStrategy(strategy);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+            final int minY = image.getMinY();
+            final int maxY = minY + image.getHeight();
+            if (executor == null || strips == 1) {
+                for (int y = minY; y < maxY; y += stripRows) {
+                    Strip strip = filter(image, format, adaptive, y, Math.min(y + stripRows,
+                            maxY));
+                    dos.write(strip.data, 0, strip.length);
+                }
+            } else {
+                LinkedList<Future<Strip>> pending = new LinkedList<Future<Strip>>();
+                int next = 0;
+                try {
+                    while (next < strips || !pending.isEmpty()) {
+                        while (next < strips && pending.size() < getMaxPendingStrips()) {
+                            final int y0 = minY + next * stripRows;
+                            final int y1 = Math.min(y0 + stripRows, maxY);
+                            pending.add(submit(new Callable<Strip>() {
+                                public Strip call() throws Exception {
+                                    return filter(image, format, adaptive, y0, y1);
+                                }
+                            }));
+                            next++;
+                        }
+                        Strip strip = get(pending.removeFirst());
+                        dos.write(strip.data, 0, strip.length);
+                    }
+                } finally {
+                    for (Future<Strip> future : pending) {
+                        future.cancel(false);
+                    }
+                }
+            }
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Max number of strips processed or waiting to be written at any time
+     */
+    int getMaxPendingStrips() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        if (executor instanceof RenderingThreadPool) {
+            return ((RenderingThreadPool) executor).submitOrRun(task);
+        } else {
+            return executor.submit(task);
+        }
+    }
+
+    <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding the PNG image");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException("Failed to encode the PNG image").initCause(cause);
+        }
+    }
+
+    /**
+     * Filters the rows between y0 and y1 and compresses them as a raw deflate stream, primed with
+     * the tail of the previous rows, and ended by a sync flush unless it's the last strip
+     */
+    Strip compress(RenderedImage image, ScanlineFormat format, boolean adaptive,
+            int compression, int strategy, int y0, int y1, boolean last) throws IOException {
+        // the rows whose filtered bytes fill the dictionary
+        int dictionaryRows = 0;
+        if (y0 > image.getMinY()) {
+            dictionaryRows = Math.min(y0 - image.getMinY(), (WINDOW_SIZE + format.rowBytes)
+                    / (format.rowBytes + 1));
+        }
+        Strip strip = filter(image, format, adaptive, y0 - dictionaryRows, y1);
+        int dictionaryLength = dictionaryRows * (format.rowBytes + 1);
+        int rawLength = strip.length - dictionaryLength;
+
+        Adler32 adler = new Adler32();
+        adler.update(strip.data, dictionaryLength, rawLength);
+
+        Deflater deflater = new Deflater(compression, true);
+        deflater.setStrategy(strategy);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(rawLength / 4 + 64);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            // the strategy is applied lazily on the next deflate call, which would break the
+            // dictionary set in between, apply it right away
+            bos.write(buffer, 0, deflater.deflate(buffer));
+            if (dictionaryLength > 0) {
+                int length = Math.min(dictionaryLength, WINDOW_SIZE);
+                deflater.setDictionary(strip.data, dictionaryLength - length, length);
+            }
+            deflater.setInput(strip.data, dictionaryLength, rawLength);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    bos.write(buffer, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = syncFlush(deflater, buffer);
+                    bos.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+
+            Strip result = new Strip();
+            result.data = bos.toByteArray();
+            result.length = result.data.length;
+            result.adler = adler.getValue();
+            result.rawLength = rawLength;
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static int syncFlush(Deflater deflater, byte[] buffer) throws IOException {
+        try {
+            return (Integer) DEFLATE_FLUSH.invoke(deflater, buffer, 0, buffer.length, SYNC_FLUSH);
+        } catch (InvocationTargetException e) {
+            throw (IOException) new IOException("Failed to compress the PNG image").initCause(e
+                    .getCause());
+        } catch (IllegalAccessException e) {
+            throw (IOException) new IOException("Failed to compress the PNG image").initCause(e);
+        }
+    }
+
+    /**
+     * Filters the rows between y0 and y1
+     */
+    static Strip filter(RenderedImage image, ScanlineFormat format, boolean adaptive, int y0,
+            int y1) {
+        int minX = image.getMinX();
+        int rowBytes = format.rowBytes;
+        // the adaptive filters need the previous row too
+        int ry = adaptive && y0 > image.getMinY() ? y0 - 1 : y0;
+        Raster raster;
+        if (image instanceof BufferedImage) {
+            raster = ((BufferedImage) image).getRaster();
+        } else {
+            raster = image.getData(new Rectangle(minX, ry, image.getWidth(), y1 - ry));
+        }
+
+        Strip strip = new Strip();
+        strip.length = (y1 - y0) * (rowBytes + 1);
+        strip.data = new byte[strip.length];
+        Object buffer = format.createBuffer();
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] scratch = adaptive ? new byte[4][rowBytes] : null;
+        if (ry < y0) {
+            format.readRow(raster, minX, ry, previous, buffer);
+        }
+        int pos = 0;
+        for (int y = y0; y < y1; y++) {
+            format.readRow(raster, minX, y, current, buffer);
+            if (adaptive) {
+                filterAdaptive(current, previous, format.bytesPerPixel, strip.data, pos, scratch);
+            } else {
+                strip.data[pos] = FILTER_NONE;
+                System.arraycopy(current, 0, strip.data, pos + 1, rowBytes);
+            }
+            pos += rowBytes + 1;
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return strip;
+    }
+
+    /**
+     * Filters the row with all the PNG filters, and writes out the one with the smallest sum of
+     * absolute differences, the heuristic suggested by the PNG specification
+     */
+    static void filterAdaptive(byte[] row, byte[] previous, int bpp, byte[] out, int pos,
+            byte[][] scratch) {
+        byte[] sub = scratch[0];
+        byte[] up = scratch[1];
+        byte[] average = scratch[2];
+        byte[] paeth = scratch[3];
+        int n = row.length;
+        int sumNone = 0, sumSub = 0, sumUp = 0, sumAverage = 0, sumPaeth = 0;
+
+        // the first pixel has no left neighbour
+        int first = Math.min(bpp, n);
+        for (int i = 0; i < first; i++) {
+            int x = row[i] & 0xff;
+            int b = previous[i] & 0xff;
+            sub[i] = (byte) x;
+            up[i] = (byte) (x - b);
+            average[i] = (byte) (x - (b >> 1));
+            paeth[i] = (byte) (x - b);
+            sumNone += Math.abs((int) row[i]);
+            sumSub += Math.abs((int) sub[i]);
+            sumUp += Math.abs((int) up[i]);
+            sumAverage += Math.abs((int) average[i]);
+            sumPaeth += Math.abs((int) paeth[i]);
+        }
+        for (int i = first; i < n; i++) {
+            int x = row[i] & 0xff;
+            int a = row[i - bpp] & 0xff;
+            int b = previous[i] & 0xff;
+            int c = previous[i - bpp] & 0xff;
+            sub[i] = (byte) (x - a);
+            up[i] = (byte) (x - b);
+            average[i] = (byte) (x - ((a + b) >> 1));
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+            paeth[i] = (byte) (x - predictor);
+            sumNone += Math.abs((int) row[i]);
+            sumSub += Math.abs((int) sub[i]);
+            sumUp += Math.abs((int) up[i]);
+            sumAverage += Math.abs((int) average[i]);
+            sumPaeth += Math.abs((int) paeth[i]);
+        }
+
+        int type = FILTER_NONE;
+        byte[] best = row;
+        int min = sumNone;
+        if (sumSub < min) {
+            type = FILTER_SUB;
+            best = sub;
+            min = sumSub;
+        }
+        if (sumUp < min) {
+            type = FILTER_UP;
+            best = up;
+            min = sumUp;
+        }
+        if (sumAverage < min) {
+            type = FILTER_AVERAGE;
+            best = average;
+            min = sumAverage;
+        }
+        if (sumPaeth < min) {
+            type = FILTER_PAETH;
+            best = paeth;
+        }
+        out[pos] = (byte) type;
+        System.arraycopy(best, 0, out, pos + 1, n);
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive blocks of data, the second one being
+     * <code>length2</code> bytes long (same as zlib adler32_combine)
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        writeInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, offset, length);
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data, offset, length);
+        out.write(trailer);
+    }
+
+    /**
+     * Splits the compressed data in IDAT chunks
+     */
+    static class IDATOutputStream extends OutputStream {
+
+        final OutputStream out;
+
+        final byte[] buffer = new byte[CHUNK_SIZE];
+
+        int count;
+
+        IDATOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes out the buffered data as a chunk
+         */
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // leave the target stream open, there is more to write
+            flushChunk();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+
+/**
+ * Turns the rows of an image into PNG scanlines, and describes them in terms of PNG color type
+ * and bit depth. Only the image layouts produced by the WMS are supported, see
+ * {@link #lookup(RenderedImage)}.
+ */
+abstract class ScanlineFormat {
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGB_ALPHA = 6;
+
+    final int width;
+
+    final int colorType;
+
+    final int bitDepth;
+
+    /**
+     * Bytes per complete pixel, rounding up to one, as used by the filters
+     */
+    final int bytesPerPixel;
+
+    /**
+     * Bytes in a scanline, without the filter type byte
+     */
+    final int rowBytes;
+
+    ScanlineFormat(int width, int colorType, int bitDepth, int channels) {
+        this.width = width;
+        this.colorType = colorType;
+        this.bitDepth = bitDepth;
+        int bitsPerPixel = bitDepth * channels;
+        this.bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+        this.rowBytes = (width * bitsPerPixel + 7) / 8;
+    }
+
+    boolean isPaletted() {
+        return colorType == COLOR_PALETTE;
+    }
+
+    /**
+     * Returns the PLTE chunk contents, or null if the image is not paletted
+     */
+    byte[] getPalette() {
+        return null;
+    }
+
+    /**
+     * Returns the tRNS chunk contents, or null if not needed
+     */
+    byte[] getTransparency() {
+        return null;
+    }
+
+    /**
+     * Returns a buffer for {@link #readRow(Raster, int, int, byte[], Object)}. Each thread needs
+     * its own.
+     */
+    abstract Object createBuffer();
+
+    /**
+     * Reads the row of the raster starting at x, y into a PNG scanline
+     */
+    abstract void readRow(Raster raster, int x, int y, byte[] row, Object buffer);
+
+    /**
+     * Returns the format of the image, or null if the image layout is not supported
+     */
+    static ScanlineFormat lookup(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null || sm == null) {
+            return null;
+        }
+        int width = image.getWidth();
+        if (cm instanceof IndexColorModel) {
+            return IndexedFormat.lookup(width, (IndexColorModel) cm, sm);
+        } else if (cm instanceof ComponentColorModel) {
+            return ComponentFormat.lookup(width, (ComponentColorModel) cm, sm);
+        } else if (cm instanceof DirectColorModel) {
+            return DirectFormat.lookup(width, (DirectColorModel) cm, sm);
+        }
+        return null;
+    }
+
+    /**
+     * Paletted images, packing pixels below 8 bits
+     */
+    static class IndexedFormat extends ScanlineFormat {
+
+        final IndexColorModel icm;
+
+        /**
+         * The rows can be copied as is
+         */
+        final boolean direct;
+
+        IndexedFormat(int width, IndexColorModel icm, int bitDepth, boolean direct) {
+            super(width, COLOR_PALETTE, bitDepth, 1);
+            this.icm = icm;
+            this.direct = direct;
+        }
+
+        static ScanlineFormat lookup(int width, IndexColorModel icm, SampleModel sm) {
+            if (sm.getNumBands() != 1 || icm.getMapSize() > 256) {
+                return null;
+            }
+            int sampleSize = sm.getSampleSize(0);
+            int bitDepth;
+            if (sampleSize == 1 || sampleSize == 2 || sampleSize == 4) {
+                bitDepth = sampleSize;
+            } else if (sampleSize <= 8) {
+                bitDepth = 8;
+            } else {
+                return null;
+            }
+            if (icm.getMapSize() > (1 << bitDepth)) {
+                bitDepth = 8;
+            }
+            boolean direct = bitDepth == 8 && sm instanceof ComponentSampleModel
+                    && sm.getDataType() == DataBuffer.TYPE_BYTE;
+            return new IndexedFormat(width, icm, bitDepth, direct);
+        }
+
+        @Override
+        byte[] getPalette() {
+            int size = icm.getMapSize();
+            byte[] reds = new byte[size];
+            byte[] greens = new byte[size];
+            byte[] blues = new byte[size];
+            icm.getReds(reds);
+            icm.getGreens(greens);
+            icm.getBlues(blues);
+            byte[] palette = new byte[size * 3];
+            for (int i = 0; i < size; i++) {
+                palette[i * 3] = reds[i];
+                palette[i * 3 + 1] = greens[i];
+                palette[i * 3 + 2] = blues[i];
+            }
+            return palette;
+        }
+
+        @Override
+        byte[] getTransparency() {
+            if (icm.getTransparency() == Transparency.OPAQUE) {
+                return null;
+            }
+            int size = icm.getMapSize();
+            byte[] alphas = new byte[size];
+            icm.getAlphas(alphas);
+            // trailing opaque entries can be omitted
+            int last = size - 1;
+            while (last >= 0 && alphas[last] == (byte) 255) {
+                last--;
+            }
+            if (last < 0) {
+                return null;
+            }
+            byte[] result = new byte[last + 1];
+            System.arraycopy(alphas, 0, result, 0, result.length);
+            return result;
+        }
+
+        @Override
+        Object createBuffer() {
+            return direct ? null : new int[width];
+        }
+
+        @Override
+        void readRow(Raster raster, int x, int y, byte[] row, Object buffer) {
+            if (direct) {
+                raster.getDataElements(x, y, width, 1, row);
+                return;
+            }
+            int[] samples = raster.getSamples(x, y, width, 1, 0, (int[]) buffer);
+            if (bitDepth == 8) {
+                for (int i = 0; i < width; i++) {
+                    row[i] = (byte) samples[i];
+                }
+            } else {
+                int perByte = 8 / bitDepth;
+                for (int i = 0, b = 0; i < width; b++) {
+                    int packed = 0;
+                    for (int shift = 8 - bitDepth, j = 0; j < perByte; shift -= bitDepth, j++) {
+                        if (i < width) {
+                            packed |= samples[i++] << shift;
+                        }
+                    }
+                    row[b] = (byte) packed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gray, gray alpha, RGB and RGBA images with 8 bits bands
+     */
+    static class ComponentFormat extends ScanlineFormat {
+
+        ComponentFormat(int width, int colorType, int bands) {
+            super(width, colorType, 8, bands);
+        }
+
+        static ScanlineFormat lookup(int width, ComponentColorModel cm, SampleModel sm) {
+            int bands = sm.getNumBands();
+            if (sm.getDataType() != DataBuffer.TYPE_BYTE || cm.isAlphaPremultiplied()
+                    || sm.getNumDataElements() != bands || bands != cm.getNumComponents()) {
+                return null;
+            }
+            for (int i = 0; i < bands; i++) {
+                if (sm.getSampleSize(i) != 8) {
+                    return null;
+                }
+            }
+            ColorSpace cs = cm.getColorSpace();
+            int colorType;
+            if (cs.getType() == ColorSpace.TYPE_GRAY && bands <= 2) {
+                colorType = bands == 1 ? COLOR_GRAY : COLOR_GRAY_ALPHA;
+            } else if (cs.isCS_sRGB() && bands >= 3 && bands <= 4) {
+                colorType = bands == 3 ? COLOR_RGB : COLOR_RGB_ALPHA;
+            } else {
+                return null;
+            }
+            if (cm.hasAlpha() != (bands == 2 || bands == 4)) {
+                return null;
+            }
+            return new ComponentFormat(width, colorType, bands);
+        }
+
+        @Override
+        Object createBuffer() {
+            return null;
+        }
+
+        @Override
+        void readRow(Raster raster, int x, int y, byte[] row, Object buffer) {
+            // the bands come out in color model order, the same as PNG
+            raster.getDataElements(x, y, width, 1, row);
+        }
+    }
+
+    /**
+     * RGB and ARGB images packed in integers
+     */
+    static class DirectFormat extends ScanlineFormat {
+
+        final boolean alpha;
+
+        DirectFormat(int width, boolean alpha) {
+            super(width, alpha ? COLOR_RGB_ALPHA : COLOR_RGB, 8, alpha ? 4 : 3);
+            this.alpha = alpha;
+        }
+
+        static ScanlineFormat lookup(int width, DirectColorModel cm, SampleModel sm) {
+            if (sm.getDataType() != DataBuffer.TYPE_INT || sm.getNumDataElements() != 1
+                    || cm.isAlphaPremultiplied() || !cm.getColorSpace().isCS_sRGB()
+                    || cm.getRedMask() != 0xff0000 || cm.getGreenMask() != 0xff00
+                    || cm.getBlueMask() != 0xff) {
+                return null;
+            }
+            if (cm.hasAlpha() && cm.getAlphaMask() != 0xff000000) {
+                return null;
+            }
+            return new DirectFormat(width, cm.hasAlpha());
+        }
+
+        @Override
+        Object createBuffer() {
+            return new int[width];
+        }
+
+        @Override
+        void readRow(Raster raster, int x, int y, byte[] row, Object buffer) {
+            int[] pixels = (int[]) raster.getDataElements(x, y, width, 1, buffer);
+            int b = 0;
+            if (alpha) {
+                for (int i = 0; i < width; i++) {
+                    int p = pixels[i];
+                    row[b++] = (byte) (p >> 16);
+                    row[b++] = (byte) (p >> 8);
+                    row[b++] = (byte) p;
+                    row[b++] = (byte) (p >>> 24);
+                }
+            } else {
+                for (int i = 0; i < width; i++) {
+                    int p = pixels[i];
+                    row[b++] = (byte) (p >> 16);
+                    row[b++] = (byte) (p >> 8);
+                    row[b++] = (byte) p;
+                }
+            }
+        }
+    }
+}
@@ -9,23 +9,29 @@ import java.awt.image.IndexColorModel;
 /**
  * A color indexer used when all we have is the target palette. Uses a LRU map to cache only
  * the most recenlty used colors (the original image can often have too many to practically
- * keep in memory under concurrent load)
+ * keep in memory under concurrent load). The tiles of the image can be computed by multiple
+ * threads, so the cache is split in stripes, picked by color, each one with its own lock
  * 
  * @author Andrea Aime - GeoSolutions
  */
 public class LRUColorIndexer implements ColorIndexer {
+    /**
+     * Number of cache stripes, a power of two
+     */
+    static final int STRIPES = 16;
+
     IndexColorModel icm;
     ColorIndexer delegate;
-    ColorMap cm;
-    LRUColors lru;
-    int maxSize;
+    Stripe[] stripes;
 
     public LRUColorIndexer(IndexColorModel icm, int maxSize) {
         this.icm = icm;
         this.delegate = new SimpleColorIndexer(icm);
-        this.cm = new ColorMap(maxSize);
-        this.lru = new LRUColors();
-        this.maxSize = maxSize;
+        this.stripes = new Stripe[STRIPES];
+        int stripeSize = Math.max(1, maxSize / STRIPES);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
     }
 
     @Override
@@ -35,9 +41,34 @@ public class LRUColorIndexer implements ColorIndexer {
 
     @Override
     public int getClosestIndex(int r, int g, int b, int a) {
-        int idx = cm.get(r, g, b, a);
-        if(idx == -1) {
-            idx = delegate.getClosestIndex(r, g, b, a);
+        int color = ColorUtils.color(r, g, b, a);
+        // spread the colors, similar ones would otherwise end up in the same stripe
+        Stripe stripe = stripes[(color * 0x9E3779B9) >>> 28];
+        synchronized (stripe) {
+            int idx = stripe.cm.get(r, g, b, a);
+            if (idx == -1) {
+                idx = delegate.getClosestIndex(r, g, b, a);
+                stripe.put(r, g, b, a, idx);
+            }
+            return idx;
+        }
+    }
+
+    /**
+     * A portion of the cache, to be used while holding its lock
+     */
+    static final class Stripe {
+        ColorMap cm;
+        LRUColors lru;
+        int maxSize;
+
+        Stripe(int maxSize) {
+            this.cm = new ColorMap(maxSize);
+            this.lru = new LRUColors();
+            this.maxSize = maxSize;
+        }
+
+        void put(int r, int g, int b, int a, int idx) {
             cm.put(r, g, b, a, idx);
             if(cm.size() > maxSize) {
                 ColorEntry ce = lru.removeLast();
@@ -52,8 +83,7 @@ public class LRUColorIndexer implements ColorIndexer {
                 int color = ColorUtils.color(r, g, b, a);
                 lru.add(new ColorEntry(color, null, null));
             }
-        } 
-        return idx;
+        }
     }
 
     static final class ColorEntry {
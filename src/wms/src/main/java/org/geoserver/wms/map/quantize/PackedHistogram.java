@@ -6,11 +6,19 @@ package org.geoserver.wms.map.quantize;
 
 import static org.geoserver.wms.map.quantize.ColorUtils.*;
 
+import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.geoserver.wms.RenderingThreadPool;
 import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 
 /**
@@ -103,6 +111,42 @@ class PackedHistogram {
         }
     };
 
+    /**
+     * Minimum number of sampled pixels each parallel task should scan
+     */
+    static final int MIN_REGION_PIXELS = 64 * 1024;
+
+    /**
+     * The part of a tile scanned as a unit
+     */
+    static final class Region {
+        final int tileX;
+
+        final int tileY;
+
+        final Rectangle area;
+
+        Region(int tileX, int tileY, Rectangle area) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.area = area;
+        }
+    }
+
+    /**
+     * The colors found by a parallel task, with the shift they have been packed with
+     */
+    static final class PartialHistogram {
+        final ColorMap colorMap;
+
+        final int shift;
+
+        PartialHistogram(ColorMap colorMap, int shift) {
+            this.colorMap = colorMap;
+            this.shift = shift;
+        }
+    }
+
     private int shift = 0;
 
     private HistogramBin[] histogram;
@@ -110,18 +154,35 @@ class PackedHistogram {
     ColorMap colorMap;
 
     PackedHistogram(RenderedImage image, int stepX, int stepY) {
-        // build a reduced map of the colors
-        colorMap = new ColorMap();
+        this(image, stepX, stepY, null);
+    }
 
-        final int minX = image.getMinTileX();
-        final int maxX = minX + image.getNumXTiles();
-        final int minY = image.getMinTileY();
-        final int maxY = minY + image.getNumYTiles();
-        this.shift = 0;
-        for (int x = minX; x < maxX; x++) {
-            for (int y = minY; y < maxY; y++) {
-                Raster tile = image.getTile(x, y);
-                shift = updateColorMap(image, tile, colorMap, shift, stepX, stepY);
+    /**
+     * Builds the histogram, scanning parts of the image in parallel if an executor is provided
+     * and the image is large enough to make it worthwhile
+     */
+    PackedHistogram(RenderedImage image, int stepX, int stepY, ExecutorService executor) {
+        this(image, stepX, stepY, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    PackedHistogram(RenderedImage image, int stepX, int stepY, ExecutorService executor,
+            int maxTasks) {
+        int parallelism = 1;
+        if (executor != null) {
+            long pixels = (long) image.getWidth() * image.getHeight() / stepX / stepY;
+            parallelism = (int) Math.min(maxTasks, pixels / MIN_REGION_PIXELS);
+        }
+
+        List<Region> regions = getRegions(image, stepX, stepY, parallelism > 1);
+        if (parallelism > 1 && regions.size() > 1) {
+            buildParallel(image, regions, stepX, stepY, executor,
+                    Math.min(parallelism, regions.size()));
+        } else {
+            // build a reduced map of the colors
+            colorMap = new ColorMap();
+            this.shift = 0;
+            for (Region region : regions) {
+                shift = updateColorMap(image, region, colorMap, shift, stepX, stepY);
             }
         }
 
@@ -135,14 +196,142 @@ class PackedHistogram {
         // colorMap.printStats();
     }
 
-    private int updateColorMap(RenderedImage image, Raster tile, ColorMap colorMap, int shift,
+    /**
+     * Returns the parts of the tiles that are inside the image. When splitting the tiles are
+     * also cut in bands of rows, as a lot of the images we get are made of a single tile
+     */
+    List<Region> getRegions(RenderedImage image, int stepX, int stepY, boolean split) {
+        List<Region> regions = new ArrayList<Region>();
+        final int minX = image.getMinTileX();
+        final int maxX = minX + image.getNumXTiles();
+        final int minY = image.getMinTileY();
+        final int maxY = minY + image.getNumYTiles();
+        Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+        for (int x = minX; x < maxX; x++) {
+            for (int y = minY; y < maxY; y++) {
+                Rectangle tile = new Rectangle(image.getTileGridXOffset() + x
+                        * image.getTileWidth(), image.getTileGridYOffset() + y
+                        * image.getTileHeight(), image.getTileWidth(), image.getTileHeight());
+                Rectangle area = tile.intersection(bounds);
+                if (area.isEmpty()) {
+                    continue;
+                }
+                if (!split) {
+                    regions.add(new Region(x, y, area));
+                    continue;
+                }
+                // keep the bands on the same grid of rows the sequential scan would use
+                int rows = (int) Math.max(1, (long) MIN_REGION_PIXELS * stepX * stepY
+                        / area.width);
+                rows = (rows + stepY - 1) / stepY * stepY;
+                for (int row = 0; row < area.height; row += rows) {
+                    regions.add(new Region(x, y, new Rectangle(area.x, area.y + row, area.width,
+                            Math.min(rows, area.height - row))));
+                }
+            }
+        }
+        return regions;
+    }
+
+    void buildParallel(final RenderedImage image, List<Region> regions, final int stepX,
+            final int stepY, ExecutorService executor, int tasks) {
+        // each task gets its own color map and shift over a contiguous group of regions
+        List<Future<PartialHistogram>> futures = new ArrayList<Future<PartialHistogram>>();
+        try {
+            for (int t = 0; t < tasks; t++) {
+                final List<Region> group = regions.subList(regions.size() * t / tasks,
+                        regions.size() * (t + 1) / tasks);
+                Callable<PartialHistogram> task = new Callable<PartialHistogram>() {
+                    public PartialHistogram call() throws Exception {
+                        ColorMap map = new ColorMap();
+                        int mapShift = 0;
+                        for (Region region : group) {
+                            mapShift = updateColorMap(image, region, map, mapShift, stepX, stepY);
+                        }
+                        return new PartialHistogram(map, mapShift);
+                    }
+                };
+                if (executor instanceof RenderingThreadPool) {
+                    futures.add(((RenderingThreadPool) executor).submitOrRun(task));
+                } else {
+                    futures.add(executor.submit(task));
+                }
+            }
+
+            List<PartialHistogram> partials = new ArrayList<PartialHistogram>();
+            for (Future<PartialHistogram> future : futures) {
+                partials.add(future.get());
+            }
+
+            // start from the most shifted one, the others can only be shifted further
+            PartialHistogram merged = partials.get(0);
+            for (PartialHistogram partial : partials) {
+                if (partial.shift > merged.shift) {
+                    merged = partial;
+                }
+            }
+            colorMap = merged.colorMap;
+            shift = merged.shift;
+            for (PartialHistogram partial : partials) {
+                if (partial != merged) {
+                    shift = merge(partial, colorMap, shift);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building the color histogram", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<PartialHistogram> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of the partial histogram into the color map, bringing the colors to the
+     * same shift, and returns the eventually increased shift of the color map
+     */
+    private int merge(PartialHistogram partial, ColorMap colorMap, int shift) {
+        for (ColorEntry entry : partial.colorMap) {
+            int color = entry.color;
+            int alpha = alpha(color);
+            int red = red(color);
+            int green = green(color);
+            int blue = blue(color);
+            int delta = shift - partial.shift;
+            if (delta > 0) {
+                red = shift(red, delta);
+                green = shift(green, delta);
+                blue = shift(blue, delta);
+                alpha = shift(alpha, delta);
+            }
+            colorMap.increment(red, green, blue, alpha, entry.value);
+
+            if (colorMap.size() > Short.MAX_VALUE) {
+                shift++;
+                shiftColorMap(colorMap);
+            }
+        }
+
+        return shift;
+    }
+
+    private int updateColorMap(RenderedImage image, Region region, ColorMap colorMap, int shift,
             int stepX, int stepY) {
-        final int minX = Math.max(tile.getMinX(), image.getMinX());
-        final int maxX = Math.min(tile.getWidth() + tile.getMinX(),
-                image.getMinX() + image.getWidth());
-        final int minY = Math.max(tile.getMinY(), image.getMinY());
-        final int maxY = Math.min(tile.getHeight() + tile.getMinY(),
-                image.getMinY() + image.getHeight());
+        Raster tile = image.getTile(region.tileX, region.tileY);
+        final int minX = region.area.x;
+        final int maxX = minX + region.area.width;
+        final int minY = region.area.y;
+        final int maxY = minY + region.area.height;
         int bands = tile.getNumBands();
         int[] pixel = new int[bands];
         for (int x = minX; x < maxX; x += stepX) {
@@ -0,0 +1,180 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the palettes built for recent maps, so that other maps looking alike (e.g., the other
+ * tiles of the same layers and styles) can skip the histogram and median cut and go straight to
+ * the color mapping with a {@link LRUColorIndexer}.
+ * <p>
+ * The keys are provided by the caller and should contain everything that affects the colors of
+ * the map, but not its extent. Different parts of a map can still have rather different colors,
+ * so before reusing a palette the image is sampled on a regular grid, and the palette is rejected
+ * if the error of any sample, computed with the same weights as {@link SimpleColorIndexer}, is
+ * above the configured max error. Checking every sample rather than the average makes sure that
+ * small features painted with a color missing from the palette are not mapped to a wrong one.
+ * </p>
+ */
+public class PaletteCache {
+
+    /**
+     * Number of cached palettes, 0 disables the cache
+     */
+    public static final int DEFAULT_SIZE = Integer.getInteger(
+            "org.geoserver.wms.paletteCacheSize", 128);
+
+    /**
+     * Max error allowed for any sampled pixel when reusing a palette, in color component units
+     */
+    public static final double DEFAULT_MAX_ERROR = Double.parseDouble(System.getProperty(
+            "org.geoserver.wms.paletteCacheMaxError", "8"));
+
+    /**
+     * Samples taken along each axis to estimate the error of a cached palette
+     */
+    static final int SAMPLES = 64;
+
+    /**
+     * Sum of the weights used in the color distance
+     */
+    static final int WEIGHTS = 3 + 4 + 2 + 4;
+
+    final Cache<Object, IndexColorModel> palettes;
+
+    final double maxError;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong rejections = new AtomicLong();
+
+    public PaletteCache() {
+        this(DEFAULT_SIZE, DEFAULT_MAX_ERROR);
+    }
+
+    public PaletteCache(int size, double maxError) {
+        this.maxError = maxError;
+        this.palettes = size > 0 ? CacheBuilder.newBuilder().maximumSize(size)
+                .<Object, IndexColorModel> build() : null;
+    }
+
+    /**
+     * Returns a color indexer for the image based on the palette cached with the given key, or
+     * null if there is no palette or it does not represent well enough the image colors
+     */
+    public ColorIndexer getColorIndexer(Object key, RenderedImage image) {
+        if (palettes == null || key == null) {
+            return null;
+        }
+        IndexColorModel icm = palettes.getIfPresent(key);
+        if (icm == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        ColorIndexer indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+        if (getMaxError(image, indexer) > maxError) {
+            rejections.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return indexer;
+    }
+
+    /**
+     * Caches the palette of the color indexer with the given key
+     */
+    public void put(Object key, ColorIndexer indexer) {
+        if (palettes != null && key != null) {
+            palettes.put(key, indexer.toIndexColorModel());
+        }
+    }
+
+    /**
+     * Returns the max distance between the image colors and the palette ones, sampling the image
+     * on a regular grid. Stops at the first sample above the max error, as the palette is going
+     * to be rejected anyway.
+     */
+    double getMaxError(RenderedImage image, ColorIndexer indexer) {
+        IndexColorModel icm = indexer.toIndexColorModel();
+        int stepsX = Math.min(SAMPLES, image.getWidth());
+        int stepsY = Math.min(SAMPLES, image.getHeight());
+        if (stepsX == 0 || stepsY == 0) {
+            return 0;
+        }
+
+        int[] pixel = new int[image.getSampleModel().getNumBands()];
+        int bands = pixel.length;
+        double max = 0;
+        for (int i = 0; i < stepsY; i++) {
+            int y = image.getMinY() + (2 * i + 1) * image.getHeight() / (2 * stepsY);
+            int tileY = (int) Math.floor((y - image.getTileGridYOffset())
+                    / (double) image.getTileHeight());
+            for (int j = 0; j < stepsX; j++) {
+                int x = image.getMinX() + (2 * j + 1) * image.getWidth() / (2 * stepsX);
+                int tileX = (int) Math.floor((x - image.getTileGridXOffset())
+                        / (double) image.getTileWidth());
+                Raster tile = image.getTile(tileX, tileY);
+                tile.getPixel(x, y, pixel);
+
+                int red, green, blue, alpha;
+                if (bands == 1 || bands == 2) {
+                    red = green = blue = pixel[0];
+                    alpha = bands == 2 ? pixel[1] : 255;
+                } else {
+                    red = pixel[0];
+                    green = pixel[1];
+                    blue = pixel[2];
+                    alpha = bands == 4 ? pixel[3] : 255;
+                }
+                // same normalization as the histogram, almost transparent pixels are all alike
+                if (alpha <= PackedHistogram.ALPHA_THRESHOLD) {
+                    red = green = blue = 255;
+                    alpha = 0;
+                }
+
+                int idx = indexer.getClosestIndex(red, green, blue, alpha);
+                int dr = red - icm.getRed(idx);
+                int dg = green - icm.getGreen(idx);
+                int db = blue - icm.getBlue(idx);
+                int da = alpha - icm.getAlpha(idx);
+                double error = Math.sqrt((3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da)
+                        / (double) WEIGHTS);
+                if (error > max) {
+                    max = error;
+                    if (max > maxError) {
+                        return max;
+                    }
+                }
+            }
+        }
+
+        return max;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of cached palettes found but rejected as too far from the image colors
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +35,8 @@ public class Quantizer {
     
     boolean subsample = false;
 
+    ExecutorService executor;
+
     int maxColors;
 
     public Quantizer(int maxColors) {
@@ -49,6 +52,16 @@ public class Quantizer {
         return this;
     }
 
+    /**
+     * Builds the histogram of large images in parallel using the given executor
+     * @param executor
+     * @return
+     */
+    public Quantizer parallel(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public ColorIndexer buildColorIndexer(RenderedImage image) {
         long totalPixelCount = (long) image.getWidth() * (long) image.getHeight();
 
@@ -63,7 +76,7 @@ public class Quantizer {
             subsx = 1;
             subsy = 1;
         }
-        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy);
+        PackedHistogram histogram = new PackedHistogram(image, subsx, subsy, executor);
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("Found " + histogram.size() + " unique colors with shift "
                     + histogram.getShift());
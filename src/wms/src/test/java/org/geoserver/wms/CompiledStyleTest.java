@@ -0,0 +1,82 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+import org.geoserver.wms.CompiledStyle.ActiveRules;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+public class CompiledStyleTest {
+
+    StyleBuilder sb = new StyleBuilder();
+
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+    @Test
+    public void testActiveRules() {
+        Rule all = sb.createRule(sb.createLineSymbolizer(Color.BLACK, 1));
+        Rule near = sb.createRule(sb.createLineSymbolizer(Color.RED, 10));
+        near.setMaxScaleDenominator(10000);
+        Rule far = sb.createRule(sb.createLineSymbolizer(Color.BLUE, 2));
+        far.setMinScaleDenominator(10000);
+        far.setFilter(ff.equals(ff.property("type"), ff.literal("highway")));
+
+        Style style = style(all, near, far);
+        CompiledStyle compiled = CompiledStyle.get(style);
+        assertSame(compiled, CompiledStyle.get(style));
+
+        ActiveRules rules = compiled.getActiveRules(5000);
+        assertEquals(Arrays.asList(all, near), rules.getRules());
+        assertEquals(Filter.INCLUDE, rules.getFilter());
+        assertEquals(10, rules.getBuffer());
+        assertSame(rules, compiled.getActiveRules(1000));
+
+        // the min scale is inclusive, the max exclusive
+        rules = compiled.getActiveRules(10000);
+        assertEquals(Arrays.asList(all, far), rules.getRules());
+        assertEquals(2, rules.getBuffer());
+        assertEquals(Arrays.asList(all, far), compiled.getActiveRules(1e9).getRules());
+
+        assertTrue(compiled.getActiveRules(Double.NaN).isEmpty());
+        assertFalse(compiled.hasTransformation());
+        assertFalse(compiled.hasRasterSymbolizers());
+        assertEquals(1, compiled.getAttributes().size());
+    }
+
+    @Test
+    public void testRulesFilter() {
+        Rule r1 = sb.createRule(sb.createPointSymbolizer());
+        r1.setFilter(ff.equals(ff.property("type"), ff.literal("a")));
+        Rule r2 = sb.createRule(sb.createPointSymbolizer());
+        r2.setFilter(ff.equals(ff.property("type"), ff.literal("b")));
+        r2.setMaxScaleDenominator(1000);
+
+        CompiledStyle compiled = CompiledStyle.get(style(r1, r2));
+        assertEquals(r1.getFilter(), compiled.getActiveRules(5000).getFilter());
+        assertEquals(ff.or(r1.getFilter(), r2.getFilter()), compiled.getActiveRules(500)
+                .getFilter());
+    }
+
+    Style style(Rule... rules) {
+        Style style = sb.createStyle();
+        FeatureTypeStyle fts = sb.createFeatureTypeStyle("Feature", rules);
+        style.featureTypeStyles().add(fts);
+        return style;
+    }
+}
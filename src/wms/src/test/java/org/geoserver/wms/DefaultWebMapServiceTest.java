@@ -6,11 +6,17 @@ package org.geoserver.wms;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
 import org.geoserver.data.test.MockData;
 import org.geotools.referencing.CRS;
 import org.junit.Test;
@@ -148,4 +154,33 @@ public class DefaultWebMapServiceTest extends WMSTestSupport {
         assertEquals(512, height);
     }
 
+    @Test
+    public void testReleaseWorkspaceRenderingPools() throws Exception {
+        RenderingThreadPool renamed = DefaultWebMapService.createRenderingPool("workspace",
+                "poolsTest");
+        DefaultWebMapService.WORKSPACE_RENDERING_POOLS.put("poolsTest", renamed);
+        WorkspaceInfo ws = getCatalog().getFactory().createWorkspace();
+        ws.setName("poolsTestRenamed");
+
+        CatalogModifyEventImpl modify = new CatalogModifyEventImpl();
+        modify.setSource(ws);
+        modify.setPropertyNames(Arrays.asList("name"));
+        modify.setOldValues(Arrays.asList("poolsTest"));
+        modify.setNewValues(Arrays.asList("poolsTestRenamed"));
+        CatalogListener cleaner = new DefaultWebMapService.WorkspaceRenderingPoolsCleaner();
+        cleaner.handleModifyEvent(modify);
+        assertTrue(renamed.isShutdown());
+        assertFalse(DefaultWebMapService.WORKSPACE_RENDERING_POOLS.containsKey("poolsTest"));
+
+        RenderingThreadPool removed = DefaultWebMapService.createRenderingPool("workspace",
+                "poolsTestRenamed");
+        DefaultWebMapService.WORKSPACE_RENDERING_POOLS.put("poolsTestRenamed", removed);
+        CatalogRemoveEventImpl remove = new CatalogRemoveEventImpl();
+        remove.setSource(ws);
+        cleaner.handleRemoveEvent(remove);
+        assertTrue(removed.isShutdown());
+        assertFalse(DefaultWebMapService.WORKSPACE_RENDERING_POOLS
+                .containsKey("poolsTestRenamed"));
+    }
+
 }
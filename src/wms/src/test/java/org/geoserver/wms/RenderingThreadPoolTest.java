@@ -0,0 +1,104 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderingThreadPoolTest {
+
+    RenderingThreadPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    Callable<Thread> currentThread() {
+        return new Callable<Thread>() {
+            public Thread call() throws Exception {
+                return Thread.currentThread();
+            }
+        };
+    }
+
+    Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testSubmitOrRun() throws Exception {
+        pool = new RenderingThreadPool("test", 2, 4);
+        Future<Thread> future = pool.submitOrRun(currentThread());
+        assertNotSame(Thread.currentThread(), future.get());
+        assertEquals(0, pool.getCallerRunsCount());
+    }
+
+    @Test
+    public void testSubmitOrRunKeepsAThreadFree() throws Exception {
+        pool = new RenderingThreadPool("test", 2, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            // takes the only permit, the other thread is left for the painters
+            pool.submitOrRun(new Callable<Object>() {
+                public Object call() throws Exception {
+                    Thread.sleep(200);
+                    return null;
+                }
+            });
+            Future<Thread> future = pool.submitOrRun(currentThread());
+            assertSame(Thread.currentThread(), future.get());
+            assertEquals(1, pool.getCallerRunsCount());
+
+            // painters still get a pool thread
+            Future<?> painter = pool.submit(await(latch));
+            latch.countDown();
+            painter.get(5, TimeUnit.SECONDS);
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        pool = new RenderingThreadPool("test", 1, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            pool.submit(await(latch));
+            pool.submit(await(latch));
+            assertEquals(1, pool.getQueuedCount());
+
+            // saturated, this one gets a temporary thread instead of running in the caller
+            final CountDownLatch started = new CountDownLatch(1);
+            pool.submit(new Runnable() {
+                public void run() {
+                    started.countDown();
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(1, pool.getOverflowCount());
+            assertEquals(1, pool.getPoolSize());
+        } finally {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.impl.DataAccessRule;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class CapabilitiesCacheTest {
+
+    GeoServer geoServer;
+
+    CapabilitiesCache cache;
+
+    AtomicInteger encoded;
+
+    @Before
+    public void setUp() {
+        geoServer = new GeoServerImpl();
+        cache = new CapabilitiesCache(geoServer, 10, 60, false);
+        encoded = new AtomicInteger();
+    }
+
+    CapabilitiesCache.DocumentWriter writer(final String content) {
+        return new CapabilitiesCache.DocumentWriter() {
+            public void write(OutputStream output) throws IOException, ServiceException {
+                encoded.incrementAndGet();
+                output.write(content.getBytes("UTF-8"));
+            }
+        };
+    }
+
+    String write(GetCapabilitiesRequest request, String version, String content)
+            throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cache.write(request, version, output, writer(content));
+        return output.toString("UTF-8");
+    }
+
+    GetCapabilitiesRequest request(String baseUrl) {
+        GetCapabilitiesRequest request = new GetCapabilitiesRequest();
+        request.setBaseUrl(baseUrl);
+        return request;
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        assertEquals("caps", write(request("http://localhost/geoserver"), "1.1.1", "caps"));
+        assertEquals("caps", write(request("http://localhost/geoserver"), "1.1.1", "other"));
+        assertEquals(1, encoded.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        write(request("http://localhost/geoserver"), "1.1.1", "caps");
+        assertEquals("caps130", write(request("http://localhost/geoserver"), "1.3.0", "caps130"));
+        assertEquals("proxied", write(request("http://proxy/geoserver"), "1.1.1", "proxied"));
+
+        GetCapabilitiesRequest request = request("http://localhost/geoserver");
+        request.setNamespace("topp");
+        assertEquals("topp", write(request, "1.1.1", "topp"));
+        assertEquals(4, encoded.get());
+    }
+
+    @Test
+    public void testUpdateSequence() throws Exception {
+        write(request("http://localhost/geoserver"), "1.1.1", "caps");
+
+        GeoServerInfo global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+
+        assertEquals("updated", write(request("http://localhost/geoserver"), "1.1.1", "updated"));
+        assertEquals(2, encoded.get());
+    }
+
+    @Test
+    public void testStaleWhileRebuilding() throws Exception {
+        write(request("http://localhost/geoserver"), "1.1.1", "caps");
+
+        GeoServerInfo global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+
+        // a request starts rebuilding the document
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        Thread rebuild = new Thread() {
+            public void run() {
+                try {
+                    cache.write(request("http://localhost/geoserver"), "1.1.1", rebuilt,
+                            new CapabilitiesCache.DocumentWriter() {
+                                public void write(OutputStream output) throws IOException,
+                                        ServiceException {
+                                    building.countDown();
+                                    try {
+                                        release.await();
+                                    } catch (InterruptedException e) {
+                                        throw new ServiceException(e);
+                                    }
+                                    output.write("updated".getBytes("UTF-8"));
+                                }
+                            });
+                } catch (Exception e) {
+                    // checked below
+                }
+            }
+        };
+        rebuild.start();
+        assertTrue(building.await(5, TimeUnit.SECONDS));
+        try {
+            // the concurrent requests get the previous document right away
+            assertEquals("caps", write(request("http://localhost/geoserver"), "1.1.1", "other"));
+        } finally {
+            release.countDown();
+        }
+        rebuild.join(5000);
+        assertEquals("updated", rebuilt.toString("UTF-8"));
+        assertEquals("updated", write(request("http://localhost/geoserver"), "1.1.1", "other"));
+        assertEquals(1, encoded.get());
+    }
+
+    @Test
+    public void testRulesChanged() throws Exception {
+        File dir = File.createTempFile("capabilities", "data", new File("target"));
+        dir.delete();
+        dir.mkdir();
+        try {
+            DataAccessRuleDAO dao = new DataAccessRuleDAO(new GeoServerDataDirectory(dir), null);
+            cache.setDataAccessRuleDAO(dao);
+            write(request("http://localhost/geoserver"), "1.1.1", "caps");
+
+            // loading the rules drops the documents
+            dao.getRules();
+            assertEquals("loaded", write(request("http://localhost/geoserver"), "1.1.1", "loaded"));
+
+            // and so does changing them
+            dao.addRule(new DataAccessRule("topp", "states", AccessMode.READ, "ROLE_TOPP"));
+            assertEquals("added", write(request("http://localhost/geoserver"), "1.1.1", "added"));
+            assertEquals(3, encoded.get());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        try {
+            cache.write(request("http://localhost/geoserver"), "1.1.1",
+                    new ByteArrayOutputStream(), new CapabilitiesCache.DocumentWriter() {
+                        public void write(OutputStream output) throws IOException,
+                                ServiceException {
+                            throw new ServiceException("failed");
+                        }
+                    });
+            fail("Should have failed");
+        } catch (ServiceException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals("caps", write(request("http://localhost/geoserver"), "1.1.1", "caps"));
+    }
+
+    @Test
+    public void testVaryOnEncoding() throws Exception {
+        cache = new CapabilitiesCache(geoServer, 10, 60, true);
+        try {
+            MockHttpServletResponse response = dispatch("gzip, deflate");
+            cache.write(request("http://localhost/geoserver"), "1.1.1",
+                    new ByteArrayOutputStream(), writer("caps"));
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", response.getHeader("Vary"));
+
+            // the identity response varies too
+            response = dispatch(null);
+            assertEquals("caps", write(request("http://localhost/geoserver"), "1.1.1", "caps"));
+            assertNull(response.getHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        } finally {
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    MockHttpServletResponse dispatch(String acceptEncoding) {
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        if (acceptEncoding != null) {
+            httpRequest.setHeader("Accept-Encoding", acceptEncoding);
+        }
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        Request request = new Request();
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(httpResponse);
+        Dispatcher.REQUEST.set(request);
+        return httpResponse;
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        cache = new CapabilitiesCache(geoServer, 0, 60, false);
+        write(request("http://localhost/geoserver"), "1.1.1", "caps");
+        assertEquals("other", write(request("http://localhost/geoserver"), "1.1.1", "other"));
+        assertEquals(2, encoded.get());
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.junit.After;
+import org.junit.Test;
+
+public class MetaTileEncoderTest {
+
+    /**
+     * Encodes a tile as its width, failing on the width specified
+     */
+    static class WidthEncoder extends RenderedImageMapResponse {
+
+        int failOn;
+
+        WidthEncoder(int failOn) {
+            super("image/fake", null);
+            this.failOn = failOn;
+        }
+
+        @Override
+        public void formatImageOutputStream(RenderedImage image, OutputStream outStream,
+                WMSMapContent mapContent) throws ServiceException, IOException {
+            if (image.getWidth() == failOn) {
+                throw new IOException("failed");
+            }
+            outStream.write(image.getWidth());
+        }
+
+        @Override
+        public MapProducerCapabilities getCapabilities(String outputFormat) {
+            return null;
+        }
+    }
+
+    /**
+     * Slowly encodes tiles, tracking how many encodings are running
+     */
+    static class SlowEncoder extends WidthEncoder {
+
+        AtomicInteger running = new AtomicInteger();
+
+        AtomicInteger encoded = new AtomicInteger();
+
+        SlowEncoder() {
+            super(-1);
+        }
+
+        @Override
+        public void formatImageOutputStream(RenderedImage image, OutputStream outStream,
+                WMSMapContent mapContent) throws ServiceException, IOException {
+            running.incrementAndGet();
+            try {
+                Thread.sleep(20);
+                super.formatImageOutputStream(image, outStream, mapContent);
+                encoded.incrementAndGet();
+            } catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    QuickTileCache cache = new QuickTileCache();
+
+    MetaTileEncoder encoder;
+
+    @After
+    public void tearDown() {
+        if (encoder != null && encoder.executor != null) {
+            encoder.executor.shutdownNow();
+        }
+    }
+
+    MetaTileKey key() {
+        return new MetaTileKey(new QuickTileCache.MapKey("layers=topp:states", 10,
+                new Point2D.Double(0, 0)), new Point(0, 0), null);
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(i + 1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        }
+        return tiles;
+    }
+
+    void waitEncoded() throws InterruptedException {
+        for (int i = 0; i < 500 && !encoder.encoding.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(encoder.encoding.isEmpty());
+    }
+
+    void assertCached(MetaTileKey key) {
+        QuickTileCache.CacheElement ce = cache.tileCache.getIfPresent(key);
+        assertNotNull(ce);
+        for (int i = 0; i < ce.tiles.length; i++) {
+            assertArrayEquals(new byte[] { (byte) (i + 1) }, ce.tiles[i]);
+        }
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        encoder = new MetaTileEncoder(cache, 0);
+        MetaTileKey key = key();
+        byte[] tile = encoder.encode(key, 4, new WidthEncoder(-1), tiles(), null);
+        assertArrayEquals(new byte[] { 5 }, tile);
+        assertCached(key);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        encoder = new MetaTileEncoder(cache, 2);
+        MetaTileKey key = key();
+        byte[] tile = encoder.encode(key, 7, new WidthEncoder(-1), tiles(), null);
+        assertArrayEquals(new byte[] { 8 }, tile);
+        waitEncoded();
+        assertCached(key);
+    }
+
+    @Test
+    public void testWaitsForSiblings() throws Exception {
+        encoder = new MetaTileEncoder(cache, 2);
+        SlowEncoder slow = new SlowEncoder();
+        MetaTileKey key = key();
+        byte[] tile = encoder.encode(key, 0, slow, tiles(), null);
+        assertArrayEquals(new byte[] { 1 }, tile);
+        // the map content can be disposed right after, nobody is using it anymore
+        assertEquals(0, slow.running.get());
+        assertEquals(9, slow.encoded.get());
+        waitEncoded();
+        assertCached(key);
+    }
+
+    @Test
+    public void testStuckMetaTile() throws Exception {
+        encoder = new MetaTileEncoder(cache, 2, 100);
+        MetaTileKey key = key();
+        // a meta tile whose tasks never run
+        MetaTileEncoder.EncodingMetaTile metaTile = encoder.new EncodingMetaTile(key, 9);
+        RenderedImage[] tiles = tiles();
+        for (int i = 0; i < tiles.length; i++) {
+            metaTile.tasks[i] = encoder.new EncodingTask(metaTile, new WidthEncoder(-1),
+                    tiles[i], null, null, null);
+        }
+        encoder.encoding.put(key, metaTile);
+
+        assertNull(encoder.getTile(metaTile, 3));
+        assertFalse(encoder.encoding.containsKey(key));
+    }
+
+    @Test
+    public void testSiblingFailure() throws Exception {
+        encoder = new MetaTileEncoder(cache, 2);
+        MetaTileKey key = key();
+        byte[] tile = encoder.encode(key, 0, new WidthEncoder(3), tiles(), null);
+        assertArrayEquals(new byte[] { 1 }, tile);
+        waitEncoded();
+        assertNull(cache.tileCache.getIfPresent(key));
+    }
+
+    @Test
+    public void testRequestedFailure() throws Exception {
+        encoder = new MetaTileEncoder(cache, 2);
+        MetaTileKey key = key();
+        try {
+            encoder.encode(key, 2, new WidthEncoder(3), tiles(), null);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        waitEncoded();
+        assertNull(cache.tileCache.getIfPresent(key));
+    }
+}
@@ -8,10 +8,27 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
 
 public class QuickTileCacheTest {
     QuickTileCache cache = new QuickTileCache();
@@ -57,4 +74,95 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    @Test
+    public void testStoreEncodedTiles() {
+        MetaTileKey key = key("layers=topp:states", 0, 0);
+        GetMapRequest request = new GetMapRequest();
+        request.setBbox(new Envelope(10, 20, 0, 10));
+        request.setCrs(DefaultGeographicCRS.WGS84);
+
+        assertNull(cache.getTile(key, request));
+        cache.storeTiles(key, tiles(100));
+        assertEquals(1, cache.getTileIndex(key, request));
+        assertArrayEquals(new byte[] { 1 }, Arrays.copyOf(cache.getTile(key, request), 1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(9 * (100 + QuickTileCache.TILE_OVERHEAD), cache.getBytes());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        long maxBytes = 100 * 1024;
+        cache = new QuickTileCache(maxBytes);
+        for (int i = 0; i < 100; i++) {
+            cache.storeTiles(key("layers=topp:states", i * 3, 0), tiles(1024));
+        }
+        assertTrue(cache.getBytes() <= maxBytes);
+        assertTrue(cache.getEvictionCount() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        cache = new QuickTileCache(0);
+        assertFalse(cache.isEnabled());
+        MetaTileKey key = key("layers=topp:states", 0, 0);
+        cache.storeTiles(key, tiles(100));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testTransactionInvalidation() throws Exception {
+        QName states = new QName("http://www.openplans.org/topp", "states");
+        QName roads = new QName("http://www.openplans.org/topp", "roads");
+        MetaTileKey k00 = key("layers=topp:states", 0, 0);
+        k00.layers = Collections.singleton(states);
+        MetaTileKey k30 = key("layers=topp:states", 3, 0);
+        k30.layers = Collections.singleton(states);
+        MetaTileKey far = key("layers=topp:states", 12, 0);
+        far.layers = Collections.singleton(states);
+        cache.storeTiles(k00, tiles(10));
+        cache.storeTiles(k30, tiles(10));
+        cache.storeTiles(far, tiles(10));
+
+        // another layer, nothing happens
+        cache.dataStoreChange(event(roads, 5, 5));
+        assertEquals(3, cache.getSize());
+
+        // a point in the first meta tile, close to the second
+        cache.dataStoreChange(event(states, 29, 5));
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.tileCache.asMap().containsKey(far));
+    }
+
+    MetaTileKey key(String definition, int x, int y) {
+        QuickTileCache.MapKey mapKey = new QuickTileCache.MapKey(definition, 10,
+                new Point2D.Double(0, 0));
+        ReferencedEnvelope envelope = new ReferencedEnvelope(x * 10, x * 10 + 30, y * 10,
+                y * 10 + 30, DefaultGeographicCRS.WGS84);
+        return new MetaTileKey(mapKey, new Point(x, y), envelope);
+    }
+
+    byte[][] tiles(int size) {
+        byte[][] tiles = new byte[9][];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new byte[size];
+            tiles[i][0] = (byte) i;
+        }
+        return tiles;
+    }
+
+    TransactionEvent event(QName layer, double x, double y) throws Exception {
+        SimpleFeatureType type = SimpleFeatureTypeBuilder.retype(
+                DataUtilities.createType(layer.getLocalPart(), "the_geom:Point"),
+                DefaultGeographicCRS.WGS84);
+        SimpleFeature feature = SimpleFeatureBuilder.build(type,
+                new Object[] { new GeometryFactory().createPoint(new Coordinate(x, y)) }, null);
+        return new TransactionEvent(TransactionEventType.POST_INSERT, null, layer,
+                DataUtilities.collection(feature));
+    }
 }
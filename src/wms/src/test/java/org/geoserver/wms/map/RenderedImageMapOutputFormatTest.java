@@ -5,32 +5,52 @@
 package org.geoserver.wms.map;
 
 import static org.geoserver.data.test.SystemTestData.STREAMS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.wms.CachedGridReaderLayer;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -39,7 +59,11 @@ import org.geotools.feature.IllegalAttributeException;
 import org.geotools.filter.IllegalFilterException;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
+import org.geotools.map.MapContent;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.GTRenderer;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.junit.After;
@@ -213,6 +237,262 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testDefaultStyle " + typeName, (BufferedImage) image);
     }
 
+    @Test
+    public void testDirectRasterPathKeepsCoverages() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(MockData.TASMANIA_DEM.getNamespaceURI(),
+                MockData.TASMANIA_DEM.getLocalPart());
+        AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) ci
+                .getGridCoverageReader(null, null);
+
+        GetMapRequest request = new GetMapRequest();
+        final WMSMapContent map = new WMSMapContent();
+        map.getViewport().setBounds(ci.getNativeBoundingBox());
+        map.setMapWidth(100);
+        map.setMapHeight(100);
+        map.setRequest(request);
+        Style style = getCatalog().getStyleByName(StyleInfo.DEFAULT_RASTER).getStyle();
+        map.addLayer(new CachedGridReaderLayer(reader, style));
+
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        try {
+            assertNotNull(imageMap.getImage());
+            // the coverages read on the direct path are handed over for disposal after encoding
+            assertFalse(imageMap.getRenderedCoverages().isEmpty());
+        } finally {
+            imageMap.dispose();
+        }
+    }
+
+    @Test
+    public void testDirectRasterPathFallback() throws Exception {
+        // a vector layer with a raster style, the direct path cannot handle it
+        final FeatureSource fs = getCatalog().getFeatureTypeByName(
+                MockData.BASIC_POLYGONS.getNamespaceURI(), MockData.BASIC_POLYGONS.getLocalPart())
+                .getFeatureSource(null, null);
+
+        GetMapRequest request = new GetMapRequest();
+        final WMSMapContent map = new WMSMapContent();
+        map.getViewport().setBounds(new ReferencedEnvelope(fs.getBounds(),
+                DefaultGeographicCRS.WGS84));
+        map.setMapWidth(100);
+        map.setMapHeight(100);
+        map.setRequest(request);
+        Style style = getCatalog().getStyleByName(StyleInfo.DEFAULT_RASTER).getStyle();
+        map.addLayer(new FeatureLayer(fs, style));
+
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        try {
+            assertNotNull(imageMap.getImage());
+            assertTrue(imageMap.getRenderedCoverages().isEmpty());
+        } finally {
+            imageMap.dispose();
+        }
+    }
+
+    @Test
+    public void testFastPathUnsupported() throws Exception {
+        // failures the normal rendering path might not have, we fall back on it
+        assertTrue(RenderedImageMapOutputFormat.isFastPathUnsupported(new IOException(
+                new FactoryException("No transformation available"))));
+        assertTrue(RenderedImageMapOutputFormat.isFastPathUnsupported(new ServiceException(
+                new TransformException("Cannot transform"))));
+        assertTrue(RenderedImageMapOutputFormat
+                .isFastPathUnsupported(new UnsupportedOperationException()));
+        // actual errors are reported instead
+        assertFalse(RenderedImageMapOutputFormat.isFastPathUnsupported(new IOException(
+                "Could not read the coverage")));
+    }
+
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        ParallelMapProducer producer = new ParallelMapProducer(getWMS());
+        BufferedImage sequential = renderLayers(producer, false, null);
+        assertEquals(0, producer.parallelRenders);
+        BufferedImage parallel = renderLayers(producer, true, null);
+        assertEquals(1, producer.parallelRenders);
+
+        assertNotBlank("testParallelLayerRendering", parallel);
+        assertEquals(sequential.getWidth(), parallel.getWidth());
+        assertEquals(sequential.getHeight(), parallel.getHeight());
+        for (int y = 0; y < sequential.getHeight(); y++) {
+            for (int x = 0; x < sequential.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y, sequential.getRGB(x, y),
+                        parallel.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelLayerRenderingPalette() throws Exception {
+        ParallelMapProducer producer = new ParallelMapProducer(getWMS());
+        IndexColorModel palette = (IndexColorModel) new BufferedImage(1, 1,
+                BufferedImage.TYPE_BYTE_INDEXED).getColorModel();
+        renderLayers(producer, true, palette);
+        assertEquals(0, producer.parallelRenders);
+    }
+
+    @Test
+    public void testParallelLayerRenderingMemoryLimit() throws Exception {
+        WMSInfo wms = getGeoServer().getService(WMSInfo.class);
+        int maxMemory = wms.getMaxRequestMemory();
+        // enough for the map, but not for a surface per layer
+        wms.setMaxRequestMemory(1000);
+        getGeoServer().save(wms);
+        try {
+            ParallelMapProducer producer = new ParallelMapProducer(getWMS());
+            assertNotBlank("testParallelLayerRenderingMemoryLimit",
+                    renderLayers(producer, true, null));
+            assertEquals(0, producer.parallelRenders);
+        } finally {
+            wms = getGeoServer().getService(WMSInfo.class);
+            wms.setMaxRequestMemory(maxMemory);
+            getGeoServer().save(wms);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testParallelLayerRenderingFailure() throws Exception {
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(getMapFormat());
+        WMSMapContent map = new WMSMapContent();
+        map.setRequest(request);
+        map.setMapWidth(100);
+        map.setMapHeight(100);
+        map.getViewport().setBounds(new ReferencedEnvelope(-180, 180, -90, 90,
+                DefaultGeographicCRS.WGS84));
+        addToMap(map, MockData.LAKES);
+        final RuntimeException failure = new RuntimeException("fake layer failure");
+        FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(STREAMS.getNamespaceURI(),
+                STREAMS.getLocalPart());
+        DecoratingFeatureSource source = new DecoratingFeatureSource(
+                (SimpleFeatureSource) ftInfo.getFeatureSource(null, null)) {
+            @Override
+            public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+                throw failure;
+            }
+        };
+        map.addLayer(new FeatureLayer(source, getCatalog().getStyleByName("line").getStyle()));
+        addToMap(map, MockData.PONDS);
+
+        ParallelMapProducer producer = new ParallelMapProducer(getWMS());
+        producer.parallelEnabled = true;
+        try {
+            producer.produceMap(map);
+            fail("Expected a ServiceException");
+        } catch (ServiceException e) {
+            Throwable cause = e;
+            while (cause != null && cause != failure) {
+                cause = cause.getCause();
+            }
+            assertNotNull("The layer failure should be reported", cause);
+        }
+        assertEquals(1, producer.parallelRenders);
+        assertEquals(3, producer.renderers.size());
+        for (RecordingRenderer renderer : producer.renderers) {
+            assertTrue(renderer.stopped);
+        }
+    }
+
+    @Test
+    public void testParallelLayerRenderingInterrupted() throws Exception {
+        final RecordingRenderer renderer = new RecordingRenderer();
+        final AtomicBoolean finished = new AtomicBoolean();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // a render that only ends a while after being stopped
+            Future<Void> future = pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    while (!renderer.stopped) {
+                        Thread.sleep(10);
+                    }
+                    Thread.sleep(200);
+                    finished.set(true);
+                    return null;
+                }
+            });
+            AtomicBoolean stopped = new AtomicBoolean();
+            // the request thread has been interrupted, it still has to wait
+            Thread.currentThread().interrupt();
+            new ParallelMapProducer(getWMS()).stopAndWait(Collections.singletonList(future),
+                    Arrays.<GTRenderer> asList(renderer), stopped);
+            assertTrue(stopped.get());
+            assertTrue(renderer.stopped);
+            assertTrue(finished.get());
+        } finally {
+            Thread.interrupted();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxErrorsAcrossRenderers() {
+        RecordingRenderer r1 = new RecordingRenderer();
+        RecordingRenderer r2 = new RecordingRenderer();
+        MaxErrorEnforcer enforcer = new MaxErrorEnforcer(Arrays.asList(r1, r2), 2);
+
+        r1.fireError(new RuntimeException("first"));
+        r2.fireError(new RuntimeException("second"));
+        assertFalse(enforcer.exceedsMaxErrors());
+        assertFalse(r1.stopped || r2.stopped);
+
+        r2.fireError(new RuntimeException("third"));
+        assertTrue(enforcer.exceedsMaxErrors());
+        assertEquals("third", enforcer.getLastException().getMessage());
+        assertTrue(r1.stopped);
+        assertTrue(r2.stopped);
+    }
+
+    /**
+     * Renders a map of several layers without labels nor translucent fills, and without
+     * antialiasing, so that compositing the layers rendered in parallel is exact
+     */
+    private BufferedImage renderLayers(ParallelMapProducer producer, boolean parallel,
+            IndexColorModel palette) throws Exception {
+        FeatureTypeInfo typeInfo = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        Envelope env = typeInfo.getFeatureSource(null, null).getBounds();
+        double shift = env.getWidth() / 6;
+        env = new Envelope(env.getMinX() - shift, env.getMaxX() + shift, env.getMinY() - shift,
+                env.getMaxY() + shift);
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(getMapFormat());
+        request.getFormatOptions().put("antialias", "none");
+        WMSMapContent map = new WMSMapContent();
+        map.setRequest(request);
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.setBgColor(Color.WHITE);
+        map.setTransparent(false);
+        map.setPalette(palette);
+        addToMap(map, MockData.LAKES);
+        addToMap(map, MockData.PONDS);
+        addToMap(map, MockData.STREAMS);
+        addToMap(map, MockData.ROAD_SEGMENTS);
+        addToMap(map, MockData.BUILDINGS);
+        addToMap(map, MockData.DIVIDED_ROUTES);
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+
+        producer.parallelEnabled = parallel;
+        producer.parallelRenders = 0;
+        producer.renderers.clear();
+        RenderedImageMap imageMap = producer.produceMap(map);
+        try {
+            RenderedImage image = imageMap.getImage();
+            BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(),
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = copy.createGraphics();
+            g.drawRenderedImage(image, new AffineTransform());
+            g.dispose();
+            return copy;
+        } finally {
+            imageMap.dispose();
+        }
+    }
+
     /**
      * Checks {@link RenderedImageMapOutputFormat} makes good use of {@link RenderExceptionStrategy}
      */
@@ -314,4 +594,73 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         }
     }
 
+    /**
+     * Producer that can switch parallel layer rendering on and off, and keeps track of the
+     * renderers it creates and of the maps rendered in parallel
+     */
+    private static class ParallelMapProducer extends DummyRasterMapProducer {
+
+        boolean parallelEnabled;
+
+        int parallelRenders;
+
+        List<RecordingRenderer> renderers = new CopyOnWriteArrayList<RecordingRenderer>();
+
+        public ParallelMapProducer(WMS wms) {
+            super(wms);
+        }
+
+        @Override
+        protected boolean isParallelLayerRenderingEnabled() {
+            return parallelEnabled;
+        }
+
+        @Override
+        GTRenderer createRenderer(MapContent mapContent, RenderingHints hints,
+                Map<Object, Object> rendererParams, ExecutorService pool) {
+            RecordingRenderer renderer = new RecordingRenderer();
+            renderer.setThreadPool(pool);
+            renderer.setMapContent(mapContent);
+            renderer.setJava2DHints(hints);
+            renderer.setRendererHints(rendererParams);
+            renderers.add(renderer);
+            return renderer;
+        }
+
+        @Override
+        Exception renderParallel(ExecutorService pool, List<GTRenderer> layerRenderers,
+                List<Graphics2D> graphics, Rectangle paintArea, WMSMapContent mapContent) {
+            parallelRenders++;
+            return super.renderParallel(pool, layerRenderers, graphics, paintArea, mapContent);
+        }
+    }
+
+    /**
+     * Renderer remembering whether it has been stopped, and allowing to fake rendering errors
+     */
+    private static class RecordingRenderer extends StreamingRenderer {
+
+        volatile boolean stopped;
+
+        List<RenderListener> listeners = new CopyOnWriteArrayList<RenderListener>();
+
+        @Override
+        public void addRenderListener(RenderListener listener) {
+            super.addRenderListener(listener);
+            listeners.add(listener);
+        }
+
+        @Override
+        public void stopRendering() {
+            stopped = true;
+            super.stopRendering();
+        }
+
+        void fireError(Exception e) {
+            for (RenderListener listener : listeners) {
+                listener.errorOccurred(e);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,78 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+
+import org.geoserver.ows.ClientConnectionProbe;
+import org.geoserver.ows.Request;
+import org.geotools.renderer.GTRenderer;
+import org.junit.Test;
+
+public class RenderingTimeoutEnforcerTest {
+
+    Graphics2D graphics() {
+        return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        GTRenderer renderer = createMock(GTRenderer.class);
+        renderer.stopRendering();
+        expectLastCall().once();
+        replay(renderer);
+
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(50, renderer, graphics());
+        enforcer.start();
+        Thread.sleep(500);
+        enforcer.stop();
+        assertTrue(enforcer.isTimedOut());
+        assertFalse(enforcer.isAborted());
+        verify(renderer);
+    }
+
+    @Test
+    public void testStopBeforeTimeout() throws Exception {
+        GTRenderer renderer = createMock(GTRenderer.class);
+        replay(renderer);
+
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(200, renderer,
+                graphics());
+        enforcer.start();
+        enforcer.stop();
+        Thread.sleep(400);
+        assertFalse(enforcer.isTimedOut());
+        verify(renderer);
+    }
+
+    @Test
+    public void testClientGone() throws Exception {
+        GTRenderer renderer = createMock(GTRenderer.class);
+        renderer.stopRendering();
+        expectLastCall().once();
+        replay(renderer);
+
+        final Request request = new Request();
+        ClientConnectionProbe probe = createMock(ClientConnectionProbe.class);
+        expect(probe.isClosed(request)).andReturn(false).once().andReturn(true).once();
+        replay(probe);
+
+        // no timeout, only the client checks
+        RenderingTimeoutEnforcer enforcer = new RenderingTimeoutEnforcer(0, renderer, graphics());
+        enforcer.request = request;
+        enforcer.probes = Collections.singletonList(probe);
+        enforcer.start();
+        Thread.sleep(RenderingTimeoutEnforcer.CLIENT_CHECK_INTERVAL * 3);
+        enforcer.stop();
+        assertTrue(enforcer.isAborted());
+        assertFalse(enforcer.isTimedOut());
+        verify(renderer, probe);
+    }
+}
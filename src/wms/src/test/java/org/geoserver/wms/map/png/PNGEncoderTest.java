@@ -0,0 +1,180 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.FormatDescriptor;
+import javax.media.jai.operator.TranslateDescriptor;
+
+import org.geoserver.wms.RenderingThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+public class PNGEncoderTest {
+
+    RenderingThreadPool pool = new RenderingThreadPool("test", 4, 16);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    BufferedImage paint(BufferedImage image) {
+        Random random = new Random(0);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < 50; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256)));
+            g.fillOval(random.nextInt(image.getWidth()), random.nextInt(image.getHeight()),
+                    random.nextInt(image.getWidth()), random.nextInt(image.getHeight()));
+        }
+        g.dispose();
+        return image;
+    }
+
+    BufferedImage indexed(int bits) {
+        int size = 1 << bits;
+        byte[] reds = new byte[size];
+        byte[] greens = new byte[size];
+        byte[] blues = new byte[size];
+        byte[] alphas = new byte[size];
+        for (int i = 0; i < size; i++) {
+            reds[i] = (byte) (i * 7);
+            greens[i] = (byte) (i * 13);
+            blues[i] = (byte) (i * 29);
+            alphas[i] = (byte) (i % 2 == 0 ? 255 : i);
+        }
+        IndexColorModel icm = new IndexColorModel(bits, size, reds, greens, blues, alphas);
+        int type = bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY;
+        return paint(new BufferedImage(203, 117, type, icm));
+    }
+
+    void assertRoundTrip(BufferedImage image) throws Exception {
+        // sequential, parallel and parallel filtering only, with many small strips
+        assertRoundTrip(image, new PNGEncoder(null, 6, 1000));
+        assertRoundTrip(image, new PNGEncoder(pool, 6, 1000));
+        PNGEncoder encoder = new PNGEncoder(pool, 6, 1000);
+        encoder.parallelDeflate = false;
+        assertRoundTrip(image, encoder);
+        // no compression
+        assertRoundTrip(image, new PNGEncoder(pool, 0, 1000));
+    }
+
+    void assertRoundTrip(RenderedImage image) throws Exception {
+        assertRoundTrip(image, new PNGEncoder(null, 6, 1000));
+        assertRoundTrip(image, new PNGEncoder(pool, 6, 1000));
+    }
+
+    void assertRoundTrip(RenderedImage source, PNGEncoder encoder) throws Exception {
+        assertTrue(PNGEncoder.isSupported(source));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        encoder.encode(source, bos);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        // the expected pixels, moved to the origin
+        BufferedImage image = source instanceof BufferedImage ? (BufferedImage) source
+                : PlanarImage.wrapRenderedImage(source).getAsBufferedImage();
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int expected = image.getRGB(x, y);
+                int actual = read.getRGB(x, y);
+                if ((expected >>> 24) != 0 || (actual >>> 24) != 0) {
+                    assertEquals("Pixel " + x + "," + y, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(203, 117, BufferedImage.TYPE_4BYTE_ABGR)));
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(203, 117, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+
+    @Test
+    public void testPackedARGB() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(203, 117, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(paint(new BufferedImage(203, 117, BufferedImage.TYPE_BYTE_GRAY)));
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        assertRoundTrip(indexed(8));
+    }
+
+    @Test
+    public void testPalettedSubByte() throws Exception {
+        assertRoundTrip(indexed(1));
+        assertRoundTrip(indexed(2));
+        assertRoundTrip(indexed(4));
+    }
+
+    @Test
+    public void testTiledTranslated() throws Exception {
+        // read through getData, with tiles not aligned to the strips and a non zero origin
+        ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(64);
+        layout.setTileHeight(32);
+        RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+        RenderedOp tiled = FormatDescriptor.create(paint(new BufferedImage(203, 117,
+                BufferedImage.TYPE_4BYTE_ABGR)), DataBuffer.TYPE_BYTE, hints);
+        RenderedOp translated = TranslateDescriptor.create(tiled, 10f, 20f, null, null);
+        assertEquals(10, translated.getMinX());
+        assertEquals(20, translated.getMinY());
+        assertTrue(translated.getNumXTiles() > 1);
+        assertTrue(translated.getNumYTiles() > 1);
+
+        assertRoundTrip(translated);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_GRAY)));
+    }
+
+    @Test
+    public void testCombineAdler32() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 full = new Adler32();
+        full.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 30000);
+        Adler32 second = new Adler32();
+        second.update(data, 30000, 70000);
+        assertEquals(full.getValue(), PNGEncoder.combineAdler32(first.getValue(), second
+                .getValue(), 70000));
+    }
+}
@@ -12,6 +12,8 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.TiledImage;
 
@@ -133,4 +135,44 @@ public class ColorIndexerTest {
         // make sure we have 4 colors + transparent one
         assertEquals(5, icm.getMapSize());
     }
+
+    @Test
+    public void testLRUConcurrentLookups() throws Exception {
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            reds[i] = (byte) i;
+            greens[i] = (byte) (i * 7);
+            blues[i] = (byte) (i * 13);
+        }
+        IndexColorModel icm = new IndexColorModel(8, 256, reds, greens, blues);
+        final SimpleColorIndexer reference = new SimpleColorIndexer(icm);
+        // a small cache, so that lookups and evictions run concurrently
+        final LRUColorIndexer indexer = new LRUColorIndexer(icm, 64);
+
+        final AtomicInteger mismatches = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        int r = random.nextInt(256);
+                        int g = random.nextInt(256);
+                        int b = random.nextInt(256);
+                        if (indexer.getClosestIndex(r, g, b, 255) != reference.getClosestIndex(
+                                r, g, b, 255)) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+    }
 }
@@ -0,0 +1,84 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.geoserver.wms.RenderingThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+public class PackedHistogramTest {
+
+    RenderingThreadPool pool = new RenderingThreadPool("test", 4, 16);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    Map<Integer, Long> toMap(PackedHistogram histogram) {
+        Map<Integer, Long> result = new HashMap<Integer, Long>();
+        for (int i = 0; i < histogram.size(); i++) {
+            result.put(histogram.getPackedColor(i), histogram.getCount(i));
+        }
+        return result;
+    }
+
+    void assertSameHistogram(BufferedImage image) {
+        PackedHistogram sequential = new PackedHistogram(image, 1, 1);
+        PackedHistogram parallel = new PackedHistogram(image, 1, 1, pool, 4);
+        assertEquals(sequential.getShift(), parallel.getShift());
+        assertEquals((long) image.getWidth() * image.getHeight(), parallel.pixelCount());
+        assertEquals(toMap(sequential), toMap(parallel));
+    }
+
+    @Test
+    public void testParallelFewColors() {
+        BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256)));
+            g.fillRect(random.nextInt(512), random.nextInt(512), 64, 64);
+        }
+        g.dispose();
+
+        assertSameHistogram(image);
+    }
+
+    @Test
+    public void testParallelShifted() {
+        // noise, way more colors than the histogram can hold without shifting
+        BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        PackedHistogram parallel = new PackedHistogram(image, 1, 1, pool, 4);
+        assertTrue(parallel.getShift() > 0);
+        assertSameHistogram(image);
+    }
+
+    @Test
+    public void testSmallImageSequential() {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        PackedHistogram histogram = new PackedHistogram(image, 1, 1, pool, 4);
+        assertEquals(1, histogram.size());
+        assertEquals(100, histogram.getCount(0));
+        assertEquals(0, pool.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PaletteCacheTest {
+
+    BufferedImage paint(Color... colors) {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < colors.length; i++) {
+            g.setColor(colors[i]);
+            g.fillRect(0, i * 100 / colors.length, 100, 100 / colors.length + 1);
+        }
+        g.dispose();
+        return image;
+    }
+
+    @Test
+    public void testReuse() {
+        PaletteCache cache = new PaletteCache(10, 8);
+        List<Object> key = Arrays.<Object> asList("states", "population");
+        BufferedImage image = paint(Color.RED, Color.GREEN, Color.BLUE);
+        assertNull(cache.getColorIndexer(key, image));
+        assertEquals(1, cache.getMisses());
+        cache.put(key, new Quantizer(256).buildColorIndexer(image));
+
+        // same colors, different layout
+        ColorIndexer indexer = cache.getColorIndexer(key, paint(Color.BLUE, Color.RED));
+        assertNotNull(indexer);
+        assertEquals(1, cache.getHits());
+        assertTrue(indexer.getClosestIndex(255, 0, 0, 255) != indexer.getClosestIndex(0, 0,
+                255, 255));
+
+        // other key
+        assertNull(cache.getColorIndexer(Arrays.<Object> asList("states", "pophatch"), image));
+    }
+
+    @Test
+    public void testRejectDifferentColors() {
+        PaletteCache cache = new PaletteCache(10, 8);
+        List<Object> key = Arrays.<Object> asList("states", "population");
+        cache.put(key, new Quantizer(256).buildColorIndexer(paint(Color.RED, Color.GREEN)));
+
+        assertNull(cache.getColorIndexer(key, paint(Color.BLUE, Color.YELLOW)));
+        assertEquals(1, cache.getRejections());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testRejectSmallFeature() {
+        PaletteCache cache = new PaletteCache(10, 8);
+        List<Object> key = Arrays.<Object> asList("states", "population");
+        cache.put(key, new Quantizer(256).buildColorIndexer(paint(Color.RED, Color.GREEN)));
+
+        // a small feature in a color missing from the palette barely affects the average error
+        BufferedImage image = paint(Color.RED, Color.GREEN);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.MAGENTA);
+        g.fillRect(40, 20, 6, 6);
+        g.dispose();
+
+        assertNull(cache.getColorIndexer(key, image));
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void testDisabled() {
+        PaletteCache cache = new PaletteCache(0, 8);
+        BufferedImage image = paint(Color.RED);
+        cache.put("key", new Quantizer(256).buildColorIndexer(image));
+        assertNull(cache.getColorIndexer("key", image));
+    }
+}